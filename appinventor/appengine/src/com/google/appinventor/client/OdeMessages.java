@@ -1666,6 +1666,12 @@ public interface OdeMessages extends Messages {
   @Description("Error shown after validation of integer failed.")
   String notAnInteger(String nonNumericText);
 
+  // Used in widgets/properties/PositiveIntegerPropertyEditor.java
+
+  @DefaultMessage("{0} is not a positive integer")
+  @Description("Error shown after validation of positive integer failed.")
+  String notAPositiveInteger(String text);
+
   // Used in widgets/properties/TextPropertyEditor.java
 
   @DefaultMessage("Malformed input!")
@@ -3239,6 +3245,18 @@ public interface OdeMessages extends Messages {
   @Description("")
   String SensitivityProperties();
 
+  @DefaultMessage("SampleRate")
+  @Description("")
+  String SampleRateProperties();
+
+  @DefaultMessage("AveragingWindow")
+  @Description("")
+  String AveragingWindowProperties();
+
+  @DefaultMessage("BatchSize")
+  @Description("")
+  String BatchSizeProperties();
+
   @DefaultMessage("TwitPic_API_Key")
   @Description("")
   String TwitPic_API_KeyProperties();
@@ -3636,6 +3654,10 @@ public interface OdeMessages extends Messages {
   @Description("")
   String xAccelParams();
 
+  @DefaultMessage("samples")
+  @Description("")
+  String samplesParams();
+
   @DefaultMessage("yAccel")
   @Description("")
   String yAccelParams();
@@ -4753,6 +4775,10 @@ public interface OdeMessages extends Messages {
   @Description("")
   String GyroscopeChangedEvents();
 
+  @DefaultMessage("SamplesReceived")
+  @Description("")
+  String SamplesReceivedEvents();
+
   @DefaultMessage("TachoCountChanged")
   @Description("")
   String TachoCountChangedEvents();
@@ -17,6 +17,9 @@ import com.google.appinventor.client.explorer.project.Project;
 import com.google.appinventor.client.output.OdeLog;
 import com.google.appinventor.client.settings.project.ProjectSettings;
 import com.google.appinventor.shared.rpc.BlocksTruncatedException;
+import com.google.appinventor.shared.rpc.project.ChecksumedFileException;
+import com.google.appinventor.shared.rpc.project.ChecksumedLoadFile;
+import com.google.appinventor.shared.rpc.project.FileContentPatch;
 import com.google.appinventor.shared.rpc.project.FileDescriptorWithContent;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
 import com.google.common.collect.Maps;
@@ -63,6 +66,24 @@ public final class EditorManager {
     long projectId;
   }
 
+  // Files smaller than this (in characters) are always saved whole.
+  private static final int MIN_PATCH_FILE_SIZE = 4096;
+
+  // The content of a file as the server last saved it, and its checksum.
+  private static class SavedContent {
+    final String content;
+    final String checksum;
+
+    SavedContent(String content, String checksum) {
+      this.content = content;
+      this.checksum = checksum;
+    }
+  }
+
+  // The last saved content of large files, by project ID and file ID, so that
+  // later saves of these files only send what changed.
+  private final Map<Long, Map<String, SavedContent>> savedContents;
+
   /**
    * Creates the editor manager.
    */
@@ -71,6 +92,7 @@ public final class EditorManager {
 
     dirtyProjectSettings = new HashSet<ProjectSettings>();
     dirtyFileEditors = new HashSet<FileEditor>();
+    savedContents = Maps.newHashMap();
 
     autoSaveTimer = new Timer() {
       @Override
@@ -148,6 +170,7 @@ public final class EditorManager {
         if (fileEditor != null) {
           dirtyFileEditors.remove(fileEditor);
         }
+        forgetSavedContent(projectId, fileId);
       }
       projectEditor.closeFileEditors(fileIds);
     }
@@ -167,6 +190,7 @@ public final class EditorManager {
     ProjectSettings projectSettings = project.getSettings();
     dirtyProjectSettings.remove(projectSettings);
     openProjectEditors.remove(projectId);
+    savedContents.remove(projectId);
   }
 
   /**
@@ -386,10 +410,17 @@ public final class EditorManager {
         final long projectId = fileDescriptor.getProjectId();
         final String fileId = fileDescriptor.getFileId();
         final String content = fileDescriptor.getContent();
-        Ode.getInstance().getProjectService().save2(Ode.getInstance().getSessionId(),
-          projectId, fileId, false, content, new OdeAsyncCallback<Long>(MESSAGES.saveErrorMultipleFiles()) {
+        final String checksum = computeChecksum(content);
+        final SavedContent savedContent = getSavedContent(projectId, fileId);
+        OdeAsyncCallback<Long> callback =
+            new OdeAsyncCallback<Long>(MESSAGES.saveErrorMultipleFiles()) {
             @Override
             public void onSuccess(Long date) {
+              if (checksum != null) {
+                setSavedContent(projectId, fileId, new SavedContent(content, checksum));
+              } else {
+                forgetSavedContent(projectId, fileId);
+              }
               if (dateHolder.date != 0) {
                 // This sets the project modification time to that of one of
                 // the successful file saves. It doesn't really matter which
@@ -406,15 +437,67 @@ public final class EditorManager {
             }
             @Override
             public void onFailure(Throwable caught) {
+              forgetSavedContent(projectId, fileId);
               // Here is where we handle BlocksTruncatedException
               if (caught instanceof BlocksTruncatedException) {
                 Ode.getInstance().blocksTruncatedDialog(projectId, fileId, content, this);
+              } else if (caught instanceof ChecksumedFileException) {
+                // The server doesn't have the content the patch was made for, so send all of it.
+                Ode.getInstance().getProjectService().save2(Ode.getInstance().getSessionId(),
+                    projectId, fileId, false, content, this);
               } else {
                 super.onFailure(caught);
               }
             }
-          });
+          };
+        if (checksum != null && savedContent != null) {
+          FileContentPatch patch = FileContentPatch.create(projectId, fileId,
+              savedContent.content, savedContent.checksum, content, checksum);
+          if (patch.getReplacementLength() < content.length() / 2) {
+            Ode.getInstance().getProjectService().savePatch(Ode.getInstance().getSessionId(),
+                patch, callback);
+            continue;
+          }
+        }
+        Ode.getInstance().getProjectService().save2(Ode.getInstance().getSessionId(),
+          projectId, fileId, false, content, callback);
       }
     }
   }
+
+  /*
+   * Returns the checksum of content if it is large enough to be saved with
+   * patches, or null.
+   */
+  private static String computeChecksum(String content) {
+    if (content.length() < MIN_PATCH_FILE_SIZE) {
+      return null;
+    }
+    try {
+      return ChecksumedLoadFile.computeChecksum(content);
+    } catch (ChecksumedFileException e) {
+      return null;
+    }
+  }
+
+  private SavedContent getSavedContent(long projectId, String fileId) {
+    Map<String, SavedContent> projectContents = savedContents.get(projectId);
+    return projectContents == null ? null : projectContents.get(fileId);
+  }
+
+  private void setSavedContent(long projectId, String fileId, SavedContent savedContent) {
+    Map<String, SavedContent> projectContents = savedContents.get(projectId);
+    if (projectContents == null) {
+      projectContents = Maps.newHashMap();
+      savedContents.put(projectId, projectContents);
+    }
+    projectContents.put(fileId, savedContent);
+  }
+
+  private void forgetSavedContent(long projectId, String fileId) {
+    Map<String, SavedContent> projectContents = savedContents.get(projectId);
+    if (projectContents != null) {
+      projectContents.remove(fileId);
+    }
+  }
 }
@@ -190,7 +190,7 @@ public final class YaBlocksEditor extends FileEditor
         super.onFailure(caught);
       }
     };
-    Ode.getInstance().getProjectService().load2(projectId, fileId, callback);
+    Ode.getInstance().getProjectManager().getProject(projectId).loadFile(fileId, callback);
   }
 
   @Override
@@ -222,7 +222,7 @@ public final class YaFormEditor extends SimpleEditor implements FormChangeListen
         super.onFailure(caught);
       }
     };
-    Ode.getInstance().getProjectService().load2(projectId, fileId, callback);
+    Ode.getInstance().getProjectManager().getProject(projectId).loadFile(fileId, callback);
   }
 
   @Override
@@ -570,7 +570,7 @@ public final class YaProjectEditor extends ProjectEditor implements ProjectChang
         super.onFailure(caught);
       }
     };
-    Ode.getInstance().getProjectService().load2(projectId, fileId, callback);
+    project.loadFile(fileId, callback);
   }
 
   /**
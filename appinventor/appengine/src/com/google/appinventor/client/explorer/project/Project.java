@@ -10,12 +10,18 @@ import com.google.appinventor.client.Ode;
 import static com.google.appinventor.client.Ode.MESSAGES;
 import com.google.appinventor.client.OdeAsyncCallback;
 import com.google.appinventor.client.settings.project.ProjectSettings;
+import com.google.appinventor.shared.rpc.project.ChecksumedLoadFile;
 import com.google.appinventor.shared.rpc.project.ProjectNode;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
+import com.google.appinventor.shared.rpc.project.ProjectRootNodeWithContents;
 import com.google.appinventor.shared.rpc.project.UserProject;
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.user.client.rpc.AsyncCallback;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * This class represents a project.
@@ -36,6 +42,10 @@ public final class Project {
   // Project specific settings
   private ProjectSettings settings; // lazily and asynchronously initialized
 
+  // Contents of files that came with the project nodes and haven't been loaded yet, by file ID
+  private final Map<String, ChecksumedLoadFile> prefetchedFiles =
+      new HashMap<String, ChecksumedLoadFile>();
+
   /**
    * Creates a new project.
    *
@@ -60,14 +70,16 @@ public final class Project {
         settings.loadSettings();
       }
 
-      Ode.getInstance().getProjectService().getProject(
+      // The contents of the screens come with the nodes, rather than one request per file.
+      Ode.getInstance().getProjectService().getProject2(
           getProjectId(),
-          new OdeAsyncCallback<ProjectRootNode>(
+          new OdeAsyncCallback<ProjectRootNodeWithContents>(
               // failure message
               MESSAGES.projectLoadError()) {
             @Override
-            public void onSuccess(ProjectRootNode result) {
-              projectRoot = result;
+            public void onSuccess(ProjectRootNodeWithContents result) {
+              projectRoot = result.getRootNode();
+              prefetchedFiles.putAll(result.getFiles());
 
               Ode.CLog("Project.loadProjectNodes(): loadingInProgress = false");
               loadingInProgress = false;
@@ -83,6 +95,29 @@ public final class Project {
     }
   }
 
+  /**
+   * Loads the content of a file of this project. The content that came with
+   * the project nodes is used the first time, and later loads get the file
+   * from the server.
+   *
+   * @param fileId  file ID
+   * @param callback  callback that receives the content
+   */
+  public void loadFile(String fileId, final AsyncCallback<ChecksumedLoadFile> callback) {
+    final ChecksumedLoadFile file = prefetchedFiles.remove(fileId);
+    if (file == null) {
+      Ode.getInstance().getProjectService().load2(getProjectId(), fileId, callback);
+    } else {
+      // Callers expect the callback to run later, as it does after a request.
+      Scheduler.get().scheduleDeferred(new Scheduler.ScheduledCommand() {
+        @Override
+        public void execute() {
+          callback.onSuccess(file);
+        }
+      });
+    }
+  }
+
   /**
    * Returns the id of this project.
    *
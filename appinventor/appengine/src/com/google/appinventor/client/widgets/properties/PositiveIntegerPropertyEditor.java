@@ -0,0 +1,25 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.client.widgets.properties;
+
+import static com.google.appinventor.client.Ode.MESSAGES;
+
+/**
+ * Property editor for positive integer values.
+ *
+ */
+public class PositiveIntegerPropertyEditor extends NonNegativeIntegerPropertyEditor {
+
+  @Override
+  protected void validate(String text) throws InvalidTextException {
+    super.validate(text);
+
+    // Zero is the only non-negative integer that is not positive.
+    if (Integer.parseInt(text) == 0) {
+      throw new InvalidTextException(MESSAGES.notAPositiveInteger(text));
+    }
+  }
+}
@@ -68,6 +68,7 @@ public class AdminInfoServiceImpl extends OdeRemoteServiceServlet implements Adm
       }
     }
     storageIo.storeUser(user);
+    OdeAuthFilter.invalidateUser(user.getId());
   }
 
   @Override
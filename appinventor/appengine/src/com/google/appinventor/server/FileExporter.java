@@ -10,6 +10,8 @@ import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 
@@ -21,6 +23,13 @@ public interface FileExporter {
 
   public static final String REMIX_INFORMATION_FILE_PATH = "youngandroidproject/remix_history";
 
+  /**
+   * The file that lists the assets that were left out of a project zip
+   * because the build server has them, one "&lt;hash&gt; &lt;file name&gt;" line
+   * each. This must match AssetCache.MANIFEST_PATH in the build server.
+   */
+  public static final String CACHED_ASSETS_FILE_PATH = "youngandroidproject/cached_assets";
+
   /**
    * Exports a project output file.
    *
@@ -57,6 +66,32 @@ public interface FileExporter {
     boolean includeScreenShots,
     boolean fatalError, boolean forGallery) throws IOException;
 
+  /**
+   * Writes the project source files as a zip to a stream, without building
+   * the whole zip in memory.
+   *
+   * @param userId the userId
+   * @param projectId the project id belonging to the userId
+   * @param includeProjectHistory indicates whether to include a file
+   *        containing the project's history in the zip
+   * @param includeAndroidKeystore indicates whether to include the user's android.keystore file
+   * @param fatalError set to true to cause missing GCS file to throw exception
+   * @param cachedAssetHashes the hashes of assets to list in
+   *        {@link #CACHED_ASSETS_FILE_PATH} instead of writing them
+   * @param out the stream to write the zip to, which is not closed
+   * @return the number of files in the zip
+   * @throws IllegalArgumentException if download request cannot be fulfilled
+   *         (no source files), in which case nothing has been written
+   * @throws IOException if files cannot be read or written
+   */
+  int writeProjectSourceZip(String userId, long projectId,
+    boolean includeProjectHistory,
+    boolean includeAndroidKeystore,
+    boolean includeYail,
+    boolean includeScreenShots,
+    boolean fatalError, boolean forGallery, Set<String> cachedAssetHashes,
+    OutputStream out) throws IOException;
+
   /**
    * Exports all of the user's projects' source files as a zip of zips.
    *
@@ -0,0 +1,45 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.google.appinventor.server.storage.GalleryStorageIo;
+import com.google.appinventor.server.storage.GalleryStorageIoInstanceHolder;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * GalleryCounterServlet -- Fold the download and like counter shards
+ * of a gallery app back into the app
+ *
+ * This Servlet is called from the task queue manager (part of App
+ * Engine), a few minutes after the downloads or likes of an app
+ * change. Like the BlobUpgradeServlet it is restricted to admin
+ * users only, which the task queue manager always is.
+ *
+ */
+public class GalleryCounterServlet extends OdeServlet {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(GalleryCounterServlet.class.getName());
+  private final GalleryStorageIo galleryStorageIo = GalleryStorageIoInstanceHolder.INSTANCE;
+
+  @Override
+  public void doPost(HttpServletRequest req, HttpServletResponse resp)
+      throws IOException {
+
+    long galleryId;
+    try {
+      galleryId = Long.parseLong(req.getParameter("galleryId"));
+    } catch (NumberFormatException e) {
+      LOG.warning("Bad gallery id: " + req.getParameter("galleryId"));
+      return;                   // Retrying won't help
+    }
+    galleryStorageIo.foldGalleryAppCounters(galleryId);
+  }
+}
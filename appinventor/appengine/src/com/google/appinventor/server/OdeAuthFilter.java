@@ -18,10 +18,15 @@ import com.google.appinventor.shared.rpc.ServerLayout;
 import com.google.appinventor.shared.rpc.user.User;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
 
 import java.io.IOException;
 import java.io.PrintWriter;
 
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
@@ -53,7 +58,7 @@ public class OdeAuthFilter implements Filter {
 
   private static final Logger LOG = Logger.getLogger(OdeAuthFilter.class.getName());
 
-  private static Crypter crypter = null; // accessed through getCrypter only
+  private static volatile Crypter crypter = null; // accessed through getCrypter only
   private static final Object crypterSync = new Object();
 
   private final StorageIo storageIo = StorageIoInstanceHolder.INSTANCE;
@@ -66,6 +71,27 @@ public class OdeAuthFilter implements Filter {
   static final Flag<String> sessionKeyFile = Flag.createFlag("session.keyfile", "WEB-INF/authkey");
   static final Flag<Integer> idleTimeout = Flag.createFlag("session.idletimeout", 120);
   static final Flag<Integer> renewTime = Flag.createFlag("session.renew", 30);
+  static final Flag<Integer> sessionCacheSize = Flag.createFlag("session.cache.size", 1000);
+  static final Flag<Integer> userCacheTime = Flag.createFlag("session.usercache.secs", 10);
+
+  // ODE makes several RPCs a second while a project is open, all with the
+  // same cookie. So we keep the cookies we have decrypted, keyed by a hash of
+  // the cookie, until it is time to renew them. isValid() is still checked on
+  // every request. We also keep the User of each session for a few seconds,
+  // rather than getting it from the StorageIo (and so memcache or the
+  // datastore) every time. Changes to a User on another instance show up here
+  // when it expires, changes on this one call invalidateUser(). Changes to
+  // the read only and admin state come with a new cookie. The session id of
+  // the cached User may be stale, so ProjectServiceImpl checks session ids
+  // against the StorageIo instead.
+  private static final Cache<String, UserInfo> sessionCache = CacheBuilder.newBuilder()
+      .maximumSize(sessionCacheSize.get())
+      .expireAfterWrite(renewTime.get(), TimeUnit.MINUTES)
+      .build();
+  private static final Cache<String, User> userCache = CacheBuilder.newBuilder()
+      .maximumSize(sessionCacheSize.get())
+      .expireAfterWrite(userCacheTime.get(), TimeUnit.SECONDS)
+      .build();
 
   private final LocalUser localUser = LocalUser.getInstance();
   private static final boolean DEBUG = Flag.createFlag("appinventor.debugging", false).get();
@@ -214,7 +240,14 @@ public class OdeAuthFilter implements Filter {
    * that was encrypted in the URL.
    */
   void setUserFromUserId(String userId, boolean isAdmin, boolean isReadOnly) {
-    User user = storageIo.getUser(userId);
+    User cachedUser = userCache.getIfPresent(userId);
+    if (cachedUser == null) {
+      cachedUser = storageIo.getUser(userId);
+      userCache.put(userId, cachedUser);
+    }
+    // The cached User is shared between requests, so each gets a copy to modify
+    User user = cachedUser.copy();
+    user.setPassword(cachedUser.getPassword());
     if (!user.getIsAdmin() && isAdmin) {
       user.setIsAdmin(true);    // If session says they are an admin (which is the case
                                 // if they are a Google Account with Developer access
@@ -236,6 +269,15 @@ public class OdeAuthFilter implements Filter {
     localUser.set(null);
   }
 
+  /**
+   * Forgets the User kept for the given userId, so the next request gets it
+   * from the StorageIo again. Call this after changing a user's terms of
+   * service acceptance, session id or anything else in their User.
+   */
+  public static void invalidateUser(String userId) {
+    userCache.invalidate(userId);
+  }
+
   /* (non-Javadoc)
    * @see javax.servlet.Filter#destroy()
    */
@@ -349,14 +391,25 @@ public class OdeAuthFilter implements Filter {
             if (DEBUG) {
               LOG.info("getUserInfo: rawCookie = " + rawData);
             }
-            Crypter crypter = getCrypter();
-            CookieAuth.cookie cookieToken = CookieAuth.cookie.parseFrom(
-              crypter.decrypt(Base64Coder.decode(rawData)));
+            String cookieHash = Hashing.sha256().hashString(rawData, Charsets.UTF_8).toString();
+            UserInfo session = sessionCache.getIfPresent(cookieHash);
+            if (session == null) {
+              Crypter crypter = getCrypter();
+              CookieAuth.cookie cookieToken = CookieAuth.cookie.parseFrom(
+                crypter.decrypt(Base64Coder.decode(rawData)));
+              session = new UserInfo();
+              session.userId = cookieToken.getUuid();
+              session.ts = cookieToken.getTs();
+              session.isAdmin = cookieToken.getIsAdmin();
+              session.isReadOnly = cookieToken.getIsReadOnly();
+              sessionCache.put(cookieHash, session);
+            }
+            // Callers may modify the UserInfo, so they each get a copy
             UserInfo uInfo = new UserInfo();
-            uInfo.userId = cookieToken.getUuid();
-            uInfo.ts = cookieToken.getTs();
-            uInfo.isAdmin = cookieToken.getIsAdmin();
-            uInfo.isReadOnly = cookieToken.getIsReadOnly();
+            uInfo.userId = session.userId;
+            uInfo.ts = session.ts;
+            uInfo.isAdmin = session.isAdmin;
+            uInfo.isReadOnly = session.isReadOnly;
             if (uInfo.isValid()) {
               return uInfo;
             } else {
@@ -374,13 +427,15 @@ public class OdeAuthFilter implements Filter {
   }
 
   private static Crypter getCrypter() throws KeyczarException {
+    Crypter result = crypter;
+    if (result != null) {       // The common case, no need to lock
+      return result;
+    }
     synchronized(crypterSync) {
-      if (crypter != null) {
-        return crypter;
-      } else {
+      if (crypter == null) {
         crypter = new Crypter(sessionKeyFile.get());
-        return crypter;
       }
+      return crypter;
     }
   }
 }
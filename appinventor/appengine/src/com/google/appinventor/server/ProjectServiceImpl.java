@@ -22,9 +22,11 @@ import com.google.appinventor.shared.rpc.RpcResult;
 import com.google.appinventor.shared.rpc.project.ChecksumedFileException;
 import com.google.appinventor.shared.rpc.project.ChecksumedLoadFile;
 import com.google.appinventor.shared.rpc.project.FileDescriptor;
+import com.google.appinventor.shared.rpc.project.FileContentPatch;
 import com.google.appinventor.shared.rpc.project.FileDescriptorWithContent;
 import com.google.appinventor.shared.rpc.project.NewProjectParameters;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
+import com.google.appinventor.shared.rpc.project.ProjectRootNodeWithContents;
 import com.google.appinventor.shared.rpc.project.ProjectService;
 import com.google.appinventor.shared.rpc.project.TextFile;
 import com.google.appinventor.shared.rpc.project.UserProject;
@@ -258,6 +260,19 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
     return getProjectRpcImpl(userId, projectId).getRootNode(userId, projectId);
   }
 
+  /**
+   * Returns the root node for the given project, together with the contents
+   * of the files that are loaded when the project is opened.
+   * @param projectId  project ID as received by {@link #getProjects()}
+   *
+   * @return  root node of project and file contents
+   */
+  @Override
+  public ProjectRootNodeWithContents getProject2(long projectId) throws ChecksumedFileException {
+    final String userId = userInfoProvider.getUserId();
+    return getProjectRpcImpl(userId, projectId).getRootNodeWithContents(userId, projectId);
+  }
+
   /**
    * Returns a string with the project settings.
    * @param projectId  project ID
@@ -473,6 +488,23 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
         content);
   }
 
+  /**
+   * Saves the content of a file by applying a patch to the content that was
+   * last saved.
+   *
+   * @param sessionId session id
+   * @param patch  the change to the file
+   * @return modification date for project
+   */
+  @Override
+  public long savePatch(String sessionId, FileContentPatch patch) throws InvalidSessionException,
+      BlocksTruncatedException, ChecksumedFileException {
+    validateSessionId(sessionId);
+    final String userId = userInfoProvider.getUserId();
+    long projectId = patch.getProjectId();
+    return getProjectRpcImpl(userId, projectId).savePatch(userId, patch);
+  }
+
   /**
    * Saves the contents of multiple files.
    *
@@ -671,7 +703,10 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
   }
 
   private void validateSessionId(String sessionId) throws InvalidSessionException {
-    String storedSessionId = userInfoProvider.getSessionId();
+    // The User of this request may come from OdeAuthFilter's cache, which
+    // doesn't see a login on another instance until it expires, so get the
+    // session id from the StorageIo.
+    String storedSessionId = storageIo.getUser(userInfoProvider.getUserId()).getSessionId();
     if (DEBUG) {
       if (storedSessionId == null) {
         LOG.info("storedSessionId is null");
@@ -40,6 +40,7 @@ public class TosServlet extends OdeServlet {
       throws IOException {
 
     storageIo.setTosAccepted(LocalUser.getInstance().getUserId());
+    OdeAuthFilter.invalidateUser(LocalUser.getInstance().getUserId());
 
     // Redirect the user to the initialRedirectionUrl (the 'About' page, by default).
     resp.sendRedirect(initialRedirectionUrl.get());
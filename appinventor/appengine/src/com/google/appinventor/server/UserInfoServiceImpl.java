@@ -39,6 +39,7 @@ public class UserInfoServiceImpl extends OdeRemoteServiceServlet implements User
     User user = userInfoProvider.getUser();
     user.setSessionId(sessionId);
     storageIo.setUserSessionId(userInfoProvider.getUserId(), sessionId);
+    OdeAuthFilter.invalidateUser(userInfoProvider.getUserId());
     Flag<String> rendezvousFlag = Flag.createFlag("use.rendezvousserver", "");
     if (!rendezvousFlag.get().equals("")) {
       config.setRendezvousServer(rendezvousFlag.get());
@@ -101,6 +102,7 @@ public class UserInfoServiceImpl extends OdeRemoteServiceServlet implements User
     user.setSessionId(sessionId); // Store local copy
     // Store it in the data store
     storageIo.setUserSessionId(userInfoProvider.getUserId(), sessionId);
+    OdeAuthFilter.invalidateUser(userInfoProvider.getUserId());
     return user;
   }
 
@@ -150,6 +152,7 @@ public class UserInfoServiceImpl extends OdeRemoteServiceServlet implements User
   @Override
   public void storeUserName(String name) {
     storageIo.setUserName(userInfoProvider.getUserId(), name);
+    OdeAuthFilter.invalidateUser(userInfoProvider.getUserId());
   }
 
   /**
@@ -159,6 +162,7 @@ public class UserInfoServiceImpl extends OdeRemoteServiceServlet implements User
   @Override
   public void storeUserLink(String link) {
     storageIo.setUserLink(userInfoProvider.getUserId(), link);
+    OdeAuthFilter.invalidateUser(userInfoProvider.getUserId());
   }
 
   /**
@@ -168,6 +172,7 @@ public class UserInfoServiceImpl extends OdeRemoteServiceServlet implements User
   @Override
   public void storeUserEmailFrequency(int emailFrequency) {
     storageIo.setUserEmailFrequency(userInfoProvider.getUserId(), emailFrequency);
+    OdeAuthFilter.invalidateUser(userInfoProvider.getUserId());
   }
 
   /**
@@ -11,8 +11,11 @@ import com.google.appinventor.shared.rpc.BlocksTruncatedException;
 import com.google.appinventor.shared.rpc.RpcResult;
 import com.google.appinventor.shared.rpc.project.ChecksumedLoadFile;
 import com.google.appinventor.shared.rpc.project.ChecksumedFileException;
+import com.google.appinventor.shared.rpc.project.FileContentPatch;
 import com.google.appinventor.shared.rpc.project.NewProjectParameters;
+import com.google.appinventor.shared.rpc.project.ProjectNode;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
+import com.google.appinventor.shared.rpc.project.ProjectRootNodeWithContents;
 import com.google.appinventor.shared.rpc.project.TextFile;
 import com.google.appinventor.shared.rpc.user.User;
 import com.google.appinventor.shared.storage.StorageUtil;
@@ -23,7 +26,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * The base class for classes that provide project services for a specific
@@ -101,6 +107,55 @@ public abstract class CommonProjectService {
    */
   public abstract ProjectRootNode getRootNode(String userId, long projectId);
 
+  /**
+   * Returns the project root node for the requested project, together with
+   * the contents of the files that are loaded when the project is opened.
+   * The files are read in one batch rather than one request each.
+   *
+   * @param userId the user id
+   * @param projectId  project ID as received by {@link
+   *                   com.google.appinventor.shared.rpc.project.ProjectService#getProjects()}
+   *
+   * @return  root node of project and file contents
+   */
+  public ProjectRootNodeWithContents getRootNodeWithContents(String userId, long projectId)
+      throws ChecksumedFileException {
+    ProjectRootNode rootNode = getRootNode(userId, projectId);
+    List<String> fileIds = new ArrayList<String>();
+    collectFilesLoadedOnOpen(rootNode, fileIds);
+    HashMap<String, ChecksumedLoadFile> files = new HashMap<String, ChecksumedLoadFile>();
+    if (!fileIds.isEmpty()) {
+      Map<String, String> contents = storageIo.downloadFiles(userId, projectId, fileIds,
+          StorageUtil.DEFAULT_CHARSET);
+      for (Map.Entry<String, String> entry : contents.entrySet()) {
+        ChecksumedLoadFile file = new ChecksumedLoadFile();
+        file.setContent(entry.getValue());
+        files.put(entry.getKey(), file);
+      }
+    }
+    return new ProjectRootNodeWithContents(rootNode, files);
+  }
+
+  private void collectFilesLoadedOnOpen(ProjectNode node, List<String> fileIds) {
+    for (ProjectNode child : node.getChildren()) {
+      if (child.getFileId() != null && isLoadedOnOpen(child.getFileId())) {
+        fileIds.add(child.getFileId());
+      }
+      collectFilesLoadedOnOpen(child, fileIds);
+    }
+  }
+
+  /**
+   * Returns whether the client loads the given file when it opens a project,
+   * so that {@link #getRootNodeWithContents} should include it. No files are
+   * included by default.
+   *
+   * @param fileId  the file ID
+   */
+  protected boolean isLoadedOnOpen(String fileId) {
+    return false;
+  }
+
   /**
    * Adds a file to the given project.
    *
@@ -293,6 +348,30 @@ public abstract class CommonProjectService {
     }
   }
 
+  /**
+   * Saves the content of a file by applying a patch to its current content.
+   * As with save2 with force false, an error is thrown if the result is a
+   * trivial blocks file workspace that had previously had contents.
+   *
+   * @param userId the user id
+   * @param patch  the change to the file
+   * @return modification date for project
+   * @throws ChecksumedFileException if the current content is not the one the
+   *         patch was made for
+   */
+  public long savePatch(String userId, FileContentPatch patch) throws BlocksTruncatedException,
+      ChecksumedFileException {
+    long projectId = patch.getProjectId();
+    String fileId = patch.getFileId();
+    String content = storageIo.downloadFile(userId, projectId, fileId,
+        StorageUtil.DEFAULT_CHARSET);
+    String patched = patch.apply(content);
+    if (patched.equals(content)) {
+      return storageIo.getProjectDateModified(userId, projectId);
+    }
+    return save2(userId, projectId, fileId, false, patched);
+  }
+
   /**
    * Saves a screenshot of a current blocks editor. This is called from the client side
    * whenever the user leaves a blocks editor. The data is shipped to us in base64 encoding
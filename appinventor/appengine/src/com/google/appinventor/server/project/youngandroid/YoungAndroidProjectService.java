@@ -49,9 +49,12 @@ import com.google.appinventor.shared.settings.SettingsConstants;
 import com.google.appinventor.shared.storage.StorageUtil;
 import com.google.appinventor.shared.youngandroid.YoungAndroidSourceAnalyzer;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.collect.Maps;
 import com.google.common.io.CharStreams;
+import com.google.common.io.CountingOutputStream;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -60,16 +63,22 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.text.DecimalFormat;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -116,6 +125,10 @@ public final class YoungAndroidProjectService extends CommonProjectService {
   // host[:port] to use for connecting to the build server
   private static final Flag<String> buildServerHost =
       Flag.createFlag("build.server.host", "localhost:9990");
+  // Whether to leave out of the uploaded project the assets that the build server has cached.
+  // The build server must be started with --assetCacheDir for this to save anything.
+  private static final Flag<Boolean> useBuildServerAssetCache =
+      Flag.createFlag("build.server.asset.cache", false);
   // host[:port] to tell build server app host url
   private static final Flag<String> appengineHost =
       Flag.createFlag("appengine.host", "");
@@ -484,6 +497,17 @@ public final class YoungAndroidProjectService extends CommonProjectService {
         primaryColorDark, accentColor));
   }
 
+  @Override
+  protected boolean isLoadedOnOpen(String fileId) {
+    // The form and blocks of each screen, and the descriptors of extensions, as loaded by
+    // YaProjectEditor.
+    if (fileId.startsWith(EXTERNAL_COMPS_FOLDER + '/')) {
+      return fileId.endsWith(".json") && fileId.split("/").length == 4;
+    }
+    return fileId.endsWith(FORM_PROPERTIES_EXTENSION)
+        || fileId.endsWith(BLOCKLY_SOURCE_EXTENSION);
+  }
+
   @Override
   public ProjectRootNode getRootNode(String userId, long projectId) {
     // Create root, assets, and source nodes (they are mocked nodes as they don't really
@@ -656,28 +680,41 @@ public final class YoungAndroidProjectService extends CommonProjectService {
       storageIo.deleteFile(userId, projectId, buildOutputFile);
     }
     URL buildServerUrl = null;
-    ProjectSourceZip zipFile = null;
+    CountingOutputStream zipOutput = null;
     try {
       buildServerUrl = new URL(getBuildServerUrlStr(
           user.getUserEmail(),
           userId,
           projectId,
+          isForCompanion(user, target),
           outputFileDir));
-      HttpURLConnection connection = (HttpURLConnection) buildServerUrl.openConnection();
-      connection.setDoOutput(true);
-      connection.setRequestMethod("POST");
-
-      BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(connection.getOutputStream());
-      FileExporter fileExporter = new FileExporterImpl();
-      zipFile = fileExporter.exportProjectSourceZip(userId, projectId, false,
-          /* includeAndroidKeystore */ true,
-        projectName + ".aia", true, false, true, false);
-      bufferedOutputStream.write(zipFile.getContent());
-      bufferedOutputStream.flush();
-      bufferedOutputStream.close();
-
-      int responseCode = 0;
-      responseCode = connection.getResponseCode();
+      Set<String> cachedAssetHashes = getCachedAssetHashes(userId, projectId);
+      HttpURLConnection connection;
+      int responseCode;
+      while (true) {
+        connection = (HttpURLConnection) buildServerUrl.openConnection();
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        // The size of the zip isn't known until it has been written.
+        connection.setChunkedStreamingMode(0);
+
+        // Send the zip as it is written rather than building it in memory first.
+        zipOutput =
+            new CountingOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+        FileExporter fileExporter = new FileExporterImpl();
+        fileExporter.writeProjectSourceZip(userId, projectId, false,
+            /* includeAndroidKeystore */ true, true, false, true, false, cachedAssetHashes,
+            zipOutput);
+        zipOutput.close();
+
+        responseCode = connection.getResponseCode();
+        if (responseCode != HttpURLConnection.HTTP_PRECON_FAILED || cachedAssetHashes.isEmpty()) {
+          break;
+        }
+        // The build server no longer has some of the assets that were left out, for example
+        // because they were evicted or another build server took the request. Send them all.
+        cachedAssetHashes = Collections.emptySet();
+      }
       if (responseCode != HttpURLConnection.HTTP_OK) {
         // Put the HTTP response code into the RpcResult so the client code in BuildCommand.java
         // can provide an appropriate error message to the user.
@@ -707,6 +744,12 @@ public final class YoungAndroidProjectService extends CommonProjectService {
           // The build server is not compatible with this App Inventor instance. Log this as severe
           // so the owner of the app engine instance will know about it.
           LOG.severe(error);
+        } else if (responseCode == HttpURLConnection.HTTP_UNAVAILABLE) {
+          // The build server's queue is full. It tells us how long it expects to be busy.
+          String retryAfter = connection.getHeaderField("Retry-After");
+          if (retryAfter != null) {
+            error += "\nEstimated wait: " + retryAfter + " seconds.";
+          }
         }
 
         return new RpcResult(responseCode, "", StringUtils.escape(error));
@@ -718,7 +761,7 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     } catch (IOException e) {
       // As of App Engine 1.9.0 we get these when UrlFetch is asked to send too much data
       Throwable wrappedException = e;
-      int zipFileLength = zipFile == null ? -1 : zipFile.getContent().length;
+      long zipFileLength = zipOutput == null ? -1 : zipOutput.getCount();
       if (zipFileLength >= (5 * 1024 * 1024) /* 5 MB */) {
         String lengthMbs = format((zipFileLength * 1.0)/(1024*1024));
         wrappedException = new IllegalArgumentException(
@@ -736,8 +779,8 @@ public final class YoungAndroidProjectService extends CommonProjectService {
       // In particular, we often see RequestTooLargeException (if the zip is too
       // big) and ApiProxyException. There may be others.
       Throwable wrappedException = e;
-      if (e instanceof ApiProxy.RequestTooLargeException && zipFile != null) {
-        int zipFileLength = zipFile.getContent().length;
+      if (e instanceof ApiProxy.RequestTooLargeException && zipOutput != null) {
+        long zipFileLength = zipOutput.getCount();
         if (zipFileLength >= (5 * 1024 * 1024) /* 5 MB */) {
           String lengthMbs = format((zipFileLength * 1.0)/(1024*1024));
           wrappedException = new IllegalArgumentException(
@@ -765,10 +808,12 @@ public final class YoungAndroidProjectService extends CommonProjectService {
   // a little more complicated when we want to get the URL from an App Engine config file or
   // command line argument.
   private String getBuildServerUrlStr(String userName, String userId,
-                                      long projectId, String fileName)
+                                      long projectId, boolean isForCompanion, String fileName)
       throws UnsupportedEncodingException, EncryptionException {
     return "http://" + buildServerHost.get() + "/buildserver/build-all-from-zip-async"
            + "?uname=" + URLEncoder.encode(userName, "UTF-8")
+           + "&projectId=" + projectId
+           + (isForCompanion ? "&isForCompanion=true" : "")
            + (sendGitVersion.get()
                ? "&gitBuildVersion="
                  + URLEncoder.encode(GitBuildId.getVersion(), "UTF-8")
@@ -781,6 +826,15 @@ public final class YoungAndroidProjectService extends CommonProjectService {
                                "UTF-8");
   }
 
+  /*
+   * Indicates whether a build is for the Companion. The build server runs Companion builds ahead
+   * of the queued builds of other users, so only admins may request them.
+   */
+  private static boolean isForCompanion(User user, String target) {
+    return YoungAndroidProjectNode.YOUNG_ANDROID_TARGET_COMPANION.equals(target)
+        && user.getIsAdmin();
+  }
+
   private String getCurrentHost() {
     if (Server.isProductionServer()) {
       if (appengineHost.get()=="") {
@@ -796,6 +850,46 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     }
   }
 
+  /*
+   * Returns the hashes of the project's assets that the build server already has, so that they
+   * can be left out of the project zip. Any error only means that all assets are sent.
+   */
+  private Set<String> getCachedAssetHashes(String userId, long projectId) {
+    if (!useBuildServerAssetCache.get()) {
+      return Collections.emptySet();
+    }
+    Set<String> hashes = storageIo.getProjectAssetHashes(userId, projectId);
+    if (hashes.isEmpty()) {
+      return hashes;
+    }
+    try {
+      URL url = new URL("http://" + buildServerHost.get() + "/buildserver/missing-assets");
+      HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+      connection.setDoOutput(true);
+      connection.setRequestMethod("POST");
+      connection.setRequestProperty("Content-Type", "text/plain; charset=utf-8");
+      Writer writer = new OutputStreamWriter(connection.getOutputStream(), "UTF-8");
+      try {
+        writer.write(Joiner.on('\n').join(hashes));
+      } finally {
+        writer.close();
+      }
+      if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+        // Probably a build server without the missing-assets endpoint.
+        return Collections.emptySet();
+      }
+      String missing = readContent(connection.getInputStream());
+      Set<String> cached = new HashSet<String>(hashes);
+      for (String hash : Splitter.on('\n').omitEmptyStrings().trimResults().split(missing)) {
+        cached.remove(hash);
+      }
+      return cached;
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to ask the build server for its cached assets", e);
+      return Collections.emptySet();
+    }
+  }
+
   /*
    * Reads the UTF-8 content from the given input stream.
    */
@@ -865,7 +959,7 @@ public final class YoungAndroidProjectService extends CommonProjectService {
       ProjectSourceZip zipFile = null;
 
       buildServerUrl = new URL(getBuildServerUrlStr(user.getUserEmail(),
-        userId, projectId, outputFileDir));
+        userId, projectId, isForCompanion(user, target), outputFileDir));
       HttpURLConnection connection = (HttpURLConnection) buildServerUrl.openConnection();
       connection.setDoOutput(true);
       connection.setRequestMethod("POST");
@@ -0,0 +1,651 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appinventor.server.flags.Flag;
+import com.google.appinventor.shared.rpc.AdminInterfaceException;
+import com.google.appinventor.shared.rpc.BlocksTruncatedException;
+import com.google.appinventor.shared.rpc.Motd;
+import com.google.appinventor.shared.rpc.Nonce;
+import com.google.appinventor.shared.rpc.admin.AdminUser;
+import com.google.appinventor.shared.rpc.project.Project;
+import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
+import com.google.appinventor.shared.rpc.project.UserProject;
+import com.google.appinventor.shared.rpc.user.SplashConfig;
+import com.google.appinventor.shared.rpc.user.User;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * A StorageIo that caches the project metadata ODE asks for over and over
+ * while a project is open: the user's project list and each project's name,
+ * settings, source files and modification date. Everything else is passed
+ * straight through to the StorageIo it wraps.
+ *
+ * <p>There are two levels of cache. The first is a size bounded LRU in this
+ * instance, the second is memcache, shared by all instances. Each cached item
+ * is keyed by a version number of its own, which every change to it through
+ * this class increments in memcache. Saving a file, the most frequent change,
+ * moves only the project's modification date to a new version, and its source
+ * files too if the file is new. An instance holds on to
+ * the version numbers it has read for a few seconds, so a change made on
+ * another instance shows up here within that time. A change made on this
+ * instance shows up at once.
+ *
+ * <p>Selected in StorageIoInstanceHolder with the storage.cache flag.
+ *
+ */
+public class CachingStorageIo implements StorageIo {
+  private static final Logger LOG = Logger.getLogger(CachingStorageIo.class.getName());
+
+  private static final Flag<Integer> cacheSize = Flag.createFlag("storage.cache.size", 10000);
+  private static final Flag<Integer> versionSecs = Flag.createFlag("storage.cache.version.secs", 2);
+
+  // How long values stay in memcache. They are never stale (a change makes
+  // new keys), so this only bounds how long unused ones take up space.
+  private static final int MEMCACHE_SECONDS = 60 * 60;
+  // Log the hit rates every this many lookups
+  private static final long STATS_INTERVAL = 10000;
+
+  // The items cached for each project
+  private static final String[] PROJECT_ITEMS = { "settings", "name", "modified", "sources" };
+
+  private final StorageIo delegate;
+  private final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+  private final Cache<String, Object> values;
+  private final Cache<String, Long> versions;
+
+  private final AtomicLong localHits = new AtomicLong();
+  private final AtomicLong memcacheHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  // Loads a value on a miss in both caches
+  private interface Loader<T extends Serializable> {
+    T load();
+  }
+
+  public CachingStorageIo(StorageIo delegate) {
+    this(delegate, cacheSize.get(), versionSecs.get());
+  }
+
+  @VisibleForTesting
+  CachingStorageIo(StorageIo delegate, int cacheSize, int versionSecs) {
+    this.delegate = delegate;
+    values = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+    versions = CacheBuilder.newBuilder().maximumSize(cacheSize)
+        .expireAfterWrite(versionSecs, TimeUnit.SECONDS).build();
+  }
+
+  // --- Cached reads --- //
+
+  @Override
+  public List<Long> getProjects(final String userId) {
+    return new ArrayList<Long>(get(userScope(userId), "projects",
+        new Loader<ArrayList<Long>>() {
+          @Override
+          public ArrayList<Long> load() {
+            return new ArrayList<Long>(delegate.getProjects(userId));
+          }
+        }));
+  }
+
+  @Override
+  public String loadProjectSettings(final String userId, final long projectId) {
+    return get(projectScope(projectId), "settings", new Loader<String>() {
+      @Override
+      public String load() {
+        return delegate.loadProjectSettings(userId, projectId);
+      }
+    });
+  }
+
+  @Override
+  public String getProjectName(final String userId, final long projectId) {
+    return get(projectScope(projectId), "name", new Loader<String>() {
+      @Override
+      public String load() {
+        return delegate.getProjectName(userId, projectId);
+      }
+    });
+  }
+
+  @Override
+  public long getProjectDateModified(final String userId, final long projectId) {
+    return get(projectScope(projectId), "modified", new Loader<Long>() {
+      @Override
+      public Long load() {
+        return delegate.getProjectDateModified(userId, projectId);
+      }
+    });
+  }
+
+  @Override
+  public List<String> getProjectSourceFiles(final String userId, final long projectId) {
+    return new ArrayList<String>(get(projectScope(projectId), "sources",
+        new Loader<ArrayList<String>>() {
+          @Override
+          public ArrayList<String> load() {
+            return new ArrayList<String>(delegate.getProjectSourceFiles(userId, projectId));
+          }
+        }));
+  }
+
+  @Override
+  public void deleteProject(String userId, long projectId) {
+    delegate.deleteProject(userId, projectId);
+    bumpVersion(projectScope(projectId), PROJECT_ITEMS);
+    bumpVersion(userScope(userId), "projects");
+  }
+
+  /**
+   * Returns the hit and miss counts of the caches.
+   */
+  public String getStats() {
+    return "local hits: " + localHits.get() + ", memcache hits: " + memcacheHits.get()
+        + ", misses: " + misses.get();
+  }
+
+  // --- Cache support --- //
+
+  // Returns the value of an item in a user or project scope from the local
+  // cache, memcache or the loader, in that order
+  @SuppressWarnings("unchecked")
+  private <T extends Serializable> T get(String scope, String item, Loader<T> loader) {
+    String name = scope + "." + item;
+    long version = getVersion(name);
+    if (version < 0) {          // Memcache is not available, don't cache
+      return loader.load();
+    }
+    String key = name + "." + version;
+    T value = (T) values.getIfPresent(key);
+    if (value != null) {
+      count(localHits);
+      return value;
+    }
+    value = (T) memcache.get(key);
+    if (value != null) {
+      count(memcacheHits);
+      values.put(key, value);
+      return value;
+    }
+    count(misses);
+    value = loader.load();
+    if (value != null) {
+      memcache.put(key, value, Expiration.byDeltaSeconds(MEMCACHE_SECONDS));
+      values.put(key, value);
+    }
+    return value;
+  }
+
+  // Returns the current version of an item, or -1 if memcache doesn't have it
+  private long getVersion(String name) {
+    Long version = versions.getIfPresent(name);
+    if (version == null) {
+      String key = name + ".version";
+      version = (Long) memcache.get(key);
+      if (version == null) {
+        // Start from the clock so that losing the key from memcache does not
+        // bring back values cached under an earlier version.
+        memcache.put(key, System.currentTimeMillis(), null, SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+        version = (Long) memcache.get(key);
+        if (version == null) {
+          return -1;
+        }
+      }
+      versions.put(name, version);
+    }
+    return version;
+  }
+
+  // Moves items of a scope to new versions, which makes new keys for them.
+  // Call this after the change has been made.
+  private void bumpVersion(String scope, String... items) {
+    for (String item : items) {
+      String name = scope + "." + item;
+      Long version = memcache.increment(name + ".version", 1L, System.currentTimeMillis());
+      if (version != null) {
+        versions.put(name, version);
+      } else {
+        versions.invalidate(name);
+      }
+    }
+  }
+
+  // Saving a file changes the project's modification date, and adds the file
+  // to its source files if it was not one already
+  private void fileSaved(String userId, long projectId, String fileId) {
+    if (getProjectSourceFiles(userId, projectId).contains(fileId)) {
+      bumpVersion(projectScope(projectId), "modified");
+    } else {
+      bumpVersion(projectScope(projectId), "modified", "sources");
+    }
+  }
+
+  private void count(AtomicLong counter) {
+    counter.incrementAndGet();
+    if ((localHits.get() + memcacheHits.get() + misses.get()) % STATS_INTERVAL == 0) {
+      LOG.info("StorageIo cache " + getStats());
+    }
+  }
+
+  private static String userScope(String userId) {
+    return "storage.user." + userId;
+  }
+
+  private static String projectScope(long projectId) {
+    return "storage.project." + projectId;
+  }
+
+  // --- Everything else is passed through --- //
+
+  @Override
+  public User getUser(String userId) {
+    return delegate.getUser(userId);
+  }
+
+  @Override
+  public User getUser(String userId, String email) {
+    return delegate.getUser(userId, email);
+  }
+
+  @Override
+  public User getUserFromEmail(String email) {
+    return delegate.getUserFromEmail(email);
+  }
+
+  @Override
+  public void setUserEmail(String userId, String email) {
+    delegate.setUserEmail(userId, email);
+  }
+
+  @Override
+  public void setTosAccepted(String userId) {
+    delegate.setTosAccepted(userId);
+  }
+
+  @Override
+  public void setUserSessionId(String userId, String sessionId) {
+    delegate.setUserSessionId(userId, sessionId);
+  }
+
+  @Override
+  public void setUserPassword(String userId, String password) {
+    delegate.setUserPassword(userId, password);
+  }
+
+  @Override
+  public String loadSettings(String userId) {
+    return delegate.loadSettings(userId);
+  }
+
+  @Override
+  public void setUserName(String userId, String name) {
+    delegate.setUserName(userId, name);
+  }
+
+  @Override
+  public String getUserName(String userId) {
+    return delegate.getUserName(userId);
+  }
+
+  @Override
+  public String getUserLink(String userId) {
+    return delegate.getUserLink(userId);
+  }
+
+  @Override
+  public void setUserLink(String userId, String link) {
+    delegate.setUserLink(userId, link);
+  }
+
+  @Override
+  public int getUserEmailFrequency(String userId) {
+    return delegate.getUserEmailFrequency(userId);
+  }
+
+  @Override
+  public void setUserEmailFrequency(String userId, int emailFrequency) {
+    delegate.setUserEmailFrequency(userId, emailFrequency);
+  }
+
+  @Override
+  public void storeSettings(String userId, String settings) {
+    delegate.storeSettings(userId, settings);
+  }
+
+  @Override
+  public long createProject(String userId, Project project, String projectSettings) {
+    long result = delegate.createProject(userId, project, projectSettings);
+    bumpVersion(userScope(userId), "projects");
+    return result;
+  }
+
+  @Override
+  public void setProjectGalleryId(String userId, long projectId, long galleryId) {
+    delegate.setProjectGalleryId(userId, projectId, galleryId);
+    bumpVersion(projectScope(projectId), PROJECT_ITEMS);
+  }
+
+  @Override
+  public void setProjectAttributionId(String userId, long projectId, long attributionId) {
+    delegate.setProjectAttributionId(userId, projectId, attributionId);
+    bumpVersion(projectScope(projectId), PROJECT_ITEMS);
+  }
+
+  @Override
+  public void storeProjectSettings(String userId, long projectId, String settings) {
+    delegate.storeProjectSettings(userId, projectId, settings);
+    bumpVersion(projectScope(projectId), PROJECT_ITEMS);
+  }
+
+  @Override
+  public String getProjectType(String userId, long projectId) {
+    return delegate.getProjectType(userId, projectId);
+  }
+
+  @Override
+  public UserProject getUserProject(String userId, long projectId) {
+    return delegate.getUserProject(userId, projectId);
+  }
+
+  @Override
+  public List<UserProject> getUserProjects(String userId, List<Long> projectIds) {
+    return delegate.getUserProjects(userId, projectIds);
+  }
+
+  @Override
+  public String getProjectHistory(String userId, long projectId) {
+    return delegate.getProjectHistory(userId, projectId);
+  }
+
+  @Override
+  public long getProjectDateCreated(String userId, long projectId) {
+    return delegate.getProjectDateCreated(userId, projectId);
+  }
+
+  @Override
+  public void addFilesToUser(String userId, String... fileIds) {
+    delegate.addFilesToUser(userId, fileIds);
+  }
+
+  @Override
+  public List<String> getUserFiles(String userId) {
+    return delegate.getUserFiles(userId);
+  }
+
+  @Override
+  public void uploadUserFile(String userId, String fileId, String content, String encoding) {
+    delegate.uploadUserFile(userId, fileId, content, encoding);
+  }
+
+  @Override
+  public void uploadRawUserFile(String userId, String fileName, byte[] content) {
+    delegate.uploadRawUserFile(userId, fileName, content);
+  }
+
+  @Override
+  public String downloadUserFile(String userId, String fileId, String encoding) {
+    return delegate.downloadUserFile(userId, fileId, encoding);
+  }
+
+  @Override
+  public byte[] downloadRawUserFile(String userId, String fileName) {
+    return delegate.downloadRawUserFile(userId, fileName);
+  }
+
+  @Override
+  public void deleteUserFile(String userId, String fileId) {
+    delegate.deleteUserFile(userId, fileId);
+  }
+
+  @Override
+  public int getMaxJobSizeBytes() {
+    return delegate.getMaxJobSizeBytes();
+  }
+
+  @Override
+  public void addSourceFilesToProject(String userId, long projectId, boolean changeModDate,
+      String... fileIds) {
+    delegate.addSourceFilesToProject(userId, projectId, changeModDate, fileIds);
+    bumpVersion(projectScope(projectId), "modified", "sources");
+  }
+
+  @Override
+  public void addOutputFilesToProject(String userId, long projectId, String... fileIds) {
+    delegate.addOutputFilesToProject(userId, projectId, fileIds);
+  }
+
+  @Override
+  public void removeSourceFilesFromProject(String userId, long projectId, boolean changeModDate,
+      String... fileIds) {
+    delegate.removeSourceFilesFromProject(userId, projectId, changeModDate, fileIds);
+    bumpVersion(projectScope(projectId), "modified", "sources");
+  }
+
+  @Override
+  public void removeOutputFilesFromProject(String userId, long projectId, String... fileIds) {
+    delegate.removeOutputFilesFromProject(userId, projectId, fileIds);
+  }
+
+  @Override
+  public List<String> getProjectOutputFiles(String userId, long projectId) {
+    return delegate.getProjectOutputFiles(userId, projectId);
+  }
+
+  @Override
+  public long getProjectGalleryId(String userId, long projectId) {
+    return delegate.getProjectGalleryId(userId, projectId);
+  }
+
+  @Override
+  public long getProjectAttributionId(long projectId) {
+    return delegate.getProjectAttributionId(projectId);
+  }
+
+  @Override
+  public long uploadFile(long projectId, String fileId, String userId, String content,
+      String encoding) throws BlocksTruncatedException {
+    long result = delegate.uploadFile(projectId, fileId, userId, content, encoding);
+    fileSaved(userId, projectId, fileId);
+    return result;
+  }
+
+  @Override
+  public long uploadFileForce(long projectId, String fileId, String userId, String content,
+      String encoding) {
+    long result = delegate.uploadFileForce(projectId, fileId, userId, content, encoding);
+    fileSaved(userId, projectId, fileId);
+    return result;
+  }
+
+  @Override
+  public long uploadRawFile(long projectId, String fileId, String userId, boolean force,
+      byte[] content) throws BlocksTruncatedException {
+    long result = delegate.uploadRawFile(projectId, fileId, userId, force, content);
+    fileSaved(userId, projectId, fileId);
+    return result;
+  }
+
+  @Override
+  public long uploadRawFileForce(long projectId, String fileId, String userId, byte[] content) {
+    long result = delegate.uploadRawFileForce(projectId, fileId, userId, content);
+    fileSaved(userId, projectId, fileId);
+    return result;
+  }
+
+  @Override
+  public long deleteFile(String userId, long projectId, String fileId) {
+    long result = delegate.deleteFile(userId, projectId, fileId);
+    bumpVersion(projectScope(projectId), "modified", "sources");
+    return result;
+  }
+
+  @Override
+  public String downloadFile(String userId, long projectId, String fileId, String encoding) {
+    return delegate.downloadFile(userId, projectId, fileId, encoding);
+  }
+
+  @Override
+  public Map<String, String> downloadFiles(String userId, long projectId, List<String> fileIds,
+      String encoding) {
+    return delegate.downloadFiles(userId, projectId, fileIds, encoding);
+  }
+
+  @Override
+  public void recordCorruption(String userId, long projectId, String fileId, String message) {
+    delegate.recordCorruption(userId, projectId, fileId, message);
+  }
+
+  @Override
+  public byte[] downloadRawFile(String userId, long projectId, String fileId) {
+    return delegate.downloadRawFile(userId, projectId, fileId);
+  }
+
+  @Override
+  public String uploadTempFile(byte[] content) throws IOException {
+    return delegate.uploadTempFile(content);
+  }
+
+  @Override
+  public InputStream openTempFile(String fileName) throws IOException {
+    return delegate.openTempFile(fileName);
+  }
+
+  @Override
+  public void deleteTempFile(String fileName) throws IOException {
+    delegate.deleteTempFile(fileName);
+  }
+
+  @Override
+  public Motd getCurrentMotd() {
+    return delegate.getCurrentMotd();
+  }
+
+  @Override
+  public ProjectSourceZip exportProjectSourceZip(String userId, long projectId,
+      boolean includeProjectHistory, boolean includeAndroidKeystore, @Nullable String zipName,
+      boolean includeYail, boolean includeScreenShots, boolean forGallery, boolean fatalError)
+      throws IOException {
+    return delegate.exportProjectSourceZip(userId, projectId, includeProjectHistory,
+        includeAndroidKeystore, zipName, includeYail, includeScreenShots, forGallery, fatalError);
+  }
+
+  @Override
+  public int writeProjectSourceZip(String userId, long projectId, boolean includeProjectHistory,
+      boolean includeAndroidKeystore, boolean includeYail, boolean includeScreenShots,
+      boolean forGallery, boolean fatalError, Set<String> cachedAssetHashes, OutputStream out)
+      throws IOException {
+    return delegate.writeProjectSourceZip(userId, projectId, includeProjectHistory,
+        includeAndroidKeystore, includeYail, includeScreenShots, forGallery, fatalError,
+        cachedAssetHashes, out);
+  }
+
+  @Override
+  public Set<String> getProjectAssetHashes(String userId, long projectId) {
+    return delegate.getProjectAssetHashes(userId, projectId);
+  }
+
+  @Override
+  public String findUserByEmail(String email) throws NoSuchElementException {
+    return delegate.findUserByEmail(email);
+  }
+
+  @Override
+  public String findIpAddressByKey(String key) {
+    return delegate.findIpAddressByKey(key);
+  }
+
+  @Override
+  public void storeIpAddressByKey(String key, String ipAddress) {
+    delegate.storeIpAddressByKey(key, ipAddress);
+  }
+
+  @Override
+  public boolean checkWhiteList(String email) {
+    return delegate.checkWhiteList(email);
+  }
+
+  @Override
+  public void storeFeedback(String notes, String foundIn, String faultData, String comments,
+      String datestamp, String email, String projectId) {
+    delegate.storeFeedback(notes, foundIn, faultData, comments, datestamp, email, projectId);
+  }
+
+  @Override
+  public Nonce getNoncebyValue(String nonceValue) {
+    return delegate.getNoncebyValue(nonceValue);
+  }
+
+  @Override
+  public void storeNonce(String nonceValue, String userId, long projectId) {
+    delegate.storeNonce(nonceValue, userId, projectId);
+  }
+
+  @Override
+  public void cleanupNonces() {
+    delegate.cleanupNonces();
+  }
+
+  @Override
+  public void checkUpgrade(String userId) {
+    delegate.checkUpgrade(userId);
+  }
+
+  @Override
+  public void doUpgrade(String userId) {
+    delegate.doUpgrade(userId);
+  }
+
+  @Override
+  public SplashConfig getSplashConfig() {
+    return delegate.getSplashConfig();
+  }
+
+  @Override
+  public StoredData.PWData createPWData(String email) {
+    return delegate.createPWData(email);
+  }
+
+  @Override
+  public StoredData.PWData findPWData(String uid) {
+    return delegate.findPWData(uid);
+  }
+
+  @Override
+  public void cleanuppwdata() {
+    delegate.cleanuppwdata();
+  }
+
+  @Override
+  public List<AdminUser> searchUsers(String partialEmail) {
+    return delegate.searchUsers(partialEmail);
+  }
+
+  @Override
+  public void storeUser(AdminUser user) throws AdminInterfaceException {
+    delegate.storeUser(user);
+  }
+}
@@ -0,0 +1,26 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import javax.persistence.Id;
+
+import com.googlecode.objectify.annotation.Unindexed;
+
+/**
+ * One shard of the download and like counters of a gallery app. Each shard
+ * is its own entity group, so concurrent downloads and likes of the same app
+ * write to different shards instead of contending for its GalleryAppData.
+ * The counts are the changes not yet folded into the GalleryAppData, see
+ * ObjectifyGalleryStorageIo.foldGalleryAppCounters().
+ */
+@Unindexed
+public class GalleryAppCounterShardData {
+  @Id String id;        // "<galleryId>-<shard>"
+  int numDownloads;
+  int numLikes;
+  int unreadDownloads;
+  int unreadLikes;
+}
@@ -200,6 +200,13 @@ public interface GalleryStorageIo {
    */
   void salvageGalleryApp(long galleryId);
 
+  /**
+   * folds the downloads and likes recorded in the counter shards of an app
+   * into the app, so listings sorted by them stay current
+   * @param galleryId id of gallery app
+   */
+  void foldGalleryAppCounters(long galleryId);
+
   /**
    * save AttributionId
    * @param galleryId id of gallery app that was like
@@ -7,12 +7,25 @@
 package com.google.appinventor.server.storage;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.ConcurrentModificationException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.appinventor.server.CrashReport;
 import com.google.appinventor.server.GalleryEmail;
 import com.google.appinventor.server.GallerySearchIndex;
@@ -31,7 +44,9 @@ import com.google.common.annotations.VisibleForTesting;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.NotFoundException;
 import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.ObjectifyOpts;
 import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Query;
 
 /**
  * Implements the GalleryStorageIo interface using Objectify as the underlying data
@@ -76,12 +91,82 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     T t;
   }
 
+  // A listing of gallery apps, paged by listGalleryApps(). The name must be
+  // unique to the query, it is used to key the cached cursors and counts. A
+  // listing is stable if its order changes only when invalidateListings() is
+  // called, so that cursors into it can be kept.
+  private abstract class Listing<T> {
+    final String name;
+    final boolean stable;
+
+    Listing(String name, boolean stable) {
+      this.name = name;
+      this.stable = stable;
+    }
+
+    abstract Query<T> query(Objectify datastore);
+
+    // Returns the key of the gallery app listed by a row of the query
+    abstract Key<GalleryAppData> appKey(T row);
+  }
+
+  // A listing whose query is over the gallery apps themselves
+  private abstract class AppListing extends Listing<GalleryAppData> {
+    AppListing(String name, boolean stable) {
+      super(name, stable);
+    }
+
+    @Override
+    Key<GalleryAppData> appKey(GalleryAppData appData) {
+      return galleryKey(appData.id);
+    }
+  }
+
+  // Stable gallery listings are paged with datastore cursors. The cursor at the
+  // end of each page is kept in memcache under the index it ends at, so the next
+  // page (which is what the gallery asks for as the user scrolls) resumes there
+  // instead of skipping over every app before it with an offset. The downloads
+  // and likes listings are reordered by every download and like, which would
+  // leave a kept cursor pointing at the wrong index, so they are paged with
+  // offsets. The total count and the first page of each listing are kept too.
+  // Every key includes a generation number, bumped by invalidateListings()
+  // whenever apps are published, changed or removed.
+  private static final String LISTING_GENERATION_KEY = "gallery.listing.generation";
+  private static final int LISTING_CURSOR_SECONDS = 30 * 60;
+  private static final int LISTING_COUNT_SECONDS = 5 * 60;
+  // The first page of the downloads and likes listings changes order without
+  // any invalidation, so it is not kept for long.
+  private static final int LISTING_FIRST_PAGE_SECONDS = 60;
+
+  // Downloads and likes are recorded in one of the counter shards of an app
+  // (GalleryAppCounterShardData) instead of in its GalleryAppData, so that a
+  // popular app does not serialize every download and like on one entity
+  // group. Its totals are the GalleryAppData values plus those in the shards,
+  // and are kept in memcache. A task on the gallerycounters queue folds the
+  // shards back into the GalleryAppData a few minutes after they change,
+  // which keeps the -numDownloads and -numLikes listings in order. The fold
+  // is a cross-group transaction, which may span at most 25 entity groups,
+  // one of them the app itself.
+  private static final int COUNTER_SHARDS =
+      Math.max(1, Math.min(24, Flag.createFlag("gallery.counter.shards", 20).get()));
+  private static final int COUNTER_CACHE_SECONDS = 5 * 60;
+  private static final int COUNTER_FOLD_SECONDS = 5 * 60;
+  // Indexes of the counters returned by getCounters()
+  private static final int DOWNLOADS = 0;
+  private static final int LIKES = 1;
+  private static final int UNREAD_DOWNLOADS = 2;
+  private static final int UNREAD_LIKES = 3;
+
+  private final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+  private final Random random = new Random();
+
   static {
     // Register the data object classes stored in the database
     ObjectifyService.register(EmailData.class);
     ObjectifyService.register(GalleryAppData.class);
     ObjectifyService.register(GalleryCommentData.class);
     ObjectifyService.register(GalleryAppLikeData.class);
+    ObjectifyService.register(GalleryAppCounterShardData.class);
     ObjectifyService.register(GalleryAppFeatureData.class);
     ObjectifyService.register(GalleryAppTutorialData.class);
     ObjectifyService.register(GalleryAppAttributionData.class);
@@ -150,6 +235,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
       throw CrashReport.createAndLogError(LOG, null,
           "gallery error", e);
     }
+    invalidateListings();
     GalleryApp gApp = new GalleryApp();
     makeGalleryApp(galleryAppData.t, gApp);
     return gApp;
@@ -174,20 +260,17 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    */
   @Override
   public GalleryAppListResult getRecentGalleryApps(int start, final int count) {
-    final List<GalleryApp> apps = new ArrayList<GalleryApp>();
     // If I try to run this in runjobwithretries, it tells me can't run
     // non-ancestor query as a transaction. ObjectifyStorageio has some samples
     // of not using transactions (run with) so I grabbed.
-
-    Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppData appData:datastore.query(GalleryAppData.class).order("-dateModified").filter("active", true).offset(start).limit(count)) {
-      GalleryApp gApp = new GalleryApp();
-      makeGalleryApp(appData, gApp);
-      apps.add(gApp);
-    }
-    int totalCount = datastore.query(GalleryAppData.class).order("-dateModified").filter("active", true).count();
-    return new GalleryAppListResult(apps, totalCount);
+    return listGalleryApps(new AppListing("recent", true) {
+        @Override
+        Query<GalleryAppData> query(Objectify datastore) {
+          return datastore.query(GalleryAppData.class).order("-dateModified").filter("active", true);
+        }
+      }, start, count);
   }
+
   /**
    * Returns a wrapped class which contains a list of most downloaded
    * gallery apps and total number of results in database
@@ -197,19 +280,15 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    */
   @Override
   public GalleryAppListResult getMostDownloadedApps(int start, final int count) {
-    final List<GalleryApp> apps = new ArrayList<GalleryApp>();
     // If I try to run this in runjobwithretries, it tells me can't run
     // non-ancestor query as a transaction. ObjectifyStorageio has some samples
     // of not using transactions (run with) so I grabbed.
-
-    Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppData appData:datastore.query(GalleryAppData.class).order("-numDownloads").filter("active", true).offset(start).limit(count)) {
-      GalleryApp gApp = new GalleryApp();
-      makeGalleryApp(appData, gApp);
-      apps.add(gApp);
-    }
-    int totalCount = datastore.query(GalleryAppData.class).order("-numDownloads").filter("active", true).count();
-    return new GalleryAppListResult(apps, totalCount);
+    return listGalleryApps(new AppListing("downloads", false) {
+        @Override
+        Query<GalleryAppData> query(Objectify datastore) {
+          return datastore.query(GalleryAppData.class).order("-numDownloads").filter("active", true);
+        }
+      }, start, count);
   }
 
   /**
@@ -221,29 +300,18 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    */
   @Override
   public GalleryAppListResult getMostLikedApps(int start, final int count) {
-    final List<GalleryApp> apps = new ArrayList<GalleryApp>();
     // If I try to run this in runjobwithretries, it tells me can't run
     // non-ancestor query as a transaction. ObjectifyStorageio has some samples
     // of not using transactions (run with) so I grabbed
-
-    Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppData appData : datastore.query(GalleryAppData.class)
-           .filter("active", true)
-           .order("-numLikes")
-           .order("-numDownloads")
-           .offset(start).limit(count)) {
-      GalleryApp gApp = new GalleryApp();
-      makeGalleryApp(appData, gApp);
-      apps.add(gApp);
-    }
-
-    // The line below is a PROBLEM. It is *very expensive*
-    // We either need to keep separate track of the number of apps in the
-    // Gallery, or we need to cache this value somewhere so we are
-    // not computing it all the time!
-    int totalCount = datastore.query(GalleryAppData.class).filter("active", true).count();
-    return new GalleryAppListResult(apps, totalCount);
-
+    return listGalleryApps(new AppListing("likes", false) {
+        @Override
+        Query<GalleryAppData> query(Objectify datastore) {
+          return datastore.query(GalleryAppData.class)
+              .filter("active", true)
+              .order("-numLikes")
+              .order("-numDownloads");
+        }
+      }, start, count);
   }
 
   /**
@@ -253,18 +321,17 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    * @return list of gallery app
    */
   public GalleryAppListResult getFeaturedApp(int start, int count){
-    final List<GalleryApp> apps = new ArrayList<GalleryApp>();
-    Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppFeatureData appFeatureData:datastore.query(GalleryAppFeatureData.class).offset(start).limit(count)) {
-      Long galleryId = appFeatureData.galleryKey.getId();
-      GalleryApp gApp = new GalleryApp();
-      GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
-      makeGalleryApp(galleryAppData, gApp);
-      apps.add(gApp);
-    }
+    return listGalleryApps(new Listing<GalleryAppFeatureData>("featured", true) {
+        @Override
+        Query<GalleryAppFeatureData> query(Objectify datastore) {
+          return datastore.query(GalleryAppFeatureData.class);
+        }
 
-    int totalCount = datastore.query(GalleryAppFeatureData.class).count();
-    return new GalleryAppListResult(apps, totalCount);
+        @Override
+        Key<GalleryAppData> appKey(GalleryAppFeatureData appFeatureData) {
+          return appFeatureData.galleryKey;
+        }
+      }, start, count);
   }
 
   /**
@@ -274,18 +341,17 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    * @return list of gallery app
    */
   public GalleryAppListResult getTutorialApp(int start, int count){
-    final List<GalleryApp> apps = new ArrayList<GalleryApp>();
-    Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppTutorialData appTutorialData:datastore.query(GalleryAppTutorialData.class).offset(start).limit(count)) {
-      Long galleryId = appTutorialData.galleryKey.getId();
-      GalleryApp gApp = new GalleryApp();
-      GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
-      makeGalleryApp(galleryAppData, gApp);
-      apps.add(gApp);
-    }
+    return listGalleryApps(new Listing<GalleryAppTutorialData>("tutorial", true) {
+        @Override
+        Query<GalleryAppTutorialData> query(Objectify datastore) {
+          return datastore.query(GalleryAppTutorialData.class);
+        }
 
-    int totalCount = datastore.query(GalleryAppTutorialData.class).count();
-    return new GalleryAppListResult(apps, totalCount);
+        @Override
+        Key<GalleryAppData> appKey(GalleryAppTutorialData appTutorialData) {
+          return appTutorialData.galleryKey;
+        }
+      }, start, count);
   }
 
   /**
@@ -343,6 +409,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
       datastore.put(appFeatureData);
       result.t = true;
     }
+    invalidateListings();
     return result.t;
   }
 
@@ -369,6 +436,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
       datastore.put(appTutorialData);
       result.t = true;
     }
+    invalidateListings();
     return result.t;
   }
 
@@ -380,20 +448,16 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    * @param count number of apps you want
    * @return list of {@link GalleryApp}
    */  @Override
-  public GalleryAppListResult getDeveloperApps(String userId, int start, final int count) {
-    final List<GalleryApp> apps = new ArrayList<GalleryApp>();
+  public GalleryAppListResult getDeveloperApps(final String userId, int start, final int count) {
     // if i try to run this in runjobwithretries it tells me can't run
     // non-ancestor query as a transaction. ObjectifyStorageio has some samples
     // of not using transactions (run with) so i grabbed
-
-    Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppData appData:datastore.query(GalleryAppData.class).filter("userId",userId).filter("active", true).offset(start).limit(count)) {
-      GalleryApp gApp = new GalleryApp();
-      makeGalleryApp(appData, gApp);
-      apps.add(gApp);
-    }
-    int totalCount = datastore.query(GalleryAppData.class).filter("userId",userId).filter("active", true).count();
-    return new GalleryAppListResult(apps, totalCount);
+    return listGalleryApps(new AppListing("developer." + userId, true) {
+        @Override
+        Query<GalleryAppData> query(Objectify datastore) {
+          return datastore.query(GalleryAppData.class).filter("userId",userId).filter("active", true);
+        }
+      }, start, count);
   }
 
  /**
@@ -404,17 +468,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
   public void incrementDownloads(final long galleryId) {
 
     try {
-      runJobWithRetries(new JobRetryHelper() {
-        @Override
-        public void run(Objectify datastore) {
-          GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
-          if (galleryAppData != null) {
-            galleryAppData.numDownloads = galleryAppData.numDownloads + 1;
-            galleryAppData.unreadDownloads = galleryAppData.unreadDownloads + 1;
-            datastore.put(galleryAppData);
-          }
-        }
-      });
+      addToCounters(galleryId, new int[] {1, 0, 1, 0});
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo", e);
     }
@@ -451,6 +505,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo", e);
     }
+    invalidateListings();
   }
 
   /**
@@ -476,6 +531,12 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,"gallery error", e);
     }
+    // Unlike the listings, show the counters up to date
+    int[] counters = getCounters(galleryId);
+    gApp.setDownloads(counters[DOWNLOADS]);
+    gApp.setLikes(counters[LIKES]);
+    gApp.setUnreadDownloads(counters[UNREAD_DOWNLOADS]);
+    gApp.setUnreadLikes(counters[UNREAD_LIKES]);
     return (gApp);
   }
 
@@ -527,6 +588,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
        } catch (ObjectifyException e) {
         throw CrashReport.createAndLogError(LOG, null,"gallery remove error", e);
       }
+      invalidateListings();
   }
 
 
@@ -604,21 +666,21 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    */
   @Override
   public int increaseLikes(final long galleryId,final String userId) {
-    final Result<Integer> numLikes = new Result<Integer>();
+    final Result<Boolean> liked = new Result<Boolean>();
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
+          liked.t = false;
           GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
           if (galleryAppData != null) {
             Key<GalleryAppData> galleryKey = galleryKey(galleryId);
 
             // Make sure it isn't already liked (people have subverted the client
             // based checks!)
-            for (GalleryAppLikeData likeData : datastore.query(GalleryAppLikeData.class).ancestor(galleryKey)) {
-              if(likeData.userId.equals(userId)){
-                return;         // We're done, already liked.
-              }
+            if (datastore.query(GalleryAppLikeData.class).ancestor(galleryKey)
+                .filter("userId", userId).get() != null) {
+              return;         // We're done, already liked.
             }
 
             // Forge the like data entry
@@ -626,21 +688,18 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
             likeData.galleryKey = galleryKey;
             likeData.userId = userId;
             datastore.put(likeData);
-
-            // Retrieve the current number of likes
-            numLikes.t = datastore.query(GalleryAppLikeData.class).ancestor(galleryKey).count();
-
-            // Increase app's like/unread like count
-            galleryAppData.numLikes = galleryAppData.numLikes + 1;
-            galleryAppData.unreadLikes = galleryAppData.unreadLikes + 1;
-            datastore.put(galleryAppData);
+            liked.t = true;
           }
         }
       });
+      if (liked.t) {
+        // Increase app's like/unread like count
+        addToCounters(galleryId, new int[] {0, 1, 0, 1});
+      }
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo.increaseLike", e);
     }
-    return numLikes.t;
+    return getCounters(galleryId)[LIKES];
   }
 
   /**
@@ -652,41 +711,32 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    */
   @Override
   public int decreaseLikes(final long galleryId, final String userId) {
-    final Result<Integer> numLikes = new Result<Integer>();
+    final Result<Boolean> unliked = new Result<Boolean>();
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-          GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
-          if (galleryAppData != null) {
-            Key<GalleryAppData> galleryKey = galleryKey(galleryId);
-            for (GalleryAppLikeData likeData : datastore.query(GalleryAppLikeData.class).ancestor(galleryKey)) {
-              if(likeData.userId.equals(userId)){
-                datastore.delete(likeData);
-                // break;
-                // We don't break because there might be more then one likeData object for this
-                // person
-              }
-            }
-            numLikes.t = datastore.query(GalleryAppLikeData.class).ancestor(galleryKey).count();
-
-            // Increase app's like/unread like count
-            if(galleryAppData.numLikes > 0){
-              galleryAppData.numLikes = galleryAppData.numLikes - 1;
-            }
-
-            if (galleryAppData.unreadLikes > 0) {
-              galleryAppData.unreadLikes = galleryAppData.unreadLikes - 1;
-              datastore.put(galleryAppData);
-            }
+          unliked.t = false;
+          Key<GalleryAppData> galleryKey = galleryKey(galleryId);
+          for (GalleryAppLikeData likeData : datastore.query(GalleryAppLikeData.class)
+                   .ancestor(galleryKey).filter("userId", userId)) {
+            datastore.delete(likeData);
+            unliked.t = true;
+            // We don't break because there might be more then one likeData object for this
+            // person
           }
         }
       });
+      if (unliked.t) {
+        // Decrease app's like/unread like count
+        int unreadLikes = getCounters(galleryId)[UNREAD_LIKES];
+        addToCounters(galleryId, new int[] {0, -1, 0, (unreadLikes > 0) ? -1 : 0});
+      }
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
           "error in galleryStorageIo.decreaseLike", e);
     }
-    return numLikes.t;
+    return getCounters(galleryId)[LIKES];
   }
 
   /**
@@ -697,22 +747,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    * @return the num of like
    */
   public int getNumLikes(final long galleryId) {
-    final Result<Integer> num = new Result<Integer>();
-    try {
-      runJobWithRetries(new JobRetryHelper() {
-        @Override
-        public void run(Objectify datastore) {
-          Key<GalleryAppData> galleryKey = galleryKey(galleryId);
-          //num.t = datastore.query(GalleryAppLikeData.class).ancestor(galleryKey).count();
-          GalleryAppData galleryAppData = datastore.find(galleryKey);
-          num.t = galleryAppData.numLikes;
-        }
-      });
-    } catch (ObjectifyException e) {
-      throw CrashReport.createAndLogError(LOG, null,
-          "error in galleryStorageIo.getNumLike", e);
-    }
-    return num.t;
+    return getCounters(galleryId)[LIKES];
   }
 
   /**
@@ -729,18 +764,9 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-          boolean find = false;
           Key<GalleryAppData> galleryKey = galleryKey(galleryId);
-          for (GalleryAppLikeData likeData : datastore.query(GalleryAppLikeData.class).ancestor(galleryKey)) {
-            if(likeData.userId.equals(userId)){
-              find = true;
-              bool.t = true;
-              break;
-            }
-          }
-          if(!find){
-            bool.t = false;
-          }
+          bool.t = datastore.query(GalleryAppLikeData.class).ancestor(galleryKey)
+              .filter("userId", userId).get() != null;
         }
       });
     } catch (ObjectifyException e) {
@@ -755,6 +781,8 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    */
   @Override
   public void salvageGalleryApp(final long galleryId) {
+    // Fold the shards first, numLikes is recounted from scratch below
+    foldGalleryAppCounters(galleryId);
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
@@ -789,6 +817,48 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
       throw CrashReport.createAndLogError(LOG, null,
           "error in galleryStorageIo.salvageGalleryApp", e);
     }
+    memcache.deleteAll(counterCacheKeys(galleryId));
+  }
+
+  /**
+   * fold the downloads and likes recorded in the counter shards of an app
+   * into its GalleryAppData
+   *
+   * @param galleryId
+   *          id of gallery app
+   */
+  @Override
+  public void foldGalleryAppCounters(final long galleryId) {
+    // Changes from now on schedule another fold
+    memcache.delete(counterFoldKey(galleryId));
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          Map<Key<GalleryAppCounterShardData>, GalleryAppCounterShardData> shards =
+              datastore.get(counterShardKeys(galleryId));
+          if (shards.isEmpty()) {
+            return;
+          }
+          GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
+          if (galleryAppData != null) {
+            for (GalleryAppCounterShardData shard : shards.values()) {
+              galleryAppData.numDownloads += shard.numDownloads;
+              galleryAppData.numLikes += shard.numLikes;
+              galleryAppData.unreadDownloads += shard.unreadDownloads;
+              galleryAppData.unreadLikes += shard.unreadLikes;
+            }
+            galleryAppData.numLikes = Math.max(0, galleryAppData.numLikes);
+            galleryAppData.unreadLikes = Math.max(0, galleryAppData.unreadLikes);
+            datastore.put(galleryAppData);
+          }
+          datastore.delete(shards.keySet());
+        }
+      }, true);
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          "error in galleryStorageIo.foldGalleryAppCounters", e);
+    }
   }
 
   /**
@@ -1112,6 +1182,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo.markReportAsResolved", e);
     }
+    invalidateListings();
     return success.t;
   }
   /**
@@ -1287,6 +1358,93 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     return moderationActions;
   }
 
+  /**
+   * Returns the apps from start to start + count of a listing along with the
+   * total number of apps in it. See LISTING_GENERATION_KEY.
+   */
+  private <T> GalleryAppListResult listGalleryApps(Listing<T> listing, int start, int count) {
+    Objectify datastore = ObjectifyService.begin();
+    String prefix = "gallery.listing." + listingGeneration() + "." + listing.name + ".";
+    String firstPageKey = prefix + "first." + count;
+
+    List<Key<GalleryAppData>> appKeys = null;
+    if (start == 0) {
+      @SuppressWarnings("unchecked")
+      ArrayList<Long> ids = (ArrayList<Long>) memcache.get(firstPageKey);
+      if (ids != null) {
+        appKeys = new ArrayList<Key<GalleryAppData>>(ids.size());
+        for (Long id : ids) {
+          appKeys.add(galleryKey(id));
+        }
+      }
+    }
+    if (appKeys == null) {
+      appKeys = new ArrayList<Key<GalleryAppData>>(count);
+      Query<T> query = listing.query(datastore);
+      String cursor = (start == 0 || !listing.stable) ? null
+          : (String) memcache.get(prefix + "cursor." + start);
+      if (cursor != null) {
+        query = query.startCursor(Cursor.fromWebSafeString(cursor));
+      } else if (start > 0) {
+        query = query.offset(start);
+      }
+      QueryResultIterator<T> rows = query.limit(count).iterator();
+      while (rows.hasNext()) {
+        appKeys.add(listing.appKey(rows.next()));
+      }
+      Cursor next = rows.getCursor();
+      if (listing.stable && appKeys.size() == count && next != null) {
+        memcache.put(prefix + "cursor." + (start + count), next.toWebSafeString(),
+            Expiration.byDeltaSeconds(LISTING_CURSOR_SECONDS));
+      }
+      if (start == 0) {
+        ArrayList<Long> ids = new ArrayList<Long>(appKeys.size());
+        for (Key<GalleryAppData> appKey : appKeys) {
+          ids.add(appKey.getId());
+        }
+        memcache.put(firstPageKey, ids, Expiration.byDeltaSeconds(LISTING_FIRST_PAGE_SECONDS));
+      }
+    }
+
+    // Fetch the apps themselves in one batch, in listing order
+    List<GalleryApp> apps = new ArrayList<GalleryApp>(appKeys.size());
+    Map<Key<GalleryAppData>, GalleryAppData> appData = datastore.get(appKeys);
+    for (Key<GalleryAppData> appKey : appKeys) {
+      GalleryAppData data = appData.get(appKey);
+      if (data != null) {
+        GalleryApp gApp = new GalleryApp();
+        makeGalleryApp(data, gApp);
+        apps.add(gApp);
+      }
+    }
+
+    Integer totalCount = (Integer) memcache.get(prefix + "count");
+    if (totalCount == null) {
+      totalCount = listing.query(datastore).count();
+      memcache.put(prefix + "count", totalCount, Expiration.byDeltaSeconds(LISTING_COUNT_SECONDS));
+    }
+    return new GalleryAppListResult(apps, totalCount);
+  }
+
+  private long listingGeneration() {
+    Long generation = (Long) memcache.get(LISTING_GENERATION_KEY);
+    if (generation == null) {
+      // Start from the clock so that losing the key from memcache does not
+      // bring back listings cached under an earlier generation.
+      memcache.put(LISTING_GENERATION_KEY, System.currentTimeMillis(), null,
+          SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+      generation = (Long) memcache.get(LISTING_GENERATION_KEY);
+    }
+    return (generation == null) ? 0 : generation;
+  }
+
+  /**
+   * Forgets the cached cursors, counts and first pages of all listings.
+   */
+  private void invalidateListings() {
+    memcache.increment(LISTING_GENERATION_KEY, 1L, System.currentTimeMillis());
+  }
+
   /**
    * Converts a db object GalleryAppData into a shared GalleryApp that can be passed
    * around in client. Create the galleryApp first then send it here to get its data
@@ -1302,6 +1460,8 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     User developer = storageIo.getUser(appData.userId);
     galleryApp.setDeveloperName(developer.getUserName());
     galleryApp.setDeveloperId(appData.userId);
+    // These are the totals last folded into the app, which is what the
+    // listings are ordered by. getGalleryApp() adds in the counter shards.
     galleryApp.setDownloads(appData.numDownloads);
     galleryApp.setUnreadDownloads(appData.unreadDownloads);
     galleryApp.setUnreadLikes(appData.unreadLikes);
@@ -1311,7 +1471,123 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     galleryApp.setMoreInfo(appData.moreInfo);
     galleryApp.setCredit(appData.credit);
 
-    galleryApp.setLikes(getNumLikes(appData.id));
+    galleryApp.setLikes(appData.numLikes);
+  }
+
+  /**
+   * Returns the downloads, likes, unread downloads and unread likes of an app,
+   * at the indexes DOWNLOADS, LIKES, UNREAD_DOWNLOADS and UNREAD_LIKES.
+   * See COUNTER_SHARDS.
+   */
+  private int[] getCounters(final long galleryId) {
+    List<String> cacheKeys = counterCacheKeys(galleryId);
+    final int[] counters = new int[cacheKeys.size()];
+    Map<String, Object> cached = memcache.getAll(cacheKeys);
+    if (cached.size() == cacheKeys.size()) {
+      for (int i = 0; i < counters.length; i++) {
+        counters[i] = Math.max(0, ((Number) cached.get(cacheKeys.get(i))).intValue());
+      }
+      return counters;
+    }
+
+    // Read the app and its shards in one transaction, so that a fold
+    // committing in between cannot count the same changes twice or not at all
+    final long[] totals = new long[counters.length];
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          Arrays.fill(totals, 0);
+          GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
+          if (galleryAppData == null) {
+            return;
+          }
+          totals[DOWNLOADS] = galleryAppData.numDownloads;
+          totals[LIKES] = galleryAppData.numLikes;
+          totals[UNREAD_DOWNLOADS] = galleryAppData.unreadDownloads;
+          totals[UNREAD_LIKES] = galleryAppData.unreadLikes;
+          for (GalleryAppCounterShardData shard :
+                   datastore.get(counterShardKeys(galleryId)).values()) {
+            totals[DOWNLOADS] += shard.numDownloads;
+            totals[LIKES] += shard.numLikes;
+            totals[UNREAD_DOWNLOADS] += shard.unreadDownloads;
+            totals[UNREAD_LIKES] += shard.unreadLikes;
+          }
+        }
+      }, true);
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          "error in galleryStorageIo.getCounters", e);
+    }
+    Map<String, Long> values = new HashMap<String, Long>();
+    for (int i = 0; i < counters.length; i++) {
+      values.put(cacheKeys.get(i), totals[i]);
+      counters[i] = (int) Math.max(0, totals[i]);
+    }
+    memcache.putAll(values, Expiration.byDeltaSeconds(COUNTER_CACHE_SECONDS));
+    return counters;
+  }
+
+  /**
+   * Adds deltas, indexed like the result of getCounters(), to the counters of
+   * an app in one of its shards.
+   */
+  private void addToCounters(final long galleryId, final int[] deltas) throws ObjectifyException {
+    runJobWithRetries(new JobRetryHelper() {
+      @Override
+      public void run(Objectify datastore) {
+        Key<GalleryAppCounterShardData> shardKey =
+            counterShardKey(galleryId, random.nextInt(COUNTER_SHARDS));
+        GalleryAppCounterShardData shard = datastore.find(shardKey);
+        if (shard == null) {
+          shard = new GalleryAppCounterShardData();
+          shard.id = shardKey.getName();
+        }
+        shard.numDownloads += deltas[DOWNLOADS];
+        shard.numLikes += deltas[LIKES];
+        shard.unreadDownloads += deltas[UNREAD_DOWNLOADS];
+        shard.unreadLikes += deltas[UNREAD_LIKES];
+        datastore.put(shard);
+      }
+    });
+
+    // Keep the cached totals current, if they are cached
+    List<String> cacheKeys = counterCacheKeys(galleryId);
+    Map<String, Long> offsets = new HashMap<String, Long>();
+    for (int i = 0; i < deltas.length; i++) {
+      if (deltas[i] != 0) {
+        offsets.put(cacheKeys.get(i), (long) deltas[i]);
+      }
+    }
+    memcache.incrementAll(offsets);
+
+    // Schedule a fold, unless one is pending already
+    String foldKey = counterFoldKey(galleryId);
+    if (memcache.put(foldKey, galleryId, Expiration.byDeltaSeconds(COUNTER_FOLD_SECONDS),
+        SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+      try {
+        QueueFactory.getQueue("gallerycounters").add(
+            TaskOptions.Builder.withUrl("/gallerycounters")
+            .param("galleryId", Long.toString(galleryId))
+            .countdownMillis(COUNTER_FOLD_SECONDS * 1000L));
+      } catch (RuntimeException e) {
+        // The next change schedules it instead
+        memcache.delete(foldKey);
+        LOG.log(Level.WARNING, "Couldn't schedule counter fold for gallery app " + galleryId, e);
+      }
+    }
+  }
+
+  private List<String> counterCacheKeys(long galleryId) {
+    List<String> keys = new ArrayList<String>(4);
+    for (String counter : new String[] {"downloads", "likes", "unreadDownloads", "unreadLikes"}) {
+      keys.add("gallery.counter." + galleryId + "." + counter);
+    }
+    return keys;
+  }
+
+  private String counterFoldKey(long galleryId) {
+    return "gallery.counter." + galleryId + ".fold";
   }
 
   private static String collectGalleryAppErrorInfo(final String galleryAppId) {
@@ -1322,6 +1598,20 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     return new Key<GalleryAppData>(GalleryAppData.class, galleryId);
   }
 
+  private Key<GalleryAppCounterShardData> counterShardKey(long galleryId, int shard) {
+    return new Key<GalleryAppCounterShardData>(GalleryAppCounterShardData.class,
+        galleryId + "-" + shard);
+  }
+
+  private List<Key<GalleryAppCounterShardData>> counterShardKeys(long galleryId) {
+    List<Key<GalleryAppCounterShardData>> keys =
+        new ArrayList<Key<GalleryAppCounterShardData>>(COUNTER_SHARDS);
+    for (int shard = 0; shard < COUNTER_SHARDS; shard++) {
+      keys.add(counterShardKey(galleryId, shard));
+    }
+    return keys;
+  }
+
   private Key<GalleryAppFeatureData> galleryFeatureKey(long galleryId) {
     return new Key<GalleryAppFeatureData>(GalleryAppFeatureData.class, galleryId);
   }
@@ -1428,9 +1718,21 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    */
   @VisibleForTesting
   void runJobWithRetries(JobRetryHelper job) throws ObjectifyException {
+    runJobWithRetries(job, false);
+  }
+
+  /**
+   * Like runJobWithRetries(job), but if crossGroup is true the transaction
+   * may span up to 25 entity groups.
+   */
+  @VisibleForTesting
+  void runJobWithRetries(JobRetryHelper job, boolean crossGroup) throws ObjectifyException {
     int tries = 0;
     while (tries <= MAX_JOB_RETRIES) {
-      Objectify datastore = ObjectifyService.beginTransaction();
+      Objectify datastore = crossGroup
+          ? ObjectifyService.begin(new ObjectifyOpts().setBeginTransaction(true)
+              .setTransactionOptions(TransactionOptions.Builder.withXG(true)))
+          : ObjectifyService.beginTransaction();
       try {
         job.run(datastore);
         datastore.getTxn().commit();
@@ -1466,47 +1768,49 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    * @param currentHost current host address from client
    */
   public boolean checkIfSendAppStats(final String userId, final long galleryId, final String adminEmail, final String currentHost) {
-    final Result<Boolean> send = new Result<Boolean>();
     final long currentTime = System.currentTimeMillis();
+    GalleryAppData galleryAppData = ObjectifyService.begin().find(galleryKey(galleryId));
+    if (galleryAppData == null
+        || currentTime - galleryAppData.lastEmailNotificationTimeStamp <= TWENTYFOURHOURS) {
+      /*less than 24 hours of last email notification on this app*/
+      return false;
+    }
+    final User user = storageIo.getUser(userId);
+    int[] counters = getCounters(galleryId);
+    if (counters[UNREAD_DOWNLOADS] + counters[UNREAD_LIKES] < user.getUserEmailFrequency()) {
+      /*num of (unreaddownloads+unreadlikes) hasn't reach the threshold */
+      return false;
+    }
+    String title = prepareAppStatsEmailTitle(galleryAppData.title);
+    String body = prepareAppStatsEmailBody(galleryAppData.title, counters[DOWNLOADS],
+        counters[LIKES], currentHost, galleryId);
+    boolean success = new GalleryEmail().sendEmail(adminEmail, user.getUserEmail(), title, body);
+    if (!success) {
+      /*send email fail*/
+      return false;
+    }
+    // Fold the shards first, so the unread counts still in them are cleared too
+    foldGalleryAppCounters(galleryId);
     try {
-      final User user = storageIo.getUser(userId);
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
           GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
-          if(currentTime - galleryAppData.lastEmailNotificationTimeStamp > TWENTYFOURHOURS){
-            if(galleryAppData.unreadDownloads + galleryAppData.unreadLikes >= user.getUserEmailFrequency()){
-              String title = prepareAppStatsEmailTitle(galleryAppData.title);
-              String body = prepareAppStatsEmailBody(galleryAppData.title, galleryAppData.numDownloads,
-                  getNumLikes(galleryId), currentHost, galleryId);
-              boolean success = new GalleryEmail().sendEmail(adminEmail, user.getUserEmail(), title, body);
-              if(success){
-                send.t = true;
-                //clear unread stats
-                galleryAppData.unreadDownloads = 0;
-                galleryAppData.unreadLikes = 0;
-                //update last eamil notification timestamp
-                galleryAppData.lastEmailNotificationTimeStamp = currentTime;
-                datastore.put(galleryAppData);
-              }else{
-                /*send email fail*/
-                send.t = false;
-              }
-            }else{
-              /*num of (unreaddownloads+unreadlikes) hasn't reach the threshold */
-              send.t = false;
-            }
-          }else{
-            /*less than 24 hours of last email notification on this app*/
-            send.t = false;
+          if (galleryAppData != null) {
+            //clear unread stats
+            galleryAppData.unreadDownloads = 0;
+            galleryAppData.unreadLikes = 0;
+            //update last eamil notification timestamp
+            galleryAppData.lastEmailNotificationTimeStamp = currentTime;
+            datastore.put(galleryAppData);
           }
         }
       });
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,"gallery error: checkIfSendAppStats", e);
     }
-
-    return send.t;
+    memcache.deleteAll(counterCacheKeys(galleryId));
+    return true;
   }
 
   /**
@@ -56,6 +56,8 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
 
@@ -68,6 +70,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 
 // GCS imports
+import com.google.appengine.tools.cloudstorage.BadRangeException;
 import com.google.appengine.tools.cloudstorage.GcsFileOptions;
 import com.google.appengine.tools.cloudstorage.GcsFilename;
 import com.google.appengine.tools.cloudstorage.GcsInputChannel;
@@ -85,10 +88,14 @@ import java.nio.channels.Channels;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
@@ -120,6 +127,15 @@ public class ObjectifyStorageIo implements  StorageIo {
   // TODO(user): need a way to modify this. Also, what is really a good value?
   private static final int MAX_JOB_RETRIES = 10;
 
+  // When a project is exported, the number of GCS files that are fetched
+  // ahead of the one being written, and the size of the blocks they are
+  // fetched in.
+  private static final int GCS_EXPORT_READ_AHEAD = 4;
+  private static final int GCS_EXPORT_BLOCK_SIZE = 256 * 1024;
+
+  // The folder of the project files that the build server caches.
+  private static final String ASSETS_FOLDER = "assets/";
+
   private final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
 
   private final GcsService gcsService;
@@ -751,6 +767,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     } else {
       file.content = content;
     }
+    file.contentHash = contentHash(content);
     return file;
   }
 
@@ -1644,6 +1661,7 @@ public class ObjectifyStorageIo implements  StorageIo {
             fd.blobstorePath = null;
             fd.content = content;
           }
+          fd.contentHash = contentHash(content);
           if (considerBackup && !doingConversion) {
             if ((fd.lastBackup + TWENTYFOURHOURS) < System.currentTimeMillis()) {
               try {
@@ -1954,6 +1972,119 @@ public class ObjectifyStorageIo implements  StorageIo {
     return result.t;
   }
 
+  @Override
+  public Map<String, String> downloadFiles(final String userId, final long projectId,
+      List<String> fileNames, String encoding) {
+    validateGCS();
+    final List<Key<FileData>> fileKeys = new ArrayList<Key<FileData>>();
+    for (String fileName : fileNames) {
+      fileKeys.add(projectFileKey(projectKey(projectId), fileName));
+    }
+    final List<FileData> fileData = new ArrayList<FileData>();
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          fileData.clear();
+          // Get the files from memcache where they are, and the rest in one batch.
+          List<String> keyStrings = new ArrayList<String>();
+          for (Key<FileData> fileKey : fileKeys) {
+            keyStrings.add(fileKey.getString());
+          }
+          Map<String, Object> cached = memcache.getAll(keyStrings);
+          List<Key<FileData>> uncachedKeys = new ArrayList<Key<FileData>>();
+          for (Key<FileData> fileKey : fileKeys) {
+            FileData fd = (FileData) cached.get(fileKey.getString());
+            if (fd == null) {
+              uncachedKeys.add(fileKey);
+            } else {
+              fileData.add(fd);
+            }
+          }
+          fileData.addAll(datastore.get(uncachedKeys).values());
+        }
+      }, false); // Transaction not needed
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId), e);
+    }
+    for (FileData fd : fileData) {
+      if (fd.userId != null && !fd.userId.equals("") && !fd.userId.equals(userId)) {
+        throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId),
+          new UnauthorizedAccessException(userId, projectId, null));
+      }
+    }
+
+    // Read the GCS files outside of the job, GCS_EXPORT_READ_AHEAD + 1 at a time, since each
+    // starts being fetched when its read channel is opened.
+    Map<String, String> result = new HashMap<String, String>();
+    GcsInputChannel[] readChannels = new GcsInputChannel[fileData.size()];
+    String fileName = null;
+    try {
+      int nextChannel = 0;
+      for (int i = 0; i < fileData.size(); i++) {
+        for (; nextChannel < fileData.size() && nextChannel <= i + GCS_EXPORT_READ_AHEAD;
+             nextChannel++) {
+          FileData fd = fileData.get(nextChannel);
+          if (!fd.isBlob && isTrue(fd.isGCS)) {
+            readChannels[nextChannel] = gcsService.openPrefetchingReadChannel(
+                new GcsFilename(GCS_BUCKET_NAME, fd.gcsName), 0, GCS_EXPORT_BLOCK_SIZE);
+          }
+        }
+        FileData fd = fileData.get(i);
+        fileName = fd.fileName;
+        byte[] content;
+        if (readChannels[i] != null) {
+          try {
+            content = readGcsFile(fd, readChannels[i]);
+          } finally {
+            readChannels[i].close();
+            readChannels[i] = null;
+          }
+        } else if (fd.isBlob) {
+          // Rare, and downloadRawFile also moves the file to GCS.
+          content = downloadRawFile(userId, projectId, fileName);
+        } else {
+          content = fd.content == null ? new byte[0] : fd.content;
+        }
+        result.put(fileName, new String(content, encoding));
+      }
+    } catch (IOException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectProjectErrorInfo(userId, projectId, fileName), e);
+    } finally {
+      for (GcsInputChannel readChannel : readChannels) {
+        if (readChannel != null) {
+          try {
+            readChannel.close();
+          } catch (IOException e) {
+            // The file wasn't needed.
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  // Reads all of a GCS file from its read channel. A missing or empty object reads as empty,
+  // as in downloadRawFile.
+  private byte[] readGcsFile(FileData fd, GcsInputChannel readChannel) throws IOException {
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    ByteBuffer buffer = ByteBuffer.allocate(GCS_EXPORT_BLOCK_SIZE);
+    try {
+      while (readChannel.read(buffer) != -1) {
+        content.write(buffer.array(), 0, buffer.position());
+        buffer.clear();
+      }
+    } catch (FileNotFoundException e) {
+      LOG.log(Level.WARNING, "FATAL NPF in downloadFiles filename = " + fd.gcsName);
+    } catch (BadRangeException e) {
+      // Zero length objects have no range to read.
+    }
+    return content.toByteArray();
+  }
+
   // Note: this must be called outside of any transaction, since getBlobKey()
   // uses the current transaction and it will most likely have the wrong
   // entity group!
@@ -1992,6 +2123,50 @@ public class ObjectifyStorageIo implements  StorageIo {
     final boolean includeScreenShots,
     final boolean forGallery,
     final boolean fatalError) throws IOException {
+    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
+    Result<String> projectName = new Result<String>();
+    int fileCount = writeProjectSourceZip(userId, projectId, includeProjectHistory,
+        includeAndroidKeystore, includeYail, includeScreenShots, forGallery, fatalError,
+        Collections.<String>emptySet(), zipFile, projectName);
+
+    if (zipName == null) {
+      zipName = projectName.t + ".aia";
+    }
+    ProjectSourceZip projectSourceZip =
+        new ProjectSourceZip(zipName, zipFile.toByteArray(), fileCount);
+    projectSourceZip.setMetadata(projectName.t);
+    return projectSourceZip;
+  }
+
+  @Override
+  public int writeProjectSourceZip(String userId, long projectId,
+    boolean includeProjectHistory,
+    boolean includeAndroidKeystore,
+    boolean includeYail,
+    boolean includeScreenShots,
+    boolean forGallery,
+    boolean fatalError,
+    Set<String> cachedAssetHashes,
+    OutputStream outputStream) throws IOException {
+    return writeProjectSourceZip(userId, projectId, includeProjectHistory,
+        includeAndroidKeystore, includeYail, includeScreenShots, forGallery, fatalError,
+        cachedAssetHashes, outputStream, new Result<String>());
+  }
+
+  // Writes the zip archive of a project to outputStream, one file at a time, and sets
+  // projectName.t to the name of the project. Assets whose hash is in cachedAssetHashes
+  // are listed in FileExporter.CACHED_ASSETS_FILE_PATH instead of being written.
+  // Returns the number of files written.
+  private int writeProjectSourceZip(final String userId, final long projectId,
+    final boolean includeProjectHistory,
+    final boolean includeAndroidKeystore,
+    final boolean includeYail,
+    final boolean includeScreenShots,
+    final boolean forGallery,
+    final boolean fatalError,
+    Set<String> cachedAssetHashes,
+    OutputStream outputStream,
+    final Result<String> projectName) throws IOException {
     validateGCS();
     final Result<Integer> fileCount = new Result<Integer>();
     fileCount.t = 0;
@@ -2002,14 +2177,19 @@ public class ObjectifyStorageIo implements  StorageIo {
     // to avoid problems reading blobs in a transaction with the wrong
     // entity group.
     final List<FileData> fileData = new ArrayList<FileData>();
-    final Result<String> projectName = new Result<String>();
     projectName.t = null;
     String fileName = null;
 
-    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
-    final ZipOutputStream out = new ZipOutputStream(zipFile);
+    final ZipOutputStream out = new ZipOutputStream(outputStream);
     out.setComment("Built with MIT App Inventor");
 
+    // Read channels of the GCS files that are being fetched ahead of the file being written.
+    GcsInputChannel[] readChannels = null;
+    // The "<hash> <file name>" lines of the assets that are left out.
+    StringBuilder cachedAssets = new StringBuilder();
+    // The hashes of assets that were stored before file hashes were, by file name.
+    Map<String, String> newAssetHashes = new HashMap<String, String>();
+
     try {
       JobRetryHelper job = new JobRetryHelper() {
         @Override
@@ -2058,10 +2238,48 @@ public class ObjectifyStorageIo implements  StorageIo {
       if (error != null) {
         throw error;
       }
+      if (fileData.isEmpty()) {
+        // Nothing has been written yet, so the caller can still report this.
+        throw new IllegalArgumentException("No files to download");
+      }
       // Process the file contents outside of the job since we can't read
-      // blobs in the job.
-      for (FileData fd : fileData) {
+      // blobs in the job. Each GCS file starts being fetched when its read
+      // channel is opened, so keeping channels open for the next few files
+      // fetches them in parallel while the current one is written, with at
+      // most GCS_EXPORT_READ_AHEAD blocks in memory.
+      readChannels = new GcsInputChannel[fileData.size()];
+      int nextChannel = 0;
+      for (int i = 0; i < fileData.size(); i++) {
+        for (; nextChannel < fileData.size() && nextChannel <= i + GCS_EXPORT_READ_AHEAD;
+             nextChannel++) {
+          FileData fd = fileData.get(nextChannel);
+          if (!fd.isBlob && isTrue(fd.isGCS) && !isCachedAsset(fd, cachedAssetHashes)) {
+            readChannels[nextChannel] = gcsService.openPrefetchingReadChannel(
+                new GcsFilename(GCS_BUCKET_NAME, fd.gcsName), 0, GCS_EXPORT_BLOCK_SIZE);
+          }
+        }
+        FileData fd = fileData.get(i);
         fileName = fd.fileName;
+        if (isCachedAsset(fd, cachedAssetHashes)) {
+          cachedAssets.append(fd.contentHash).append(' ').append(fileName).append('\n');
+          continue;
+        }
+        if (readChannels[i] != null) {
+          try {
+            String hash = writeGcsFile(fd, readChannels[i], out, fatalError);
+            if (fd.contentHash == null && fileName.startsWith(ASSETS_FOLDER)) {
+              newAssetHashes.put(fileName, hash);
+            }
+          } catch (IOException e) {
+            throw CrashReport.createAndLogError(LOG, null,
+              collectProjectErrorInfo(userId, projectId, fileName), e);
+          } finally {
+            readChannels[i].close();
+            readChannels[i] = null;
+          }
+          fileCount.t++;
+          continue;
+        }
         byte[] data = null;
         if (fd.isBlob) {
           try {
@@ -2073,74 +2291,27 @@ public class ObjectifyStorageIo implements  StorageIo {
             throw CrashReport.createAndLogError(LOG, null,
                 collectProjectErrorInfo(userId, projectId, fileName), e);
           }
-        } else if (isTrue(fd.isGCS)) {
-          try {
-            int count;
-            boolean npfHappened = false;
-            boolean recovered = false;
-            for (count = 0; count < 5; count++) {
-              GcsFilename gcsFileName = new GcsFilename(GCS_BUCKET_NAME, fd.gcsName);
-              int bytesRead = 0;
-              int fileSize = 0;
-              ByteBuffer resultBuffer;
-              try {
-                fileSize = (int) gcsService.getMetadata(gcsFileName).getLength();
-                resultBuffer = ByteBuffer.allocate(fileSize);
-                GcsInputChannel readChannel = gcsService.openReadChannel(gcsFileName, 0);
-                try {
-                  while (bytesRead < fileSize) {
-                    bytesRead += readChannel.read(resultBuffer);
-                    if (bytesRead < fileSize) {
-                      if (DEBUG) {
-                        LOG.log(Level.INFO, "readChannel: bytesRead = " + bytesRead + " fileSize = " + fileSize);
-                      }
-                    }
-                  }
-                  recovered = true;
-                  data = resultBuffer.array();
-                  break;        // We got the data, break out of the loop!
-                } finally {
-                  readChannel.close();
-                }
-              } catch (NullPointerException e) {
-                // This happens if the object in GCS is non-existent, which would happen
-                // when people uploaded a zero length object. As of this change, we now
-                // store zero length objects into GCS, but there are plenty of older objects
-                // that are missing in GCS.
-                LOG.log(Level.WARNING, "exportProjectFile: NPF recorded for " + fd.gcsName);
-                npfHappened = true;
-                resultBuffer = ByteBuffer.allocate(0);
-                data = resultBuffer.array();
-              }
-            }
-
-            // report out on how things went above
-            if (npfHappened) {    // We lost at least once
-              if (recovered) {
-                LOG.log(Level.WARNING, "recovered from NPF in exportProjectFile filename = " + fd.gcsName +
-                  " count = " + count);
-              } else {
-                LOG.log(Level.WARNING, "FATAL NPF in exportProjectFile filename = " + fd.gcsName);
-                if (fatalError) {
-                  throw new IOException("FATAL Error reading file from GCS filename = " + fd.gcsName);
-                }
-              }
-            }
-          } catch (IOException e) {
-            throw CrashReport.createAndLogError(LOG, null,
-              collectProjectErrorInfo(userId, projectId, fileName), e);
-          }
         } else {
           data = fd.content;
         }
         if (data == null) {     // This happens if file creation is interrupted
           data = new byte[0];
         }
+        if (fd.contentHash == null && fileName.startsWith(ASSETS_FOLDER)) {
+          newAssetHashes.put(fileName, contentHash(data));
+        }
         out.putNextEntry(new ZipEntry(fileName));
         out.write(data, 0, data.length);
         out.closeEntry();
         fileCount.t++;
       }
+      if (cachedAssets.length() > 0) {
+        byte[] data = cachedAssets.toString().getBytes(StorageUtil.DEFAULT_CHARSET);
+        out.putNextEntry(new ZipEntry(FileExporter.CACHED_ASSETS_FILE_PATH));
+        out.write(data, 0, data.length);
+        out.closeEntry();
+        fileCount.t++;
+      }
       if (projectHistory.t != null) {
         byte[] data = projectHistory.t.getBytes(StorageUtil.DEFAULT_CHARSET);
         out.putNextEntry(new ZipEntry(FileExporter.REMIX_INFORMATION_FILE_PATH));
@@ -2153,16 +2324,21 @@ public class ObjectifyStorageIo implements  StorageIo {
           collectProjectErrorInfo(userId, projectId, fileName), e);
       throw new IOException("Reflecting exception for userid " + userId +
           " projectId " + projectId + ", original exception " + e.getMessage());
+    } catch (IllegalArgumentException e) {
+      throw e;
     } catch (RuntimeException e) {
       CrashReport.createAndLogError(LOG, null,
           collectProjectErrorInfo(userId, projectId, fileName), e);
       throw new IOException("Reflecting exception for userid " + userId +
           " projectId " + projectId + ", original exception " + e.getMessage());
-    }
-
-    if (fileCount.t == 0) {
-      // can't close out since will get a ZipException due to the lack of files
-      throw new IllegalArgumentException("No files to download");
+    } finally {
+      if (readChannels != null) {
+        for (GcsInputChannel readChannel : readChannels) {
+          if (readChannel != null) {
+            readChannel.close();
+          }
+        }
+      }
     }
 
     if (includeAndroidKeystore) {
@@ -2193,15 +2369,104 @@ public class ObjectifyStorageIo implements  StorageIo {
       }
     }
 
-    out.close();
+    // The caller owns outputStream, so finish the archive without closing it.
+    out.finish();
+    out.flush();
+    if (!newAssetHashes.isEmpty()) {
+      saveAssetHashes(projectId, newAssetHashes);
+    }
+    return fileCount.t;
+  }
 
-    if (zipName == null) {
-      zipName = projectName.t + ".aia";
+  private static boolean isCachedAsset(FileData fd, Set<String> cachedAssetHashes) {
+    return fd.contentHash != null && fd.fileName.startsWith(ASSETS_FOLDER)
+        && cachedAssetHashes.contains(fd.contentHash);
+  }
+
+  // Records the hashes of assets that were stored without one, so that the build server
+  // can cache them. A file that has been written since it was read already has its hash.
+  private void saveAssetHashes(final long projectId, final Map<String, String> assetHashes) {
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          Key<ProjectData> projectKey = projectKey(projectId);
+          List<FileData> updated = new ArrayList<FileData>();
+          for (Map.Entry<String, String> entry : assetHashes.entrySet()) {
+            FileData fd = datastore.find(projectFileKey(projectKey, entry.getKey()));
+            if (fd != null && fd.contentHash == null) {
+              fd.contentHash = entry.getValue();
+              updated.add(fd);
+            }
+          }
+          datastore.put(updated);
+        }
+      }, true);
+    } catch (ObjectifyException e) {
+      LOG.log(Level.WARNING, "Unable to save the asset hashes of project " + projectId, e);
     }
-    ProjectSourceZip projectSourceZip =
-        new ProjectSourceZip(zipName, zipFile.toByteArray(), fileCount.t);
-    projectSourceZip.setMetadata(projectName.t);
-    return projectSourceZip;
+  }
+
+  @Override
+  public Set<String> getProjectAssetHashes(final String userId, final long projectId) {
+    final Set<String> hashes = new HashSet<String>();
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          hashes.clear();
+          for (FileData fd : datastore.query(FileData.class).ancestor(projectKey(projectId))) {
+            if (fd.role.equals(FileData.RoleEnum.SOURCE) && fd.contentHash != null
+                && fd.fileName.startsWith(ASSETS_FOLDER)) {
+              hashes.add(fd.contentHash);
+            }
+          }
+        }
+      }, false);
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId), e);
+    }
+    return hashes;
+  }
+
+  // Returns the hash that FileData.contentHash holds for the given content.
+  private static String contentHash(byte[] content) {
+    return Hashing.sha1().hashBytes(content).toString();
+  }
+
+  // Copies a GCS file into the next entry of out as it is read, and returns the hash of
+  // its content.
+  private String writeGcsFile(FileData fd, GcsInputChannel readChannel, ZipOutputStream out,
+      boolean fatalError) throws IOException {
+    Hasher hasher = Hashing.sha1().newHasher();
+    ByteBuffer buffer = ByteBuffer.allocate(GCS_EXPORT_BLOCK_SIZE);
+    int bytesRead;
+    try {
+      bytesRead = readChannel.read(buffer);
+    } catch (FileNotFoundException e) {
+      // This happens if the object in GCS is non-existent, which would happen
+      // when people uploaded a zero length object. As of this change, we now
+      // store zero length objects into GCS, but there are plenty of older objects
+      // that are missing in GCS.
+      LOG.log(Level.WARNING, "FATAL NPF in exportProjectFile filename = " + fd.gcsName);
+      if (fatalError) {
+        throw new IOException("FATAL Error reading file from GCS filename = " + fd.gcsName);
+      }
+      bytesRead = -1;
+    } catch (BadRangeException e) {
+      // Zero length objects have no range to read.
+      bytesRead = -1;
+    }
+    out.putNextEntry(new ZipEntry(fd.fileName));
+    while (bytesRead != -1) {
+      out.write(buffer.array(), 0, buffer.position());
+      hasher.putBytes(buffer.array(), 0, buffer.position());
+      buffer.clear();
+      bytesRead = readChannel.read(buffer);
+    }
+    out.closeEntry();
+    return hasher.hash().toString();
   }
 
   @Override
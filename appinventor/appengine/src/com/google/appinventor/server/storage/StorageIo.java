@@ -19,9 +19,12 @@ import com.google.appinventor.shared.rpc.user.SplashConfig;
 
 import java.io.InputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 
@@ -509,6 +512,19 @@ public interface StorageIo {
    */
   String downloadFile(String userId, long projectId, String fileId, String encoding);
 
+  /**
+   * Downloads the data of several text files of a project at once.
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   * @param fileIds  file IDs
+   * @param encoding  encoding of the text files
+   *
+   * @return  text file contents, by file ID; files that don't exist are
+   *          left out
+   */
+  Map<String, String> downloadFiles(String userId, long projectId, List<String> fileIds,
+      String encoding);
+
   /**
    * Records a "corruption" record so we can analyze if corruption is
    * happening.
@@ -590,6 +606,43 @@ public interface StorageIo {
     final boolean forGallery,
     final boolean fatalError) throws IOException;
 
+  /**
+   *  Writes project files as a zip archive to a stream. Files are written as
+   *  they are read, so that neither the archive nor a whole file needs to be
+   *  held in memory.
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   * @param includeProjectHistory  whether or not to include the project history
+   * @param includeAndroidKeystore  whether or not to include the Android keystore
+   * @param fatalError set true to cause missing GCS file to throw exception
+   * @param cachedAssetHashes  the hashes of assets that are listed in
+   *        FileExporter.CACHED_ASSETS_FILE_PATH instead of being written
+   * @param out  the stream to write the archive to, which is not closed
+   *
+   * @return  the number of files in the archive
+   * @throws IllegalArgumentException if the project has no files, in which
+   *         case nothing has been written to out
+   */
+  int writeProjectSourceZip(String userId, long projectId,
+    boolean includeProjectHistory,
+    boolean includeAndroidKeystore,
+    boolean includeYail,
+    boolean includeScreenShots,
+    boolean forGallery,
+    boolean fatalError,
+    Set<String> cachedAssetHashes,
+    OutputStream out) throws IOException;
+
+  /**
+   * Returns the SHA-1 hashes, in hex, of the assets of a project. Assets
+   * whose hash hasn't been computed yet are left out.
+   *
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   * @return  the hashes of the project's assets
+   */
+  Set<String> getProjectAssetHashes(String userId, long projectId);
+
   /**
    * Find a user's id given their email address. Note that this query is case
    * sensitive!
@@ -6,6 +6,8 @@
 
 package com.google.appinventor.server.storage;
 
+import com.google.appinventor.server.flags.Flag;
+
 /**
  * Holds the singleton StorageIo subclass object. We introduce this class
  * so that we can switch out the underlying StorageIo subclass without changing
@@ -15,7 +17,10 @@ package com.google.appinventor.server.storage;
  *
  */
 public class StorageIoInstanceHolder {
-  public static final StorageIo INSTANCE = new ObjectifyStorageIo();
+  public static final StorageIo INSTANCE =
+      Flag.createFlag("storage.cache", false).get()
+      ? new CachingStorageIo(new ObjectifyStorageIo())
+      : new ObjectifyStorageIo();
   
   private StorageIoInstanceHolder() {} // not to be instantiated
     
@@ -194,6 +194,10 @@ public class StoredData {
     // DateTime of last backup only used if GCS is enabled
     long lastBackup;
 
+    // The SHA-1 hash of the file content, in hex, or null if it hasn't been
+    // computed. It is set whenever the content is written.
+    String contentHash;
+
     String userId;              // The userId which owns this file
                                 // if null or the empty string, we haven't initialized
                                 // it yet
@@ -0,0 +1,120 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.shared.rpc.project;
+
+/**
+ * Describes a change to the content of a file, so that a file can be saved
+ * without sending all of its content.
+ *
+ * The change replaces a single range of the content that the server last
+ * saved (the base) with new text. Editing a blocks or form file usually
+ * changes a small part of it, so a single range is enough to keep the patch
+ * small. The patch also carries the checksums of the base and of the
+ * resulting content, as computed by
+ * {@link ChecksumedLoadFile#computeChecksum}, so that it is never applied to
+ * a different version of the file and never saves anything but the content
+ * the client has.
+ *
+ */
+public final class FileContentPatch extends FileDescriptor {
+
+  // For serialization
+  private static final long serialVersionUID = 4285036447157931782L;
+
+  private String baseChecksum;
+  // The range of the base that is replaced
+  private int start;
+  private int baseEnd;
+  private String replacement;
+  private String checksum;
+
+  /**
+   * Default constructor (for serialization only).
+   * Unfortunately this will prevent any fields from being marked as final!
+   */
+  @SuppressWarnings("unused")
+  private FileContentPatch() {
+  }
+
+  private FileContentPatch(long projectId, String fileId, String baseChecksum, int start,
+      int baseEnd, String replacement, String checksum) {
+    super(projectId, fileId);
+    this.baseChecksum = baseChecksum;
+    this.start = start;
+    this.baseEnd = baseEnd;
+    this.replacement = replacement;
+    this.checksum = checksum;
+  }
+
+  /**
+   * Creates a patch that changes base into content.
+   *
+   * @param projectId  project ID
+   * @param fileId  file ID
+   * @param base  the content that the server has
+   * @param baseChecksum  the checksum of base
+   * @param content  the new content
+   * @param checksum  the checksum of content
+   * @return  the patch
+   */
+  public static FileContentPatch create(long projectId, String fileId, String base,
+      String baseChecksum, String content, String checksum) {
+    int start = 0;
+    int maxLength = Math.min(base.length(), content.length());
+    while (start < maxLength && base.charAt(start) == content.charAt(start)) {
+      start++;
+    }
+    int baseEnd = base.length();
+    int end = content.length();
+    while (baseEnd > start && end > start && base.charAt(baseEnd - 1) == content.charAt(end - 1)) {
+      baseEnd--;
+      end--;
+    }
+    // Don't split surrogate pairs, which can't be sent on their own.
+    if (start > 0 && start < content.length() && isLowSurrogate(content.charAt(start))) {
+      start--;
+    }
+    if (end < content.length() && isLowSurrogate(content.charAt(end))) {
+      baseEnd++;
+      end++;
+    }
+    return new FileContentPatch(projectId, fileId, baseChecksum, start, baseEnd,
+        content.substring(start, end), checksum);
+  }
+
+  /**
+   * Applies this patch.
+   *
+   * @param base  the current content of the file
+   * @return  the new content of the file
+   * @throws ChecksumedFileException if base is not the content the patch was
+   *         made for, or the result is not the content the client has
+   */
+  public String apply(String base) throws ChecksumedFileException {
+    if (!ChecksumedLoadFile.computeChecksum(base).equals(baseChecksum)) {
+      throw new ChecksumedFileException("Patch base doesn't match " + getFileId());
+    }
+    if (baseEnd > base.length() || start > baseEnd) {
+      throw new ChecksumedFileException("Patch range is out of bounds " + getFileId());
+    }
+    String content = base.substring(0, start) + replacement + base.substring(baseEnd);
+    if (!ChecksumedLoadFile.computeChecksum(content).equals(checksum)) {
+      throw new ChecksumedFileException("Patched content doesn't match " + getFileId());
+    }
+    return content;
+  }
+
+  /**
+   * Returns the length of the text that this patch inserts.
+   */
+  public int getReplacementLength() {
+    return replacement.length();
+  }
+
+  private static boolean isLowSurrogate(char c) {
+    return c >= '\uDC00' && c <= '\uDFFF';
+  }
+}
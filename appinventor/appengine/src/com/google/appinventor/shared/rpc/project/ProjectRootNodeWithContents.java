@@ -0,0 +1,65 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.shared.rpc.project;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The root node of a project together with the contents of the files that
+ * are loaded when the project is opened, so that a project can be opened
+ * with a single request.
+ *
+ */
+public final class ProjectRootNodeWithContents implements Serializable {
+
+  // For serialization
+  private static final long serialVersionUID = -2913368712043655473L;
+
+  private ProjectRootNode rootNode;
+
+  // The file contents, by file ID
+  private HashMap<String, ChecksumedLoadFile> files;
+
+  /**
+   * Default constructor (for serialization only).
+   * Unfortunately this will prevent any fields from being marked as final!
+   */
+  @SuppressWarnings("unused")
+  private ProjectRootNodeWithContents() {
+  }
+
+  /**
+   * Creates a new root node with file contents.
+   *
+   * @param rootNode  root node of the project
+   * @param files  file contents, by file ID
+   */
+  public ProjectRootNodeWithContents(ProjectRootNode rootNode,
+      HashMap<String, ChecksumedLoadFile> files) {
+    this.rootNode = rootNode;
+    this.files = files;
+  }
+
+  /**
+   * Returns the root node of the project.
+   *
+   * @return  root node
+   */
+  public ProjectRootNode getRootNode() {
+    return rootNode;
+  }
+
+  /**
+   * Returns the file contents, by file ID.
+   *
+   * @return  file contents
+   */
+  public Map<String, ChecksumedLoadFile> getFiles() {
+    return files;
+  }
+}
@@ -108,6 +108,16 @@ public interface ProjectService extends RemoteService {
    */
   ProjectRootNode getProject(long projectId);
 
+  /**
+   * Returns the root node for the given project, together with the contents
+   * of the files that are loaded when the project is opened.
+   * @param projectId  project ID as received by
+   *                   {@link #getProjects()}
+   *
+   * @return  root node of project and file contents
+   */
+  ProjectRootNodeWithContents getProject2(long projectId) throws ChecksumedFileException;
+
   /**
    * Returns a string with the project settings.
    * @param projectId  project ID
@@ -251,6 +261,19 @@ public interface ProjectService extends RemoteService {
   long save2(String sessionId, long projectId, String fileId, boolean force, String content) throws InvalidSessionException,
       BlocksTruncatedException;
 
+  /**
+   * Saves the content of a file by applying a patch to the content that was
+   * last saved, so that only the changed part of the file is sent.
+   *
+   * @param sessionId current session id
+   * @param patch  the change to the file
+   * @return modification date for project
+   * @throws ChecksumedFileException if the file is not the version the patch
+   *         was made for, in which case the whole content should be saved
+   */
+  long savePatch(String sessionId, FileContentPatch patch) throws InvalidSessionException,
+      BlocksTruncatedException, ChecksumedFileException;
+
   /**
    * Saves the contents of multiple files.
    *
@@ -71,6 +71,11 @@ public interface ProjectServiceAsync {
    */
   void getProject(long projectId, AsyncCallback<ProjectRootNode> callback);
 
+  /**
+   * @see ProjectService#getProject2(long)
+   */
+  void getProject2(long projectId, AsyncCallback<ProjectRootNodeWithContents> callback);
+
   /**
    * @see ProjectService#loadProjectSettings(long)
    */
@@ -136,6 +141,11 @@ public interface ProjectServiceAsync {
    */
   void save2(String sessionId, long projectId, String fileId, boolean force, String source, AsyncCallback<Long> callback);
 
+  /**
+   * @see ProjectService#savePatch(String, FileContentPatch)
+   */
+  void savePatch(String sessionId, FileContentPatch patch, AsyncCallback<Long> callback);
+
   /**
    * @see ProjectService#save(String, List)
    */
@@ -26,6 +26,7 @@ public final class YoungAndroidProjectNode extends ProjectRootNode
    * Project target types for YoungAndroid projects.
    */
   public static final String YOUNG_ANDROID_TARGET_ANDROID = "Android";
+  public static final String YOUNG_ANDROID_TARGET_COMPANION = "Companion";
 
   /**
    * New file types.
@@ -14,6 +14,7 @@ import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
 import com.google.appinventor.shared.rpc.project.TextFile;
 import com.google.appinventor.shared.storage.StorageUtil;
+import com.google.common.hash.Hashing;
 import com.google.common.io.ByteStreams;
 
 import java.io.ByteArrayInputStream;
@@ -21,6 +22,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.zip.ZipEntry;
@@ -125,6 +127,51 @@ public class FileExporterImplTest extends LocalDatastoreTestCase {
         StorageUtil.DEFAULT_CHARSET));
   }
 
+  public void testWriteProjectSourceZip() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int fileCount = exporter.writeProjectSourceZip(USER_ID, projectId,
+      true, false, false, false, false, false, Collections.<String>emptySet(), out);
+    ProjectSourceZip project = new ProjectSourceZip(PROJECT_NAME + ".aia", out.toByteArray(),
+        fileCount);
+    Map<String, byte[]> content = testExportProjectSourceZipHelper(project);
+    assertEquals(3, content.size());
+    assertEquals(HISTORY, new String(content.get(FileExporter.REMIX_INFORMATION_FILE_PATH),
+        StorageUtil.DEFAULT_CHARSET));
+  }
+
+  public void testWriteProjectSourceZipWithCachedAsset() throws IOException {
+    String assetName = "assets/" + IMAGE1_NAME;
+    String assetHash = Hashing.sha1().hashBytes(IMAGE_CONTENT).toString();
+    storageIo.addSourceFilesToProject(USER_ID, projectId, false, assetName);
+    storageIo.uploadRawFile(projectId, assetName, USER_ID, true, IMAGE_CONTENT);
+    assertEquals(Collections.singleton(assetHash),
+        storageIo.getProjectAssetHashes(USER_ID, projectId));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int fileCount = exporter.writeProjectSourceZip(USER_ID, projectId,
+      false, false, false, false, false, false, Collections.singleton(assetHash), out);
+    ProjectSourceZip project = new ProjectSourceZip(PROJECT_NAME + ".aia", out.toByteArray(),
+        fileCount);
+    Map<String, byte[]> content = testExportProjectSourceZipHelper(project);
+    assertEquals(3, content.size());
+    assertFalse(content.containsKey(assetName));
+    assertEquals(assetHash + " " + assetName + "\n",
+        new String(content.get(FileExporter.CACHED_ASSETS_FILE_PATH),
+            StorageUtil.DEFAULT_CHARSET));
+  }
+
+  public void testWriteProjectSourceZipWithNonExistingProject() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      exporter.writeProjectSourceZip(USER_ID, projectId + 1, false, false, false, false, false,
+          false, Collections.<String>emptySet(), out);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    assertEquals(0, out.size());
+  }
+
   public void testExportProjectSourceZipWithNonExistingProject() throws IOException {
     try {
       exporter.exportProjectSourceZip(USER_ID, projectId + 1, false, false, null, false, false, false, false);
@@ -0,0 +1,93 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import com.google.appinventor.server.LocalDatastoreTestCase;
+import com.google.appinventor.shared.rpc.project.Project;
+import com.google.appinventor.shared.rpc.project.TextFile;
+
+/**
+ * Tests for {@link CachingStorageIo}.
+ *
+ */
+public class CachingStorageIoTest extends LocalDatastoreTestCase {
+
+  private static final String USER_ID = "700";
+  private static final String USER_EMAIL = "user700@test.com";
+  private static final String SETTINGS = "{settings: \"none\"}";
+  private static final String NEW_SETTINGS = "{settings: \"some\"}";
+  private static final String PROJECT_NAME = "Project1";
+  private static final String FILE_NAME1 = "src/File1.scm";
+  private static final String FILE_NAME2 = "src/File2.bky";
+
+  private ObjectifyStorageIo objectifyStorage;
+  private CachingStorageIo storage;
+  private long projectId;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    objectifyStorage = new ObjectifyStorageIo();
+    storage = new CachingStorageIo(objectifyStorage, 100, 60);
+
+    Project project = new Project(PROJECT_NAME);
+    project.setProjectType("FakeProjectType");
+    project.addTextFile(new TextFile(FILE_NAME1, "content"));
+    storage.getUser(USER_ID, USER_EMAIL);
+    projectId = storage.createProject(USER_ID, project, SETTINGS);
+  }
+
+  public void testReadsAreCached() {
+    assertEquals(PROJECT_NAME, storage.getProjectName(USER_ID, projectId));
+    assertEquals(PROJECT_NAME, storage.getProjectName(USER_ID, projectId));
+    assertEquals("local hits: 1, memcache hits: 0, misses: 1", storage.getStats());
+
+    // Another instance finds it in memcache
+    CachingStorageIo otherStorage = new CachingStorageIo(objectifyStorage, 100, 60);
+    assertEquals(PROJECT_NAME, otherStorage.getProjectName(USER_ID, projectId));
+    assertEquals("local hits: 0, memcache hits: 1, misses: 0", otherStorage.getStats());
+  }
+
+  public void testChangesAreSeen() throws Exception {
+    assertEquals(SETTINGS, storage.loadProjectSettings(USER_ID, projectId));
+    storage.storeProjectSettings(USER_ID, projectId, NEW_SETTINGS);
+    assertEquals(NEW_SETTINGS, storage.loadProjectSettings(USER_ID, projectId));
+
+    assertFalse(storage.getProjectSourceFiles(USER_ID, projectId).contains(FILE_NAME2));
+    storage.addSourceFilesToProject(USER_ID, projectId, false, FILE_NAME2);
+    assertTrue(storage.getProjectSourceFiles(USER_ID, projectId).contains(FILE_NAME2));
+
+    storage.getProjectDateModified(USER_ID, projectId);
+    Thread.sleep(5);
+    long modified = storage.uploadFile(projectId, FILE_NAME1, USER_ID, "new content", "UTF-8");
+    assertEquals(modified, storage.getProjectDateModified(USER_ID, projectId));
+
+    assertTrue(storage.getProjects(USER_ID).contains(projectId));
+    storage.deleteProject(USER_ID, projectId);
+    assertFalse(storage.getProjects(USER_ID).contains(projectId));
+  }
+
+  public void testSavingAFileKeepsOtherItemsCached() throws Exception {
+    storage.getProjectName(USER_ID, projectId);
+    storage.getProjectSourceFiles(USER_ID, projectId);
+    storage.uploadFile(projectId, FILE_NAME1, USER_ID, "new content", "UTF-8");
+    assertEquals(PROJECT_NAME, storage.getProjectName(USER_ID, projectId));
+    assertEquals("local hits: 2, memcache hits: 0, misses: 2", storage.getStats());
+  }
+
+  public void testChangesOnOtherInstancesAreSeen() {
+    // This instance does not keep versions, as if they had expired
+    CachingStorageIo otherStorage = new CachingStorageIo(objectifyStorage, 100, 0);
+    assertEquals(SETTINGS, otherStorage.loadProjectSettings(USER_ID, projectId));
+    storage.storeProjectSettings(USER_ID, projectId, NEW_SETTINGS);
+    assertEquals(NEW_SETTINGS, otherStorage.loadProjectSettings(USER_ID, projectId));
+  }
+
+  public void testReturnedListsAreCopies() {
+    storage.getProjectSourceFiles(USER_ID, projectId).clear();
+    assertTrue(storage.getProjectSourceFiles(USER_ID, projectId).contains(FILE_NAME1));
+  }
+}
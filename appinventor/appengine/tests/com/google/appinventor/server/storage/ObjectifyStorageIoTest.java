@@ -31,6 +31,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.ConcurrentModificationException;
 import java.util.List;
+import java.util.Map;
 
 import org.json.JSONObject;
 
@@ -325,6 +326,28 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
     assertFalse(storage.getProjectOutputFiles(USER_ID, projectId).contains(FILE_NAME_OUTPUT));
   }
 
+  public void testDownloadFiles() throws BlocksTruncatedException {
+    final String USER_ID = "1250";
+    final String USER_EMAIL = "newuser1250@test.com";
+    storage.getUser(USER_ID, USER_EMAIL);
+    long projectId = createProject(USER_ID, PROJECT_NAME, FAKE_PROJECT_TYPE, FORM_QUALIFIED_NAME);
+    storage.addSourceFilesToProject(USER_ID, projectId, false, FILE_NAME1, FILE_NAME2,
+        ASSET_FILE_NAME1);
+    storage.uploadFile(projectId, FILE_NAME1, USER_ID, FILE_CONTENT1, StorageUtil.DEFAULT_CHARSET);
+    storage.uploadFile(projectId, FILE_NAME2, USER_ID, FILE_CONTENT2, StorageUtil.DEFAULT_CHARSET);
+    // Stored in GCS
+    storage.uploadRawFile(projectId, ASSET_FILE_NAME1, USER_ID, true,
+        FILE_CONTENT1.getBytes(StorageUtil.DEFAULT_CHARSET));
+
+    Map<String, String> contents = storage.downloadFiles(USER_ID, projectId,
+        Arrays.asList(FILE_NAME1, FILE_NAME2, ASSET_FILE_NAME1, "src/NoSuchFile.scm"),
+        StorageUtil.DEFAULT_CHARSET);
+    assertEquals(3, contents.size());
+    assertEquals(FILE_CONTENT1, contents.get(FILE_NAME1));
+    assertEquals(FILE_CONTENT2, contents.get(FILE_NAME2));
+    assertEquals(FILE_CONTENT1, contents.get(ASSET_FILE_NAME1));
+  }
+
   public void testAddRemoveUserFile() {
     // Note that neither FILE_NAME1 nor FILE_NAME_OUTPUT should exist
     // at the start of this test
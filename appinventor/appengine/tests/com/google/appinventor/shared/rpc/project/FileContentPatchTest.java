@@ -0,0 +1,56 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.shared.rpc.project;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link FileContentPatch}.
+ *
+ */
+public class FileContentPatchTest extends TestCase {
+  private static final String BASE = "<xml><block x=\"10\" y=\"20\"/></xml>";
+
+  private static FileContentPatch createPatch(String base, String content)
+      throws ChecksumedFileException {
+    return FileContentPatch.create(1, "src/Screen1.bky",
+        base, ChecksumedLoadFile.computeChecksum(base),
+        content, ChecksumedLoadFile.computeChecksum(content));
+  }
+
+  public void testApplyReplacesOnlyTheChangedRange() throws Exception {
+    String content = "<xml><block x=\"15\" y=\"20\"/></xml>";
+    FileContentPatch patch = createPatch(BASE, content);
+    assertEquals(1, patch.getReplacementLength());
+    assertEquals(content, patch.apply(BASE));
+  }
+
+  public void testApplyInsertionAndDeletion() throws Exception {
+    String longer = "<xml><block x=\"10\" y=\"20\"/><block/></xml>";
+    assertEquals(longer, createPatch(BASE, longer).apply(BASE));
+    assertEquals(BASE, createPatch(longer, BASE).apply(longer));
+    assertEquals("", createPatch(BASE, "").apply(BASE));
+    assertEquals(BASE, createPatch("", BASE).apply(""));
+  }
+
+  public void testApplyDoesNotSplitSurrogatePairs() throws Exception {
+    String base = "a\uD83D\uDE00b";
+    String content = "a\uD83D\uDE01b";
+    FileContentPatch patch = createPatch(base, content);
+    assertEquals(2, patch.getReplacementLength());
+    assertEquals(content, patch.apply(base));
+  }
+
+  public void testApplyToOtherBaseFails() throws Exception {
+    FileContentPatch patch = createPatch(BASE, BASE + " ");
+    try {
+      patch.apply(BASE + "\n");
+      fail();
+    } catch (ChecksumedFileException e) {
+      // expected
+    }
+  }
+}
@@ -352,7 +352,8 @@ Blockly.ReplMgr.putYail = (function() {
                         if (work.success)
                             work.success();
                     }
-                    context.processRetvals(json.values);
+                    engine.checkseq(json.retvalseq);
+                    engine.deliver(json.values);
                     rs.seq_count += 1;
                     if (rs.phoneState.initialized) // Only continue if we are still initialized
                         engine.pollphone(); // And on to the next!
@@ -376,6 +377,9 @@ Blockly.ReplMgr.putYail = (function() {
             encoder.add('seq', rs.seq_count);
             encoder.add('code', work.code);
             encoder.add('blockid', blockid);
+            if (rs.phoneState.stream) {
+                encoder.add('since', rs.phoneState.lastSeq);
+            }
             var stuff = encoder.toString();
             conn.send(stuff);
         },
@@ -404,6 +408,10 @@ Blockly.ReplMgr.putYail = (function() {
                             engine.checkversionupgrade(false, json.installer, false);
                             return;
                         }
+                        // Companions that can push return values to us
+                        // over a single streaming connection say so here
+                        rs.phoneState.stream = !!json.stream;
+                        rs.phoneState.lastSeq = json.retvalseq;
                         if (!json.fqcn) {
                             // Set a compatibility flag to indicate that we
                             // should trim package names from Component blocks
@@ -438,6 +446,10 @@ Blockly.ReplMgr.putYail = (function() {
         },
         "receivefromphone" : function() {
             phonereceiving = true;
+            if (rs.phoneState.stream) {
+                engine.streamfromphone();
+                return;
+            }
             console.log("receivefromphone called.");
             rxhr = goog.net.XmlHttp();
             rxhr.open('POST', rs.rurl, true); // We post to avoid caching issues
@@ -454,10 +466,106 @@ Blockly.ReplMgr.putYail = (function() {
             };
             rxhr.send("IGNORED=STUFF");
         },
+        // Return values are pushed to us over a long lived response, one
+        // JSON object per line (empty lines are keep alives). The first line
+        // carries the Companion's current sequence number. Each value carries
+        // a sequence number, we hand back the last one we saw when we
+        // reconnect so the Companion only resends what we missed. The
+        // Companion ends each response after a while so that we don't keep
+        // an ever growing responseText, and we then open a new one.
+        "streamfromphone" : function() {
+            console.log("streamfromphone called.");
+            var offset = 0;
+            var encoder = new goog.Uri.QueryData();
+            encoder.add('since', rs.phoneState.lastSeq);
+            var xhr = goog.net.XmlHttp();
+            rxhr = xhr;
+            xhr.open('POST', rs.baseurl + '_stream', true);
+            xhr.onreadystatechange = function() {
+                if (rxhr !== xhr) {  // Aborted by reset or replaced
+                    return;
+                }
+                if (this.readyState < 3) {
+                    return;
+                }
+                if (this.status != 200) {
+                    if (this.readyState == 4) {
+                        console.log("streamfromphone: status = " + this.status);
+                        engine.retrystream(xhr);
+                    }
+                    return;
+                }
+                rs.phoneState.streamDelay = 0;
+                var text = this.responseText;
+                var end;
+                var values = [];
+                while ((end = text.indexOf('\n', offset)) >= 0) {
+                    var line = text.substring(offset, end);
+                    offset = end + 1;
+                    if (line.length > 0) {
+                        var json = goog.json.parse(line);
+                        if (json.seq === undefined) {
+                            engine.checkseq(json.retvalseq);
+                        } else {
+                            values.push(json);
+                        }
+                    }
+                }
+                engine.deliver(values);
+                if (this.readyState == 4) {
+                    console.log("streamfromphone returned.");
+                    engine.streamfromphone(); // Reconnect
+                }
+            };
+            xhr.send(encoder.toString());
+        },
+        // Reopen the stream after it failed, waiting longer after each
+        // failure in a row (up to ten seconds).
+        "retrystream" : function(xhr) {
+            var delay = Math.min(Math.max(500, 2 * (rs.phoneState.streamDelay || 0)), 10000);
+            rs.phoneState.streamDelay = delay;
+            setTimeout(function() {
+                if (rxhr === xhr && rs.state == Blockly.ReplMgr.rsState.CONNECTED) {
+                    engine.streamfromphone();
+                } else if (rxhr === xhr) {
+                    rxhr = null;
+                    phonereceiving = false;
+                }
+            }, delay);
+        },
+        // The Companion numbers its return values from one each time it
+        // starts. If its number is lower than the last one we saw it has
+        // restarted, and all of its values are new to us.
+        "checkseq" : function(retvalseq) {
+            if (typeof retvalseq == 'number' && retvalseq < rs.phoneState.lastSeq) {
+                console.log("Companion restarted, resetting lastSeq");
+                rs.phoneState.lastSeq = 0;
+            }
+        },
+        // Hand return values to processRetvals, skipping any we have
+        // already seen (the same value can arrive both in the response to
+        // an eval and on the stream).
+        "deliver" : function(values) {
+            if (!rs.phoneState.stream) {
+                context.processRetvals(values);
+                return;
+            }
+            var fresh = [];
+            for (var i = 0; i < values.length; i++) {
+                if (values[i].seq > rs.phoneState.lastSeq) {
+                    rs.phoneState.lastSeq = values[i].seq;
+                    fresh.push(values[i]);
+                }
+            }
+            if (fresh.length > 0) {
+                context.processRetvals(fresh);
+            }
+        },
         "reset" : function() {
-            if (rxhr)
-                rxhr.abort();
-            rxhr = null;
+            var old = rxhr;
+            rxhr = null;        // So the aborted request doesn't reconnect
+            if (old)
+                old.abort();
 //            if (conn)  // This seems to cause disconnects on project switch
 //                conn.abort();
 //            conn = null;
@@ -1144,7 +1144,11 @@ Blockly.Versioning.AllUpgradeMaps =
     3: "noUpgrade",
 
     // AI2: LegacyMode property was added.
-    4: "noUpgrade"
+    4: "noUpgrade",
+
+    // AI2: The SampleRate, AveragingWindow and BatchSize properties and the SamplesReceived
+    // event were added.
+    5: "noUpgrade"
 
   }, // End Accelerometer upgraders
 
@@ -1526,7 +1530,11 @@ Blockly.Versioning.AllUpgradeMaps =
   "GyroscopeSensor": {
 
     // This is initial version. Placeholder for future upgrades
-    1: "noUpgrade"
+    1: "noUpgrade",
+
+    // AI2: The SampleRate, AveragingWindow and BatchSize properties and the SamplesReceived
+    // event were added.
+    2: "noUpgrade"
 
   }, // End GyroscopeSensor upgraders
 
@@ -0,0 +1,310 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A content addressed store of project assets, so that the assets of a project don't have to be
+ * uploaded again for every build.
+ *
+ * <p>Before it uploads a project, App Inventor asks which of the SHA-1 hashes of its assets this
+ * store lacks (see {@link #getMissing}). It then leaves the other assets out of the project zip
+ * and lists them, one {@code <hash> <path>} line each, in the {@link #MANIFEST_PATH} entry
+ * instead. {@link #addCachedAssets} puts them back before the project is built, and
+ * {@link #storeAssets} adds the other assets, the ones that were uploaded, to the store.
+ *
+ * <p>Each asset is kept in a file named by its hash. Files are written to a temporary file and
+ * renamed into place, and the least recently used ones are deleted when the store grows beyond
+ * {@code maxBytes}.
+ */
+final class AssetCache {
+  /**
+   * The zip entry that lists the assets that were left out of a project. This must match
+   * FileExporter.CACHED_ASSETS_FILE_PATH in App Inventor.
+   */
+  static final String MANIFEST_PATH = "youngandroidproject/cached_assets";
+
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(AssetCache.class.getName());
+
+  private static final String ASSETS_FOLDER = "assets/";
+
+  private final File root;
+  private final long maxBytes;
+
+  /**
+   * Creates an AssetCache.
+   *
+   * @param root  the directory that holds the assets
+   * @param maxBytes  the maximum total size of the stored assets
+   */
+  AssetCache(File root, long maxBytes) {
+    this.root = root;
+    this.maxBytes = maxBytes;
+    root.mkdirs();
+  }
+
+  /**
+   * Returns the hashes that are not in this store, in the order given. The assets of the other
+   * hashes are marked as used, so that they are not the next ones to be evicted.
+   */
+  List<String> getMissing(Collection<String> hashes) {
+    List<String> missing = new ArrayList<String>();
+    long now = System.currentTimeMillis();
+    for (String hash : hashes) {
+      File asset = getFile(hash);
+      // Setting the modification time fails if the asset doesn't exist.
+      if (asset == null || !asset.setLastModified(now)) {
+        missing.add(hash);
+      }
+    }
+    return missing;
+  }
+
+  /**
+   * Adds the assets listed in the manifest of a project zip, if it has one, to the zip. A zip
+   * without a manifest is left as it is.
+   *
+   * @param cache  the asset store, or {@code null} if there is none
+   * @param zipFile  the project zip, which is rewritten if it has a manifest
+   * @return  the paths of the assets that were added, or {@code null} if the store doesn't have
+   *          all of the listed assets, in which case the project has to be uploaded again with
+   *          all of its assets
+   */
+  static Set<String> addCachedAssets(AssetCache cache, File zipFile) throws IOException {
+    Map<String, String> manifest;
+    ZipFile zip = new ZipFile(zipFile);
+    try {
+      ZipEntry manifestEntry = zip.getEntry(MANIFEST_PATH);
+      if (manifestEntry == null) {
+        return Collections.emptySet();
+      }
+      if (cache == null) {
+        return null;
+      }
+      manifest = readManifest(zip.getInputStream(manifestEntry));
+      List<File> assets = new ArrayList<File>();
+      for (String hash : manifest.values()) {
+        File asset = cache.getFile(hash);
+        if (asset == null || !asset.isFile()) {
+          LOG.info("Cached asset " + hash + " is no longer available");
+          return null;
+        }
+        assets.add(asset);
+      }
+
+      File expanded = File.createTempFile("expanded", ".zip", zipFile.getParentFile());
+      try {
+        ZipOutputStream out = new ZipOutputStream(
+            new BufferedOutputStream(new FileOutputStream(expanded)));
+        try {
+          Enumeration<? extends ZipEntry> entries = zip.entries();
+          while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            if (entry.getName().equals(MANIFEST_PATH) || manifest.containsKey(entry.getName())) {
+              continue;
+            }
+            out.putNextEntry(new ZipEntry(entry.getName()));
+            InputStream in = zip.getInputStream(entry);
+            try {
+              ByteStreams.copy(in, out);
+            } finally {
+              in.close();
+            }
+            out.closeEntry();
+          }
+          int i = 0;
+          for (String path : manifest.keySet()) {
+            out.putNextEntry(new ZipEntry(path));
+            File asset = assets.get(i++);
+            try {
+              Files.copy(asset, out);
+            } catch (FileNotFoundException e) {
+              // Evicted since it was checked above. The project zip hasn't been changed yet.
+              LOG.info("Cached asset " + asset.getName() + " is no longer available");
+              return null;
+            }
+            out.closeEntry();
+          }
+        } finally {
+          out.close();
+        }
+        Files.copy(expanded, zipFile);
+      } finally {
+        expanded.delete();
+      }
+    } finally {
+      zip.close();
+    }
+    LOG.info("Added " + manifest.size() + " cached assets");
+    return manifest.keySet();
+  }
+
+  /**
+   * Adds the assets of a project zip to the store. Errors are logged and otherwise ignored, since
+   * the store only saves later uploads.
+   *
+   * @param zipFile  the project zip
+   * @param cachedPaths  the paths of the assets that {@link #addCachedAssets} took from the store,
+   *                     which are skipped
+   */
+  void storeAssets(File zipFile, Set<String> cachedPaths) {
+    try {
+      ZipFile zip = new ZipFile(zipFile);
+      try {
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+          ZipEntry entry = entries.nextElement();
+          if (!entry.isDirectory() && entry.getName().startsWith(ASSETS_FOLDER)
+              && !cachedPaths.contains(entry.getName())) {
+            InputStream in = zip.getInputStream(entry);
+            try {
+              store(in);
+            } finally {
+              in.close();
+            }
+          }
+        }
+      } finally {
+        zip.close();
+      }
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to store the assets of " + zipFile, e);
+    }
+    evict();
+  }
+
+  private void store(InputStream in) throws IOException {
+    File tmpFile = File.createTempFile(".tmp-", "", root);
+    try {
+      Hasher hasher = Hashing.sha1().newHasher();
+      OutputStream out = new FileOutputStream(tmpFile);
+      try {
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+          hasher.putBytes(buffer, 0, count);
+          out.write(buffer, 0, count);
+        }
+      } finally {
+        out.close();
+      }
+      File asset = new File(root, hasher.hash().toString());
+      if (asset.exists()) {
+        asset.setLastModified(System.currentTimeMillis());
+      } else {
+        tmpFile.renameTo(asset);
+      }
+    } finally {
+      tmpFile.delete();
+    }
+  }
+
+  /*
+   * Deletes the least recently used assets until their total size is at most maxBytes.
+   */
+  private synchronized void evict() {
+    File[] files = root.listFiles();
+    if (files == null) {
+      return;
+    }
+    long totalBytes = 0;
+    List<File> assets = new ArrayList<File>();
+    for (File file : files) {
+      if (!file.getName().startsWith(".tmp-")) {
+        assets.add(file);
+        totalBytes += file.length();
+      }
+    }
+    if (totalBytes <= maxBytes) {
+      return;
+    }
+    final Map<File, Long> lastUsed = new LinkedHashMap<File, Long>();
+    for (File asset : assets) {
+      lastUsed.put(asset, asset.lastModified());
+    }
+    File[] oldestFirst = assets.toArray(new File[assets.size()]);
+    Arrays.sort(oldestFirst, new Comparator<File>() {
+      @Override
+      public int compare(File a, File b) {
+        return lastUsed.get(a).compareTo(lastUsed.get(b));
+      }
+    });
+    for (File asset : oldestFirst) {
+      if (totalBytes <= maxBytes) {
+        break;
+      }
+      long length = asset.length();
+      if (asset.delete()) {
+        totalBytes -= length;
+      }
+    }
+  }
+
+  /*
+   * Returns the file of an asset, or null if hash is not a SHA-1 hash.
+   */
+  private File getFile(String hash) {
+    if (!hash.matches("[0-9a-f]{40}")) {
+      return null;
+    }
+    return new File(root, hash);
+  }
+
+  /*
+   * Reads the manifest of a project zip, as a map from paths to hashes.
+   */
+  private static Map<String, String> readManifest(InputStream in) throws IOException {
+    Map<String, String> manifest = new LinkedHashMap<String, String>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, Charsets.UTF_8));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        int space = line.indexOf(' ');
+        if (space > 0) {
+          String path = line.substring(space + 1);
+          if (!path.startsWith(ASSETS_FOLDER)) {
+            throw new IOException("Cached file " + path + " is not an asset");
+          }
+          manifest.put(path, line.substring(0, space));
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return manifest;
+  }
+}
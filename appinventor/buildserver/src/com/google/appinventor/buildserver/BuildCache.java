@@ -0,0 +1,246 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A content addressed cache of build outputs, shared by all projects.
+ *
+ * <p>An entry is a set of files stored under a key that is computed from the hashes of all the
+ * inputs that produced them, such as the YAIL of one screen, the YAIL runtime and the component
+ * libraries on the class path. Because the key covers every input, an entry can be reused by any
+ * later build with the same inputs, which lets a rebuild recompile only the screens and resources
+ * that actually changed.
+ *
+ * <p>Entries are written to a temporary directory and renamed into place, so concurrent builds
+ * never see a partially written entry. Each kind of entry keeps at most {@code maxEntries}
+ * entries; the least recently used ones are deleted when more are stored.
+ */
+final class BuildCache {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(BuildCache.class.getName());
+
+  // The maximum number of remembered file hashes.
+  private static final int MAX_FILE_HASHES = 10000;
+
+  // Content hashes of files, keyed by path, length and modification time.
+  private static final Cache<String, String> fileHashes =
+      CacheBuilder.newBuilder().maximumSize(MAX_FILE_HASHES).build();
+
+  private final File root;
+  private final int maxEntries;
+
+  /**
+   * Creates a BuildCache.
+   *
+   * @param root  the directory that holds the cache entries
+   * @param maxEntries  the maximum number of entries of each kind
+   */
+  BuildCache(File root, int maxEntries) {
+    this.root = root;
+    this.maxEntries = maxEntries;
+  }
+
+  /**
+   * Combines strings, usually hashes of inputs, into a cache key.
+   */
+  static String key(String... parts) {
+    Hasher hasher = Hashing.sha1().newHasher();
+    for (String part : parts) {
+      hasher.putString(part, Charsets.UTF_8);
+      hasher.putByte((byte) 0);
+    }
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Returns the content hash of a file. Hashes are remembered for as long as the file keeps its
+   * length and modification time, so that large libraries are only read once.
+   */
+  static String hashFile(File file) throws IOException {
+    String id = file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+    String hash = fileHashes.getIfPresent(id);
+    if (hash == null) {
+      hash = Files.hash(file, Hashing.sha1()).toString();
+      fileHashes.put(id, hash);
+    }
+    return hash;
+  }
+
+  /**
+   * Returns a hash of the names and contents of all the files below a directory. A directory
+   * that doesn't exist has the same hash as an empty one.
+   */
+  static String hashTree(File dir) throws IOException {
+    Hasher hasher = Hashing.sha1().newHasher();
+    hashTree(dir, "", hasher);
+    return hasher.hash().toString();
+  }
+
+  private static void hashTree(File dir, String prefix, Hasher hasher) throws IOException {
+    File[] children = dir.listFiles();
+    if (children == null) {
+      return;
+    }
+    Arrays.sort(children);
+    for (File child : children) {
+      String name = prefix + child.getName();
+      if (child.isDirectory()) {
+        hashTree(child, name + "/", hasher);
+      } else {
+        hasher.putString(name, Charsets.UTF_8);
+        hasher.putByte((byte) 0);
+        hasher.putString(hashFile(child), Charsets.UTF_8);
+      }
+    }
+  }
+
+  /**
+   * Copies the files of an entry into a directory.
+   *
+   * @param kind  the kind of entry, for example "kawa"
+   * @param key  the key of the entry
+   * @param targetDir  the directory that receives the files, with their relative paths
+   * @return  {@code true} if the entry was found and copied, {@code false} otherwise
+   */
+  boolean restore(String kind, String key, File targetDir) {
+    File entryDir = new File(new File(root, kind), key);
+    if (!entryDir.isDirectory()) {
+      return false;
+    }
+    try {
+      copyTree(entryDir, targetDir);
+      entryDir.setLastModified(System.currentTimeMillis());
+      return true;
+    } catch (IOException e) {
+      // The entry may have been evicted while it was copied.
+      LOG.log(Level.WARNING, "Unable to restore " + kind + " cache entry " + key, e);
+      return false;
+    }
+  }
+
+  /**
+   * Stores files as a new entry. Errors are logged and otherwise ignored, since the cache only
+   * speeds up later builds.
+   *
+   * @param kind  the kind of entry, for example "kawa"
+   * @param key  the key of the entry
+   * @param baseDir  the directory that the stored relative paths are based on
+   * @param files  the files to store, all of them below baseDir
+   */
+  void store(String kind, String key, File baseDir, List<File> files) {
+    File kindDir = new File(root, kind);
+    File entryDir = new File(kindDir, key);
+    if (entryDir.isDirectory()) {
+      return;
+    }
+    File tmpDir = null;
+    try {
+      kindDir.mkdirs();
+      tmpDir = File.createTempFile(".tmp-", "", kindDir);
+      if (!tmpDir.delete() || !tmpDir.mkdir()) {
+        throw new IOException("Unable to create " + tmpDir);
+      }
+      String base = baseDir.getCanonicalPath() + File.separator;
+      for (File file : files) {
+        String path = file.getCanonicalPath();
+        if (!path.startsWith(base)) {
+          throw new IOException(file + " is not in " + baseDir);
+        }
+        File target = new File(tmpDir, path.substring(base.length()));
+        Files.createParentDirs(target);
+        Files.copy(file, target);
+      }
+      // If another build stored the same entry in the meantime, keep that one.
+      if (tmpDir.renameTo(entryDir)) {
+        tmpDir = null;
+        evict(kindDir);
+      }
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to store " + kind + " cache entry " + key, e);
+    } finally {
+      if (tmpDir != null) {
+        deleteTree(tmpDir);
+      }
+    }
+  }
+
+  /*
+   * Deletes the least recently used entries of one kind until at most maxEntries remain.
+   */
+  private synchronized void evict(File kindDir) {
+    File[] entries = kindDir.listFiles();
+    if (entries == null) {
+      return;
+    }
+    List<File> entryDirs = new ArrayList<File>();
+    for (File entry : entries) {
+      if (!entry.getName().startsWith(".tmp-")) {
+        entryDirs.add(entry);
+      }
+    }
+    if (entryDirs.size() <= maxEntries) {
+      return;
+    }
+    final Map<File, Long> lastUsed = new HashMap<File, Long>();
+    for (File entry : entryDirs) {
+      lastUsed.put(entry, entry.lastModified());
+    }
+    Collections.sort(entryDirs, new Comparator<File>() {
+      @Override
+      public int compare(File a, File b) {
+        return lastUsed.get(a).compareTo(lastUsed.get(b));
+      }
+    });
+    for (File entry : entryDirs.subList(0, entryDirs.size() - maxEntries)) {
+      deleteTree(entry);
+    }
+  }
+
+  private static void copyTree(File source, File target) throws IOException {
+    File[] children = source.listFiles();
+    if (children == null) {
+      throw new IOException("Unable to list " + source);
+    }
+    for (File child : children) {
+      File targetChild = new File(target, child.getName());
+      if (child.isDirectory()) {
+        copyTree(child, targetChild);
+      } else {
+        Files.createParentDirs(targetChild);
+        Files.copy(child, targetChild);
+      }
+    }
+  }
+
+  private static void deleteTree(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteTree(child);
+      }
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,186 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency and size distributions of the builds run by this server.
+ *
+ * <p>Recording a value only increments a few atomic counters, so the metrics can stay enabled in
+ * production. They are written in the Prometheus text exposition format, in which each histogram
+ * consists of cumulative {@code _bucket} counters and a {@code _sum} and {@code _count}.
+ */
+final class BuildMetrics {
+  // Upper bounds of the duration buckets, in milliseconds.
+  private static final long[] DURATION_BUCKETS_MS = {
+      50, 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 60000, 120000, 300000
+  };
+
+  // Upper bounds of the buckets for the number of extensions used by a build.
+  private static final long[] COUNT_BUCKETS = { 0, 1, 2, 5, 10, 20, 50 };
+
+  private final ConcurrentMap<String, Histogram> phaseDurations =
+      new ConcurrentHashMap<String, Histogram>();
+  private final Histogram queueWait = new Histogram(DURATION_BUCKETS_MS);
+  private final Histogram aarLibraries = new Histogram(COUNT_BUCKETS);
+  private final Histogram extensionComponents = new Histogram(COUNT_BUCKETS);
+
+  /**
+   * Records the wall time of each phase of a build.
+   *
+   * @param phaseTimes  the phase times in milliseconds, by phase name
+   */
+  void recordPhaseTimes(Map<String, Long> phaseTimes) {
+    for (Map.Entry<String, Long> entry : phaseTimes.entrySet()) {
+      Histogram histogram = phaseDurations.get(entry.getKey());
+      if (histogram == null) {
+        Histogram newHistogram = new Histogram(DURATION_BUCKETS_MS);
+        histogram = phaseDurations.putIfAbsent(entry.getKey(), newHistogram);
+        if (histogram == null) {
+          histogram = newHistogram;
+        }
+      }
+      histogram.record(entry.getValue());
+    }
+  }
+
+  /**
+   * Records the time a build waited for a thread.
+   */
+  void recordQueueWait(long millis) {
+    queueWait.record(millis);
+  }
+
+  /**
+   * Records the number of AAR libraries and extension components used by a build.
+   */
+  void recordExtensions(int aarLibraryCount, int extensionComponentCount) {
+    aarLibraries.record(aarLibraryCount);
+    extensionComponents.record(extensionComponentCount);
+  }
+
+  /**
+   * Appends all histograms to out.
+   */
+  void writeHistograms(StringBuilder out) {
+    writeType(out, "buildserver_phase_duration_ms", "histogram");
+    for (Map.Entry<String, Histogram> entry : phaseDurations.entrySet()) {
+      entry.getValue().write(out, "buildserver_phase_duration_ms",
+          "phase=\"" + entry.getKey() + "\"");
+    }
+    writeType(out, "buildserver_queue_wait_ms", "histogram");
+    queueWait.write(out, "buildserver_queue_wait_ms", null);
+    writeType(out, "buildserver_aar_libraries", "histogram");
+    aarLibraries.write(out, "buildserver_aar_libraries", null);
+    writeType(out, "buildserver_extension_components", "histogram");
+    extensionComponents.write(out, "buildserver_extension_components", null);
+  }
+
+  /**
+   * Appends a metric with a single value to out.
+   */
+  static void writeValue(StringBuilder out, String name, String type, long value) {
+    writeType(out, name, type);
+    out.append(name).append(' ').append(value).append('\n');
+  }
+
+  private static void writeType(StringBuilder out, String name, String type) {
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  /**
+   * Returns the total resident set size of the child processes of this server, such as Kawa,
+   * dx and aapt, in bytes, or -1 if it can't be determined on this platform.
+   */
+  static long getChildProcessRss() {
+    File[] processes = new File("/proc").listFiles();
+    if (processes == null) {
+      return -1;
+    }
+    String self = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+    long rssKb = 0;
+    for (File process : processes) {
+      String name = process.getName();
+      if (!Character.isDigit(name.charAt(0))) {
+        continue;
+      }
+      try {
+        // The status file of a process has lines like "PPid:\t1234" and "VmRSS:\t5678 kB".
+        String parent = null;
+        long processRssKb = 0;
+        BufferedReader reader = new BufferedReader(new FileReader(new File(process, "status")));
+        try {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            if (line.startsWith("PPid:")) {
+              parent = line.substring(5).trim();
+            } else if (line.startsWith("VmRSS:")) {
+              processRssKb = Long.parseLong(line.substring(6).replace("kB", "").trim());
+            }
+          }
+        } finally {
+          reader.close();
+        }
+        if (self.equals(parent)) {
+          rssKb += processRssKb;
+        }
+      } catch (IOException e) {
+        // The process has exited.
+      } catch (NumberFormatException e) {
+        // Not a status file we understand.
+      }
+    }
+    return rssKb * 1024;
+  }
+
+  /*
+   * A histogram with fixed bucket bounds.
+   */
+  static class Histogram {
+    private final long[] bounds;
+    // One counter per bound, plus one for values above the last bound.
+    private final AtomicLongArray counts;
+    private final AtomicLong sum = new AtomicLong();
+
+    Histogram(long[] bounds) {
+      this.bounds = bounds;
+      this.counts = new AtomicLongArray(bounds.length + 1);
+    }
+
+    void record(long value) {
+      int i = 0;
+      while (i < bounds.length && value > bounds[i]) {
+        i++;
+      }
+      counts.incrementAndGet(i);
+      sum.addAndGet(value);
+    }
+
+    void write(StringBuilder out, String name, String labels) {
+      String prefix = (labels == null) ? "{" : "{" + labels + ",";
+      long cumulative = 0;
+      for (int i = 0; i <= bounds.length; i++) {
+        cumulative += counts.get(i);
+        out.append(name).append("_bucket").append(prefix).append("le=\"")
+            .append(i < bounds.length ? String.valueOf(bounds[i]) : "+Inf").append("\"} ")
+            .append(cumulative).append('\n');
+      }
+      String suffix = (labels == null) ? " " : "{" + labels + "} ";
+      out.append(name).append("_sum").append(suffix).append(sum.get()).append('\n');
+      out.append(name).append("_count").append(suffix).append(cumulative).append('\n');
+    }
+  }
+}
@@ -0,0 +1,177 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Schedules build tasks on a limited number of threads.
+ *
+ * <p>At most {@code maxActiveTasks} tasks run at the same time. Additional tasks wait in a
+ * bounded queue of {@code maxQueuedTasks} entries and are rejected only when the queue is full.
+ * Priority tasks, such as builds of the Companion app, run before all other queued tasks. The
+ * remaining tasks are taken round-robin by user, so that one user submitting many builds cannot
+ * starve the others.</p>
+ *
+ * <p>With {@code maxQueuedTasks} set to 0, tasks are rejected as soon as all threads are busy.</p>
+ */
+final class BuildScheduler {
+  // Weight of the most recent task duration in the running average.
+  private static final double DURATION_SMOOTHING = 0.2;
+
+  // The maximum number of active tasks. O means unlimited.
+  private final int maxActiveTasks;
+
+  // The maximum number of queued tasks.
+  private final int maxQueuedTasks;
+
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(BuildScheduler.class.getName());
+
+  // All of the following are guarded by this.
+  private int activeTaskCount = 0;
+  private int completedTaskCount = 0;
+  private int queuedTaskCount = 0;
+  private final Deque<Runnable> priorityQueue = new ArrayDeque<Runnable>();
+  // Queued tasks by user, in the order in which the users will be served.
+  private final Map<String, Deque<Runnable>> userQueues =
+      new LinkedHashMap<String, Deque<Runnable>>();
+  private double averageTaskMillis = 0;
+
+  /**
+   * Creates a BuildScheduler.
+   *
+   * @param maxActiveTasks the maximum number of active tasks, or 0 for unlimited
+   * @param maxQueuedTasks the maximum number of tasks waiting for a thread
+   */
+  BuildScheduler(int maxActiveTasks, int maxQueuedTasks) {
+    this.maxActiveTasks = maxActiveTasks;
+    this.maxQueuedTasks = maxQueuedTasks;
+  }
+
+  /**
+   * Runs the given task as soon as a thread is available.
+   *
+   * @param userName the user on whose behalf the task runs
+   * @param priority whether the task runs before the tasks of users without priority
+   * @param runnable the task
+   * @throws RejectedExecutionException if all threads are busy and the queue is full
+   */
+  synchronized void execute(String userName, boolean priority, Runnable runnable) {
+    if (maxActiveTasks == 0 || activeTaskCount < maxActiveTasks) {
+      activeTaskCount++;
+      new Thread(new Worker(runnable)).start();
+    } else if (queuedTaskCount < maxQueuedTasks) {
+      if (priority) {
+        priorityQueue.addLast(runnable);
+      } else {
+        Deque<Runnable> queue = userQueues.get(userName);
+        if (queue == null) {
+          queue = new ArrayDeque<Runnable>();
+          userQueues.put(userName, queue);
+        }
+        queue.addLast(runnable);
+      }
+      queuedTaskCount++;
+      LOG.info("Queued build for " + userName + ", " + queuedTaskCount + " queued");
+    } else {
+      // If the scheduler is at maximum capacity, reject the task.
+      throw new RejectedExecutionException();
+    }
+  }
+
+  /*
+   * Records the completion of a task and returns the next task to run on the same thread, or
+   * null if the thread should end.
+   */
+  private synchronized Runnable taskCompleted(long durationMillis) {
+    completedTaskCount++;
+    averageTaskMillis = (completedTaskCount == 1) ? durationMillis
+        : (1 - DURATION_SMOOTHING) * averageTaskMillis + DURATION_SMOOTHING * durationMillis;
+    Runnable next = priorityQueue.pollFirst();
+    if (next == null) {
+      Iterator<Map.Entry<String, Deque<Runnable>>> it = userQueues.entrySet().iterator();
+      if (it.hasNext()) {
+        Map.Entry<String, Deque<Runnable>> entry = it.next();
+        next = entry.getValue().pollFirst();
+        // Move the user to the back of the line.
+        it.remove();
+        if (!entry.getValue().isEmpty()) {
+          userQueues.put(entry.getKey(), entry.getValue());
+        }
+      }
+    }
+    if (next == null) {
+      activeTaskCount--;
+    } else {
+      queuedTaskCount--;
+    }
+    return next;
+  }
+
+  public int getMaxActiveTasks() {
+    return maxActiveTasks;
+  }
+
+  public int getMaxQueuedTasks() {
+    return maxQueuedTasks;
+  }
+
+  public synchronized int getActiveTaskCount() {
+    return activeTaskCount;
+  }
+
+  public synchronized int getQueuedTaskCount() {
+    return queuedTaskCount;
+  }
+
+  public synchronized int getCompletedTaskCount() {
+    return completedTaskCount;
+  }
+
+  /**
+   * Returns the estimated time, in milliseconds, that a task submitted now would wait before it
+   * starts, based on the average duration of the tasks completed so far.
+   */
+  public synchronized long getEstimatedWaitMillis() {
+    if (maxActiveTasks == 0 || activeTaskCount < maxActiveTasks) {
+      return 0;
+    }
+    return (long) ((queuedTaskCount / maxActiveTasks + 1) * averageTaskMillis);
+  }
+
+  /*
+   * Runs a task, then any queued tasks, on one thread.
+   */
+  private class Worker implements Runnable {
+    private Runnable task;
+
+    Worker(Runnable task) {
+      this.task = task;
+    }
+
+    @Override
+    public void run() {
+      while (task != null) {
+        long start = System.currentTimeMillis();
+        try {
+          task.run();
+        } catch (Throwable e) {
+          // An Error, such as a StackOverflowError from Kawa or dx, must not end this thread
+          // either. The queued tasks would then wait forever.
+          LOG.log(Level.SEVERE, "Build task failed", e);
+        }
+        task = taskCompleted(System.currentTimeMillis() - start);
+      }
+    }
+  }
+}
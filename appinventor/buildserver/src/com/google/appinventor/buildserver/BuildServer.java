@@ -6,8 +6,10 @@
 package com.google.appinventor.buildserver;
 
 import com.google.appinventor.common.version.GitBuildId;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.io.ByteStreams;
+import com.google.common.collect.Lists;
 import com.google.common.io.Files;
 
 import com.sun.grizzly.http.SelectorThread;
@@ -20,12 +22,12 @@ import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 import org.kohsuke.args4j.spi.StringArrayOptionHandler;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
@@ -38,10 +40,17 @@ import java.net.URL;
 import java.text.DateFormat;
 import java.util.Date;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
@@ -79,6 +88,10 @@ public class BuildServer {
       usage = "Maximum number of builds that can run in parallel. O means unlimited.")
     int maxSimultaneousBuilds = 0;  // The default is unlimited.
 
+    @Option(name = "--maxQueuedBuilds",
+      usage = "Maximum number of builds that can wait for a free build slot. 0 means no queue.")
+    int maxQueuedBuilds = 0;  // The default is to reject builds when all slots are busy.
+
     @Option(name = "--port",
       usage = "The port number to bind to on the local machine.")
     int port = 9990;
@@ -95,6 +108,49 @@ public class BuildServer {
             usage = "the directory to cache the pre-dexed libraries")
     String dexCacheDir = null;
 
+    @Option(name = "--kawaWorkers",
+      usage = "Number of resident Kawa compiler processes. 0 means a new process per build.")
+    int kawaWorkers = 0;  // The default is a new process per build.
+
+    @Option(name = "--kawaJobTimeoutSecs",
+      usage = "Seconds after which a resident Kawa compiler process working on one build is "
+      + "killed and replaced. 0 means no limit.")
+    int kawaJobTimeoutSecs = 600;
+
+    @Option(name = "--buildPhaseThreads",
+      usage = "Number of threads shared by all builds for running AAPT in parallel with Kawa. "
+      + "0 means the build phases run one after the other.")
+    int buildPhaseThreads = 0;
+
+    @Option(name = "--buildCacheDir",
+      usage = "The directory to cache the classes of unchanged screens and the AAPT packages of "
+      + "unchanged resources. If not specified, every build starts from scratch.")
+    String buildCacheDir = null;
+
+    @Option(name = "--buildCacheEntries",
+      usage = "Maximum number of cached Kawa and AAPT outputs of each kind.")
+    int buildCacheEntries = 10000;
+
+    @Option(name = "--workDir",
+      usage = "The directory in which projects are extracted and built, for example on a "
+      + "memory-backed file system. The build server works in a subdirectory named after its "
+      + "port, whose leftover build directories are deleted at startup. If not specified, "
+      + "java.io.tmpdir is used.")
+    String workDir = null;
+
+    @Option(name = "--maxProjectSizeMb",
+      usage = "Maximum total size in MB of the files extracted from a project. 0 means unlimited.")
+    int maxProjectSizeMb = 0;
+
+    @Option(name = "--assetCacheDir",
+      usage = "A directory in which to keep project assets, so that they don't have to be "
+      + "uploaded for every build. If not specified, all assets are uploaded.")
+    String assetCacheDir = null;
+
+    @Option(name = "--assetCacheMb",
+      usage = "Maximum total size in MB of the assets kept in the asset cache directory.")
+    int assetCacheMb = 2048;
+
   }
 
   private static final CommandLineOptions commandLineOptions = new CommandLineOptions();
@@ -126,11 +182,21 @@ public class BuildServer {
   //The number of failed build requests for this server run
   private static int maximumActiveBuildTasks = 0;
 
+  // Latency and size distributions of the builds for this server run
+  private static final BuildMetrics buildMetrics = new BuildMetrics();
+
   // The build executor used to limit the number of simultaneous builds.
   // NOTE(lizlooney) - the buildExecutor must be created after the command line options are
   // processed in main(). If it is created here, the number of simultaneous builds will always be
   // the default value, even if the --maxSimultaneousBuilds option is on the command line.
-  private static NonQueuingExecutor buildExecutor;
+  private static BuildScheduler buildExecutor;
+
+  // The store of previously uploaded assets, or null if there is none.
+  private static AssetCache assetCache;
+
+  // The progress, in percent, of the queued and running asynchronous builds, by buildKey().
+  private static final ConcurrentMap<String, AtomicInteger> buildProgress =
+      new ConcurrentHashMap<String, AtomicInteger>();
 
   // The input zip file. It will be deleted in cleanUp.
   private File inputZip;
@@ -244,6 +310,9 @@ public class BuildServer {
     maximumActiveBuildTasks = Math.max(maximumActiveBuildTasks, buildExecutor.getActiveTaskCount());
     variables.put("maximum-simultaneous-build-tasks-occurred", maximumActiveBuildTasks + "");
     variables.put("active-build-tasks", buildExecutor.getActiveTaskCount() + "");
+    variables.put("maximum-queued-build-tasks-allowed", buildExecutor.getMaxQueuedTasks() + "");
+    variables.put("queued-build-tasks", buildExecutor.getQueuedTaskCount() + "");
+    variables.put("estimated-build-wait-in-ms", buildExecutor.getEstimatedWaitMillis() + "");
 
     StringBuilder html = new StringBuilder();
     html.append("<html><body><tt>");
@@ -255,6 +324,47 @@ public class BuildServer {
     return Response.ok(html.toString(), MediaType.TEXT_HTML_TYPE).build();
   }
 
+  @GET
+  @Path("metrics")
+  @Produces(MediaType.TEXT_PLAIN)
+  public Response metrics() throws IOException {
+    StringBuilder text = new StringBuilder();
+
+    // Build requests
+    BuildMetrics.writeValue(text, "buildserver_async_build_requests_total", "counter",
+      asyncBuildRequests.get());
+    BuildMetrics.writeValue(text, "buildserver_rejected_async_build_requests_total", "counter",
+      rejectedAsyncBuildRequests.get());
+    BuildMetrics.writeValue(text, "buildserver_successful_build_requests_total", "counter",
+      successfulBuildRequests.get());
+    BuildMetrics.writeValue(text, "buildserver_failed_build_requests_total", "counter",
+      failedBuildRequests.get());
+
+    // Build tasks
+    BuildMetrics.writeValue(text, "buildserver_active_build_tasks", "gauge",
+      buildExecutor.getActiveTaskCount());
+    BuildMetrics.writeValue(text, "buildserver_queued_build_tasks", "gauge",
+      buildExecutor.getQueuedTaskCount());
+
+    // Resources
+    File workDir = new File(commandLineOptions.workDir != null ? commandLineOptions.workDir
+      : System.getProperty("java.io.tmpdir"));
+    BuildMetrics.writeValue(text, "buildserver_work_dir_usable_bytes", "gauge",
+      workDir.getUsableSpace());
+    BuildMetrics.writeValue(text, "buildserver_work_dir_total_bytes", "gauge",
+      workDir.getTotalSpace());
+    BuildMetrics.writeValue(text, "buildserver_used_heap_bytes", "gauge",
+      ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+    long childProcessRss = BuildMetrics.getChildProcessRss();
+    if (childProcessRss >= 0) {
+      BuildMetrics.writeValue(text, "buildserver_child_process_rss_bytes", "gauge",
+        childProcessRss);
+    }
+
+    buildMetrics.writeHistograms(text);
+    return Response.ok(text.toString(), MediaType.TEXT_PLAIN_TYPE).build();
+  }
+
   /**
    * Indicate that the server is shutting down.
    *
@@ -387,10 +497,19 @@ public class BuildServer {
    * The status code returned here will be seen by the server in YoungAndroidProjectService.build
    * as connection.getResponseCode().
    *
+   * If all build slots are busy, the build waits in a bounded queue. Builds of the Companion app
+   * itself (isForCompanion) are taken from the queue first; all other builds are taken
+   * round-robin by user. If the queue is full, we respond with SERVICE_UNAVAILABLE and a
+   * Retry-After header giving the estimated wait in seconds. Accepted builds get the estimated
+   * wait in the X-Build-Wait-Ms header.
+   *
    * @param userName  The user name to be used in making the CN entry in the generated keystore.
    * @param gitBuildVersion  The value of GitBuildId.getVersion() sent from
    *     YoungAndroidProjectService.build.
    * @param callbackUrlStr An url to send the build results back to.
+   * @param isForCompanion  Whether to build the MIT AI2 Companion APK.
+   * @param projectId  The id of the project, which tells the progress of concurrent builds of
+   *     the same user apart.
    * @param inputZipFile  The zip file representing the App Inventor source code.
    * @return a status response, typically OK (200) or SERVICE_UNAVAILABLE (503).
    */
@@ -401,12 +520,15 @@ public class BuildServer {
     @QueryParam("uname") final String userName,
     @QueryParam("callback") final String callbackUrlStr,
     @QueryParam("gitBuildVersion") final String gitBuildVersion,
+    @QueryParam("isForCompanion") final boolean isForCompanion,
+    @QueryParam("projectId") final String projectId,
     final File inputZipFile) throws IOException {
     // Set the inputZip field so we can delete the input zip file later in
     // cleanUp.
     inputZip = inputZipFile;
     inputZip.deleteOnExit(); // In case build server is killed before cleanUp executes.
     String requesting_host = (new URL(callbackUrlStr)).getHost();
+    final String buildKey = buildKey(userName, projectId);
 
     //for the request for update part, the file should be empty
     if (inputZip.length() == 0L) {
@@ -455,14 +577,39 @@ public class BuildServer {
         }
       }
 
+      // Put back the assets that App Inventor left out because we said we had them. If one has
+      // since been evicted, App Inventor has to send the project again with all of its assets.
+      Set<String> cachedAssets;
+      try {
+        cachedAssets = AssetCache.addCachedAssets(assetCache, inputZip);
+      } catch (IOException e) {
+        // The zip may have been only partly rewritten, so don't build it. App Inventor sends the
+        // project again with all of its assets.
+        LOG.log(Level.WARNING, "Unable to add the cached assets to " + inputZip, e);
+        cachedAssets = null;
+      }
+      if (cachedAssets == null) {
+        cleanUp();
+        // Here, we use PRECONDITION_FAILED (response code 412), which means (according to
+        // rfc2616, section 10) "The precondition given in one or more of the request-header
+        // fields evaluated to false when it was tested on the server."
+        return Response.status(Response.Status.PRECONDITION_FAILED)
+          .type(MediaType.TEXT_PLAIN_TYPE)
+          .entity("Some of the cached assets of this project are no longer available.").build();
+      }
+
+      final Set<String> cachedAssetPaths = cachedAssets;
+      final AtomicInteger progress = new AtomicInteger(10);
+      final long queuedTime = System.currentTimeMillis();
       Runnable buildTask = new Runnable() {
           @Override
           public void run() {
+            buildMetrics.recordQueueWait(System.currentTimeMillis() - queuedTime);
             int count = buildCount.incrementAndGet();
             try {
               LOG.info("START NEW BUILD " + count);
               checkMemory();
-              buildAndCreateZip(userName, inputZipFile);
+              buildAndCreateZip(userName, inputZipFile, isForCompanion, progress);
               // Send zip back to the callbackUrl
               LOG.info("CallbackURL: " + callbackUrlStr);
               URL callbackUrl = new URL(callbackUrlStr);
@@ -474,38 +621,42 @@ public class BuildServer {
               connection.addRequestProperty("Content-Type","application/zip; charset=utf-8");
               connection.setConnectTimeout(60000);
               connection.setReadTimeout(60000);
-              BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(connection.getOutputStream());
+              // Stream the zip instead of letting the connection buffer all of it in memory.
+              connection.setFixedLengthStreamingMode(outputZip.length());
+              OutputStream connectionOutputStream = connection.getOutputStream();
               try {
-                BufferedInputStream bufferedInputStream = new BufferedInputStream(
-                  new FileInputStream(outputZip));
-                try {
-                  ByteStreams.copy(bufferedInputStream,bufferedOutputStream);
-                  checkMemory();
-                  bufferedOutputStream.flush();
-                } finally {
-                  bufferedInputStream.close();
-                }
+                Files.copy(outputZip, connectionOutputStream);
+                checkMemory();
+                connectionOutputStream.flush();
               } finally {
-                bufferedOutputStream.close();
+                connectionOutputStream.close();
               }
               if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {LOG.severe("Bad Response Code!: "+ connection.getResponseCode());
                 // TODO(user) Maybe do some retries
               }
+              if (assetCache != null) {
+                // Now that the result has been sent, keep the assets for the next build.
+                assetCache.storeAssets(inputZipFile, cachedAssetPaths);
+              }
             } catch (Exception e) {
               // TODO(user): Maybe send a failure callback
               LOG.severe("Exception: " + e.getMessage()+ " and the length is of inputZip is "+ inputZip.length());
             } finally {
+              buildProgress.remove(buildKey, progress);
               cleanUp();
               checkMemory();
               LOG.info("BUILD " + count + " FINISHED");
             }
           }
         };
+      long estimatedWaitMillis = buildExecutor.getEstimatedWaitMillis();
+      buildProgress.put(buildKey, progress);
       try {
-        buildExecutor.execute(buildTask);
+        buildExecutor.execute(userName, isForCompanion, buildTask);
       } catch (RejectedExecutionException e) {
+        buildProgress.remove(buildKey, progress);
         // This request was rejected because all threads in the build
-        // executor are busy.
+        // executor are busy and the queue is full.
         rejectedAsyncBuildRequests.incrementAndGet();
         cleanUp();
         // Here, we use SERVICE_UNAVAILABLE (response code 503), which
@@ -514,22 +665,61 @@ public class BuildServer {
         // overloading or maintenance of the server. The implication
         // is that this is a temporary condition which will be
         // alleviated after some delay."
-        return Response.status(Response.Status.SERVICE_UNAVAILABLE).type(MediaType.TEXT_PLAIN_TYPE).entity("The build server is currently at maximum capacity.").build();
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE).type(MediaType.TEXT_PLAIN_TYPE)
+          .header("Retry-After", Math.max(1, estimatedWaitMillis / 1000))
+          .entity("The build server is currently at maximum capacity.").build();
       }
+      return Response.ok().type(MediaType.TEXT_PLAIN_TYPE)
+        .header("X-Build-Wait-Ms", estimatedWaitMillis)
+        .entity("" + progress.get()).build();
     }
+    // A finished build has already been sent to the callback, so there is no progress to report.
+    AtomicInteger progress = buildProgress.get(buildKey);
     return Response.ok().type(MediaType.TEXT_PLAIN_TYPE)
-      .entity("" + projectBuilder.getProgress()).build();
+      .entity((progress == null) ? "" : "" + progress.get()).build();
+  }
+
+  /*
+   * Returns the key under which the progress of a build is kept. App Inventor versions that
+   * don't send the project id get the progress of the most recent build of the user.
+   */
+  private static String buildKey(String userName, String projectId) {
+    return (projectId == null) ? userName : userName + "/" + projectId;
+  }
+
+  /**
+   * Returns which of the given asset hashes are not in the asset cache, so that App Inventor can
+   * leave the other assets out of the project zip that it sends to build-all-from-zip-async.
+   *
+   * @param hashes  the SHA-1 hashes of the assets of a project, one per line
+   * @return  the hashes of the assets that have to be uploaded, one per line
+   */
+  @POST
+  @Path("missing-assets")
+  @Produces(MediaType.TEXT_PLAIN)
+  public Response missingAssets(String hashes) {
+    List<String> hashList = Lists.newArrayList(
+        Splitter.on('\n').trimResults().omitEmptyStrings().split(hashes));
+    List<String> missing = (assetCache == null) ? hashList : assetCache.getMissing(hashList);
+    return Response.ok(Joiner.on('\n').join(missing)).type(MediaType.TEXT_PLAIN_TYPE).build();
   }
 
   private void buildAndCreateZip(String userName, File inputZipFile)
     throws IOException, JSONException {
-    Result buildResult = build(userName, inputZipFile);
+    buildAndCreateZip(userName, inputZipFile, false, new AtomicInteger());
+  }
+
+  private void buildAndCreateZip(String userName, File inputZipFile, boolean isForCompanion,
+                                 AtomicInteger progress) throws IOException, JSONException {
+    Result buildResult = build(userName, inputZipFile, isForCompanion, progress);
     boolean buildSucceeded = buildResult.succeeded();
     outputZip = File.createTempFile(inputZipFile.getName(), ".zip");
     outputZip.deleteOnExit();  // In case build server is killed before cleanUp executes.
     ZipOutputStream zipOutputStream =
       new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(outputZip)));
     if (buildSucceeded) {
+      // The APK and keystore don't compress any further, so don't spend time trying.
+      zipOutputStream.setLevel(Deflater.NO_COMPRESSION);
       if (outputKeystore != null) {
         zipOutputStream.putNextEntry(new ZipEntry(outputKeystore.getName()));
         Files.copy(outputKeystore, zipOutputStream);
@@ -541,6 +731,7 @@ public class BuildServer {
       LOG.severe("Build " + buildCount.get() + " Failed: " + buildResult.getResult() + " " + buildResult.getError());
       failedBuildRequests.getAndIncrement();
     }
+    zipOutputStream.setLevel(Deflater.DEFAULT_COMPRESSION);
     zipOutputStream.putNextEntry(new ZipEntry("build.out"));
     String buildOutputJson = genBuildOutput(buildResult);
     PrintStream zipPrintStream = new PrintStream(zipOutputStream);
@@ -558,18 +749,34 @@ public class BuildServer {
     if (buildResult.getFormName() != null) {
       buildOutputJsonObj.put("formName", buildResult.getFormName());
     }
+    if (!buildResult.getPhaseTimes().isEmpty()) {
+      buildOutputJsonObj.put("phaseTimes", new JSONObject(buildResult.getPhaseTimes()));
+    }
     return buildOutputJsonObj.toString();
   }
 
   private Result build(String userName, File zipFile) throws IOException {
+    return build(userName, zipFile, false, new AtomicInteger());
+  }
+
+  private Result build(String userName, File zipFile, boolean isForCompanion,
+                       AtomicInteger progress) throws IOException {
     outputDir = Files.createTempDir();
     // We call outputDir.deleteOnExit() here, in case build server is killed before cleanUp
     // executes. However, it is likely that the directory won't be empty and therefore, won't
     // actually be deleted. That's only if the build server is killed (via ctrl+c) while a build
     // is happening, so we should be careful about that.
     outputDir.deleteOnExit();
-    Result buildResult = projectBuilder.build(userName, new ZipFile(zipFile), outputDir, false,
-      commandLineOptions.childProcessRamMb, commandLineOptions.dexCacheDir);
+    ZipFile inputZipFile = new ZipFile(zipFile);
+    Result buildResult;
+    try {
+      buildResult = projectBuilder.build(userName, inputZipFile, outputDir, isForCompanion,
+        commandLineOptions.childProcessRamMb, commandLineOptions.dexCacheDir, progress);
+    } finally {
+      // Close the zip so that its disk space is released as soon as it is deleted in cleanUp.
+      inputZipFile.close();
+    }
+    buildMetrics.recordPhaseTimes(buildResult.getPhaseTimes());
     String buildOutput = buildResult.getOutput();
     LOG.info("Build output: " + buildOutput);
     String buildError = buildResult.getError();
@@ -625,7 +832,30 @@ public class BuildServer {
     }
 
     // Now that the command line options have been processed, we can create the buildExecutor.
-    buildExecutor = new NonQueuingExecutor(commandLineOptions.maxSimultaneousBuilds);
+    buildExecutor = new BuildScheduler(commandLineOptions.maxSimultaneousBuilds,
+      commandLineOptions.maxQueuedBuilds);
+    if (commandLineOptions.kawaWorkers > 0) {
+      Compiler.setKawaCompilerPool(new KawaCompilerPool(commandLineOptions.kawaWorkers,
+          commandLineOptions.kawaJobTimeoutSecs * 1000L));
+    }
+    Compiler.setBuildMetrics(buildMetrics);
+    if (commandLineOptions.buildPhaseThreads > 0) {
+      Compiler.setPhaseExecutor(
+          Executors.newFixedThreadPool(commandLineOptions.buildPhaseThreads));
+    }
+    if (commandLineOptions.buildCacheDir != null) {
+      Compiler.setBuildCache(new BuildCache(new File(commandLineOptions.buildCacheDir),
+          commandLineOptions.buildCacheEntries));
+    }
+    if (commandLineOptions.assetCacheDir != null) {
+      assetCache = new AssetCache(new File(commandLineOptions.assetCacheDir),
+          commandLineOptions.assetCacheMb * 1024L * 1024L);
+    }
+    if (commandLineOptions.workDir != null) {
+      ProjectBuilder.setWorkDirectory(new File(commandLineOptions.workDir),
+          commandLineOptions.port);
+    }
+    ProjectBuilder.setMaxExtractedBytes(commandLineOptions.maxProjectSizeMb * 1024L * 1024L);
 
     int port = commandLineOptions.port;
     SelectorThread threadSelector = GrizzlyServerFactory.create("http://localhost:" + port + "/");
@@ -637,11 +867,23 @@ public class BuildServer {
       LOG.info("Maximum simultanous builds = unlimited!");
     } else {
       LOG.info("Maximum simultanous builds = " + commandLineOptions.maxSimultaneousBuilds);
+      LOG.info("Maximum queued builds = " + commandLineOptions.maxQueuedBuilds);
+    }
+    if (commandLineOptions.kawaWorkers > 0) {
+      LOG.info("Resident Kawa compiler processes = " + commandLineOptions.kawaWorkers);
+    }
+    if (commandLineOptions.buildCacheDir != null) {
+      LOG.info("Build cache = " + commandLineOptions.buildCacheDir);
+    }
+    if (commandLineOptions.assetCacheDir != null) {
+      LOG.info("Asset cache = " + commandLineOptions.assetCacheDir);
     }
     LOG.info("Visit: http://" + hostAddress + ":" + port +
       "/buildserver/health for server health");
     LOG.info("Visit: http://" + hostAddress + ":" + port +
       "/buildserver/vars for server values");
+    LOG.info("Visit: http://" + hostAddress + ":" + port +
+      "/buildserver/metrics for server metrics");
     LOG.info("Server running");
   }
 
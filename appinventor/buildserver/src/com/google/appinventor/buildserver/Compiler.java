@@ -14,6 +14,7 @@ import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.common.io.Resources;
 import com.android.ide.common.internal.AaptCruncher;
 import com.android.ide.common.internal.PngCruncher;
@@ -32,6 +33,7 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintStream;
@@ -42,11 +44,17 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -71,11 +79,25 @@ public final class Compiler {
    * Ext == External, ext == external, EXT == EXTERNAL
    */
 
-  public static int currentProgress = 10;
-
   // Kawa and DX processes can use a lot of memory. We only launch one Kawa or DX process at a time.
   private static final Object SYNC_KAWA_OR_DX = new Object();
 
+  // Resident Kawa processes used instead of forking kawa.repl for every build, if configured.
+  private static KawaCompilerPool kawaCompilerPool = null;
+
+  // Cache of the outputs of earlier builds, used to skip unchanged work, if configured.
+  private static BuildCache buildCache = null;
+
+  // Distributions of the builds run by this server, if collected.
+  private static BuildMetrics buildMetrics = null;
+
+  // Threads on which build phases run in parallel with the Kawa compilation, if configured.
+  private static Executor phaseExecutor = null;
+
+  // Kinds of build cache entries.
+  private static final String KAWA_CACHE = "kawa";
+  private static final String AAPT_CACHE = "aapt";
+
   private static final String SLASH = File.separator;
   private static final String COLON = File.pathSeparator;
 
@@ -161,6 +183,12 @@ public final class Compiler {
 
   @VisibleForTesting
   static final String YAIL_RUNTIME = RUNTIME_FILES_DIR + "runtime.scm";
+  // The simple name of the class that Kawa compiles runtime.scm to.
+  private static final String RUNTIME_CLASS_NAME = "runtime";
+  // The Java system property that the android-log macro in runtime.scm reads when it is
+  // expanded, to decide whether YAIL debug logging is compiled in.
+  @VisibleForTesting
+  static final String YAIL_LOGGING_PROPERTY = "appinventor.yail.logging";
 
   private final ConcurrentMap<String, Set<String>> assetsNeeded =
       new ConcurrentHashMap<String, Set<String>>();
@@ -236,6 +264,12 @@ public final class Compiler {
   private String dexCacheDir;
   private boolean hasSecondDex = false; // True if classes2.dex should be added to the APK
 
+  // Wall time of each build phase in milliseconds, in the order in which the phases ran.
+  private final Map<String, Long> phaseTimes;
+
+  // The progress of this build, in percent, as reported to App Inventor.
+  private final AtomicInteger progress;
+
   private JSONArray simpleCompsBuildInfo;
   private JSONArray extCompsBuildInfo;
   private Set<String> simpleCompTypes;  // types needed by the project
@@ -796,6 +830,8 @@ public final class Compiler {
    * @param userErrors stream to write user-visible error messages
    * @param keystoreFilePath
    * @param childProcessRam   maximum RAM for child processes, in MBs.
+   * @param phaseTimes  map that receives the wall time of each build phase, in milliseconds
+   * @param progress  receives the progress of the build, in percent
    * @return  {@code true} if the compilation succeeds, {@code false} otherwise
    * @throws JSONException
    * @throws IOException
@@ -803,12 +839,14 @@ public final class Compiler {
   public static boolean compile(Project project, Set<String> compTypes,
                                 PrintStream out, PrintStream err, PrintStream userErrors,
                                 boolean isForCompanion, String keystoreFilePath,
-                                int childProcessRam, String dexCacheDir) throws IOException, JSONException {
+                                int childProcessRam, String dexCacheDir,
+                                Map<String, Long> phaseTimes, AtomicInteger progress)
+      throws IOException, JSONException {
     long start = System.currentTimeMillis();
 
     // Create a new compiler instance for the compilation
-    Compiler compiler = new Compiler(project, compTypes, out, err, userErrors, isForCompanion,
-                                     childProcessRam, dexCacheDir);
+    final Compiler compiler = new Compiler(project, compTypes, out, err, userErrors, isForCompanion,
+                                           childProcessRam, dexCacheDir, phaseTimes, progress);
 
     compiler.generateAssets();
     compiler.generateActivities();
@@ -828,13 +866,14 @@ public final class Compiler {
     File buildDir = createDir(project.getBuildDirectory());
 
     // Prepare application icon.
+    long phaseStart = System.currentTimeMillis();
     out.println("________Preparing application icon");
-    File resDir = createDir(buildDir, "res");
+    final File resDir = createDir(buildDir, "res");
     File drawableDir = createDir(resDir, "drawable");
     if (!compiler.prepareApplicationIcon(new File(drawableDir, "ya.png"))) {
       return false;
     }
-    setProgress(15);
+    compiler.setProgress(15);
 
     // Create anim directory and animation xml files
     out.println("________Creating animation xml");
@@ -851,14 +890,16 @@ public final class Compiler {
         !compiler.createValuesXml(style21Dir, "-v21")) {
       return false;
     }
+    phaseStart = compiler.recordPhaseTime("resources", phaseStart);
 
     // Generate AndroidManifest.xml
     out.println("________Generating manifest file");
-    File manifestFile = new File(buildDir, "AndroidManifest.xml");
+    final File manifestFile = new File(buildDir, "AndroidManifest.xml");
     if (!compiler.writeAndroidManifest(manifestFile)) {
       return false;
     }
-    setProgress(20);
+    compiler.setProgress(20);
+    phaseStart = compiler.recordPhaseTime("manifest", phaseStart);
 
     // Insert native libraries
     out.println("________Attaching native libraries");
@@ -877,29 +918,50 @@ public final class Compiler {
     if (!compiler.attachCompAssets()) {
       return false;
     }
+    if (buildMetrics != null) {
+      buildMetrics.recordExtensions(compiler.explodedAarLibs.size(), compiler.extCompTypes.size());
+    }
+    phaseStart = compiler.recordPhaseTime("attach", phaseStart);
 
-    // Invoke aapt to package everything up
-    out.println("________Invoking AAPT");
-    File deployDir = createDir(buildDir, "deploy");
-    String tmpPackageName = deployDir.getAbsolutePath() + SLASH +
+    // Invoke aapt to package everything up and generate the R classes. Kawa depends on neither,
+    // so these phases run in parallel with the Kawa compilation if a phase executor is set.
+    final File deployDir = createDir(buildDir, "deploy");
+    final String tmpPackageName = deployDir.getAbsolutePath() + SLASH +
         project.getProjectName() + ".ap_";
-    File srcJavaDir = createDirectory(buildDir, "generated/src");
-    File rJavaDir = createDirectory(buildDir, "generated/symbols");
-    if (!compiler.runAaptPackage(manifestFile, resDir, tmpPackageName, srcJavaDir, rJavaDir)) {
-      return false;
-    }
-    setProgress(30);
+    final File srcJavaDir = createDirectory(buildDir, "generated/src");
+    final File rJavaDir = createDirectory(buildDir, "generated/symbols");
+    final File classesDir = createDir(buildDir, "classes");
+    FutureTask<Boolean> resourcePhases = startPhases(new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        long phaseStart = System.currentTimeMillis();
+        compiler.out.println("________Invoking AAPT");
+        if (!compiler.runAaptPackage(manifestFile, resDir, tmpPackageName, srcJavaDir, rJavaDir)) {
+          return false;
+        }
+        compiler.setProgress(30);
+        phaseStart = compiler.recordPhaseTime("aapt", phaseStart);
+        if (!compiler.generateRClasses(classesDir)) {
+          return false;
+        }
+        compiler.recordPhaseTime("rClasses", phaseStart);
+        return true;
+      }
+    });
 
     // Create class files.
+    phaseStart = System.currentTimeMillis();
     out.println("________Compiling source files");
-    File classesDir = createDir(buildDir, "classes");
-    if (!compiler.generateRClasses(classesDir)) {
-      return false;
+    boolean classesGenerated = compiler.generateClasses(classesDir);
+    if (classesGenerated) {
+      compiler.setProgress(35);
+      compiler.recordPhaseTime("kawa", phaseStart);
     }
-    if (!compiler.generateClasses(classesDir)) {
+    // Always wait for the other phases, since the caller deletes the build directory.
+    if (!compiler.finishPhases(resourcePhases) || !classesGenerated) {
       return false;
     }
-    setProgress(35);
+    phaseStart = System.currentTimeMillis();
 
     // Invoke dx on class files
     out.println("________Invoking DX");
@@ -914,16 +976,18 @@ public final class Compiler {
     // and with the original app class loader as the parent of the new one.
     // TODONE(zhuowei): Now using the new Android DX tool to merge dex files
     // Needs to specify a writable cache dir on the command line that persists after shutdown
-    // Each pre-dexed file is identified via its MD5 hash (since the standard Android SDK's
-    // method of identifying via a hash of the path won't work when files
-    // are copied into temporary storage) and processed via a hacked up version of
-    // Android SDK's Dex Ant task
+    // Each pre-dexed file is identified via a hash of its content, the dx tool and the dx flags
+    // (since the standard Android SDK's method of identifying via a hash of the path won't work
+    // when files are copied into temporary storage) and processed via a hacked up version of
+    // Android SDK's Dex Ant task. Only the classes compiled for this project are dexed on every
+    // build; the pre-dexed libraries are merged into them.
     File tmpDir = createDirectory(buildDir, "tmp");
     String dexedClassesDir = tmpDir.getAbsolutePath();
     if (!compiler.runDx(classesDir, dexedClassesDir, false)) {
       return false;
     }
-    setProgress(85);
+    compiler.setProgress(85);
+    phaseStart = compiler.recordPhaseTime("dx", phaseStart);
 
     // Seal the apk with ApkBuilder
     out.println("________Invoking ApkBuilder");
@@ -932,21 +996,25 @@ public final class Compiler {
     if (!compiler.runApkBuilder(apkAbsolutePath, tmpPackageName, dexedClassesDir)) {
       return false;
     }
-    setProgress(95);
+    compiler.setProgress(95);
+    phaseStart = compiler.recordPhaseTime("apkBuilder", phaseStart);
 
     // Sign the apk file
     out.println("________Signing the apk file");
     if (!compiler.runJarSigner(apkAbsolutePath, keystoreFilePath)) {
       return false;
     }
+    phaseStart = compiler.recordPhaseTime("jarSigner", phaseStart);
 
     // ZipAlign the apk file
     out.println("________ZipAligning the apk file");
     if (!compiler.runZipAlign(apkAbsolutePath, tmpDir)) {
       return false;
     }
+    compiler.recordPhaseTime("zipAlign", phaseStart);
+    compiler.recordPhaseTime("total", start);
 
-    setProgress(100);
+    compiler.setProgress(100);
 
     out.println("Build finished in " +
         ((System.currentTimeMillis() - start) / 1000.0) + " seconds");
@@ -1041,6 +1109,14 @@ public final class Compiler {
   Compiler(Project project, Set<String> compTypes, PrintStream out, PrintStream err,
            PrintStream userErrors, boolean isForCompanion,
            int childProcessMaxRam, String dexCacheDir) {
+    this(project, compTypes, out, err, userErrors, isForCompanion, childProcessMaxRam,
+        dexCacheDir, new LinkedHashMap<String, Long>(), new AtomicInteger());
+  }
+
+  private Compiler(Project project, Set<String> compTypes, PrintStream out, PrintStream err,
+                   PrintStream userErrors, boolean isForCompanion,
+                   int childProcessMaxRam, String dexCacheDir, Map<String, Long> phaseTimes,
+                   AtomicInteger progress) {
     this.project = project;
 
     prepareCompTypes(compTypes);
@@ -1052,7 +1128,87 @@ public final class Compiler {
     this.isForCompanion = isForCompanion;
     this.childProcessRamMb = childProcessMaxRam;
     this.dexCacheDir = dexCacheDir;
+    this.phaseTimes = phaseTimes;
+    this.progress = progress;
+  }
+
+  /**
+   * Sets the pool of resident Kawa processes used to compile YAIL. If no pool is set, a new Kawa
+   * process is started for every build.
+   *
+   * @param pool  the pool to use, or {@code null}
+   */
+  static void setKawaCompilerPool(KawaCompilerPool pool) {
+    kawaCompilerPool = pool;
+  }
+
+  /**
+   * Sets the cache used to reuse the classes of unchanged screens and the resource package of
+   * unchanged resources. If no cache is set, every build starts from scratch.
+   *
+   * @param cache  the cache to use, or {@code null}
+   */
+  static void setBuildCache(BuildCache cache) {
+    buildCache = cache;
+  }
+
+  /**
+   * Sets the metrics that record the number of extensions used by each build.
+   *
+   * @param metrics  the metrics to record to, or {@code null}
+   */
+  static void setBuildMetrics(BuildMetrics metrics) {
+    buildMetrics = metrics;
+  }
+
+  /**
+   * Sets the executor on which AAPT and the generation of the R classes run while Kawa compiles
+   * the project. The number of its threads bounds the CPU used by these phases on this server.
+   * If no executor is set, all phases run one after the other.
+   *
+   * @param executor  the executor to use, or {@code null}
+   */
+  static void setPhaseExecutor(Executor executor) {
+    phaseExecutor = executor;
+  }
 
+  /*
+   * Records the wall time of a build phase that started at startMillis and returns the current
+   * time, which is the start of the next phase.
+   */
+  private long recordPhaseTime(String phase, long startMillis) {
+    long now = System.currentTimeMillis();
+    synchronized (phaseTimes) {
+      phaseTimes.put(phase, now - startMillis);
+    }
+    return now;
+  }
+
+  /*
+   * Starts build phases on the phase executor, or runs them right away if there is none.
+   */
+  private static FutureTask<Boolean> startPhases(Callable<Boolean> phases) {
+    FutureTask<Boolean> task = new FutureTask<Boolean>(phases);
+    Executor executor = phaseExecutor;
+    if (executor == null) {
+      task.run();
+    } else {
+      executor.execute(task);
+    }
+    return task;
+  }
+
+  /*
+   * Waits for build phases started with startPhases and returns whether they succeeded.
+   */
+  private boolean finishPhases(FutureTask<Boolean> task) {
+    try {
+      return Uninterruptibles.getUninterruptibly(task);
+    } catch (ExecutionException e) {
+      LOG.log(Level.SEVERE, "Build phase failed", e.getCause());
+      userErrors.print(String.format(ERROR_IN_STAGE, "Build"));
+      return false;
+    }
   }
 
   /*
@@ -1160,7 +1316,9 @@ public final class Compiler {
         }
       }
       if (explodedAarLibs.size() > 0) {
-        classpath.append(explodedAarLibs.getOutputDirectory().getAbsolutePath());
+        // This is where the R classes of the AAR libraries are generated. They aren't needed to
+        // compile YAIL, so they may not exist yet if AAPT runs in parallel.
+        classpath.append(classesDir.getAbsolutePath());
         classpath.append(COLON);
       }
 
@@ -1169,26 +1327,60 @@ public final class Compiler {
       System.out.println("Libraries Classpath = " + classpath);
 
       String yailRuntime = getResource(YAIL_RUNTIME);
-      List<String> kawaCommandArgs = Lists.newArrayList();
+      String packageName = Signatures.getPackageName(project.getMainClass());
+      File runtimeClassFile = new File(classesDir,
+          packageName.replace('.', '/') + "/" + RUNTIME_CLASS_NAME + ".class");
+
+      // With a build cache, the classes of screens whose YAIL, runtime and libraries haven't
+      // changed are copied from the cache and only the other screens are compiled.
+      BuildCache cache = buildCache;
+      List<String> changedSourceFileNames = sourceFileNames;
+      boolean compileRuntime = true;
+      String runtimeCacheKey = null;
+      Map<String, String> classCacheKeys = new HashMap<String, String>();
+      if (cache != null) {
+        String inputsKey = BuildCache.key(packageName, String.valueOf(isForCompanion),
+            BuildCache.hashFile(new File(yailRuntime)), hashClasspath(classpath.toString()));
+        runtimeCacheKey = BuildCache.key(inputsKey, RUNTIME_CLASS_NAME);
+        compileRuntime = !cache.restore(KAWA_CACHE, runtimeCacheKey, classesDir);
+        changedSourceFileNames = Lists.newArrayList();
+        for (int i = 0; i < sourceFileNames.size(); i++) {
+          String sourceFileName = sourceFileNames.get(i);
+          String key = BuildCache.key(inputsKey, BuildCache.hashFile(new File(sourceFileName)));
+          if (!cache.restore(KAWA_CACHE, key, classesDir)) {
+            changedSourceFileNames.add(sourceFileName);
+            classCacheKeys.put(classFileNames.get(i), key);
+          }
+        }
+        String cacheMessage = "Reusing cached classes for " +
+            (sourceFileNames.size() - changedSourceFileNames.size()) + " of " +
+            sourceFileNames.size() + " screens";
+        out.println(cacheMessage);
+        LOG.info(cacheMessage);
+        if (changedSourceFileNames.isEmpty() && !compileRuntime) {
+          return true;
+        }
+      }
+
       int mx = childProcessRamMb - 200;
-      Collections.addAll(kawaCommandArgs,
-          System.getProperty("java.home") + "/bin/java",
-          "-Dfile.encoding=UTF-8",
-          "-mx" + mx + "M",
-          "-cp", classpath.toString(),
-          "kawa.repl",
-          "-f", yailRuntime,
+      List<String> kawaCompileArgs = Lists.newArrayList();
+      // Debug logging is only compiled into the Companion. The property is always set because a
+      // resident Kawa process keeps it from one build to the next.
+      Collections.addAll(kawaCompileArgs,
+          "-e", "(java.lang.System:setProperty \"" + YAIL_LOGGING_PROPERTY + "\" \""
+              + isForCompanion + "\")",
           "-d", classesDir.getAbsolutePath(),
-          "-P", Signatures.getPackageName(project.getMainClass()) + ".",
+          "-P", packageName + ".",
           "-C");
       // TODO(lizlooney) - we are currently using (and have always used) absolute paths for the
       // source file names. The resulting .class files contain references to the source file names,
       // including the name of the tmp directory that contains them. We may be able to avoid that
       // by using source file names that are relative to the project root and using the project
       // root as the working directory for the Kawa compiler process.
-      kawaCommandArgs.addAll(sourceFileNames);
-      kawaCommandArgs.add(yailRuntime);
-      String[] kawaCommandLine = kawaCommandArgs.toArray(new String[kawaCommandArgs.size()]);
+      kawaCompileArgs.addAll(changedSourceFileNames);
+      if (compileRuntime) {
+        kawaCompileArgs.add(yailRuntime);
+      }
 
       long start = System.currentTimeMillis();
       // Capture Kawa compiler stderr. The ODE server parses out the warnings and errors and adds
@@ -1196,9 +1388,31 @@ public final class Compiler {
       // buildserver/ProjectBuilder.processCompilerOutout.
       ByteArrayOutputStream kawaOutputStream = new ByteArrayOutputStream();
       boolean kawaSuccess;
-      synchronized (SYNC_KAWA_OR_DX) {
-        kawaSuccess = Execution.execute(null, kawaCommandLine,
-            System.out, new PrintStream(kawaOutputStream));
+      KawaCompilerPool pool = kawaCompilerPool;
+      if (pool != null) {
+        // The pool limits the number of simultaneous compilations itself.
+        try {
+          kawaSuccess = pool.compile(classpath.toString(), mx, yailRuntime, kawaCompileArgs,
+              System.out, new PrintStream(kawaOutputStream));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          kawaSuccess = false;
+        }
+      } else {
+        List<String> kawaCommandArgs = Lists.newArrayList();
+        Collections.addAll(kawaCommandArgs,
+            System.getProperty("java.home") + "/bin/java",
+            "-Dfile.encoding=UTF-8",
+            "-mx" + mx + "M",
+            "-cp", classpath.toString(),
+            "kawa.repl",
+            "-f", yailRuntime);
+        kawaCommandArgs.addAll(kawaCompileArgs);
+        String[] kawaCommandLine = kawaCommandArgs.toArray(new String[kawaCommandArgs.size()]);
+        synchronized (SYNC_KAWA_OR_DX) {
+          kawaSuccess = Execution.execute(null, kawaCommandLine,
+              System.out, new PrintStream(kawaOutputStream));
+        }
       }
       if (!kawaSuccess) {
         LOG.log(Level.SEVERE, "Kawa compile has failed.");
@@ -1222,6 +1436,17 @@ public final class Compiler {
           return false;
         }
       }
+
+      if (cache != null) {
+        for (Map.Entry<String, String> entry : classCacheKeys.entrySet()) {
+          cache.store(KAWA_CACHE, entry.getValue(), classesDir,
+              getModuleClassFiles(new File(entry.getKey())));
+        }
+        if (compileRuntime && runtimeClassFile.exists()) {
+          cache.store(KAWA_CACHE, runtimeCacheKey, classesDir,
+              getModuleClassFiles(runtimeClassFile));
+        }
+      }
     } catch (IOException e) {
       e.printStackTrace();
       userErrors.print(String.format(ERROR_IN_STAGE, "Compile"));
@@ -1230,6 +1455,40 @@ public final class Compiler {
 
     return true;
   }
+  /*
+   * Returns the class files that Kawa generated for the module whose main class file is given,
+   * that is, the main class and its nested classes.
+   */
+  private static List<File> getModuleClassFiles(File classFile) {
+    final String baseName = classFile.getName().substring(0,
+        classFile.getName().length() - ".class".length());
+    File[] nestedClassFiles = classFile.getParentFile().listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.startsWith(baseName + "$") && name.endsWith(".class");
+      }
+    });
+    List<File> classFiles = Lists.newArrayList(classFile);
+    if (nestedClassFiles != null) {
+      Collections.addAll(classFiles, nestedClassFiles);
+    }
+    return classFiles;
+  }
+
+  /*
+   * Returns a hash of the libraries on a class path. Directories, which only exist for the
+   * exploded AAR libraries whose classes.jar files are hashed too, contribute just their names,
+   * because they are in the temporary directory of the build.
+   */
+  private static String hashClasspath(String classpath) throws IOException {
+    List<String> hashes = Lists.newArrayList();
+    for (String entry : classpath.split(COLON)) {
+      File file = new File(entry);
+      hashes.add(file.isFile() ? BuildCache.hashFile(file) : file.getName());
+    }
+    return BuildCache.key(hashes.toArray(new String[hashes.size()]));
+  }
+
 
   private boolean runJarSigner(String apkAbsolutePath, String keystoreAbsolutePath) {
     // TODO(user): maybe make a command line flag for the jarsigner location
@@ -1482,6 +1741,30 @@ public final class Compiler {
       userErrors.print(String.format(ERROR_IN_STAGE, "AAPT"));
       return false;
     }
+    String packageName = Signatures.getPackageName(project.getMainClass());
+    if (explodedAarLibs.size() > 0) {
+      appRJava = new File(sourceOutputDir, packageName.replaceAll("\\.", "/") + "/R.java");
+      appRTxt = new File(symbolOutputDir, "R.txt");
+    }
+
+    // With a build cache, the package is reused if none of the resources, assets or libraries
+    // changed since an earlier build of the same project.
+    BuildCache cache = buildCache;
+    File buildDir = project.getBuildDirectory();
+    String cacheKey = null;
+    if (cache != null) {
+      try {
+        cacheKey = getAaptCacheKey(manifestFile, resDir, tmpPackageName, aaptTool);
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Unable to hash the AAPT inputs", e);
+      }
+      if (cacheKey != null && cache.restore(AAPT_CACHE, cacheKey, buildDir)) {
+        out.println("Reusing cached AAPT package");
+        LOG.info("Reusing cached AAPT package");
+        return true;
+      }
+    }
+
     if (!mergeResources(resDir, project.getBuildDirectory(), aaptTool)) {
       LOG.warning("Unable to merge resources");
       err.println("Unable to merge resources");
@@ -1505,7 +1788,6 @@ public final class Compiler {
     aaptPackageCommandLineArgs.add(tmpPackageName);
     if (explodedAarLibs.size() > 0) {
       // If AARs are used, generate R.txt for later processing
-      String packageName = Signatures.getPackageName(project.getMainClass());
       aaptPackageCommandLineArgs.add("-m");
       aaptPackageCommandLineArgs.add("-J");
       aaptPackageCommandLineArgs.add(sourceOutputDir.getAbsolutePath());
@@ -1513,8 +1795,6 @@ public final class Compiler {
       aaptPackageCommandLineArgs.add(packageName);
       aaptPackageCommandLineArgs.add("--output-text-symbols");
       aaptPackageCommandLineArgs.add(symbolOutputDir.getAbsolutePath());
-      appRJava = new File(sourceOutputDir, packageName.replaceAll("\\.", "/") + "/R.java");
-      appRTxt = new File(symbolOutputDir, "R.txt");
     }
     aaptPackageCommandLineArgs.add(libsDir.getAbsolutePath());
     String[] aaptPackageCommandLine = aaptPackageCommandLineArgs.toArray(new String[aaptPackageCommandLineArgs.size()]);
@@ -1532,9 +1812,48 @@ public final class Compiler {
     out.println(aaptTimeMessage);
     LOG.info(aaptTimeMessage);
 
+    if (cacheKey != null) {
+      List<File> outputs = Lists.newArrayList(new File(tmpPackageName));
+      if (explodedAarLibs.size() > 0) {
+        outputs.add(appRJava);
+        outputs.add(appRTxt);
+      }
+      cache.store(AAPT_CACHE, cacheKey, buildDir, outputs);
+    }
+
     return true;
   }
 
+  /*
+   * Returns the build cache key of the AAPT package, which covers the manifest, the resources
+   * and assets of the project and of its AAR libraries, and the native libraries.
+   */
+  private String getAaptCacheKey(File manifestFile, File resDir, String tmpPackageName,
+      String aaptTool) throws IOException {
+    List<String> parts = Lists.newArrayList(
+        aaptTool,
+        new File(tmpPackageName).getName(),
+        Signatures.getPackageName(project.getMainClass()),
+        String.valueOf(explodedAarLibs.size() > 0),
+        BuildCache.hashFile(new File(getResource(ANDROID_RUNTIME))),
+        BuildCache.hashFile(manifestFile),
+        BuildCache.hashTree(resDir),
+        BuildCache.hashTree(project.getAssetsDirectory()),
+        BuildCache.hashTree(libsDir));
+    if (explodedAarLibs.size() > 0) {
+      // The AARs are exploded below the build directory, whose path differs for every build.
+      String aarPrefix = project.getBuildDirectory().getCanonicalPath() + SLASH;
+      List<String> aarResources = Lists.newArrayList();
+      for (File resource : explodedAarLibs.getResources()) {
+        aarResources.add(resource.getCanonicalPath().replace(aarPrefix, "") + "="
+            + BuildCache.hashFile(resource));
+      }
+      Collections.sort(aarResources);
+      parts.addAll(aarResources);
+    }
+    return BuildCache.key(parts.toArray(new String[parts.size()]));
+  }
+
   private boolean insertNativeLibs(File buildDir){
     /**
      * Native libraries are targeted for particular processor architectures.
@@ -1852,20 +2171,13 @@ public final class Compiler {
     return dir;
   }
 
-  private static int setProgress(int increments) {
-    Compiler.currentProgress = increments;
-    LOG.info("The current progress is "
-              + Compiler.currentProgress + "%");
-    return Compiler.currentProgress;
-  }
-
-  public static int getProgress() {
-    if (Compiler.currentProgress==100) {
-      Compiler.currentProgress = 10;
-      return 100;
-    } else {
-      return Compiler.currentProgress;
-    }
+  // AAPT runs alongside Kawa, so a phase may finish after a later one. Progress only goes up.
+  private void setProgress(int increments) {
+    int current;
+    do {
+      current = progress.get();
+    } while (increments > current && !progress.compareAndSet(current, increments));
+    LOG.info("The current progress is " + progress.get() + "%");
   }
 
   private void readBuildInfo() {
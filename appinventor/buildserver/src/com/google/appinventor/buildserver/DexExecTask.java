@@ -17,23 +17,31 @@
 package com.google.appinventor.buildserver;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-import com.google.common.hash.HashCode;
-import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 
 /**
  * Dex task, modified from the Android SDK to run in BuildServer.
  * Custom task to execute dx while handling dependencies.
+ *
+ * Pre-dexed libraries are stored in the dexed libs directory under a name derived from the
+ * content of the library, the content of the dx tool and the dx flags, so the directory can be
+ * shared by concurrent builds and kept across build server restarts. Entries are written to a
+ * temporary file and renamed into place, so readers never see a partially written library.
  */
 public class DexExecTask  {
 
@@ -44,9 +52,14 @@ public class DexExecTask  {
     private boolean mNoLocals = false;
     private int mChildProcessRamMb = 1024;
     private boolean mDisableDexMerger = false;
-    private static Map<String, String> alreadyChecked = new HashMap<String, String>();
 
-    private static Object semaphore = new Object(); // Used to protect dex cache creation
+    // Content hashes of the files seen so far, keyed by path, size and modification time
+    private static final ConcurrentMap<String, String> alreadyChecked =
+        new ConcurrentHashMap<String, String>();
+
+    // Locks that keep two builds from pre-dexing the same library at the same time
+    private static final ConcurrentMap<String, Object> dexLocks =
+        new ConcurrentHashMap<String, Object>();
 
 
     /**
@@ -100,72 +113,127 @@ public class DexExecTask  {
             return true;
         }
 
-        synchronized(semaphore) {
-
-            final int count = inputs.size();
-            boolean allSuccessful = true;
-            for (int i = 0 ; i < count; i++) {
-                File input = inputs.get(i);
-                if (input.isFile()) {
-                    // check if this libs needs to be pre-dexed
-                    String fileName = getDexFileName(input);
-                    File dexedLib = new File(mDexedLibs, fileName);
-                    String dexedLibPath = dexedLib.getAbsolutePath();
-
-                    if (dexedLib.isFile() == false/*||
-                                                    dexedLib.lastModified() < input.lastModified()*/) {
-
+        final int count = inputs.size();
+        boolean allSuccessful = true;
+        for (int i = 0 ; i < count; i++) {
+            File input = inputs.get(i);
+            if (input.isFile()) {
+                // check if this libs needs to be pre-dexed
+                String fileName = getDexFileName(input);
+                if (fileName == null) {
+                    // The library couldn't be hashed, so leave it for the final dx run to
+                    // convert rather than caching it under a key that doesn't identify it.
+                    continue;
+                }
+                File dexedLib = new File(mDexedLibs, fileName);
+
+                Object lock = dexLocks.get(fileName);
+                if (lock == null) {
+                    Object newLock = new Object();
+                    lock = dexLocks.putIfAbsent(fileName, newLock);
+                    if (lock == null) {
+                        lock = newLock;
+                    }
+                }
+                synchronized (lock) {
+                    if (!dexedLib.isFile()) {
                         System.out.println(
                             String.format("Pre-Dexing %1$s -> %2$s",
                               input.getAbsolutePath(), fileName));
 
-                        if (dexedLib.isFile()) {
-                            dexedLib.delete();
-                        }
-
-                        boolean dexSuccess = runDx(input, dexedLibPath, false /*showInput*/);
+                        boolean dexSuccess = preDexLibrary(input, dexedLib);
                         allSuccessful = allSuccessful && dexSuccess;
                     } else {
                         System.out.println(
                             String.format("Using Pre-Dexed %1$s <- %2$s",
                               fileName, input.getAbsolutePath()));
                     }
-
-                    // replace the input with the pre-dex libs.
-                    inputs.set(i, dexedLib);
                 }
+
+                // replace the input with the pre-dex libs.
+                inputs.set(i, dexedLib);
             }
-            return allSuccessful;
         }
+        return allSuccessful;
     }
 
-    private String getDexFileName(File inputFile) {
-        // get the filename
-        String name = inputFile.getName();
-        // remove the extension
-        int pos = name.lastIndexOf('.');
-        if (pos != -1) {
-            name = name.substring(0, pos);
+    /**
+     * Runs dx on a single library, writing the result to a temporary file in the dexed libs
+     * directory that is then renamed to dexedLib. Another build server sharing the directory may
+     * win the race to create dexedLib; since both files have the same content, that is harmless.
+     */
+    private boolean preDexLibrary(File input, File dexedLib) {
+        File tmpLib;
+        try {
+            tmpLib = File.createTempFile("dex-tmp-", ".jar", new File(mDexedLibs));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
         }
+        try {
+            if (!runDx(input, tmpLib.getAbsolutePath(), false /*showInput*/)) {
+                return false;
+            }
+            try {
+                Files.move(tmpLib.toPath(), dexedLib.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmpLib.toPath(), dexedLib.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return dexedLib.isFile();
+        } finally {
+            tmpLib.delete();
+        }
+    }
 
-        String hashed = getHashFor(inputFile);
+    /**
+     * Returns the name of the cached, dexed version of a library, or null if the library or dx
+     * couldn't be read to compute it.
+     */
+    private String getDexFileName(File inputFile) {
+        String inputHash = getHashFor(inputFile);
+        String dxHash = getHashFor(new File(mExecutable));
+        if (inputHash == null || dxHash == null) {
+            return null;
+        }
+        // The dx version and flags are part of the key because they change the dexed output.
+        Hasher hasher = Hashing.sha1().newHasher();
+        hasher.putString(inputHash, StandardCharsets.UTF_8);
+        hasher.putString(dxHash, StandardCharsets.UTF_8);
+        for (String flag : getDxFlags()) {
+            hasher.putString(flag, StandardCharsets.UTF_8);
+        }
 
-        return "dex-cached-" + hashed + ".jar";
+        return "dex-cached-" + hasher.hash().toString() + ".jar";
     }
 
     private String getHashFor(File inputFile) {
-        String retval = alreadyChecked.get(inputFile.getAbsolutePath());
+        // Files are copied into fresh temporary paths, so the path alone doesn't identify the
+        // content. It does, together with the size and modification time, for files seen before.
+        String key = inputFile.getAbsolutePath() + ":" + inputFile.length() + ":" +
+            inputFile.lastModified();
+        String retval = alreadyChecked.get(key);
         if (retval != null) return retval;
-        // add a hash of the original file path
         try {
-            HashFunction hashFunction = Hashing.md5();
-            HashCode hashCode = hashFunction.hashBytes(Files.readAllBytes(inputFile.toPath()));
-            retval = hashCode.toString();
-            alreadyChecked.put(inputFile.getAbsolutePath(), retval);
+            Hasher hasher = Hashing.sha1().newHasher();
+            InputStream in = new FileInputStream(inputFile);
+            try {
+                byte[] buffer = new byte[65536];
+                int len;
+                while ((len = in.read(buffer)) > 0) {
+                    hasher.putBytes(buffer, 0, len);
+                }
+            } finally {
+                in.close();
+            }
+            retval = hasher.hash().toString();
+            alreadyChecked.put(key, retval);
             return retval;
         } catch (IOException e) {
             e.printStackTrace();
-            return "ERROR";
+            return null;
         }
     }
 
@@ -194,11 +262,7 @@ public class DexExecTask  {
         commandLineList.add(mExecutable);
 
         commandLineList.add("--dex");
-        commandLineList.add("--positions=lines");
-
-        if (mNoLocals) {
-            commandLineList.add("--no-locals");
-        }
+        commandLineList.addAll(getDxFlags());
 
         if (mVerbose) {
             commandLineList.add("--verbose");
@@ -223,6 +287,18 @@ public class DexExecTask  {
 
     }
 
+    /**
+     * Returns the dx flags that affect the content of the dexed output.
+     */
+    private List<String> getDxFlags() {
+        List<String> flags = new ArrayList<String>();
+        flags.add("--positions=lines");
+        if (mNoLocals) {
+            flags.add("--no-locals");
+        }
+        return flags;
+    }
+
     protected String getExecTaskName() {
         return "dx";
     }
@@ -0,0 +1,299 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Joiner;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A pool of resident Kawa compiler processes.
+ *
+ * <p>Starting a JVM and loading the YAIL runtime into Kawa takes longer than compiling a typical
+ * project, so instead of forking {@code kawa.repl} for every build, the pool keeps up to
+ * {@code maxWorkers} {@link KawaCompilerWorker} processes alive and hands them one compile job
+ * at a time. Workers are keyed by their class path and heap size, because the component
+ * libraries on the class path depend on the components used by the project. When the pool is
+ * full, the least recently used idle worker is stopped to make room for a new one.
+ *
+ * <p>At most {@code maxWorkers} compilations run at the same time; additional callers block until
+ * a worker becomes available. A job that runs for longer than the job timeout is treated as
+ * failed, and its worker is killed and replaced, so that a compilation that hangs can't hold on
+ * to a worker forever.
+ */
+final class KawaCompilerPool {
+  // Number of jobs after which a worker is retired, to bound the state that Kawa accumulates.
+  private static final int MAX_JOBS_PER_WORKER = 100;
+
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(KawaCompilerPool.class.getName());
+  private static final Joiner joiner = Joiner.on(" ");
+
+  // Kills the workers of jobs that time out.
+  private static final Timer watchdog = new Timer("Kawa worker watchdog", true);
+
+  private final int maxWorkers;
+  private final long jobTimeoutMillis;
+  private final Semaphore permits;
+
+  // Idle workers by key, in least recently used order. Guarded by this.
+  private final Map<String, Deque<Worker>> idleWorkers =
+      new LinkedHashMap<String, Deque<Worker>>(16, 0.75f, true);
+  // Number of worker processes that are alive, busy or idle. Guarded by this.
+  private int liveWorkers = 0;
+
+  /**
+   * Creates a KawaCompilerPool.
+   *
+   * @param maxWorkers the maximum number of resident Kawa processes
+   * @param jobTimeoutMillis the time after which a job is abandoned and its worker killed, in
+   *     milliseconds, or 0 for no limit
+   */
+  KawaCompilerPool(int maxWorkers, long jobTimeoutMillis) {
+    this.maxWorkers = maxWorkers;
+    this.jobTimeoutMillis = jobTimeoutMillis;
+    this.permits = new Semaphore(maxWorkers, true);
+  }
+
+  /**
+   * Compiles YAIL sources with a resident Kawa process.
+   *
+   * @param classpath  the class path of the Kawa process
+   * @param heapMb  the maximum heap of the Kawa process, in MB
+   * @param yailRuntime  path to runtime.scm, which is loaded when the process starts
+   * @param args  the Kawa arguments for this compilation, without {@code -f runtime.scm}
+   * @param out  stream to redirect the standard output of the compilation to
+   * @param err  stream to redirect the compiler messages to
+   * @return  {@code true} if Kawa reported success, {@code false} otherwise, including when the
+   *     job timed out
+   */
+  boolean compile(String classpath, int heapMb, String yailRuntime, List<String> args,
+      PrintStream out, PrintStream err) throws InterruptedException {
+    String key = heapMb + "|" + yailRuntime + "|" + classpath;
+    permits.acquire();
+    try {
+      Worker worker = takeIdleWorker(key);
+      if (worker == null) {
+        try {
+          worker = new Worker(key, classpath, heapMb, yailRuntime);
+        } catch (IOException e) {
+          LOG.log(Level.WARNING, "Unable to start Kawa worker", e);
+          workerStopped();
+          return false;
+        }
+      }
+      boolean success = worker.run(args, out, err, jobTimeoutMillis);
+      if (worker.isAlive() && worker.jobCount < MAX_JOBS_PER_WORKER) {
+        returnIdleWorker(worker);
+      } else {
+        worker.stop();
+        workerStopped();
+      }
+      return success;
+    } finally {
+      permits.release();
+    }
+  }
+
+  int getMaxWorkers() {
+    return maxWorkers;
+  }
+
+  synchronized int getLiveWorkerCount() {
+    return liveWorkers;
+  }
+
+  /*
+   * Returns an idle worker for the given key, or null if a new worker must be started. In the
+   * latter case, room for the new worker has been made and it has been counted as live.
+   */
+  private synchronized Worker takeIdleWorker(String key) {
+    Deque<Worker> workers = idleWorkers.get(key);
+    if (workers != null) {
+      while (!workers.isEmpty()) {
+        Worker worker = workers.pollFirst();
+        if (worker.isAlive()) {
+          if (workers.isEmpty()) {
+            idleWorkers.remove(key);
+          }
+          return worker;
+        }
+        liveWorkers--;
+      }
+      idleWorkers.remove(key);
+    }
+    // Stop least recently used idle workers until there is room for a new one.
+    Iterator<Deque<Worker>> it = idleWorkers.values().iterator();
+    while (liveWorkers >= maxWorkers && it.hasNext()) {
+      Deque<Worker> lru = it.next();
+      lru.pollLast().stop();
+      liveWorkers--;
+      if (lru.isEmpty()) {
+        it.remove();
+      }
+    }
+    liveWorkers++;
+    return null;
+  }
+
+  private synchronized void returnIdleWorker(Worker worker) {
+    Deque<Worker> workers = idleWorkers.get(worker.key);
+    if (workers == null) {
+      workers = new ArrayDeque<Worker>();
+      idleWorkers.put(worker.key, workers);
+    }
+    workers.addFirst(worker);
+  }
+
+  private synchronized void workerStopped() {
+    liveWorkers--;
+  }
+
+  /*
+   * Returns the location of the build server classes, so that the child process can find
+   * KawaCompilerWorker.
+   */
+  private static String getWorkerClasspath() {
+    try {
+      return new File(KawaCompilerWorker.class.getProtectionDomain().getCodeSource()
+          .getLocation().toURI()).getAbsolutePath();
+    } catch (URISyntaxException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /*
+   * A resident Kawa process.
+   */
+  private static class Worker {
+    private final String key;
+    private final Process process;
+    private final Writer stdin;
+    private final BufferedReader stderr;
+    private final StdoutPump stdoutPump;
+    private int jobCount = 0;
+    private boolean alive = true;
+
+    Worker(String key, String classpath, int heapMb, String yailRuntime) throws IOException {
+      this.key = key;
+      String[] command = {
+          System.getProperty("java.home") + "/bin/java",
+          "-Dfile.encoding=UTF-8",
+          "-mx" + heapMb + "M",
+          "-cp", classpath + File.pathSeparator + getWorkerClasspath(),
+          KawaCompilerWorker.class.getName(),
+          yailRuntime
+      };
+      LOG.info("____Starting Kawa worker " + joiner.join(command));
+      process = Runtime.getRuntime().exec(command);
+      stdin = new OutputStreamWriter(process.getOutputStream(), "UTF-8");
+      stderr = new BufferedReader(new InputStreamReader(process.getErrorStream(), "UTF-8"));
+      stdoutPump = new StdoutPump(process.getInputStream());
+    }
+
+    /*
+     * Sends a job to the worker and waits for it to complete, copying the compiler messages to
+     * err. If the job takes longer than timeoutMillis, the worker is killed.
+     */
+    boolean run(List<String> args, PrintStream out, PrintStream err, final long timeoutMillis) {
+      jobCount++;
+      stdoutPump.setOutput(out);
+      TimerTask kill = new TimerTask() {
+        @Override
+        public void run() {
+          LOG.warning("Kawa job timed out after " + timeoutMillis + " ms, killing its worker");
+          process.destroy();
+        }
+      };
+      if (timeoutMillis > 0) {
+        watchdog.schedule(kill, timeoutMillis);
+      }
+      try {
+        stdin.write(args.size() + "\n");
+        for (String arg : args) {
+          stdin.write(arg);
+          stdin.write("\n");
+        }
+        stdin.flush();
+        String line;
+        while ((line = stderr.readLine()) != null) {
+          if (line.startsWith(KawaCompilerWorker.JOB_DONE)) {
+            return line.endsWith("ok");
+          }
+          err.println(line);
+        }
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Lost connection to Kawa worker", e);
+      } finally {
+        kill.cancel();
+        err.flush();
+      }
+      // Kawa exits the process on compilation errors, and the watchdog kills it on a timeout.
+      alive = false;
+      return false;
+    }
+
+    boolean isAlive() {
+      return alive;
+    }
+
+    void stop() {
+      alive = false;
+      process.destroy();
+    }
+  }
+
+  /*
+   * Copies the standard output of a worker to the stream of the job it is running.
+   */
+  private static class StdoutPump extends Thread {
+    private final InputStream input;
+    private volatile PrintStream output = System.out;
+
+    StdoutPump(InputStream input) {
+      this.input = input;
+      setDaemon(true);
+      start();
+    }
+
+    void setOutput(PrintStream output) {
+      this.output = output;
+    }
+
+    @Override
+    public void run() {
+      try {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input));
+        String line;
+        while ((line = reader.readLine()) != null) {
+          output.println(line);
+        }
+      } catch (IOException ioe) {
+        // OK to ignore...
+        LOG.log(Level.FINE, "Kawa worker output closed", ioe);
+      }
+    }
+  }
+}
@@ -0,0 +1,102 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Entry point of a resident Kawa compiler process.
+ *
+ * <p>A worker loads the YAIL runtime once at startup and then compiles one job at a time, where
+ * each job is read from standard input as a line containing the number of arguments followed by
+ * one line per argument. The arguments are the same ones that would be passed to
+ * {@code kawa.repl} after {@code -f runtime.scm}. Once a job is finished, the worker writes
+ * {@link #JOB_DONE} followed by {@code ok} or {@code error} on standard error.
+ *
+ * <p>Kawa calls {@code System.exit} when a source file fails to compile, so a worker may exit in
+ * the middle of a job. {@link KawaCompilerPool} treats that as the end of the job and replaces
+ * the worker. The worker also exits when its standard input is closed.
+ *
+ * <p>This class runs in the child process with only Kawa and the component libraries on the
+ * class path. Kawa is not on the class path of the build server itself, which is why it is
+ * reached through reflection here.
+ */
+public final class KawaCompilerWorker {
+  /**
+   * Marker written on standard error once a job has been handled.
+   */
+  static final String JOB_DONE = "__KAWA_WORKER_JOB_DONE__";
+
+  private static Method processArgs;
+  private static Object moduleManager;
+  private static Method clearModules;
+  private static Method outDefault;
+  private static Method errDefault;
+
+  private KawaCompilerWorker() {
+  }
+
+  /**
+   * Main entry point.
+   *
+   * @param args  the path of the YAIL runtime to preload
+   */
+  public static void main(String[] args) throws Throwable {
+    Class<?> repl = Class.forName("kawa.repl");
+    processArgs = repl.getMethod("processArgs", String[].class, int.class, int.class);
+    Class<?> moduleManagerClass = Class.forName("gnu.expr.ModuleManager");
+    moduleManager = moduleManagerClass.getMethod("getInstance").invoke(null);
+    clearModules = moduleManagerClass.getMethod("clear");
+    Class<?> outPort = Class.forName("gnu.mapping.OutPort");
+    outDefault = outPort.getMethod("outDefault");
+    errDefault = outPort.getMethod("errDefault");
+
+    runKawa(new String[] { "-f", args[0] });
+    flushAll();
+
+    BufferedReader in = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+    String line;
+    while ((line = in.readLine()) != null) {
+      int count = Integer.parseInt(line.trim());
+      String[] jobArgs = new String[count];
+      for (int i = 0; i < count; i++) {
+        jobArgs[i] = in.readLine();
+      }
+      boolean success = true;
+      try {
+        // Forget the modules compiled by the previous job so that they can't be picked up by
+        // a project that happens to use the same class names.
+        clearModules.invoke(moduleManager);
+        runKawa(jobArgs);
+      } catch (Throwable e) {
+        e.printStackTrace();
+        success = false;
+      }
+      flushAll();
+      System.err.println(JOB_DONE + " " + (success ? "ok" : "error"));
+      System.err.flush();
+    }
+  }
+
+  private static void runKawa(String[] args) throws Throwable {
+    try {
+      processArgs.invoke(null, args, 0, args.length);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  private static void flushAll() throws Exception {
+    ((Writer) outDefault.invoke(null)).flush();
+    ((Writer) errDefault.invoke(null)).flush();
+    System.out.flush();
+    System.err.flush();
+  }
+}
@@ -15,26 +15,31 @@ import com.google.common.collect.Collections2;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
-import com.google.common.io.InputSupplier;
 import com.google.common.io.Resources;
 
 import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -78,6 +83,50 @@ public final class ProjectBuilder {
   private static final String ALL_COMPONENT_TYPES =
       Compiler.RUNTIME_FILES_DIR + "simple_components.txt";
 
+  // The start of the names of the build directories.
+  private static final String BUILD_DIR_PREFIX = "build-";
+
+  // The directory in which the build directories are created, or null for java.io.tmpdir.
+  private static File workDirectory = null;
+
+  // The maximum total size of the files extracted from a project zip. 0 means unlimited.
+  private static long maxExtractedBytes = 0;
+
+  /**
+   * Sets the directory in which the temporary directories of the builds are created. They are
+   * created in a subdirectory named after the port of this build server, which no other running
+   * build server can be using, so the directory can be shared. Build directories left behind in
+   * the subdirectory by a build server on the same port that was killed during a build are
+   * deleted.
+   *
+   * @param dir  the work directory, for example on a memory-backed file system
+   * @param port  the port this build server listens on
+   */
+  static void setWorkDirectory(File dir, int port) {
+    File ownDir = new File(dir, "buildserver-" + port);
+    ownDir.mkdirs();
+    File[] staleDirs = ownDir.listFiles();
+    if (staleDirs != null) {
+      for (File staleDir : staleDirs) {
+        if (staleDir.getName().startsWith(BUILD_DIR_PREFIX)) {
+          LOG.info("deleting stale build directory " + staleDir);
+          FileUtils.deleteQuietly(staleDir);
+        }
+      }
+    }
+    workDirectory = ownDir;
+  }
+
+  /**
+   * Sets the maximum total size of the files extracted from a project zip. Builds of larger
+   * projects fail instead of filling up the work directory.
+   *
+   * @param maxBytes  the maximum size in bytes, or 0 for unlimited
+   */
+  static void setMaxExtractedBytes(long maxBytes) {
+    maxExtractedBytes = maxBytes;
+  }
+
   public File getOutputApk() {
     return outputApk;
   }
@@ -87,10 +136,11 @@ public final class ProjectBuilder {
   }
 
   /**
-   * Creates a new directory beneath the system's temporary directory (as
-   * defined by the {@code java.io.tmpdir} system property), and returns its
-   * name. The name of the directory will contain the current time (in millis),
-   * and a random number.
+   * Creates a new directory beneath the work directory, or the system's
+   * temporary directory (as defined by the {@code java.io.tmpdir} system
+   * property) if no work directory was set, and returns its name. The name
+   * of the directory will start with {@code build-} and contain the current
+   * time (in millis), and a random number.
    *
    * <p>This method assumes that the temporary volume is writable, has free
    * inodes and free blocks, and that it will not be called thousands of times
@@ -100,8 +150,10 @@ public final class ProjectBuilder {
    * @throws IllegalStateException if the directory could not be created
    */
   private static File createNewTempDir() {
-    File baseDir = new File(System.getProperty("java.io.tmpdir"));
-    String baseNamePrefix = System.currentTimeMillis() + "_" + Math.random() + "-";
+    File baseDir = (workDirectory != null) ? workDirectory
+        : new File(System.getProperty("java.io.tmpdir"));
+    String baseNamePrefix =
+        BUILD_DIR_PREFIX + System.currentTimeMillis() + "_" + Math.random() + "-";
 
     final int TEMP_DIR_ATTEMPTS = 10000;
     for (int counter = 0; counter < TEMP_DIR_ATTEMPTS; counter++) {
@@ -119,7 +171,7 @@ public final class ProjectBuilder {
   }
 
   Result build(String userName, ZipFile inputZip, File outputDir, boolean isForCompanion,
-               int childProcessRam, String dexCachePath) {
+               int childProcessRam, String dexCachePath, AtomicInteger progress) {
     try {
       // Download project files into a temporary directory
       File projectRoot = createNewTempDir();
@@ -129,7 +181,7 @@ public final class ProjectBuilder {
         try {
           sourceFiles = extractProjectFiles(inputZip, projectRoot);
         } catch (IOException e) {
-          LOG.severe("unexpected problem extracting project file from zip");
+          LOG.severe("unexpected problem extracting project file from zip: " + e.getMessage());
           return Result.createFailingResult("", "Problems processing zip file.");
         }
 
@@ -167,9 +219,10 @@ public final class ProjectBuilder {
             getComponentTypes(sourceFiles, project.getAssetsDirectory());
 
         // Invoke YoungAndroid compiler
+        Map<String, Long> phaseTimes = new LinkedHashMap<String, Long>();
         boolean success =
             Compiler.compile(project, componentTypes, console, console, userErrors, isForCompanion,
-                             keyStorePath, childProcessRam, dexCachePath);
+                             keyStorePath, childProcessRam, dexCachePath, phaseTimes, progress);
         console.close();
         userErrors.close();
 
@@ -185,15 +238,18 @@ public final class ProjectBuilder {
           if (!outputFile.exists()) {
             LOG.warning("Young Android build - " + outputFile + " does not exist");
           } else {
+            // The project root is deleted below, so the results can be moved rather than copied.
             outputApk = new File(outputDir, outputFile.getName());
-            Files.copy(outputFile, outputApk);
+            Files.move(outputFile, outputApk);
             if (saveKeystore) {
               outputKeystore = new File(outputDir, KEYSTORE_FILE_NAME);
-              Files.copy(keyStoreFile, outputKeystore);
+              Files.move(keyStoreFile, outputKeystore);
             }
           }
         }
-        return new Result(success, messages, errors.toString(PathUtil.DEFAULT_CHARSET));
+        Result result = new Result(success, messages, errors.toString(PathUtil.DEFAULT_CHARSET));
+        result.setPhaseTimes(phaseTimes);
+        return result;
       } finally {
         // On some platforms (OS/X), the java.io.tmpdir contains a symlink. We need to use the
         // canonical path here so that Files.deleteRecursively will work.
@@ -246,22 +302,42 @@ public final class ProjectBuilder {
   private ArrayList<String> extractProjectFiles(ZipFile inputZip, File projectRoot)
       throws IOException {
     ArrayList<String> projectFileNames = Lists.newArrayList();
+    String projectRootPath = projectRoot.getCanonicalPath() + File.separator;
+    long extractedBytes = 0;
     Enumeration<? extends ZipEntry> inputZipEnumeration = inputZip.entries();
     while (inputZipEnumeration.hasMoreElements()) {
       ZipEntry zipEntry = inputZipEnumeration.nextElement();
-      final InputStream extractedInputStream = inputZip.getInputStream(zipEntry);
+      if (zipEntry.isDirectory()) {
+        continue;
+      }
       File extractedFile = new File(projectRoot, zipEntry.getName());
-      LOG.info("extracting " + extractedFile.getAbsolutePath() + " from input zip");
-      Files.createParentDirs(extractedFile); // Do I need this?
-      Files.copy(
-          new InputSupplier<InputStream>() {
-            public InputStream getInput() throws IOException {
-              return extractedInputStream;
-            }
-          },
-          extractedFile);
+      if (!extractedFile.getCanonicalPath().startsWith(projectRootPath)) {
+        throw new IOException("zip entry " + zipEntry.getName() + " is outside of the project");
+      }
+      LOG.fine("extracting " + extractedFile.getAbsolutePath() + " from input zip");
+      Files.createParentDirs(extractedFile);
+      InputStream input = inputZip.getInputStream(zipEntry);
+      try {
+        if (maxExtractedBytes > 0) {
+          // Read at most one byte more than allowed, which is enough to detect the overflow.
+          input = ByteStreams.limit(input, maxExtractedBytes - extractedBytes + 1);
+        }
+        OutputStream output = new BufferedOutputStream(new FileOutputStream(extractedFile));
+        try {
+          extractedBytes += ByteStreams.copy(input, output);
+        } finally {
+          output.close();
+        }
+      } finally {
+        input.close();
+      }
+      if (maxExtractedBytes > 0 && extractedBytes > maxExtractedBytes) {
+        throw new IOException("project is larger than " + maxExtractedBytes + " bytes");
+      }
       projectFileNames.add(extractedFile.getPath());
     }
+    LOG.info("extracted " + projectFileNames.size() + " files (" + extractedBytes +
+        " bytes) into " + projectRoot.getAbsolutePath());
     return projectFileNames;
   }
 
@@ -533,8 +609,4 @@ public final class ProjectBuilder {
       return formName;
     }
   }
-
-  public int getProgress() {
-    return Compiler.getProgress();
-  }
 }
@@ -6,6 +6,8 @@
 
 package com.google.appinventor.buildserver;
 
+import java.util.Collections;
+import java.util.Map;
 import java.util.logging.Logger;
 
 /**
@@ -43,6 +45,8 @@ public class Result {
   private String error;
   // The name of the form being built when an error occurred
   private String formName;
+  // The wall time of each build phase in milliseconds, in the order in which the phases ran
+  private Map<String, Long> phaseTimes = Collections.emptyMap();
   
   // Logging support
   private static final Logger LOG = Logger.getLogger(Result.class.getName());
@@ -152,6 +156,23 @@ public class Result {
     return formName;
   }
 
+  /**
+   * Returns the wall time of each build phase in milliseconds, in the order in which the phases
+   * ran. Phases that did not run are absent.
+   */
+  public Map<String, Long> getPhaseTimes() {
+    return phaseTimes;
+  }
+
+  /**
+   * Sets the wall time of each build phase.
+   *
+   * @param phaseTimes the wall time of each build phase in milliseconds
+   */
+  public void setPhaseTimes(Map<String, Long> phaseTimes) {
+    this.phaseTimes = Collections.unmodifiableMap(phaseTimes);
+  }
+
   /**
    * Indicates whether this succeeded
    *
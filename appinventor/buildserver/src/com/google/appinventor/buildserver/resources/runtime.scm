@@ -18,7 +18,8 @@
 ;;; but the top-level forms are evaluated in that run() function.
 ;;;
 
-;;; also see *debug-form* below
+;;; If set, android-log messages are written even when the YAIL log tag
+;;; is not enabled for debug output.
 (define *debug* #f)
 
 (define *this-is-the-repl* #f)
@@ -28,8 +29,26 @@
 ;;; inside a phone, so components are not defined
 (define *testing* #f)
 
-(define (android-log message)
-  (when *debug* (android.util.Log:i "YAIL" message)))
+;;; Whether android-log messages should be written.  They can be turned on
+;;; in the Companion with "adb shell setprop log.tag.YAIL DEBUG".
+(define (yail-logging-enabled?)
+  (or *debug* (android.util.Log:isLoggable "YAIL" android.util.Log:DEBUG)))
+
+;;; (android-log message) writes message to the Android log if
+;;; yail-logging-enabled?.  Because this is a macro, message is only
+;;; evaluated when the message is written, so it may be an expensive
+;;; format expression.  The build server sets the Java system property
+;;; appinventor.yail.logging to "false" when it compiles an app that is
+;;; not the Companion, and then android-log expands to nothing, so
+;;; release apps don't pay even for the check.
+(define-syntax android-log
+  (lambda (stx)
+    (syntax-case stx ()
+      ((_ message)
+       (if (java.lang.Boolean:parseBoolean
+            (java.lang.System:getProperty "appinventor.yail.logging" "true"))
+           #'(when (yail-logging-enabled?) (android.util.Log:d "YAIL" message))
+           #'#!void)))))
 
 ;;;; add-component
 (define-constant simple-component-package-name "com.google.appinventor.components.runtime")
@@ -198,7 +217,7 @@
 ;;; (get-property 'Label1 'Text)
 (define (get-property component prop-name)
   (let ((component (coerce-to-component-and-verify component)))
-    (sanitize-component-data (invoke component prop-name))))
+    (sanitize-component-data (invoke-component-method component prop-name '()))))
 
 (define (coerce-to-component-and-verify possible-component)
   (let ((component (coerce-to-component possible-component)))
@@ -217,7 +236,7 @@
                  component-type
                  (*:getSimpleName (*:getClass possible-component)))
          "Problem with application")
-        (sanitize-component-data (invoke component prop-name)))))
+        (sanitize-component-data (invoke-component-method component prop-name '())))))
 
 (define (set-and-coerce-property-and-check! possible-component comp-type prop-sym property-value property-type)
   (let ((component (coerce-to-component-of-type possible-component comp-type)))
@@ -305,11 +324,6 @@
        (module-static form-name)
        (require <com.google.youngandroid.runtime>)
 
-       (define *debug-form* #f)
-
-       (define (android-log-form message)
-         (when *debug-form* (android.util.Log:i "YAIL" message)))
-
        ;; An environment containing the form's components, functions and event handlers
        ;; We're using Kawa Environments here mostly as just a convenient dictionary implementation.
        ;; As noted near the top of this file it is useful for attaching the environment to the REPL.
@@ -317,7 +331,7 @@
          (gnu.mapping.Environment:make (symbol->string 'form-name)))
 
        (define (add-to-form-environment name :: gnu.mapping.Symbol object)
-         (android-log-form (format #f "Adding ~A to env ~A with value ~A" name form-environment object))
+         (android-log (format #f "Adding ~A to env ~A with value ~A" name form-environment object))
          (gnu.mapping.Environment:put form-environment name object))
 
        (define (lookup-in-form-environment name :: gnu.mapping.Symbol #!optional (default-value #f))
@@ -335,7 +349,7 @@
                                         "-global-vars")))
 
        (define (add-to-global-var-environment name :: gnu.mapping.Symbol object)
-         (android-log-form (format #f "Adding ~A to env ~A with value ~A" name global-var-environment object))
+         (android-log (format #f "Adding ~A to env ~A with value ~A" name global-var-environment object))
          (gnu.mapping.Environment:put global-var-environment name object))
 
        ;; Simple wants there to be a variable named the same as the class.  It will
@@ -433,7 +447,7 @@
                                    #t)
                                  (exception java.lang.Throwable
                                   (begin
-                                    (android-log-form (exception:getMessage))
+                                    (android-log (exception:getMessage))
 ;;; Comment out the line below to inhibit a stack trace on a RunTimeError
                                     (exception:printStackTrace)
                                     (process-exception exception)
@@ -470,7 +484,7 @@
 
          ;; Add the initial global variable bindings to the global variable environment
          (define (init-global-variables var-val-pairs)
-           ;; (android-log-form (format #f "initializing global vars: ~A" var-val-pairs))
+           ;; (android-log (format #f "initializing global vars: ~A" var-val-pairs))
            (for-each (lambda (var-val)
                        (let ((var (car var-val))
                              (val-thunk (cadr var-val)))
@@ -484,7 +498,7 @@
                              (init-thunk (cadddr component-info))
                              (component-type (cadr component-info))
                              (component-container (lookup-in-form-environment (car component-info))))
-                         ;; (android-log-form
+                         ;; (android-log
                          ;;  (format #f "making component: ~A of type: ~A with container: ~A (container-name: ~A)"
                          ;;          component-name component-type component-container (car component-info)))
                          (let ((component-object (make component-type component-container)))
@@ -536,7 +550,7 @@
          (try-catch
           (invoke (this) 'run)
           (exception java.lang.Exception
-           (android-log-form (exception:getMessage))
+           (android-log (exception:getMessage))
            (process-exception exception)))
          (set! form-name (this))
          ;; add a mapping from the form name to the Form into the form-environment
@@ -560,7 +574,7 @@
             (for-each force (reverse form-do-after-creation))
             (init-components (reverse components-to-create)))
           (exception com.google.appinventor.components.runtime.errors.YailRuntimeError
-                     ;;(android-log-form "Caught exception in define-form ")
+                     ;;(android-log "Caught exception in define-form ")
                      (process-exception exception))))))))
 
 ;;;; define-event
@@ -797,6 +811,7 @@
 (module-name com.google.youngandroid.runtime)
 (module-static #t)
 
+(define-alias ComponentMethodCache <com.google.appinventor.components.runtime.util.ComponentMethodCache>)
 (define-alias CsvUtil <com.google.appinventor.components.runtime.util.CsvUtil>)
 (define-alias Double <java.lang.Double>)
 (define-alias Float <java.lang.Float>)
@@ -806,6 +821,7 @@
 (define-alias Short <java.lang.Short>)
 (define-alias String <java.lang.String>)
 (define-alias Pattern <java.util.regex.Pattern>)
+(define-alias YailDictionary <com.google.appinventor.components.runtime.util.YailDictionary>)
 (define-alias YailList <com.google.appinventor.components.runtime.util.YailList>)
 (define-alias YailNumberToString <com.google.appinventor.components.runtime.util.YailNumberToString>)
 (define-alias YailRuntimeError <com.google.appinventor.components.runtime.errors.YailRuntimeError>)
@@ -873,14 +889,21 @@
 ;;; values they will receive.
 
 
+;;; Call a method of a component, with the same argument conversions as
+;;; (invoke component method-name arg ...).  The method lookup is done once per
+;;; component class and method name instead of on every call, since component
+;;; methods and properties are called from tight loops such as Clock timers.
+(define (invoke-component-method component method-name args)
+  (ComponentMethodCache:invoke component method-name args))
+
 (define (call-component-method component-name method-name arglist typelist)
   (let ((coerced-args (coerce-args method-name arglist typelist)))
     (let ((result
            (if (all-coercible? coerced-args)
-               (apply invoke
-                      `(,(lookup-in-current-form-environment component-name)
-                        ,method-name
-                        ,@coerced-args))
+               (invoke-component-method
+                (lookup-in-current-form-environment component-name)
+                method-name
+                coerced-args)
                (generate-runtime-type-error method-name arglist))))
       ;; TODO(markf): this should probably be generalized but for now this is OK, I think
       (sanitize-component-data result))))
@@ -905,10 +928,7 @@
                                      (list (get-display-representation possible-component)))
         (let ((result
                (if (all-coercible? coerced-args)
-                   (apply invoke
-                          `(,component-value
-                            ,method-name
-                            ,@coerced-args))
+                   (invoke-component-method component-value method-name coerced-args)
                    (generate-runtime-type-error method-name arglist))))
           ;; TODO(markf): this should probably be generalized but for now this is OK, I think
           (sanitize-component-data result)))))
@@ -1079,7 +1099,7 @@
   (let ((coerced-arg (coerce-arg property-value property-type)))
     (android-log (format #f "coerced property value was: ~A " coerced-arg))
     (if (all-coercible? (list coerced-arg))
-        (invoke comp prop-name coerced-arg)
+        (invoke-component-method comp prop-name (list coerced-arg))
         (generate-runtime-type-error prop-name (list property-value)))))
 
 
@@ -1794,6 +1814,10 @@ Block name               Kawa implementation
 - is list?                (yail-list? object)
 - is empty?               (yail-list-empty? yail-list)
 - lookup in pairs         (yail-alist-lookup key yail-list-of-pairs default)
+- make dictionary         (make-yail-dictionary), (yail-alist->dictionary yail-list-of-pairs)
+- dictionary operations   (yail-dictionary-lookup key dictionary default),
+                          (yail-dictionary-set-pair! key dictionary value),
+                          (yail-dictionary-delete-pair! key dictionary)
 
 Lists in App Inventor are implemented as "Yail lists".  A Yail list is
 a Java pair whose car is a distinguished token
@@ -1822,8 +1846,14 @@ list, use the make-yail-list constructor with no arguments.
 (define (yail-list-contents yail-list)
   (cdr yail-list))
 
+;; set-cdr! is compiled to a field store, so a YailList is given its new
+;; contents through setCdr, which tells the list and the lists that hold it
+;; as a pair that it changed.
 (define (set-yail-list-contents! yail-list contents)
-  (set-cdr! yail-list contents))
+  (if (instance? yail-list YailList)
+      (let ((yl :: YailList yail-list))
+        (yl:setCdr contents))
+      (set-cdr! yail-list contents)))
 
 
 (define (insert-yail-list-header x)
@@ -1924,8 +1954,12 @@ list, use the make-yail-list constructor with no arguments.
 
 
 ;; Implements the Blocks length operation
+;; YailList keeps an index of its contents, so this doesn't walk the list.
 (define (yail-list-length yail-list)
-  (length (yail-list-contents yail-list)))
+  (if (instance? yail-list YailList)
+      (let ((yl :: YailList yail-list))
+        (yl:size))
+      (length (yail-list-contents yail-list))))
 
 ;; These are removed, to simplify the API to lists
 ;; ;; Implements the Blocks first operation
@@ -1970,7 +2004,10 @@ list, use the make-yail-list constructor with no arguments.
                  len
                  (get-display-representation yail-list))
          "Select list item: List index too large")
-    (list-ref (yail-list-contents yail-list) (- index 1)))))
+    (if (instance? yail-list YailList)
+        (let ((yl :: YailList yail-list))
+          (yl:getObject (- index 1)))
+        (list-ref (yail-list-contents yail-list) (- index 1))))))
 
 
 ;; Implements the Blocks set list item operation
@@ -1989,7 +2026,17 @@ list, use the make-yail-list constructor with no arguments.
                  len
                  (get-display-representation yail-list))
          "List index too large")))
-  (set-car! (list-tail (yail-list-contents yail-list) (- index 1)) value))
+  (if (instance? yail-list YailList)
+      (let ((yl :: YailList yail-list))
+        (yl:setObject (- index 1) value))
+      (set-car! (list-tail (yail-list-contents yail-list) (- index 1)) value)))
+
+;; Tells a YailList that pairs were inserted into or removed from its
+;; contents, so that it indexes them again.
+(define (yail-list-contents-changed! yail-list)
+  (if (instance? yail-list YailList)
+      (let ((yl :: YailList yail-list))
+        (yl:contentsChanged))))
 
 
 
@@ -2021,7 +2068,8 @@ list, use the make-yail-list constructor with no arguments.
                    (get-display-representation yail-list))
            "List index too large"))
       (let ((pair-pointing-to-deletion (list-tail yail-list (- index2 1))))
-        (set-cdr! pair-pointing-to-deletion (cddr pair-pointing-to-deletion))))))
+        (set-cdr! pair-pointing-to-deletion (cddr pair-pointing-to-deletion))
+        (yail-list-contents-changed! yail-list)))))
 
 
 ;; Implements the Blocks insert list item operation
@@ -2054,7 +2102,8 @@ list, use the make-yail-list constructor with no arguments.
         (if (= index2 1)
             (set-yail-list-contents! yail-list (cons item contents))
             (let ((at-item (list-tail contents (- index2 2))))
-              (set-cdr! at-item (cons item (cdr at-item)))))))))
+              (set-cdr! at-item (cons item (cdr at-item)))
+              (yail-list-contents-changed! yail-list)))))))
 
 ;; Extends list A by appending the elements of list B to it
 ;; Modifies list A
@@ -2071,7 +2120,8 @@ list, use the make-yail-list constructor with no arguments.
   ;; We have to operate on the yail-list itself, not the contents, because
   ;; the contents might be empty
   (set-cdr! (list-tail yail-list-A (length (yail-list-contents yail-list-A)))
-        (list-copy (yail-list-contents yail-list-B))))
+        (list-copy (yail-list-contents yail-list-B)))
+  (yail-list-contents-changed! yail-list-A))
 
 
 ;; Extend list A by appending the items to it
@@ -2194,9 +2244,23 @@ list, use the make-yail-list constructor with no arguments.
 ;;; how to convert dictionaries to strings and how this interacts with printing
 ;;; JSON objects and whether jsonutils.decode.
 
+;;; Lookups in a YailList use the index that the list keeps of its pairs,
+;;; which finds the first pair whose key might be equal in constant time.
+;;; The list is scanned only if the pair found has a key that is not
+;;; yail-equal? to key, or if nothing was found and the list is not well formed,
+;;; so that the scan signals the same error as before.
 (define (yail-alist-lookup key yail-list-of-pairs default)
-  (android-log
-   (format #f "List alist lookup key is  ~A and table is ~A" key yail-list-of-pairs))
+  (if (instance? yail-list-of-pairs YailList)
+      (let* ((yl :: YailList yail-list-of-pairs)
+             (pair (yl:lookupPair key)))
+        (cond ((and (not (eq? pair #!null))
+                    (yail-equal? key (car (yail-list-contents pair))))
+               (cadr (yail-list-contents pair)))
+              ((and (eq? pair #!null) (yl:isListOfPairs)) default)
+              (else (yail-alist-scan key yail-list-of-pairs default))))
+      (yail-alist-scan key yail-list-of-pairs default)))
+
+(define (yail-alist-scan key yail-list-of-pairs default)
   (let loop ((pairs-to-check (yail-list-contents yail-list-of-pairs)))
     (cond ((null? pairs-to-check) default)
           ((not (pair-ok? (car pairs-to-check)))
@@ -2212,7 +2276,43 @@ list, use the make-yail-list constructor with no arguments.
 
 (define (pair-ok? candidate-pair)
   (and (yail-list? candidate-pair)
-       (= (length (yail-list-contents candidate-pair)) 2)))
+       (let ((yl :: YailList candidate-pair))
+         (= (yl:size) 2))))
+
+
+;;; Dictionaries
+;;; A YailDictionary maps keys to values with constant time lookup, insertion
+;;; and deletion.  Keys are matched as yail-equal? matches them, as in
+;;; lookup in pairs.
+
+(define (make-yail-dictionary)
+  (make YailDictionary))
+
+(define (yail-dictionary? x)
+  (instance? x YailDictionary))
+
+;;; Make a dictionary from a list of pairs.  Where a key occurs more than once,
+;;; its first value is kept, which is the value that lookup in pairs returns.
+(define (yail-alist->dictionary yail-list-of-pairs)
+  (YailDictionary:makeDictionary yail-list-of-pairs))
+
+(define (yail-dictionary->alist (dictionary :: YailDictionary))
+  (dictionary:toYailList))
+
+(define (yail-dictionary-lookup key (dictionary :: YailDictionary) default)
+  (dictionary:get key default))
+
+(define (yail-dictionary-set-pair! key (dictionary :: YailDictionary) value)
+  (dictionary:put key value))
+
+(define (yail-dictionary-delete-pair! key (dictionary :: YailDictionary))
+  (dictionary:remove key))
+
+(define (yail-dictionary-has-key? key (dictionary :: YailDictionary))
+  (dictionary:containsKey key))
+
+(define (yail-dictionary-length (dictionary :: YailDictionary))
+  (dictionary:size))
 
 
 
@@ -0,0 +1,139 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Tests AssetCache class.
+ *
+ */
+public class AssetCacheTest extends TestCase {
+  private static final String KITTY = "meow";
+  private static final String KITTY_HASH = sha1(KITTY);
+
+  private File tmpDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    tmpDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtils.deleteDirectory(tmpDir);
+  }
+
+  public void testStoredAssetsAreAddedBack() throws Exception {
+    AssetCache cache = new AssetCache(new File(tmpDir, "cache"), 1024);
+    File zip1 = new File(tmpDir, "project1.zip");
+    writeZip(zip1, "src/Screen1.scm", "form", "assets/kitty.png", KITTY);
+    assertEquals(Arrays.asList(KITTY_HASH), cache.getMissing(Arrays.asList(KITTY_HASH)));
+    Set<String> cachedPaths = AssetCache.addCachedAssets(cache, zip1);
+    assertEquals(Collections.emptySet(), cachedPaths);
+    cache.storeAssets(zip1, cachedPaths);
+    assertEquals(Collections.emptyList(), cache.getMissing(Arrays.asList(KITTY_HASH)));
+
+    File zip2 = new File(tmpDir, "project2.zip");
+    writeZip(zip2, "src/Screen1.scm", "form",
+        AssetCache.MANIFEST_PATH, KITTY_HASH + " assets/kitty.png\n");
+    assertEquals(Collections.singleton("assets/kitty.png"),
+        AssetCache.addCachedAssets(cache, zip2));
+    Map<String, String> contents = readZip(zip2);
+    assertEquals(2, contents.size());
+    assertEquals("form", contents.get("src/Screen1.scm"));
+    assertEquals(KITTY, contents.get("assets/kitty.png"));
+  }
+
+  public void testCachedAssetsAreNotStoredAgain() throws Exception {
+    AssetCache cache = new AssetCache(new File(tmpDir, "cache"), 1024);
+    File zip1 = new File(tmpDir, "project1.zip");
+    writeZip(zip1, "assets/kitty.png", KITTY);
+    cache.storeAssets(zip1, Collections.<String>emptySet());
+    File asset = new File(tmpDir, "cache/" + KITTY_HASH);
+    asset.setLastModified(1000);
+
+    File zip2 = new File(tmpDir, "project2.zip");
+    writeZip(zip2, "assets/puppy.png", "woof",
+        AssetCache.MANIFEST_PATH, KITTY_HASH + " assets/kitty.png\n");
+    cache.storeAssets(zip2, AssetCache.addCachedAssets(cache, zip2));
+    // Storing it again would have marked it as used.
+    assertEquals(1000, asset.lastModified());
+    assertEquals(Collections.emptyList(), cache.getMissing(Arrays.asList(sha1("woof"))));
+  }
+
+  public void testMissingAssetFailsManifest() throws Exception {
+    AssetCache cache = new AssetCache(new File(tmpDir, "cache"), 1024);
+    File zip = new File(tmpDir, "project.zip");
+    writeZip(zip, AssetCache.MANIFEST_PATH, KITTY_HASH + " assets/kitty.png\n");
+    assertNull(AssetCache.addCachedAssets(cache, zip));
+    assertNull(AssetCache.addCachedAssets(null, zip));
+  }
+
+  public void testLeastRecentlyUsedAssetIsEvicted() throws Exception {
+    AssetCache cache = new AssetCache(new File(tmpDir, "cache"), 9);
+    File zip1 = new File(tmpDir, "project1.zip");
+    writeZip(zip1, "assets/kitty.png", KITTY);
+    cache.storeAssets(zip1, Collections.<String>emptySet());
+    new File(tmpDir, "cache/" + KITTY_HASH).setLastModified(1000);
+    File zip2 = new File(tmpDir, "project2.zip");
+    writeZip(zip2, "assets/puppy.png", "woof", "assets/bird.png", "tweet");
+    cache.storeAssets(zip2, Collections.<String>emptySet());
+
+    assertEquals(Arrays.asList(KITTY_HASH),
+        cache.getMissing(Arrays.asList(KITTY_HASH, sha1("woof"), sha1("tweet"))));
+  }
+
+  private static String sha1(String content) {
+    return Hashing.sha1().hashString(content, Charsets.UTF_8).toString();
+  }
+
+  private static void writeZip(File file, String... namesAndContents) throws IOException {
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+    try {
+      for (int i = 0; i < namesAndContents.length; i += 2) {
+        out.putNextEntry(new ZipEntry(namesAndContents[i]));
+        out.write(namesAndContents[i + 1].getBytes(Charsets.UTF_8));
+        out.closeEntry();
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  private static Map<String, String> readZip(File file) throws IOException {
+    Map<String, String> contents = new HashMap<String, String>();
+    ZipFile zip = new ZipFile(file);
+    try {
+      for (ZipEntry entry : Collections.list(zip.entries())) {
+        contents.put(entry.getName(),
+            new String(ByteStreams.toByteArray(zip.getInputStream(entry)), Charsets.UTF_8));
+      }
+    } finally {
+      zip.close();
+    }
+    return contents;
+  }
+}
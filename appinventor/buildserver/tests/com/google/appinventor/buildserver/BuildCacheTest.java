@@ -0,0 +1,79 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Tests BuildCache class.
+ *
+ */
+public class BuildCacheTest extends TestCase {
+  private File tmpDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    tmpDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtils.deleteDirectory(tmpDir);
+  }
+
+  public void testStoreAndRestore() throws Exception {
+    BuildCache cache = new BuildCache(new File(tmpDir, "cache"), 10);
+    File buildDir = new File(tmpDir, "build1");
+    File classFile = write(new File(buildDir, "com/example/Screen1.class"), "classes");
+
+    assertFalse(cache.restore("kawa", "key", new File(tmpDir, "build2")));
+    cache.store("kawa", "key", buildDir, Arrays.asList(classFile));
+    assertTrue(cache.restore("kawa", "key", new File(tmpDir, "build2")));
+    assertEquals("classes", Files.toString(new File(tmpDir, "build2/com/example/Screen1.class"),
+        Charsets.UTF_8));
+  }
+
+  public void testLeastRecentlyUsedEntryIsEvicted() throws Exception {
+    BuildCache cache = new BuildCache(new File(tmpDir, "cache"), 2);
+    File buildDir = new File(tmpDir, "build");
+    File file = write(new File(buildDir, "R.txt"), "symbols");
+    cache.store("aapt", "a", buildDir, Arrays.asList(file));
+    new File(tmpDir, "cache/aapt/a").setLastModified(1000);
+    cache.store("aapt", "b", buildDir, Arrays.asList(file));
+    new File(tmpDir, "cache/aapt/b").setLastModified(2000);
+    cache.store("aapt", "c", buildDir, Arrays.asList(file));
+
+    assertFalse(cache.restore("aapt", "a", buildDir));
+    assertTrue(cache.restore("aapt", "b", buildDir));
+    assertTrue(cache.restore("aapt", "c", buildDir));
+  }
+
+  public void testHashTreeChangesWithContent() throws Exception {
+    File dir = new File(tmpDir, "assets");
+    write(new File(dir, "kitty.png"), "meow");
+    String hash = BuildCache.hashTree(dir);
+    assertEquals(hash, BuildCache.hashTree(dir));
+
+    File changed = new File(tmpDir, "assets2");
+    write(new File(changed, "kitty.png"), "purr");
+    assertFalse(hash.equals(BuildCache.hashTree(changed)));
+  }
+
+  private static File write(File file, String content) throws IOException {
+    Files.createParentDirs(file);
+    Files.write(content, file, Charsets.UTF_8);
+    return file;
+  }
+}
@@ -0,0 +1,47 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.collect.ImmutableMap;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests BuildMetrics class.
+ *
+ */
+public class BuildMetricsTest extends TestCase {
+
+  public void testPhaseHistogram() throws Exception {
+    BuildMetrics metrics = new BuildMetrics();
+    metrics.recordPhaseTimes(ImmutableMap.of("kawa", 80L));
+    metrics.recordPhaseTimes(ImmutableMap.of("kawa", 400000L));
+
+    StringBuilder text = new StringBuilder();
+    metrics.writeHistograms(text);
+    String output = text.toString();
+    assertTrue(output.contains("# TYPE buildserver_phase_duration_ms histogram\n"));
+    assertTrue(output.contains("buildserver_phase_duration_ms_bucket{phase=\"kawa\",le=\"50\"} 0\n"));
+    assertTrue(output.contains("buildserver_phase_duration_ms_bucket{phase=\"kawa\",le=\"100\"} 1\n"));
+    assertTrue(output.contains(
+        "buildserver_phase_duration_ms_bucket{phase=\"kawa\",le=\"+Inf\"} 2\n"));
+    assertTrue(output.contains("buildserver_phase_duration_ms_sum{phase=\"kawa\"} 400080\n"));
+    assertTrue(output.contains("buildserver_phase_duration_ms_count{phase=\"kawa\"} 2\n"));
+  }
+
+  public void testUnlabeledHistogram() throws Exception {
+    BuildMetrics metrics = new BuildMetrics();
+    metrics.recordExtensions(2, 0);
+
+    StringBuilder text = new StringBuilder();
+    metrics.writeHistograms(text);
+    String output = text.toString();
+    assertTrue(output.contains("buildserver_aar_libraries_bucket{le=\"1\"} 0\n"));
+    assertTrue(output.contains("buildserver_aar_libraries_bucket{le=\"2\"} 1\n"));
+    assertTrue(output.contains("buildserver_aar_libraries_count 1\n"));
+    assertTrue(output.contains("buildserver_extension_components_bucket{le=\"0\"} 1\n"));
+  }
+}
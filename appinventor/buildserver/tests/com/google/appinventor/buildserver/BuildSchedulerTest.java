@@ -0,0 +1,171 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests BuildScheduler class.
+ *
+ * @author lizlooney@google.com (Liz Looney)
+ */
+public class BuildSchedulerTest extends TestCase {
+  public void testAdditionalTaskIsRejected() throws Exception {
+    // Create the BuildScheduler with capacity 10 and no queue.
+    int maxCapacity = 10;
+    BuildScheduler executor = new BuildScheduler(maxCapacity, 0);
+
+    // Execute the maximum number of tasks, which will all wait until I notify them via the signal.
+    final Object signal = new Object();
+    for (int i = 0; i < maxCapacity; i++) {
+      executor.execute("user", false, new TaskThatWaitsForSignal(signal));
+    }
+
+    // Now the executor should be at maximum capacity.
+    assertEquals(maxCapacity, executor.getActiveTaskCount());
+
+    // Try to execute another task. We expect it to be rejected.
+    try {
+      executor.execute("user", false, new TaskThatDoesNothing());
+      fail();
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+
+    // Notify the signal so the active tasks can complete.
+    synchronized (signal) {
+      signal.notifyAll();
+    }
+  }
+
+  public void testTaskIsQueuedUntilQueueIsFull() throws Exception {
+    BuildScheduler executor = new BuildScheduler(1, 2);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(3);
+    executor.execute("a", false, new TaskThatWaitsForLatch(release, done));
+    executor.execute("a", false, new TaskThatWaitsForLatch(release, done));
+    executor.execute("b", false, new TaskThatWaitsForLatch(release, done));
+    assertEquals(1, executor.getActiveTaskCount());
+    assertEquals(2, executor.getQueuedTaskCount());
+
+    try {
+      executor.execute("c", false, new TaskThatDoesNothing());
+      fail();
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+
+    release.countDown();
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+  }
+
+  public void testQueuedTasksAreFairAndPriorityFirst() throws Exception {
+    BuildScheduler executor = new BuildScheduler(1, 10);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch started = new CountDownLatch(1);
+    final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+    CountDownLatch done = new CountDownLatch(5);
+    executor.execute("a", false, new TaskThatWaitsForLatch(release, started));
+    executor.execute("a", false, new TaskThatRecords(order, "a1", done));
+    executor.execute("a", false, new TaskThatRecords(order, "a2", done));
+    executor.execute("a", false, new TaskThatRecords(order, "a3", done));
+    executor.execute("b", false, new TaskThatRecords(order, "b1", done));
+    executor.execute("c", true, new TaskThatRecords(order, "c1", done));
+
+    release.countDown();
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals("[c1, a1, b1, a2, a3]", order.toString());
+  }
+
+  public void testQueuedTasksRunAfterTaskThrowsError() throws Exception {
+    BuildScheduler executor = new BuildScheduler(1, 10);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch started = new CountDownLatch(1);
+    final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+    CountDownLatch done = new CountDownLatch(1);
+    executor.execute("a", false, new TaskThatWaitsForLatch(release, started));
+    executor.execute("a", false, new Runnable() {
+        @Override
+        public void run() {
+          throw new StackOverflowError();
+        }
+      });
+    executor.execute("b", false, new TaskThatRecords(order, "b1", done));
+
+    release.countDown();
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals("[b1]", order.toString());
+    assertEquals(0, executor.getQueuedTaskCount());
+  }
+
+  private static class TaskThatWaitsForSignal implements Runnable {
+    private final Object signal;
+    private TaskThatWaitsForSignal(Object signal) {
+      this.signal = signal;
+    }
+
+    @Override
+    public void run() {
+      synchronized (signal) {
+        try {
+          // Wait for the signal.
+          signal.wait();
+        } catch (InterruptedException e) {
+          // ignored
+        }
+      }
+    }
+  }
+
+  private static class TaskThatWaitsForLatch implements Runnable {
+    private final CountDownLatch latch;
+    private final CountDownLatch done;
+    private TaskThatWaitsForLatch(CountDownLatch latch, CountDownLatch done) {
+      this.latch = latch;
+      this.done = done;
+    }
+
+    @Override
+    public void run() {
+      try {
+        latch.await();
+      } catch (InterruptedException e) {
+        // ignored
+      }
+      done.countDown();
+    }
+  }
+
+  private static class TaskThatRecords implements Runnable {
+    private final List<String> order;
+    private final String name;
+    private final CountDownLatch done;
+    private TaskThatRecords(List<String> order, String name, CountDownLatch done) {
+      this.order = order;
+      this.name = name;
+      this.done = done;
+    }
+
+    @Override
+    public void run() {
+      order.add(name);
+      done.countDown();
+    }
+  }
+
+  private static class TaskThatDoesNothing implements Runnable {
+    @Override
+    public void run() {
+    }
+  }
+}
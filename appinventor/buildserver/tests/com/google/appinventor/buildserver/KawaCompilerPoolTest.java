@@ -0,0 +1,81 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.appinventor.common.testutils.TestUtils;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Tests KawaCompilerPool class, by running KawaCompilerWorker processes with a trivial runtime
+ * in place of runtime.scm.
+ *
+ */
+public class KawaCompilerPoolTest extends TestCase {
+  private static final String KAWA_JAR =
+      TestUtils.APP_INVENTOR_ROOT_DIR + "/lib/kawa/kawa-1.11-modified.jar";
+  private static final int HEAP_MB = 128;
+
+  private File tmpDir;
+  private String runtime;
+  private ByteArrayOutputStream out;
+  private ByteArrayOutputStream err;
+
+  @Override
+  protected void setUp() throws Exception {
+    tmpDir = Files.createTempDir();
+    File runtimeFile = new File(tmpDir, "runtime.scm");
+    Files.write("(define x 1)\n", runtimeFile, Charsets.UTF_8);
+    runtime = runtimeFile.getAbsolutePath();
+    out = new ByteArrayOutputStream();
+    err = new ByteArrayOutputStream();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtils.deleteDirectory(tmpDir);
+  }
+
+  public void testJobsReuseWorker() throws Exception {
+    KawaCompilerPool pool = new KawaCompilerPool(1, 0);
+    assertTrue(compile(pool, "(+ x 1)"));
+    assertTrue(compile(pool, "(+ x 2)"));
+    assertEquals(1, pool.getLiveWorkerCount());
+  }
+
+  public void testFailedJobReplacesWorker() throws Exception {
+    KawaCompilerPool pool = new KawaCompilerPool(1, 0);
+    assertTrue(compile(pool, "(+ x 1)"));
+    assertFalse(compile(pool, "(car x)"));
+    assertTrue(err.toString("UTF-8").contains("car"));
+    assertEquals(0, pool.getLiveWorkerCount());
+    assertTrue(compile(pool, "(+ x 1)"));
+    assertEquals(1, pool.getLiveWorkerCount());
+  }
+
+  public void testJobTimeoutKillsWorker() throws Exception {
+    KawaCompilerPool pool = new KawaCompilerPool(1, 2000);
+    long start = System.currentTimeMillis();
+    assertFalse(compile(pool, "(let loop () (loop))"));
+    assertTrue(System.currentTimeMillis() - start < 60000);
+    assertEquals(0, pool.getLiveWorkerCount());
+    assertTrue(compile(pool, "(+ x 1)"));
+  }
+
+  private boolean compile(KawaCompilerPool pool, String expression) throws Exception {
+    return pool.compile(KAWA_JAR, HEAP_MB, runtime, Arrays.asList("-e", expression),
+        new PrintStream(out), new PrintStream(err));
+  }
+}
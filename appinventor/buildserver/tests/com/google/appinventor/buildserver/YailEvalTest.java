@@ -42,11 +42,16 @@ public class YailEvalTest extends TestCase {
   private static final String ENCODED_OPEN = "&1";
   private static final String ENCODED_CLOSE = "&2";
 
+  private String savedYailLogging;
+
   @Override
   public void setUp() throws Exception {
     scheme = new Scheme();
     String yailRuntimeLibrary = Compiler.getResource(Compiler.YAIL_RUNTIME);
     String yailSchemeTests = YAIL_SCHEME_TESTS;
+    // android.util.Log is not available on the JVM, so compile the runtime without the
+    // android-log calls, as the build server does for apps that are not the Companion.
+    savedYailLogging = System.setProperty(Compiler.YAIL_LOGGING_PROPERTY, "false");
     try {
       scheme.eval("(load \"" + yailRuntimeLibrary + "\")");
       scheme.eval("(load \"" + yailSchemeTests + "\")");
@@ -58,6 +63,15 @@ public class YailEvalTest extends TestCase {
     }
   }
 
+  @Override
+  public void tearDown() throws Exception {
+    if (savedYailLogging == null) {
+      System.clearProperty(Compiler.YAIL_LOGGING_PROPERTY);
+    } else {
+      System.setProperty(Compiler.YAIL_LOGGING_PROPERTY, savedYailLogging);
+    }
+  }
+
   public void testBasicKawaEval() throws Throwable {
     Scheme scheme = new Scheme();
     assertEquals("foobar", scheme.eval("(string-append \"foo\" \"bar\")").toString());
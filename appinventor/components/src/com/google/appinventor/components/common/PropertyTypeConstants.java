@@ -194,6 +194,12 @@ public class PropertyTypeConstants {
    */
   public static final String PROPERTY_TYPE_NON_NEGATIVE_INTEGER = "non_negative_integer";
 
+  /**
+   * Positive (greater than zero) integers.
+   * @see com.google.appinventor.client.widgets.properties.PositiveIntegerPropertyEditor
+   */
+  public static final String PROPERTY_TYPE_POSITIVE_INTEGER = "positive_integer";
+
   /**
    * Choices of screen orientations offered by {@link
    * com.google.appinventor.client.editor.youngandroid.properties.YoungAndroidScreenOrientationChoicePropertyEditor}.
@@ -421,8 +421,11 @@ public class YaVersion {
   // - FEATURE_COLLECTION_COMPONENT_VERSION was incremented to 2
   // For YOUNG_ANDROID_VERSION 167:
   // - FORM_COMPONENT_VERSION was incremented to 23
+  // For YOUNG_ANDROID_VERSION 168:
+  // - ACCELEROMETERSENSOR_COMPONENT_VERSION was incremented to 5
+  // - GYROSCOPESENSOR_COMPONENT_VERSION was incremented to 2
 
-  public static final int YOUNG_ANDROID_VERSION = 167;
+  public static final int YOUNG_ANDROID_VERSION = 168;
 
   // ............................... Blocks Language Version Number ...............................
 
@@ -532,7 +535,10 @@ public class YaVersion {
   // - AccelerometerSensor.Sensitivty property was added.
   //For ACCELEROMETERSENSOR_COMPONENT_VERSION 4:
   // - Added the LegacyMode property.
-  public static final int ACCELEROMETERSENSOR_COMPONENT_VERSION = 4;
+  //For ACCELEROMETERSENSOR_COMPONENT_VERSION 5:
+  // - The SampleRate, AveragingWindow and BatchSize properties were added.
+  // - The SamplesReceived event was added.
+  public static final int ACCELEROMETERSENSOR_COMPONENT_VERSION = 5;
 
   // For ACTIVITYSTARTER_COMPONENT_VERSION 2:
   // - The ActivityStarter.DataType, ActivityStarter.ResultType, and ActivityStarter.ResultUri
@@ -750,7 +756,10 @@ public class YaVersion {
 
   public static final int GAMECLIENT_COMPONENT_VERSION = 1;
 
-  public static final int GYROSCOPESENSOR_COMPONENT_VERSION = 1;
+  // For GYROSCOPESENSOR_COMPONENT_VERSION 2:
+  // - The SampleRate, AveragingWindow and BatchSize properties were added.
+  // - The SamplesReceived event was added.
+  public static final int GYROSCOPESENSOR_COMPONENT_VERSION = 2;
 
   // For HORIZONTALARRANGEMENT_COMPONENT_VERSION 2:
   // - The AlignHorizontal property was added
@@ -18,6 +18,8 @@ import com.google.appinventor.components.common.ComponentCategory;
 import com.google.appinventor.components.common.PropertyTypeConstants;
 import com.google.appinventor.components.common.YaVersion;
 import com.google.appinventor.components.runtime.util.ErrorMessages;
+import com.google.appinventor.components.runtime.util.SensorSampler;
+import com.google.appinventor.components.runtime.util.YailList;
 
 import android.content.Context;
 import android.content.res.Configuration;
@@ -78,7 +80,8 @@ import java.util.Queue;
     iconName = "images/accelerometersensor.png")
 @SimpleObject
 public class AccelerometerSensor extends AndroidNonvisibleComponent
-    implements OnStopListener, OnResumeListener, SensorComponent, SensorEventListener, Deleteable {
+    implements OnStopListener, OnResumeListener, SensorComponent, SensorEventListener, Deleteable,
+    SensorSampler.SampleHandler {
 
   // Logging and Debugging
   private final static String LOG_TAG = "AccelerometerSensor";
@@ -120,6 +123,10 @@ public class AccelerometerSensor extends AndroidNonvisibleComponent
 
   private Sensor accelerometerSensor;
 
+  // Rate control, averaging and batching of the sensor samples
+  private final SensorSampler sampler;
+  private final float[] sample = new float[3];
+
   // Set to true to disable landscape mode tablet fix
   private boolean legacyMode = false;
 
@@ -142,6 +149,8 @@ public class AccelerometerSensor extends AndroidNonvisibleComponent
     sensorManager = (SensorManager) container.$context().getSystemService(Context.SENSOR_SERVICE);
     accelerometerSensor = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
     androidUIHandler = new Handler();
+    sampler = new SensorSampler(sensorManager, this, accelerometerSensor,
+        SensorManager.SENSOR_DELAY_GAME, this);
     startListening();
     MinimumInterval(400);
     Sensitivity(Component.ACCELEROMETER_SENSITIVITY_MODERATE);
@@ -214,11 +223,107 @@ public class AccelerometerSensor extends AndroidNonvisibleComponent
     }
   }
 
+  /**
+   * Returns the number of samples per second asked of the accelerometer.
+   *
+   * @return  samples per second, or 0 for the default rate
+   */
+  @SimpleProperty(
+      category = PropertyCategory.BEHAVIOR,
+      description = "The number of acceleration samples per second to take, or 0 for the " +
+      "default rate. Samples the device delivers faster than this are dropped.")
+  public int SampleRate() {
+    return sampler.getSampleRate();
+  }
+
+  /**
+   * Specifies the number of samples per second asked of the accelerometer.
+   *
+   * @param sampleRate  samples per second, or 0 for the default rate
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER,
+      defaultValue = "0")
+  @SimpleProperty
+  public void SampleRate(int sampleRate) {
+    sampler.setSampleRate(sampleRate);
+  }
+
+  /**
+   * Returns the number of samples averaged into each reported acceleration.
+   *
+   * @return  number of samples averaged, 1 for no averaging
+   */
+  @SimpleProperty(
+      category = PropertyCategory.BEHAVIOR,
+      description = "The number of acceleration samples averaged into each reported " +
+      "acceleration. 1 reports every sample.")
+  public int AveragingWindow() {
+    return sampler.getAveragingWindow();
+  }
+
+  /**
+   * Specifies the number of samples averaged into each reported acceleration.
+   *
+   * @param averagingWindow  number of samples averaged, 1 for no averaging
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_POSITIVE_INTEGER,
+      defaultValue = "1")
+  @SimpleProperty
+  public void AveragingWindow(int averagingWindow) {
+    sampler.setAveragingWindow(averagingWindow);
+  }
+
+  /**
+   * Returns the number of accelerations reported together by SamplesReceived.
+   *
+   * @return  number of accelerations per batch, 1 for no batching
+   */
+  @SimpleProperty(
+      category = PropertyCategory.BEHAVIOR,
+      description = "The number of accelerations reported together by the SamplesReceived " +
+      "event. When greater than 1, AccelerationChanged is not raised.")
+  public int BatchSize() {
+    return sampler.getBatchSize();
+  }
+
+  /**
+   * Specifies the number of accelerations reported together by SamplesReceived.
+   *
+   * @param batchSize  number of accelerations per batch, 1 for no batching
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_POSITIVE_INTEGER,
+      defaultValue = "1")
+  @SimpleProperty
+  public void BatchSize(int batchSize) {
+    sampler.setBatchSize(batchSize);
+  }
+
   /**
    * Indicates the acceleration changed in the X, Y, and/or Z dimensions.
    */
   @SimpleEvent
   public void AccelerationChanged(float xAccel, float yAccel, float zAccel) {
+    updateAcceleration(xAccel, yAccel, zAccel);
+    EventDispatcher.dispatchEvent(this, "AccelerationChanged", xAccel, yAccel, zAccel);
+  }
+
+  /**
+   * Indicates that BatchSize accelerations were taken.
+   *
+   * @param samples  a list of samples, each a list of xAccel, yAccel, zAccel and the time
+   *                 in nanoseconds at which it was taken
+   */
+  @SimpleEvent(description = "Indicates that BatchSize accelerations were taken. Each item " +
+      "of samples is a list of xAccel, yAccel, zAccel and the time in nanoseconds at which " +
+      "the acceleration was taken.")
+  public void SamplesReceived(YailList samples) {
+    EventDispatcher.dispatchEvent(this, "SamplesReceived", samples);
+  }
+
+  /*
+   * Records the latest acceleration and raises Shaking if the device is shaken.
+   */
+  private void updateAcceleration(float xAccel, float yAccel, float zAccel) {
     this.xAccel = xAccel;
     this.yAccel = yAccel;
     this.zAccel = zAccel;
@@ -236,8 +341,6 @@ public class AccelerometerSensor extends AndroidNonvisibleComponent
       timeLastShook = currentTime;
       Shaking();
     }
-
-    EventDispatcher.dispatchEvent(this, "AccelerationChanged", xAccel, yAccel, zAccel);
   }
 
 public int getDeviceDefaultOrientation() {
@@ -308,12 +411,12 @@ public int getDeviceDefaultOrientation() {
         }
       }, 32);                   // Wait 32ms for the UI to settle down
 
-    sensorManager.registerListener(this, accelerometerSensor, SensorManager.SENSOR_DELAY_GAME);
+    sampler.start();
   }
 
   // Assumes that sensorManager has been initialized, which happens in constructor
   private void stopListening() {
-    sensorManager.unregisterListener(this);
+    sampler.stop();
   }
 
   /**
@@ -442,18 +545,34 @@ public int getDeviceDefaultOrientation() {
       // portraitPrimary
       if ((deviceDefaultOrientation == Configuration.ORIENTATION_LANDSCAPE) &&
           !legacyMode) {
-        xAccel = values[1];
-        yAccel = -values[0];
+        sample[0] = values[1];
+        sample[1] = -values[0];
       } else {
-        xAccel = values[0];
-        yAccel = values[1];
+        sample[0] = values[0];
+        sample[1] = values[1];
       }
-      zAccel = values[2];
+      sample[2] = values[2];
       accuracy = sensorEvent.accuracy;
-      AccelerationChanged(xAccel, yAccel, zAccel);
+      sampler.addSample(sample, sensorEvent.timestamp);
     }
   }
 
+  // SampleHandler implementation
+
+  @Override
+  public void onSample(float[] values, long timestamp) {
+    if (sampler.isBatching()) {
+      updateAcceleration(values[0], values[1], values[2]);
+    } else {
+      AccelerationChanged(values[0], values[1], values[2]);
+    }
+  }
+
+  @Override
+  public void onBatch(YailList samples) {
+    SamplesReceived(samples);
+  }
+
   @Override
   public void onAccuracyChanged(Sensor sensor, int accuracy) {
     // TODO(markf): Figure out if we actually need to do something here.
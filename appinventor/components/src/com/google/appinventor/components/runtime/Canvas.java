@@ -24,8 +24,10 @@ import com.google.appinventor.components.runtime.collect.Sets;
 import com.google.appinventor.components.runtime.util.BoundingBox;
 import com.google.appinventor.components.runtime.util.ErrorMessages;
 import com.google.appinventor.components.runtime.util.FileUtil;
+import com.google.appinventor.components.runtime.util.JellybeanUtil;
 import com.google.appinventor.components.runtime.util.MediaUtil;
 import com.google.appinventor.components.runtime.util.PaintUtil;
+import com.google.appinventor.components.runtime.util.SdkLevel;
 
 import android.app.Activity;
 import android.content.Context;
@@ -36,6 +38,8 @@ import android.graphics.PorterDuff;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.BitmapDrawable;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.GestureDetector;
@@ -118,11 +122,18 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
   private static final int DEFAULT_BACKGROUND_COLOR = Component.COLOR_WHITE;
   private static final int DEFAULT_TEXTALIGNMENT = Component.ALIGNMENT_CENTER;
   private static final int FLING_INTERVAL = 1000;  // ms
+  private static final int FRAME_INTERVAL = 16;  // ms, used before Jellybean
 
   // Keep track of enclosed sprites.  This list should always be
   // sorted by increasing sprite.Z().
   private final List<Sprite> sprites;
 
+  // Spatial index of the enclosed sprites, used to find collision candidates.
+  private final SpriteGrid spriteGrid = new SpriteGrid();
+
+  // Moves the enclosed sprites once per display frame.
+  private final SpriteAnimator spriteAnimator = new SpriteAnimator();
+
   // Handle touches and drags
   private final MotionEventParser motionEventParser;
 
@@ -341,6 +352,68 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
     }
   }
 
+  /**
+   * Moves all enabled sprites once per display frame, and then redraws the
+   * view and checks the moved sprites for collisions, so that the view is
+   * invalidated and the sprites checked once per frame rather than once per
+   * sprite.  Frames are only requested while some sprite is moving.
+   */
+  private class SpriteAnimator implements Runnable {
+    private Handler handler;
+    private boolean scheduled;
+
+    /**
+     * Requests a call of {@link #run()} at the next frame, unless one has
+     * already been requested.
+     */
+    void schedule() {
+      if (scheduled) {
+        return;
+      }
+      scheduled = true;
+      if (SdkLevel.getLevel() >= SdkLevel.LEVEL_JELLYBEAN) {
+        JellybeanUtil.postFrameCallback(this);
+      } else {
+        if (handler == null) {
+          handler = new Handler();
+        }
+        handler.postDelayed(this, FRAME_INTERVAL);
+      }
+    }
+
+    @Override
+    public void run() {
+      scheduled = false;
+      long now = SystemClock.uptimeMillis();
+      List<Sprite> moved = new ArrayList<Sprite>();
+      boolean moving = false;
+      // Event handlers run by advance() may change the Z of a sprite or
+      // delete one, which changes the sprites list, so go over a copy.
+      for (Sprite sprite : new ArrayList<Sprite>(sprites)) {
+        if (sprite.advance(now)) {
+          moved.add(sprite);
+        }
+        moving |= sprite.isMoving();
+      }
+      // Deleted sprites must not be entered into the grid again.
+      moved.retainAll(sprites);
+      if (!moved.isEmpty()) {
+        view.invalidate();
+        // Enter all the new positions before checking any of them, so that
+        // sprites that moved into each other in this frame are found.
+        for (Sprite sprite : moved) {
+          spriteGrid.update(sprite);
+        }
+        for (Sprite sprite : moved) {
+          findSpriteCollisions(sprite);
+        }
+      }
+      if (moving) {
+        schedule();
+      }
+    }
+  }
+
   /**
    * Panel for drawing and manipulating sprites.
    *
@@ -772,6 +845,15 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
    */
   void removeSprite(Sprite sprite) {
     sprites.remove(sprite);
+    spriteGrid.remove(sprite);
+  }
+
+  /**
+   * Indicates that a sprite may have started moving, so that the sprites are
+   * advanced at the next frame.
+   */
+  void spriteMotionChanged() {
+    spriteAnimator.schedule();
   }
 
   /**
@@ -781,7 +863,8 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
    * @param sprite the Sprite whose Z property has changed
    */
   void changeSpriteLayer(Sprite sprite) {
-    removeSprite(sprite);
+    // Only the drawing order changes, so the sprite keeps its cells in spriteGrid.
+    sprites.remove(sprite);
     addSprite(sprite);
     view.invalidate();
   }
@@ -821,9 +904,21 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
    */
   void registerChange(Sprite sprite) {
     view.invalidate();
+    spriteGrid.update(sprite);
     findSpriteCollisions(sprite);
   }
 
+  /**
+   * Indicates that a sprite that has not been initialized yet has changed.
+   * The view is redrawn, but no collisions are checked.
+   *
+   * @param sprite the sprite whose location, size, or appearance has changed
+   */
+  void registerChangeBeforeInitialize(Sprite sprite) {
+    view.invalidate();
+    spriteGrid.update(sprite);
+  }
+
 
   // Methods for detecting collisions
 
@@ -840,10 +935,16 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
    * and
    * {@link com.google.appinventor.components.runtime.Sprite#Enabled()}.
    *
+   * <p>Only the sprites near the moved sprite in {@link #spriteGrid} and the
+   * sprites it was colliding with are checked, since no other sprite can
+   * have started or stopped colliding with it.
+   *
    * @param movedSprite the sprite that has just changed position
    */
   protected void findSpriteCollisions(Sprite movedSprite) {
-    for (Sprite sprite : sprites) {
+    Set<Sprite> candidates = spriteGrid.getNeighbors(movedSprite);
+    candidates.addAll(movedSprite.getRegisteredCollisions());
+    for (Sprite sprite : candidates) {
       if (sprite != movedSprite) {
         // Check whether we already raised an event for their collision.
         if (movedSprite.CollidingWith(sprite)) {
@@ -75,7 +75,7 @@ public class EventDispatcher {
     }
   }
 
-  private static final boolean DEBUG = false;
+  private static final String LOG_TAG = "EventDispatcher";
 
   private static final Map<HandlesEventDispatching, EventRegistry>
       mapDispatchDelegateToEventRegistry = new HashMap<HandlesEventDispatching, EventRegistry>();
@@ -116,8 +116,8 @@ public class EventDispatcher {
     }
 
     eventClosures.add(new EventClosure(componentId, eventName));
-    if (DEBUG) {
-      Log.i("EventDispatcher", "Registered event closure for " +
+    if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+      Log.i(LOG_TAG, "Registered event closure for " +
           componentId + "." + eventName);
     }
   }
@@ -145,8 +145,8 @@ public class EventDispatcher {
       }
     }
     for (EventClosure eventClosure : toDelete) {
-      if (DEBUG) {
-        Log.i("EventDispatcher", "Deleting event closure for " +
+      if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+        Log.i(LOG_TAG, "Deleting event closure for " +
             eventClosure.componentId + "." + eventClosure.eventName);
       }
       eventClosures.remove(eventClosure);
@@ -186,8 +186,8 @@ public class EventDispatcher {
    * @param args  arguments to the event handler
    */
   public static boolean dispatchEvent(Component component, String eventName, Object...args) {
-    if (DEBUG) {
-      Log.i("EventDispatcher", "Trying to dispatch event " + eventName);
+    if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+      Log.i(LOG_TAG, "Trying to dispatch event " + eventName);
     }
     boolean dispatched = false;
     HandlesEventDispatching dispatchDelegate = component.getDispatchDelegate();
@@ -221,8 +221,8 @@ public class EventDispatcher {
                                          eventClosure.componentId,
                                          eventClosure.eventName,
                                          args)) {
-        if (DEBUG) {
-          Log.i("EventDispatcher", "Successfully dispatched event " +
+        if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+          Log.i(LOG_TAG, "Successfully dispatched event " +
               eventClosure.componentId + "." + eventClosure.eventName);
         }
         dispatched = true;  // break here or keep iterating through loop?
@@ -233,8 +233,8 @@ public class EventDispatcher {
 
   // Don't delete this method. It's called from runtime.scm.
   public static String makeFullEventName(String componentId, String eventName) {
-    if (DEBUG) {
-      Log.i("EventDispatcher", "makeFullEventName componentId=" + componentId + ", " +
+    if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+      Log.i(LOG_TAG, "makeFullEventName componentId=" + componentId + ", " +
           "eventName=" + eventName);
     }
     return componentId + '$' + eventName;
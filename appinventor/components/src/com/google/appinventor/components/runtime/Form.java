@@ -103,6 +103,10 @@ public class Form extends AppInventorCompatActivity
 
   private static final String LOG_TAG = "Form";
 
+  // The values and layouts that forms handle are logged from frequently called
+  // code, so those messages are only built when debug logging is enabled for
+  // this tag, e.g. in the Companion with "setprop log.tag.Form DEBUG".
+
   private static final String RESULT_NAME = "APP_INVENTOR_RESULT";
 
   private static final String ARGUMENT_NAME = "APP_INVENTOR_START";
@@ -445,11 +449,15 @@ public class Form extends AppInventorCompatActivity
     int[] position = new int[2];
     scaleLayout.getLocationInWindow(position);
     int contentViewTop = position[1];
-    Log.d(LOG_TAG, "onGlobalLayout(): heightdiff = " + heightDiff + " contentViewTop = " +
-      contentViewTop);
+    if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+      Log.d(LOG_TAG, "onGlobalLayout(): heightdiff = " + heightDiff + " contentViewTop = " +
+        contentViewTop);
+    }
 
     if(heightDiff <= contentViewTop){
-      Log.d(LOG_TAG, "keyboard hidden!");
+      if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+        Log.d(LOG_TAG, "keyboard hidden!");
+      }
       if (keyboardShown) {
         keyboardShown = false;
         if (sCompatibilityMode) { // Put us back in "Fixed" Mode
@@ -459,7 +467,9 @@ public class Form extends AppInventorCompatActivity
       }
     } else {
       int keyboardHeight = heightDiff - contentViewTop;
-      Log.d(LOG_TAG, "keyboard shown!");
+      if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+        Log.d(LOG_TAG, "keyboard shown!");
+      }
       keyboardShown = true;
       if (scaleLayout != null) { // Effectively put us in responsive mode
         scaleLayout.setScale(1.0f);
@@ -528,11 +538,15 @@ public class Form extends AppInventorCompatActivity
   // functionName is a string to include in the error message that will be shown
   // if the JSON decoding fails
   private  static Object decodeJSONStringForForm(String jsonString, String functionName) {
-    Log.i(LOG_TAG, "decodeJSONStringForForm -- decoding JSON representation:" + jsonString);
+    if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+      Log.i(LOG_TAG, "decodeJSONStringForForm -- decoding JSON representation:" + jsonString);
+    }
     Object valueFromJSON = "";
     try {
       valueFromJSON = JsonUtil.getObjectFromJson(jsonString);
-      Log.i(LOG_TAG, "decodeJSONStringForForm -- got decoded JSON:" + valueFromJSON.toString());
+      if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+        Log.i(LOG_TAG, "decodeJSONStringForForm -- got decoded JSON:" + valueFromJSON.toString());
+      }
     } catch (JSONException e) {
       activeForm.dispatchErrorOccurredEvent(activeForm, functionName,
           // showing the start value here will produce an ugly error on the phone, but it's
@@ -1491,7 +1505,9 @@ public class Form extends AppInventorCompatActivity
   public void Sizing(String value) {
     // This is used by the project and build server.
     // We also use it to adjust sizes
-    Log.d(LOG_TAG, "Sizing(" + value + ")");
+    if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+      Log.d(LOG_TAG, "Sizing(" + value + ")");
+    }
     formWidth = (int)((float) this.getResources().getDisplayMetrics().widthPixels / deviceDensity);
     formHeight = (int)((float) this.getResources().getDisplayMetrics().heightPixels / deviceDensity);
     if (value.equals("Fixed")) {
@@ -1505,7 +1521,9 @@ public class Form extends AppInventorCompatActivity
     if (frameLayout != null) {
       frameLayout.invalidate();
     }
-    Log.d(LOG_TAG, "formWidth = " + formWidth + " formHeight = " + formHeight);
+    if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+      Log.d(LOG_TAG, "formWidth = " + formWidth + " formHeight = " + formHeight);
+    }
   }
 
   // public String Sizing() {
@@ -1635,7 +1653,9 @@ public class Form extends AppInventorCompatActivity
   @SimpleProperty(category = PropertyCategory.APPEARANCE,
     description = "Screen width (x-size).")
   public int Width() {
-    Log.d(LOG_TAG, "Form.Width = " + formWidth);
+    if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+      Log.d(LOG_TAG, "Form.Width = " + formWidth);
+    }
     return formWidth;
   }
 
@@ -1647,7 +1667,9 @@ public class Form extends AppInventorCompatActivity
   @SimpleProperty(category = PropertyCategory.APPEARANCE,
     description = "Screen height (y-size).")
   public int Height() {
-    Log.d(LOG_TAG, "Form.Height = " + formHeight);
+    if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+      Log.d(LOG_TAG, "Form.Height = " + formHeight);
+    }
     return formHeight;
   }
 
@@ -1703,9 +1725,13 @@ public class Form extends AppInventorCompatActivity
       "open another screen with start value";
     String jValue;
     if (startupValue != null) {
-      Log.i(LOG_TAG, "StartNewForm about to JSON encode:" + startupValue);
+      if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+        Log.i(LOG_TAG, "StartNewForm about to JSON encode:" + startupValue);
+      }
       jValue = jsonEncodeForForm(startupValue, functionName);
-      Log.i(LOG_TAG, "StartNewForm got JSON encoding:" + jValue);
+      if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+        Log.i(LOG_TAG, "StartNewForm got JSON encoding:" + jValue);
+      }
     } else{
       jValue = "";
     }
@@ -1728,11 +1754,15 @@ public class Form extends AppInventorCompatActivity
   // if the JSON encoding fails
   protected static String jsonEncodeForForm(Object value, String functionName) {
     String jsonResult = "";
-    Log.i(LOG_TAG, "jsonEncodeForForm -- creating JSON representation:" + value.toString());
+    if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+      Log.i(LOG_TAG, "jsonEncodeForForm -- creating JSON representation:" + value.toString());
+    }
     try {
       // TODO(hal): check that this is OK for raw strings
       jsonResult = JsonUtil.getJsonRepresentation(value);
-      Log.i(LOG_TAG, "jsonEncodeForForm -- got JSON representation:" + jsonResult);
+      if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+        Log.i(LOG_TAG, "jsonEncodeForForm -- got JSON representation:" + jsonResult);
+      }
     } catch (JSONException e) {
       activeForm.dispatchErrorOccurredEvent(activeForm, functionName,
           // showing the bad value here will produce an ugly error on the phone, but it's
@@ -2171,7 +2201,9 @@ public class Form extends AppInventorCompatActivity
       return;
     }
     try {
-      Log.i(LOG_TAG, "calling Initialize method for Object " + component.toString());
+      if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+        Log.i(LOG_TAG, "calling Initialize method for Object " + component.toString());
+      }
       method.invoke(component, (Object[]) null);
     } catch (InvocationTargetException e){
       Log.i(LOG_TAG, "invoke exception: " + e.getMessage());
@@ -15,6 +15,8 @@ import com.google.appinventor.components.annotations.SimpleProperty;
 import com.google.appinventor.components.common.ComponentCategory;
 import com.google.appinventor.components.common.PropertyTypeConstants;
 import com.google.appinventor.components.common.YaVersion;
+import com.google.appinventor.components.runtime.util.SensorSampler;
+import com.google.appinventor.components.runtime.util.YailList;
 
 import android.content.Context;
 import android.hardware.Sensor;
@@ -36,7 +38,8 @@ import android.hardware.SensorManager;
 
 @SimpleObject
 public class GyroscopeSensor extends AndroidNonvisibleComponent
-    implements SensorEventListener, Deleteable, OnPauseListener, OnResumeListener {
+    implements SensorComponent, SensorEventListener, Deleteable, OnPauseListener, OnResumeListener,
+    SensorSampler.SampleHandler {
 
   // Properties
   private boolean enabled;
@@ -49,6 +52,10 @@ public class GyroscopeSensor extends AndroidNonvisibleComponent
   private final Sensor gyroSensor;
   private boolean listening;
 
+  // Rate control, averaging and batching of the sensor samples
+  private final SensorSampler sampler;
+  private final float[] sample = new float[3];
+
   /**
    * Creates a new GyroscopeSensor component.
    */
@@ -58,6 +65,8 @@ public class GyroscopeSensor extends AndroidNonvisibleComponent
     // Get sensors, and start listening.
     sensorManager = (SensorManager) form.getSystemService(Context.SENSOR_SERVICE);
     gyroSensor = sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
+    sampler = new SensorSampler(sensorManager, this, gyroSensor,
+        SensorManager.SENSOR_DELAY_FASTEST, this);
 
     // Begin listening in onResume() and stop listening in onPause().
     form.registerForOnResume(this);
@@ -69,14 +78,14 @@ public class GyroscopeSensor extends AndroidNonvisibleComponent
 
   private void startListening() {
     if (!listening) {
-      sensorManager.registerListener(this, gyroSensor, SensorManager.SENSOR_DELAY_FASTEST);
+      sampler.start();
       listening = true;
     }
   }
 
   private void stopListening() {
     if (listening) {
-      sensorManager.unregisterListener(this);
+      sampler.stop();
       listening = false;
 
       // Throw out sensor information that will go stale.
@@ -99,6 +108,16 @@ public class GyroscopeSensor extends AndroidNonvisibleComponent
         xAngularVelocity, yAngularVelocity, zAngularVelocity, timestamp);
   }
 
+  /**
+   * SamplesReceived event handler.
+   */
+  @SimpleEvent(description = "Indicates that BatchSize gyroscope samples were taken. Each " +
+      "item of samples is a list of xAngularVelocity, yAngularVelocity, zAngularVelocity and " +
+      "the time in nanoseconds at which the sample was taken.")
+  public void SamplesReceived(YailList samples) {
+    EventDispatcher.dispatchEvent(this, "SamplesReceived", samples);
+  }
+
   // Properties
 
   /**
@@ -146,6 +165,78 @@ public class GyroscopeSensor extends AndroidNonvisibleComponent
     }
   }
 
+  /**
+   * SampleRate property getter method.
+   *
+   * @return  samples per second, or 0 for the default rate
+   */
+  @SimpleProperty(description = "The number of gyroscope samples per second to take, or 0 " +
+      "for the default rate. Samples the device delivers faster than this are dropped.",
+      category = PropertyCategory.BEHAVIOR)
+  public int SampleRate() {
+    return sampler.getSampleRate();
+  }
+
+  /**
+   * SampleRate property setter method.
+   *
+   * @param sampleRate  samples per second, or 0 for the default rate
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER,
+      defaultValue = "0")
+  @SimpleProperty
+  public void SampleRate(int sampleRate) {
+    sampler.setSampleRate(sampleRate);
+  }
+
+  /**
+   * AveragingWindow property getter method.
+   *
+   * @return  number of samples averaged, 1 for no averaging
+   */
+  @SimpleProperty(description = "The number of gyroscope samples averaged into each " +
+      "reported sample. 1 reports every sample.",
+      category = PropertyCategory.BEHAVIOR)
+  public int AveragingWindow() {
+    return sampler.getAveragingWindow();
+  }
+
+  /**
+   * AveragingWindow property setter method.
+   *
+   * @param averagingWindow  number of samples averaged, 1 for no averaging
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_POSITIVE_INTEGER,
+      defaultValue = "1")
+  @SimpleProperty
+  public void AveragingWindow(int averagingWindow) {
+    sampler.setAveragingWindow(averagingWindow);
+  }
+
+  /**
+   * BatchSize property getter method.
+   *
+   * @return  number of samples per batch, 1 for no batching
+   */
+  @SimpleProperty(description = "The number of gyroscope samples reported together by the " +
+      "SamplesReceived event. When greater than 1, GyroscopeChanged is not raised.",
+      category = PropertyCategory.BEHAVIOR)
+  public int BatchSize() {
+    return sampler.getBatchSize();
+  }
+
+  /**
+   * BatchSize property setter method.
+   *
+   * @param batchSize  number of samples per batch, 1 for no batching
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_POSITIVE_INTEGER,
+      defaultValue = "1")
+  @SimpleProperty
+  public void BatchSize(int batchSize) {
+    sampler.setBatchSize(batchSize);
+  }
+
   /**
    * XAngularVelocity property getter method (read-only property).
    *
@@ -195,19 +286,34 @@ public class GyroscopeSensor extends AndroidNonvisibleComponent
   @Override
   public void onSensorChanged(SensorEvent sensorEvent) {
     if (enabled) {
+      sample[0] = (float) Math.toDegrees(sensorEvent.values[0]);
+      sample[1] = (float) Math.toDegrees(sensorEvent.values[1]);
+      sample[2] = (float) Math.toDegrees(sensorEvent.values[2]);
+      sampler.addSample(sample, sensorEvent.timestamp);
+    }
+  }
 
-      xAngularVelocity = (float) Math.toDegrees(sensorEvent.values[0]);
-      yAngularVelocity = (float) Math.toDegrees(sensorEvent.values[1]);
-      zAngularVelocity = (float) Math.toDegrees(sensorEvent.values[2]);
+  @Override
+  public void onAccuracyChanged(Sensor sensor, int accuracy) {
+  }
+
+  // SampleHandler implementation
 
-      // Raise event.
-      GyroscopeChanged(xAngularVelocity, yAngularVelocity, zAngularVelocity,
-          sensorEvent.timestamp);
+  @Override
+  public void onSample(float[] values, long timestamp) {
+    xAngularVelocity = values[0];
+    yAngularVelocity = values[1];
+    zAngularVelocity = values[2];
+
+    // Raise event, unless the samples are reported in batches.
+    if (!sampler.isBatching()) {
+      GyroscopeChanged(xAngularVelocity, yAngularVelocity, zAngularVelocity, timestamp);
     }
   }
 
   @Override
-  public void onAccuracyChanged(Sensor sensor, int accuracy) {
+  public void onBatch(YailList samples) {
+    SamplesReceived(samples);
   }
 
   // Deleteable implementation
@@ -16,7 +16,6 @@ import com.google.appinventor.components.common.PropertyTypeConstants;
 import com.google.appinventor.components.runtime.errors.AssertionFailure;
 import com.google.appinventor.components.runtime.errors.IllegalArgumentError;
 import com.google.appinventor.components.runtime.util.BoundingBox;
-import com.google.appinventor.components.runtime.util.TimerInternal;
 
 import android.os.Handler;
 import android.util.Log;
@@ -42,13 +41,21 @@ public abstract class Sprite extends VisibleComponent
   private static final int DEFAULT_HEADING = 0;      // degrees
   private static final int DEFAULT_INTERVAL = 100;  // ms
   private static final float DEFAULT_SPEED = 0.0f;   // pixels per interval
+
+  // The most moves made in one frame when frames are late.  Any further
+  // moves that are due are dropped.
+  private static final int MAX_STEPS_PER_FRAME = 4;
   private static final boolean DEFAULT_VISIBLE = true;
   private static final double DEFAULT_Z = 1.0;
 
   protected final Canvas canvas;              // enclosing Canvas
-  private final TimerInternal timerInternal;  // timer to control movement
   private final Handler androidUIHandler;     // for posting actions
 
+  // Whether this sprite's shape is its bounding box, which is the case unless
+  // a subclass overrides containsPoint().  Collisions between such sprites are
+  // computed without checking individual points.
+  private final boolean rectangular;
+
   // Keeps track of which other sprites are currently colliding with this one.
   // That way, we don't raise CollidedWith() more than once for each collision.
   // Events are only raised when sprites are added to this collision set.  They
@@ -62,6 +69,10 @@ public abstract class Sprite extends VisibleComponent
   // Properties: These are protected, instead of private, both so they
   // can be used by subclasses and tests.
   protected int interval;      // number of milliseconds until next move
+  protected boolean enabled;   // whether the sprite moves
+  // The time, in SystemClock.uptimeMillis(), up to which moves have been
+  // made, or -1 if the sprite should start counting from the next frame.
+  private long lastStepTime = -1;
   protected boolean visible = true;
   // TODO(user): Convert to have co-ordinates be center, not upper left.
   // Note that this would simplify pointTowards to remove the adjustment
@@ -111,9 +122,7 @@ public abstract class Sprite extends VisibleComponent
 
     // Maintain a list of collisions.
     registeredCollisions = new HashSet<Sprite>();
-
-    // Set in motion.
-    timerInternal = new TimerInternal(this, DEFAULT_ENABLED, DEFAULT_INTERVAL, handler);
+    rectangular = inheritsContainsPoint(getClass());
 
     this.form = container.$form();
 
@@ -144,6 +153,7 @@ public abstract class Sprite extends VisibleComponent
   public void Initialize() {
     initialized = true;
     canvas.registerChange(this);
+    canvas.spriteMotionChanged();
   }
 
   // Properties (Enabled, Heading, Interval, Speed, Visible, X, Y, Z)
@@ -151,27 +161,29 @@ public abstract class Sprite extends VisibleComponent
   /**
    * Enabled property getter method.
    *
-   * @return  {@code true} indicates a running timer, {@code false} a stopped
-   *          timer
+   * @return  {@code true} indicates a sprite that moves, {@code false} a
+   *          stopped sprite
    */
   @SimpleProperty(
       description = "Controls whether the sprite moves when its speed is non-zero.",
       category = PropertyCategory.BEHAVIOR)
   public boolean Enabled() {
-    return timerInternal.Enabled();
+    return enabled;
   }
 
   /**
-   * Enabled property setter method: starts or stops the timer.
+   * Enabled property setter method: starts or stops the sprite's movement.
    *
-   * @param enabled  {@code true} starts the timer, {@code false} stops it
+   * @param enabled  {@code true} starts the sprite, {@code false} stops it
    */
   @DesignerProperty(
       editorType = PropertyTypeConstants.PROPERTY_TYPE_BOOLEAN,
       defaultValue = DEFAULT_ENABLED ? "True" : "False")
   @SimpleProperty
       public void Enabled(boolean enabled) {
-    timerInternal.Enabled(enabled);
+    this.enabled = enabled;
+    lastStepTime = -1;
+    canvas.spriteMotionChanged();
   }
 
   /**
@@ -221,7 +233,7 @@ public abstract class Sprite extends VisibleComponent
       "then the sprite will move 10 pixels every 50 milliseconds.",
       category = PropertyCategory.BEHAVIOR)
   public int Interval() {
-    return timerInternal.Interval();
+    return interval;
   }
 
   /**
@@ -234,7 +246,8 @@ public abstract class Sprite extends VisibleComponent
       defaultValue = DEFAULT_INTERVAL + "")
   @SimpleProperty
   public void Interval(int interval) {
-    timerInternal.Interval(interval);
+    this.interval = interval;
+    lastStepTime = -1;
   }
 
   /**
@@ -250,6 +263,7 @@ public abstract class Sprite extends VisibleComponent
       defaultValue = DEFAULT_SPEED + "")
   public void Speed(float speed) {
     this.speed = speed;
+    canvas.spriteMotionChanged();
   }
 
   /**
@@ -588,6 +602,14 @@ public abstract class Sprite extends VisibleComponent
     return registeredCollisions.contains(other);
   }
 
+  /**
+   * Returns the sprites for which a collision with this sprite has been
+   * registered.  The returned set must not be modified.
+   */
+  Set<Sprite> getRegisteredCollisions() {
+    return registeredCollisions;
+  }
+
   /**
    * Moves the sprite back in bounds if part of it extends out of bounds,
    * having no effect otherwise. If the sprite is too wide to fit on the
@@ -664,7 +686,7 @@ public abstract class Sprite extends VisibleComponent
     // before all components had been constructed.
     if (!initialized) {
       // During REPL, components are not initalized, but we still want to repaint the canvas.
-      canvas.getView().invalidate();
+      canvas.registerChangeBeforeInitialize(this);
       return;
     }
     int edge = hitEdge();
@@ -853,6 +875,21 @@ public abstract class Sprite extends VisibleComponent
       return false;
     }
 
+    // Balls and sprites that fill their bounding box can be compared exactly.
+    boolean ball1 = sprite1 instanceof Ball;
+    boolean ball2 = sprite2 instanceof Ball;
+    if ((ball1 || sprite1.rectangular) && (ball2 || sprite2.rectangular)) {
+      if (ball1 && ball2) {
+        return circlesOverlap((Ball) sprite1, (Ball) sprite2);
+      } else if (ball1) {
+        return circleOverlapsRectangle((Ball) sprite1, sprite2);
+      } else if (ball2) {
+        return circleOverlapsRectangle((Ball) sprite2, sprite1);
+      } else {
+        return rectanglesOverlap(sprite1, sprite2);
+      }
+    }
+
     // If we get here, rect1 has been mutated to hold the intersection of the
     // two bounding boxes.  Now check every point in the intersection to see if
     // both sprites contain that point.
@@ -867,6 +904,50 @@ public abstract class Sprite extends VisibleComponent
     return false;
   }
 
+  /*
+   * Determines whether two balls share a point.  Like all of the collision
+   * tests, this includes the edges, so balls that touch collide.
+   */
+  private static boolean circlesOverlap(Ball ball1, Ball ball2) {
+    double r1 = ball1.Radius();
+    double r2 = ball2.Radius();
+    double dx = (ball1.xLeft + r1) - (ball2.xLeft + r2);
+    double dy = (ball1.yTop + r1) - (ball2.yTop + r2);
+    return dx * dx + dy * dy <= (r1 + r2) * (r1 + r2);
+  }
+
+  /*
+   * Determines whether a ball shares a point with a sprite that fills its
+   * bounding box, by finding the point of the sprite nearest to the center of
+   * the ball.  As in circlesOverlap, a ball that touches an edge of the
+   * sprite collides with it.
+   */
+  private static boolean circleOverlapsRectangle(Ball ball, Sprite sprite) {
+    if (sprite.Width() <= 0 || sprite.Height() <= 0) {
+      return false;
+    }
+    double r = ball.Radius();
+    double xCenter = ball.xLeft + r;
+    double yCenter = ball.yTop + r;
+    double dx = xCenter - Math.max(sprite.xLeft, Math.min(xCenter, sprite.xLeft + sprite.Width()));
+    double dy = yCenter - Math.max(sprite.yTop, Math.min(yCenter, sprite.yTop + sprite.Height()));
+    return dx * dx + dy * dy <= r * r;
+  }
+
+  /*
+   * Determines whether two sprites that fill their bounding boxes share a
+   * point.  As in containsPoint, the edges are included, so abutting sprites
+   * collide.
+   */
+  private static boolean rectanglesOverlap(Sprite sprite1, Sprite sprite2) {
+    return sprite1.xLeft <= sprite2.xLeft + sprite2.Width()
+        && sprite2.xLeft <= sprite1.xLeft + sprite1.Width()
+        && sprite1.yTop <= sprite2.yTop + sprite2.Height()
+        && sprite2.yTop <= sprite1.yTop + sprite1.Height()
+        && sprite1.Width() > 0 && sprite1.Height() > 0
+        && sprite2.Width() > 0 && sprite2.Height() > 0;
+  }
+
   /**
    * Determines whether this sprite intersects with the given rectangle.
    *
@@ -899,11 +980,25 @@ public abstract class Sprite extends VisibleComponent
    *
    * @param qx the x-coordinate
    * @param qy the y-coordinate
-   * @return whether (qx, qy) falls within this sprite
+   * @return whether (qx, qy) falls within this sprite, edges included
    */
   public boolean containsPoint(double qx, double qy) {
-    return qx >= xLeft && qx < xLeft + Width() &&
-        qy >= yTop && qy < yTop + Height();
+    return Width() > 0 && Height() > 0 &&
+        qx >= xLeft && qx <= xLeft + Width() &&
+        qy >= yTop && qy <= yTop + Height();
+  }
+
+  /*
+   * Determines whether the given subclass of Sprite uses the rectangular
+   * containsPoint() defined here.
+   */
+  private static boolean inheritsContainsPoint(Class<?> spriteClass) {
+    try {
+      return spriteClass.getMethod("containsPoint", double.class, double.class)
+          .getDeclaringClass() == Sprite.class;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
   }
 
   // Convenience methods for dealing with hitting the screen edge and collisions
@@ -922,6 +1017,53 @@ public abstract class Sprite extends VisibleComponent
     }
   }
 
+  /**
+   * Indicates whether this sprite moves on its own, so that the canvas needs
+   * to keep advancing it.
+   */
+  boolean isMoving() {
+    return enabled && initialized && speed != 0;
+  }
+
+  /**
+   * Makes the moves that are due at the given time, one every
+   * {@link #Interval()} milliseconds, raising {@link #EdgeReached(int)} after
+   * each move that reaches an edge.  The caller is responsible for redrawing
+   * the canvas and checking for collisions.
+   *
+   * @param now the current time, in {@link android.os.SystemClock#uptimeMillis()}
+   * @return whether the sprite moved
+   */
+  boolean advance(long now) {
+    if (!isMoving()) {
+      lastStepTime = -1;
+      return false;
+    }
+    if (lastStepTime < 0) {
+      // Count the first interval from now, as a newly started timer would.
+      lastStepTime = now;
+      return false;
+    }
+    long steps = (interval > 0) ? (now - lastStepTime) / interval : 1;
+    if (steps == 0) {
+      return false;
+    }
+    if (steps > MAX_STEPS_PER_FRAME) {
+      steps = MAX_STEPS_PER_FRAME;
+      lastStepTime = now;
+    } else {
+      lastStepTime = (interval > 0) ? lastStepTime + steps * interval : now;
+    }
+    for (int i = 0; i < steps; i++) {
+      updateCoordinates();
+      int edge = hitEdge();
+      if (edge != Component.DIRECTION_NONE) {
+        EdgeReached(edge);
+      }
+    }
+    return true;
+  }
+
   // Component implementation
 
   @Override
@@ -933,14 +1075,14 @@ public abstract class Sprite extends VisibleComponent
 
   @Override
   public void onDestroy() {
-    timerInternal.Enabled(false);
+    enabled = false;
   }
 
   // Deleteable implementation
 
   @Override
   public void onDelete() {
-    timerInternal.Enabled(false);
+    enabled = false;
     canvas.removeSprite(this);
   }
 
@@ -0,0 +1,155 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime;
+
+import com.google.appinventor.components.runtime.util.BoundingBox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A uniform grid over the sprites of a {@link Canvas}, used to find the
+ * sprites that might collide with a sprite that has moved without comparing
+ * it against every other sprite.
+ *
+ * <p>Each sprite is entered in every cell that its bounding box, including
+ * the one pixel border used for collisions, overlaps.  Two sprites can only
+ * collide if they share a cell.  Sprites so large that they would occupy too
+ * many cells are kept in a separate list and are candidates for every
+ * lookup.
+ *
+ */
+final class SpriteGrid {
+  // Width and height of a cell, in the same units as sprite coordinates.
+  private static final int CELL_SIZE = 64;
+
+  // Sprites that would occupy more cells than this are not entered in cells.
+  private static final int MAX_CELLS_PER_SPRITE = 64;
+
+  // The sprites in each nonempty cell, keyed by packed cell coordinates.
+  private final Map<Long, List<Sprite>> cells = new HashMap<Long, List<Sprite>>();
+
+  // The range of cells occupied by each sprite, as {left, top, right, bottom}.
+  private final Map<Sprite, int[]> ranges = new HashMap<Sprite, int[]>();
+
+  // Sprites that are too large to be entered in cells.
+  private final List<Sprite> oversized = new ArrayList<Sprite>();
+
+  /**
+   * Enters a sprite at its current position, or moves it there if it was
+   * already entered.
+   *
+   * @param sprite the sprite whose position or size may have changed
+   */
+  void update(Sprite sprite) {
+    int[] range = getRange(sprite);
+    int[] oldRange = ranges.get(sprite);
+    if (oldRange != null && sameRange(oldRange, range)) {
+      return;
+    }
+    remove(sprite);
+    ranges.put(sprite, range);
+    if (isOversized(range)) {
+      oversized.add(sprite);
+      return;
+    }
+    for (int x = range[0]; x <= range[2]; x++) {
+      for (int y = range[1]; y <= range[3]; y++) {
+        Long key = cellKey(x, y);
+        List<Sprite> cell = cells.get(key);
+        if (cell == null) {
+          cell = new ArrayList<Sprite>(2);
+          cells.put(key, cell);
+        }
+        cell.add(sprite);
+      }
+    }
+  }
+
+  /**
+   * Removes a sprite from the grid.
+   *
+   * @param sprite the sprite to remove
+   */
+  void remove(Sprite sprite) {
+    int[] range = ranges.remove(sprite);
+    if (range == null) {
+      return;
+    }
+    if (isOversized(range)) {
+      oversized.remove(sprite);
+      return;
+    }
+    for (int x = range[0]; x <= range[2]; x++) {
+      for (int y = range[1]; y <= range[3]; y++) {
+        Long key = cellKey(x, y);
+        List<Sprite> cell = cells.get(key);
+        if (cell != null) {
+          cell.remove(sprite);
+          if (cell.isEmpty()) {
+            cells.remove(key);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the sprites that share a cell with the given sprite, which must
+   * have been entered at its current position.  The given sprite is not
+   * included.
+   *
+   * @param sprite the sprite whose neighbors are wanted
+   * @return the sprites that might collide with sprite
+   */
+  Set<Sprite> getNeighbors(Sprite sprite) {
+    Set<Sprite> neighbors = new LinkedHashSet<Sprite>(oversized);
+    int[] range = ranges.get(sprite);
+    if (range != null && !isOversized(range)) {
+      for (int x = range[0]; x <= range[2]; x++) {
+        for (int y = range[1]; y <= range[3]; y++) {
+          List<Sprite> cell = cells.get(cellKey(x, y));
+          if (cell != null) {
+            neighbors.addAll(cell);
+          }
+        }
+      }
+    } else if (range != null) {
+      // An oversized sprite may collide with any sprite.
+      neighbors.addAll(ranges.keySet());
+    }
+    neighbors.remove(sprite);
+    return neighbors;
+  }
+
+  private static int[] getRange(Sprite sprite) {
+    BoundingBox box = sprite.getBoundingBox(1);
+    return new int[] {
+        cell(box.getLeft()), cell(box.getTop()), cell(box.getRight()), cell(box.getBottom())
+    };
+  }
+
+  private static int cell(double coordinate) {
+    return (int) Math.floor(coordinate / CELL_SIZE);
+  }
+
+  private static Long cellKey(int x, int y) {
+    return ((long) x << 32) | (y & 0xffffffffL);
+  }
+
+  private static boolean sameRange(int[] a, int[] b) {
+    return a[0] == b[0] && a[1] == b[1] && a[2] == b[2] && a[3] == b[3];
+  }
+
+  private static boolean isOversized(int[] range) {
+    return ((long) range[2] - range[0] + 1) * ((long) range[3] - range[1] + 1)
+        > MAX_CELLS_PER_SPRITE;
+  }
+}
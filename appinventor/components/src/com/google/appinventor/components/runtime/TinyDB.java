@@ -15,17 +15,23 @@ import com.google.appinventor.components.common.ComponentCategory;
 import com.google.appinventor.components.common.PropertyTypeConstants;
 import com.google.appinventor.components.common.YaVersion;
 import com.google.appinventor.components.runtime.errors.YailRuntimeError;
+import com.google.appinventor.components.runtime.util.GingerbreadUtil;
 import com.google.appinventor.components.runtime.util.JsonUtil;
+import com.google.appinventor.components.runtime.util.SdkLevel;
 
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Handler;
 
 import org.json.JSONException;
 
@@ -61,12 +67,35 @@ import org.json.JSONException;
     iconName = "images/tinyDB.png")
 
 @SimpleObject
-public class TinyDB extends AndroidNonvisibleComponent implements Component, Deleteable {
+public class TinyDB extends AndroidNonvisibleComponent implements Component, Deleteable,
+    OnPauseListener, OnDestroyListener {
 
   private SharedPreferences sharedPreferences;
 
   private Context context;  // this was a local in constructor and final not private
 
+  private final Handler androidUIHandler = new Handler();
+
+  // True if this component has posted a flush to the UI thread that has not
+  // run yet. Guarded by lock.
+  private boolean flushPosted = false;
+
+  // All TinyDB components use the same store, so the state below is shared
+  // by all of them and guarded by lock.
+  private static final Object lock = new Object();
+
+  // Changes not yet handed to SharedPreferences. A null value means the tag
+  // was cleared. They are written out together once the current block of
+  // code finishes running, rather than one by one as they are made.
+  private static final Map<String, String> pendingChanges = new HashMap<String, String>();
+
+  // True if ClearAll was called since the last flush.
+  private static boolean pendingClearAll = false;
+
+  // Values already decoded from their JSON representation. Only values the
+  // app cannot modify (text, numbers and booleans) are kept, lists are
+  // decoded afresh for every GetValue.
+  private static final Map<String, Object> decodedValues = new HashMap<String, Object>();
 
   /**
    * Creates a new TinyDB component.
@@ -77,6 +106,8 @@ public class TinyDB extends AndroidNonvisibleComponent implements Component, Del
     super(container.$form());
     context = (Context) container.$context();
     sharedPreferences = context.getSharedPreferences("TinyDB1", Context.MODE_PRIVATE);
+    form.registerForOnPause(this);
+    form.registerForOnDestroy(this);
   }
 
   /**
@@ -89,13 +120,17 @@ public class TinyDB extends AndroidNonvisibleComponent implements Component, Del
    */
   @SimpleFunction
   public void StoreValue(final String tag, final Object valueToStore) {
-    final SharedPreferences.Editor sharedPrefsEditor = sharedPreferences.edit();
+    String json;
     try {
-      sharedPrefsEditor.putString(tag, JsonUtil.getJsonRepresentation(valueToStore));
-      sharedPrefsEditor.commit();
+      json = JsonUtil.getJsonRepresentation(valueToStore);
     } catch (JSONException e) {
       throw new YailRuntimeError("Value failed to convert to JSON.", "JSON Creation Error.");
     }
+    synchronized (lock) {
+      pendingChanges.put(tag, json);
+      decodedValues.remove(tag);
+    }
+    scheduleFlush();
   }
 
   /**
@@ -108,13 +143,31 @@ public class TinyDB extends AndroidNonvisibleComponent implements Component, Del
    */
   @SimpleFunction
   public Object GetValue(final String tag, final Object valueIfTagNotThere) {
-    try {
-      String value = sharedPreferences.getString(tag, "");
+    synchronized (lock) {
+      if (decodedValues.containsKey(tag)) {
+        return decodedValues.get(tag);
+      }
+      String value;
+      if (pendingChanges.containsKey(tag)) {
+        value = pendingChanges.get(tag);
+      } else {
+        value = pendingClearAll ? null : sharedPreferences.getString(tag, "");
+      }
       // If there's no entry with tag as a key then return the empty string.
       //    was  return (value.length() == 0) ? "" : JsonUtil.getObjectFromJson(value);
-      return (value.length() == 0) ? valueIfTagNotThere : JsonUtil.getObjectFromJson(value);
-    } catch (JSONException e) {
-      throw new YailRuntimeError("Value failed to convert from JSON.", "JSON Creation Error.");
+      if (value == null || value.length() == 0) {
+        return valueIfTagNotThere;
+      }
+      Object result;
+      try {
+        result = JsonUtil.getObjectFromJson(value);
+      } catch (JSONException e) {
+        throw new YailRuntimeError("Value failed to convert from JSON.", "JSON Creation Error.");
+      }
+      if (result instanceof String || result instanceof Number || result instanceof Boolean) {
+        decodedValues.put(tag, result);
+      }
+      return result;
     }
   }
 
@@ -126,10 +179,21 @@ public class TinyDB extends AndroidNonvisibleComponent implements Component, Del
    */
   @SimpleFunction
   public Object GetTags() {
-    List<String> keyList = new ArrayList<String>();
-    Map<String,?> keyValues = sharedPreferences.getAll();
-    // here is the simple way to get keys
-    keyList.addAll(keyValues.keySet());
+    Set<String> keys = new HashSet<String>();
+    synchronized (lock) {
+      if (!pendingClearAll) {
+        // here is the simple way to get keys
+        keys.addAll(sharedPreferences.getAll().keySet());
+      }
+      for (Map.Entry<String, String> change : pendingChanges.entrySet()) {
+        if (change.getValue() == null) {
+          keys.remove(change.getKey());
+        } else {
+          keys.add(change.getKey());
+        }
+      }
+    }
+    List<String> keyList = new ArrayList<String>(keys);
     java.util.Collections.sort(keyList);
     return keyList;
   }
@@ -140,9 +204,12 @@ public class TinyDB extends AndroidNonvisibleComponent implements Component, Del
    */
   @SimpleFunction
   public void ClearAll() {
-    final SharedPreferences.Editor sharedPrefsEditor = sharedPreferences.edit();
-    sharedPrefsEditor.clear();
-    sharedPrefsEditor.commit();
+    synchronized (lock) {
+      pendingChanges.clear();
+      pendingClearAll = true;
+      decodedValues.clear();
+    }
+    scheduleFlush();
   }
 
   /**
@@ -152,15 +219,71 @@ public class TinyDB extends AndroidNonvisibleComponent implements Component, Del
    */
   @SimpleFunction
   public void ClearTag(final String tag) {
-    final SharedPreferences.Editor sharedPrefsEditor = sharedPreferences.edit();
-    sharedPrefsEditor.remove(tag);
-    sharedPrefsEditor.commit();
+    synchronized (lock) {
+      pendingChanges.put(tag, null);
+      decodedValues.remove(tag);
+    }
+    scheduleFlush();
   }
 
   @Override
   public void onDelete() {
-    final SharedPreferences.Editor sharedPrefsEditor = sharedPreferences.edit();
-    sharedPrefsEditor.clear();
-    sharedPrefsEditor.commit();
+    ClearAll();
+    flush();
+  }
+
+  @Override
+  public void onPause() {
+    flush();
+  }
+
+  @Override
+  public void onDestroy() {
+    flush();
+  }
+
+  private void scheduleFlush() {
+    synchronized (lock) {
+      if (flushPosted) {
+        return;
+      }
+      flushPosted = true;
+    }
+    androidUIHandler.post(new Runnable() {
+        public void run() {
+          flush();
+        }
+      });
+  }
+
+  /**
+   * Hands the pending changes to SharedPreferences in a single edit. Where
+   * we can, the edit is written to disk in the background.
+   */
+  private void flush() {
+    synchronized (lock) {
+      flushPosted = false;
+      if (!pendingClearAll && pendingChanges.isEmpty()) {
+        return;
+      }
+      final SharedPreferences.Editor sharedPrefsEditor = sharedPreferences.edit();
+      if (pendingClearAll) {
+        sharedPrefsEditor.clear();
+      }
+      for (Map.Entry<String, String> change : pendingChanges.entrySet()) {
+        if (change.getValue() == null) {
+          sharedPrefsEditor.remove(change.getKey());
+        } else {
+          sharedPrefsEditor.putString(change.getKey(), change.getValue());
+        }
+      }
+      pendingChanges.clear();
+      pendingClearAll = false;
+      if (SdkLevel.getLevel() >= SdkLevel.LEVEL_GINGERBREAD) {
+        GingerbreadUtil.applyPreferences(sharedPrefsEditor);
+      } else {
+        sharedPrefsEditor.commit();
+      }
+    }
   }
 }
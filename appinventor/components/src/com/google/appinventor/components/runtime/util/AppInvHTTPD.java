@@ -190,11 +190,11 @@ public class AppInvHTTPD extends NanoHTTPD {
         } else {
           scheme.eval(code);
         }
-        res = new Response(HTTP_OK, MIME_JSON, RetValManager.fetch(false));
+        res = new Response(HTTP_OK, MIME_JSON, fetchReturnValues(parms, false));
       } catch (Throwable ex) {
         Log.e(LOG_TAG, "newblocks: Scheme Failure", ex);
         RetValManager.appendReturnValue(blockid, "BAD", ex.toString());
-        res = new Response(HTTP_OK, MIME_JSON, RetValManager.fetch(false));
+        res = new Response(HTTP_OK, MIME_JSON, fetchReturnValues(parms, false));
       }
       res.addHeader("Access-Control-Allow-Origin", "*");
       res.addHeader("Access-Control-Allow-Headers", "origin, content-type");
@@ -202,7 +202,20 @@ public class AppInvHTTPD extends NanoHTTPD {
       res.addHeader("Allow", "POST,OPTIONS,GET,HEAD,PUT");
       return(res);
     } else if (uri.equals("/_values")) {
-      Response res = new Response(HTTP_OK, MIME_JSON, RetValManager.fetch(true)); // Blocking Fetch
+      Response res = new Response(HTTP_OK, MIME_JSON, fetchReturnValues(parms, true)); // Blocking Fetch
+      res.addHeader("Access-Control-Allow-Origin", "*");
+      res.addHeader("Access-Control-Allow-Headers", "origin, content-type");
+      res.addHeader("Access-Control-Allow-Methods", "POST,OPTIONS,GET,HEAD,PUT");
+      res.addHeader("Allow", "POST,OPTIONS,GET,HEAD,PUT");
+      return(res);
+    } else if (uri.equals("/_stream")) {
+      // A single long lived response carrying return values, one JSON object
+      // per line, as they are produced. Replaces polling _values for Blocks
+      // Editors that know about it (see "stream" in _getversion).
+      long since = parseSince(parms);
+      Response res = new Response(HTTP_OK, MIME_PLAINTEXT, RetValManager.openStream(since));
+      res.streaming = true;
+      res.addHeader("Cache-Control", "no-cache");
       res.addHeader("Access-Control-Allow-Origin", "*");
       res.addHeader("Access-Control-Allow-Headers", "origin, content-type");
       res.addHeader("Access-Control-Allow-Methods", "POST,OPTIONS,GET,HEAD,PUT");
@@ -225,13 +238,16 @@ public class AppInvHTTPD extends NanoHTTPD {
         String versionName = pInfo.versionName;
         if (installer == null)
           installer = "Not Known";
+        // stream = true indicates we serve return values on _stream, retvalseq is
+        // the sequence number of the last value produced before this connection
         // fcqn = true indicates we accept FullyQualifiedComponentNames (FQCN)
         // This informs the blocks editor whether or not we can accept the new style
         // fully qualified component names
         res = new Response(HTTP_OK, MIME_JSON, "{\"version\" : \"" + versionName +
           "\", \"fingerprint\" : \"" + Build.FINGERPRINT + "\"," +
           " \"installer\" : \"" + installer + "\", \"package\" : \"" +
-          packageName + "\", \"fqcn\" : true }");
+          packageName + "\", \"fqcn\" : true, \"stream\" : true," +
+          " \"retvalseq\" : " + RetValManager.getLastSeq() + " }");
       } catch (NameNotFoundException n) {
         n.printStackTrace();
         res = new Response(HTTP_OK, MIME_JSON, "{\"verison\" : \"Unknown\"");
@@ -422,6 +438,25 @@ public class AppInvHTTPD extends NanoHTTPD {
     return serveFile( uri, header, rootDir, true );
   }
 
+  /**
+   * Asset uploads are written to the directory they are headed for, so the
+   * PUT handler in serve() can move them into place with a rename rather
+   * than copying them out of the cache directory.
+   */
+  @Override
+  protected File getUploadDirectory(String uri, Properties parms) {
+    String filename = parms.getProperty("filename", null);
+    if (filename == null || filename.startsWith("..") || filename.endsWith("..")
+      || filename.indexOf("../") >= 0) {
+      return null;              // serve() will reject it
+    }
+    File parentFileTo = new File(rootDir + "/" + filename).getParentFile();
+    if (!parentFileTo.exists()) {
+      parentFileTo.mkdirs();
+    }
+    return parentFileTo;
+  }
+
   private void copyFile(File infile, File outfile) {
     try {
       FileInputStream in = new FileInputStream(infile);
@@ -440,6 +475,27 @@ public class AppInvHTTPD extends NanoHTTPD {
     }
   }
 
+  /**
+   * Returns the pending return values. If the Blocks Editor passes the
+   * sequence number of the last value it has seen we only send it newer
+   * values, otherwise every pending value is sent and then forgotten.
+   */
+  private static String fetchReturnValues(Properties parms, boolean block) {
+    String since = parms.getProperty("since");
+    if (since == null) {
+      return RetValManager.fetch(block);
+    }
+    return RetValManager.fetch(parseSince(parms), block);
+  }
+
+  private static long parseSince(Properties parms) {
+    try {
+      return Long.parseLong(parms.getProperty("since", "-1"));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
   private Response processLoadExtensionsRequest(Properties parms) {
     try {
       JSONArray array = new JSONArray(parms.getProperty("extensions", "[]"));
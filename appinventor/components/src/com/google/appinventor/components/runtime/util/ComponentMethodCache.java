@@ -0,0 +1,88 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import gnu.bytecode.ObjectType;
+import gnu.bytecode.Type;
+import gnu.expr.Compilation;
+import gnu.expr.Language;
+import gnu.kawa.reflect.ClassMethods;
+import gnu.lists.LList;
+import gnu.mapping.CallContext;
+import gnu.mapping.MethodProc;
+import gnu.mapping.Symbol;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Calls component methods and property getters and setters from YAIL.
+ *
+ * <p>Kawa's {@code invoke} looks up the methods of the receiver's class by
+ * name on every call, which dominates the cost of a block that sets a
+ * property or calls a method.  This class does the same lookup once per
+ * class and method name and keeps the resulting procedure, so that later
+ * calls only select among the overloads and convert the arguments, exactly
+ * as {@code invoke} would.
+ *
+ */
+public final class ComponentMethodCache {
+
+  // The methods of each class, by mangled method name.
+  private static final ConcurrentMap<Class<?>, ConcurrentMap<String, MethodProc>> methods =
+      new ConcurrentHashMap<Class<?>, ConcurrentMap<String, MethodProc>>();
+
+  private ComponentMethodCache() {
+  }
+
+  /**
+   * Calls a public method of an object, with the same argument conversions
+   * and overload resolution as {@code (invoke target methodName args ...)}.
+   *
+   * @param target the object whose method is called
+   * @param methodName the name of the method, as a symbol or string
+   * @param args the arguments
+   * @return the result of the method
+   */
+  public static Object invoke(Object target, Object methodName, LList args) throws Throwable {
+    Object[] invokeArgs = new Object[args.size() + 1];
+    invokeArgs[0] = target;
+    int i = 1;
+    for (Object arg : args) {
+      invokeArgs[i++] = arg;
+    }
+    // Select the most specific applicable method, as invoke does when it is applied.
+    CallContext context = CallContext.getInstance();
+    getMethod(target.getClass(), methodName).checkN(invokeArgs, context);
+    return context.runUntilValue();
+  }
+
+  private static MethodProc getMethod(Class<?> targetClass, Object methodName) {
+    ConcurrentMap<String, MethodProc> classMethods = methods.get(targetClass);
+    if (classMethods == null) {
+      classMethods = new ConcurrentHashMap<String, MethodProc>();
+      ConcurrentMap<String, MethodProc> existing = methods.putIfAbsent(targetClass, classMethods);
+      if (existing != null) {
+        classMethods = existing;
+      }
+    }
+    String name = (methodName instanceof Symbol)
+        ? ((Symbol) methodName).getName()
+        : methodName.toString();
+    MethodProc method = classMethods.get(name);
+    if (method == null) {
+      method = ClassMethods.apply((ObjectType) Type.make(targetClass),
+          Compilation.mangleName(name), 'V',
+          Language.getDefaultLanguage());
+      if (method == null) {
+        throw new RuntimeException("invoke: no method named `" + name + "' in class "
+            + targetClass.getName());
+      }
+      classMethods.put(name, method);
+    }
+    return method;
+  }
+}
@@ -9,6 +9,7 @@ package com.google.appinventor.components.runtime.util;
 import android.app.Activity;
 import android.content.Intent;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.nfc.NdefMessage;
 import android.nfc.NdefRecord;
 import android.nfc.NfcAdapter;
@@ -179,4 +180,14 @@ public class GingerbreadUtil {
         return false;
     }
   }
+
+  /**
+   * Commits the changes in the given editor to the in-memory preferences right away and writes
+   * them to disk in the background.
+   *
+   * @param editor the editor holding the changes
+   */
+  public static void applyPreferences(SharedPreferences.Editor editor) {
+    editor.apply();
+  }
 }
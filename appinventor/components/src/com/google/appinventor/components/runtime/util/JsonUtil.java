@@ -161,6 +161,9 @@ public class JsonUtil {
     if (value instanceof YailList) {
       return ((YailList) value).toJSONString();
     }
+    if (value instanceof YailDictionary) {
+      return ((YailDictionary) value).toJSONString();
+    }
     // The Json tokener used in getObjectFromJson cannot handle
     // fractions.  So we Json encode fractions by first converting
     // them to doubles. This is an example of value with Kawa type any
@@ -10,6 +10,9 @@ import java.util.Collections;
 import java.util.List;
 
 import android.content.Intent;
+import android.hardware.Sensor;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
 import android.provider.Telephony.Sms.Intents;
 import android.telephony.SmsMessage;
 
@@ -39,4 +42,20 @@ public final class KitkatUtil {
     }
     return result;
   }
+
+  /**
+   * Registers a listener for a sensor, allowing the sensor to queue events in its hardware FIFO
+   * and deliver them together once the oldest has waited up to the given latency.
+   *
+   * @param sensorManager the sensor manager
+   * @param listener the listener to receive the sensor events
+   * @param sensor the sensor to listen to
+   * @param samplingPeriodUs the desired time between events, in microseconds
+   * @param maxReportLatencyUs the longest time an event may be held back, in microseconds
+   * @return true if the sensor was registered
+   */
+  public static boolean registerSensorListener(SensorManager sensorManager,
+      SensorEventListener listener, Sensor sensor, int samplingPeriodUs, int maxReportLatencyUs) {
+    return sensorManager.registerListener(listener, sensor, samplingPeriodUs, maxReportLatencyUs);
+  }
 }
@@ -3,6 +3,7 @@
 // and Copyright (C) 2010 by Konstantinos Togias <info@ktogias.gr>
 // See Details at end of file.
 package com.google.appinventor.components.runtime.util;
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.File;
@@ -13,9 +14,14 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -53,6 +59,7 @@ import android.util.Log;
  *    <li> Supports both dynamic content and file serving </li>
  *    <li> Supports file upload (since version 1.2, 2010) </li>
  *    <li> Supports partial content (streaming)</li>
+ *    <li> Supports keep-alive connections</li>
  *    <li> Supports ETags</li>
  *    <li> Never caches anything </li>
  *    <li> Doesn't limit bandwidth, request time or simultaneous connections </li>
@@ -130,6 +137,25 @@ public class NanoHTTPD
                 return serveFile( uri, header, myRootDir, true );
         }
 
+        /**
+         * Override this to choose where the body of a PUT request is
+         * written. The upload is handed to serve() as a temporary file in
+         * this directory under files.getProperty("content"), so putting it
+         * next to its final location lets serve() move it there with a
+         * rename instead of a copy.<p>
+         *
+         * (By default, this returns null and the system temporary
+         * directory is used.)
+         *
+         * @param uri   Percent-decoded URI without parameters
+         * @param parms Parsed, percent decoded parameters from URI
+         * @return The directory to write the upload to, or null
+         */
+        protected File getUploadDirectory( String uri, Properties parms )
+        {
+                return null;
+        }
+
         /**
          * HTTP response.
          * Return one of these from serve().
@@ -195,6 +221,13 @@ public class NanoHTTPD
                  */
                 public InputStream data;
 
+                /**
+                 * True if data is an open ended stream. Its contents are
+                 * sent as they become available until it reaches its end
+                 * or the client goes away.
+                 */
+                public boolean streaming = false;
+
                 /**
                  * Headers for the HTTP response. Use addHeader()
                  * to add lines.
@@ -232,6 +265,10 @@ public class NanoHTTPD
 
         private static final int REPL_STACK_SIZE = 256*1024;
 
+        // How long (in milliseconds) a kept alive connection may sit idle
+        // before we close it and give its thread back to the pool.
+        private static final int KEEP_ALIVE_TIMEOUT = 5000;
+
         /**
          * Starts a HTTP server to given port.<p>
          * Throws an IOException if the socket is already in use
@@ -241,7 +278,12 @@ public class NanoHTTPD
         {
                 myTcpPort = port;
                 this.myRootDir = wwwroot;
-                myServerSocket = new ServerSocket( myTcpPort );
+                // Opened through a channel so that the sockets we accept have
+                // channels too, which lets us send files with transferTo().
+                myServerChannel = ServerSocketChannel.open();
+                myServerSocket = myServerChannel.socket();
+                myServerSocket.setReuseAddress( true );
+                myServerSocket.bind( new InetSocketAddress( myTcpPort ));
                 myThread = new Thread(new Runnable()
                         {
                                 public void run()
@@ -249,7 +291,7 @@ public class NanoHTTPD
                                         try
                                         {
                                                 while( true )
-                                                        new HTTPSession( myServerSocket.accept());
+                                                        new HTTPSession( myServerChannel.accept().socket());
                                         }
                                         catch ( IOException ioe )
                                         {}
@@ -343,169 +385,221 @@ public class NanoHTTPD
                 {
                         mySocket = s;
                         Log.d(LOG_TAG, "NanoHTTPD: getPoolSize() = " + myExecutor.getPoolSize());
-                        myExecutor.execute(this);
+                        try
+                        {
+                                myExecutor.execute(this);
+                        }
+                        catch ( RejectedExecutionException e )
+                        {
+                                Log.e(LOG_TAG, "NanoHTTPD: no thread available, dropping connection");
+                                try { mySocket.close(); } catch( Throwable t ) {}
+                        }
                 }
 
                 public void run()
                 {
                         try
                         {
-                                InputStream is = mySocket.getInputStream();
-                                if ( is == null) return;
-
-                                // Read the first 8192 bytes.
-                                // The full header should fit in here.
-                                // Apache's default header limit is 8KB.
-                                int bufsize = 8192;
-                                byte[] buf = new byte[bufsize];
-                                int rlen = is.read(buf, 0, bufsize);
-                                if (rlen <= 0) return;
-
-                                // Create a BufferedReader for parsing the header.
-                                ByteArrayInputStream hbis = new ByteArrayInputStream(buf, 0, rlen);
-                                BufferedReader hin = new BufferedReader( new InputStreamReader( hbis ));
-                                Properties pre = new Properties();
-                                Properties parms = new Properties();
-                                Properties header = new Properties();
-                                Properties files = new Properties();
-
-                                // Decode the header into parms and header java properties
-                                decodeHeader(hin, pre, parms, header);
-                                String method = pre.getProperty("method");
-                                String uri = pre.getProperty("uri");
-
-                                long size = 0x7FFFFFFFFFFFFFFFl;
-                                String contentLength = header.getProperty("content-length");
-                                if (contentLength != null)
+                                InputStream is = new BufferedInputStream( mySocket.getInputStream(), theBufferSize );
+                                boolean keepAlive = true;
+                                boolean first = true;
+                                while ( keepAlive )
                                 {
-                                        try { size = Integer.parseInt(contentLength); }
-                                        catch (NumberFormatException ex) {}
+                                        // Between requests on a kept alive connection we only
+                                        // wait so long for the client to send another one.
+                                        if ( !first )
+                                                mySocket.setSoTimeout( KEEP_ALIVE_TIMEOUT );
+                                        byte[] hbuf = readHeader( is );
+                                        if ( hbuf == null ) break;
+                                        mySocket.setSoTimeout( 0 );
+                                        first = false;
+                                        keepAlive = handleRequest( is, hbuf );
                                 }
-
-                                // We are looking for the byte separating header from body.
-                                // It must be the last byte of the first two sequential new lines.
-                                int splitbyte = 0;
-                                boolean sbfound = false;
-                                while (splitbyte < rlen)
+                        }
+                        catch ( SocketTimeoutException ste )
+                        {
+                                // Idle kept alive connection, just close it.
+                        }
+                        catch ( IOException ioe )
+                        {
+                                try
                                 {
-                                        if (buf[splitbyte] == '\r' && buf[++splitbyte] == '\n' && buf[++splitbyte] == '\r' && buf[++splitbyte] == '\n') {
-                                                sbfound = true;
-                                                break;
-                                        }
-                                        splitbyte++;
+                                        sendError( HTTP_INTERNALERROR, "SERVER INTERNAL ERROR: IOException: " + ioe.getMessage());
                                 }
-                                splitbyte++;
+                                catch ( Throwable t ) {}
+                        }
+                        catch ( InterruptedException ie )
+                        {
+                                // Thrown by sendError, ignore and exit the thread.
+                        }
+                        finally
+                        {
+                                try { mySocket.close(); } catch( Throwable t ) {}
+                        }
+                }
 
-                                // Write the part of body already read to ByteArrayOutputStream f
-                                OutputStream f;
-                                if ( method.equalsIgnoreCase( "PUT" ) )
-                                {
-                                        File tmpfile = File.createTempFile("upload", "bin");
-                                        tmpfile.deleteOnExit();
-                                        f = new FileOutputStream(tmpfile);
-                                        files.put("content", tmpfile.getAbsolutePath());
-                                }
-                                else
-                                {
-                                        f = new ByteArrayOutputStream();
-                                }
-                                if (splitbyte < rlen) f.write(buf, splitbyte, rlen-splitbyte);
-
-                                // While Firefox sends on the first read all the data fitting
-                                // our buffer, Chrome and Opera sends only the headers even if
-                                // there is data for the body. So we do some magic here to find
-                                // out whether we have already consumed part of body, if we
-                                // have reached the end of the data to be sent or we should
-                                // expect the first byte of the body at the next read.
-                                if (splitbyte < rlen)
-                                        size -= rlen - splitbyte +1;
-                                else if (!sbfound || size == 0x7FFFFFFFFFFFFFFFl)
-                                        size = 0;
-
-                                // Now read all the body and write it to f
-                                buf = new byte[512];
-                                while ( rlen >= 0 && size > 0 )
-                                {
-                                        rlen = is.read(buf, 0, 512);
-                                        size -= rlen;
-                                        if (rlen > 0)
-                                                f.write(buf, 0, rlen);
-                                }
+                /**
+                 * Reads the request line and headers, up to and including
+                 * the empty line that ends them. Returns null if the client
+                 * closed the connection instead of sending another request.
+                 */
+                private byte[] readHeader( InputStream is ) throws IOException, InterruptedException
+                {
+                        // The full header should fit in here.
+                        // Apache's default header limit is 8KB.
+                        byte[] buf = new byte[8192];
+                        int rlen = 0;
+                        while ( rlen < 4 || buf[rlen-4] != '\r' || buf[rlen-3] != '\n' || buf[rlen-2] != '\r' || buf[rlen-1] != '\n' )
+                        {
+                                int b = is.read();
+                                if ( b < 0 )
+                                        break;
+                                if ( rlen == buf.length )
+                                        sendError( HTTP_BADREQUEST, "BAD REQUEST: Header too large." );
+                                buf[rlen++] = (byte) b;
+                        }
+                        if ( rlen == 0 ) return null;
+                        byte[] hbuf = new byte[rlen];
+                        System.arraycopy( buf, 0, hbuf, 0, rlen );
+                        return hbuf;
+                }
 
-                                // If the method is POST, there may be parameters
-                                // in data section, too, read it:
-                                if ( method.equalsIgnoreCase( "POST" ))
-                                {
-                                        // Get the raw body as a byte []
-                                        byte [] fbuf = ((ByteArrayOutputStream)f).toByteArray();
-
-                                        // Create a BufferedReader for easily reading it as string.
-                                        ByteArrayInputStream bin = new ByteArrayInputStream(fbuf);
-                                        BufferedReader in = new BufferedReader( new InputStreamReader(bin));
-
-                                        String contentType = "";
-                                        String contentTypeHeader = header.getProperty("content-type");
-                                        StringTokenizer st = new StringTokenizer( contentTypeHeader , "; " );
-                                        if ( st.hasMoreTokens()) {
-                                                contentType = st.nextToken();
-                                        }
+                /**
+                 * Reads the body of one request, serves it and sends the
+                 * response. Returns true if the connection can be used for
+                 * another request.
+                 */
+                private boolean handleRequest( InputStream is, byte[] hbuf ) throws IOException, InterruptedException
+                {
+                        // Create a BufferedReader for parsing the header.
+                        BufferedReader hin = new BufferedReader( new InputStreamReader( new ByteArrayInputStream( hbuf )));
+                        Properties pre = new Properties();
+                        Properties parms = new Properties();
+                        Properties header = new Properties();
+                        Properties files = new Properties();
+
+                        // Decode the header into parms and header java properties
+                        decodeHeader(hin, pre, parms, header);
+                        String method = pre.getProperty("method");
+                        String uri = pre.getProperty("uri");
+                        if ( method == null ) return false;
+
+                        boolean keepAlive;
+                        String connection = header.getProperty( "connection", "" );
+                        if ( pre.getProperty( "protocol", "" ).equalsIgnoreCase( "HTTP/1.1" ))
+                                keepAlive = !connection.equalsIgnoreCase( "close" );
+                        else
+                                keepAlive = connection.equalsIgnoreCase( "keep-alive" );
 
-                                        if (contentType.equalsIgnoreCase("multipart/form-data"))
-                                        {
-                                                // Handle multipart/form-data
-                                                if ( !st.hasMoreTokens())
-                                                        sendError( HTTP_BADREQUEST, "BAD REQUEST: Content type is multipart/form-data but boundary missing. Usage: GET /example/file.html" );
-                                                String boundaryExp = st.nextToken();
-                                                st = new StringTokenizer( boundaryExp , "=" );
-                                                if (st.countTokens() != 2)
-                                                        sendError( HTTP_BADREQUEST, "BAD REQUEST: Content type is multipart/form-data but boundary syntax error. Usage: GET /example/file.html" );
-                                                st.nextToken();
-                                                String boundary = st.nextToken();
-
-                                                decodeMultipartData(boundary, fbuf, in, parms, files);
-                                        }
-                                        else
+                        // We need to know where the body ends to find the next
+                        // request, without a Content-Length there is no body.
+                        long size = 0;
+                        String contentLength = header.getProperty("content-length");
+                        if (contentLength != null)
+                        {
+                                try { size = Long.parseLong(contentLength.trim()); }
+                                catch (NumberFormatException ex) { keepAlive = false; }
+                        }
+
+                        // Uploads are written where the subclass wants them (see
+                        // getUploadDirectory()), the rest of the body is kept in memory.
+                        OutputStream f;
+                        File tmpfile = null;
+                        if ( method.equalsIgnoreCase( "PUT" ) )
+                        {
+                                tmpfile = File.createTempFile("upload", "bin", getUploadDirectory( uri, parms ));
+                                tmpfile.deleteOnExit();
+                                f = new FileOutputStream(tmpfile);
+                                files.put("content", tmpfile.getAbsolutePath());
+                        }
+                        else
+                        {
+                                f = new ByteArrayOutputStream( (int) Math.min( size, theBufferSize ));
+                        }
+
+                        // Now read all the body and write it to f
+                        byte[] buf = new byte[theBufferSize];
+                        try
+                        {
+                                while ( size > 0 )
+                                {
+                                        int rlen = is.read(buf, 0, (int) Math.min( size, buf.length ));
+                                        if (rlen < 0)
                                         {
-                                                // Handle application/x-www-form-urlencoded
-                                                String postLine = "";
-                                                char pbuf[] = new char[512];
-                                                int read = in.read(pbuf);
-                                                while ( read >= 0 && !postLine.endsWith("\r\n") )
-                                                {
-                                                        postLine += String.valueOf(pbuf, 0, read);
-                                                        read = in.read(pbuf);
-                                                }
-                                                postLine = postLine.trim();
-                                                decodeParms( postLine, parms );
+                                                keepAlive = false;
+                                                break;
                                         }
-                                        in.close();
+                                        f.write(buf, 0, rlen);
+                                        size -= rlen;
                                 }
-                                else if ( method.equalsIgnoreCase( "PUT " ) )
-                                {
-                                        f.close();  // Close open file
+                        }
+                        finally
+                        {
+                                f.close();
+                        }
+                        if ( size > 0 && tmpfile != null )
+                        {
+                                // The client went away part way through the upload.
+                                tmpfile.delete();
+                                return false;
+                        }
+
+                        // If the method is POST, there may be parameters
+                        // in data section, too, read it:
+                        if ( method.equalsIgnoreCase( "POST" ))
+                        {
+                                // Get the raw body as a byte []
+                                byte [] fbuf = ((ByteArrayOutputStream)f).toByteArray();
+
+                                // Create a BufferedReader for easily reading it as string.
+                                ByteArrayInputStream bin = new ByteArrayInputStream(fbuf);
+                                BufferedReader in = new BufferedReader( new InputStreamReader(bin));
+
+                                String contentType = "";
+                                String contentTypeHeader = header.getProperty("content-type");
+                                StringTokenizer st = new StringTokenizer( contentTypeHeader , "; " );
+                                if ( st.hasMoreTokens()) {
+                                        contentType = st.nextToken();
                                 }
 
-                                // Ok, now do the serve()
-                                Response r = serve( uri, method, header, parms, files, mySocket );
-                                if ( r == null )
-                                        sendError( HTTP_INTERNALERROR, "SERVER INTERNAL ERROR: Serve() returned a null response." );
+                                if (contentType.equalsIgnoreCase("multipart/form-data"))
+                                {
+                                        // Handle multipart/form-data
+                                        if ( !st.hasMoreTokens())
+                                                sendError( HTTP_BADREQUEST, "BAD REQUEST: Content type is multipart/form-data but boundary missing. Usage: GET /example/file.html" );
+                                        String boundaryExp = st.nextToken();
+                                        st = new StringTokenizer( boundaryExp , "=" );
+                                        if (st.countTokens() != 2)
+                                                sendError( HTTP_BADREQUEST, "BAD REQUEST: Content type is multipart/form-data but boundary syntax error. Usage: GET /example/file.html" );
+                                        st.nextToken();
+                                        String boundary = st.nextToken();
+
+                                        decodeMultipartData(boundary, fbuf, in, parms, files);
+                                }
                                 else
-                                        sendResponse( r.status, r.mimeType, r.header, r.data );
-
-                                is.close();
-                        }
-                        catch ( IOException ioe )
-                        {
-                                try
                                 {
-                                        sendError( HTTP_INTERNALERROR, "SERVER INTERNAL ERROR: IOException: " + ioe.getMessage());
+                                        // Handle application/x-www-form-urlencoded
+                                        String postLine = "";
+                                        char pbuf[] = new char[512];
+                                        int read = in.read(pbuf);
+                                        while ( read >= 0 && !postLine.endsWith("\r\n") )
+                                        {
+                                                postLine += String.valueOf(pbuf, 0, read);
+                                                read = in.read(pbuf);
+                                        }
+                                        postLine = postLine.trim();
+                                        decodeParms( postLine, parms );
                                 }
-                                catch ( Throwable t ) {}
-                        }
-                        catch ( InterruptedException ie )
-                        {
-                                // Thrown by sendError, ignore and exit the thread.
+                                in.close();
                         }
+
+                        // Ok, now do the serve()
+                        Response r = serve( uri, method, header, parms, files, mySocket );
+                        if ( r == null )
+                                sendError( HTTP_INTERNALERROR, "SERVER INTERNAL ERROR: Serve() returned a null response." );
+                        else
+                                keepAlive = sendResponse( r.status, r.mimeType, r.header, r.data, r.streaming, keepAlive );
+                        return keepAlive;
                 }
 
                 /**
@@ -541,11 +635,12 @@ public class NanoHTTPD
                                 else uri = decodePercent(uri);
 
                                 // If there's another token, it's protocol version,
-                                // followed by HTTP headers. Ignore version but parse headers.
+                                // followed by HTTP headers.
                                 // NOTE: this now forces header names lowercase since they are
                                 // case insensitive and vary by client.
                                 if ( st.hasMoreTokens())
                                 {
+                                        pre.put("protocol", st.nextToken());
                                         String line = in.readLine();
                                         while ( line != null && line.trim().length() > 0 )
                                         {
@@ -789,23 +884,34 @@ public class NanoHTTPD
                  */
                 private void sendError( String status, String msg ) throws InterruptedException
                 {
-                        sendResponse( status, MIME_PLAINTEXT, null, new ByteArrayInputStream( msg.getBytes()));
+                        sendResponse( status, MIME_PLAINTEXT, null, new ByteArrayInputStream( msg.getBytes()), false, false );
                         throw new InterruptedException();
                 }
 
                 /**
-                 * Sends given response to the socket.
+                 * Sends given response to the socket. Returns true if the
+                 * connection was left open for another request.
                  */
-                private void sendResponse( String status, String mime, Properties header, InputStream data )
+                private boolean sendResponse( String status, String mime, Properties header, InputStream data, boolean streaming, boolean keepAlive )
                 {
                         try
                         {
                                 if ( status == null )
                                         throw new Error( "sendResponse(): Status can't be null." );
 
+                                // A streamed body ends when we close the connection
+                                if ( streaming )
+                                        keepAlive = false;
+
                                 OutputStream out = mySocket.getOutputStream();
                                 PrintWriter pw = new PrintWriter( out );
-                                pw.print("HTTP/1.0 " + status + " \r\n");
+                                pw.print((keepAlive ? "HTTP/1.1 " : "HTTP/1.0 ") + status + " \r\n");
+                                pw.print("Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n");
+
+                                // The client needs the length to find the end of the
+                                // body on a connection that stays open.
+                                if ( keepAlive && ( header == null || header.getProperty( "Content-Length" ) == null ))
+                                        pw.print("Content-Length: " + (( data == null ) ? 0 : data.available()) + "\r\n");
 
                                 if ( mime != null )
                                         pw.print("Content-Type: " + mime + "\r\n");
@@ -827,7 +933,33 @@ public class NanoHTTPD
                                 pw.print("\r\n");
                                 pw.flush();
 
-                                if ( data != null )
+                                if ( data != null && streaming )
+                                {
+                                        // There is no Content-Length, the body ends when
+                                        // the stream does and we close the connection.
+                                        byte[] buff = new byte[theBufferSize];
+                                        int read;
+                                        while ((read = data.read( buff, 0, theBufferSize )) >= 0)
+                                        {
+                                                out.write( buff, 0, read );
+                                                out.flush();
+                                        }
+                                }
+                                else if ( data instanceof FileInputStream && mySocket.getChannel() != null )
+                                {
+                                        // Let the kernel copy the file to the socket
+                                        long pending = data.available(); // This is to support partial sends, see serveFile()
+                                        FileChannel fc = ((FileInputStream) data).getChannel();
+                                        long position = fc.position();
+                                        while (pending>0)
+                                        {
+                                                long sent = fc.transferTo( position, pending, mySocket.getChannel());
+                                                if (sent <= 0)  break;
+                                                position += sent;
+                                                pending -= sent;
+                                        }
+                                }
+                                else if ( data != null )
                                 {
                                         int pending = data.available(); // This is to support partial sends, see serveFile()
                                         byte[] buff = new byte[theBufferSize];
@@ -840,14 +972,19 @@ public class NanoHTTPD
                                         }
                                 }
                                 out.flush();
-                                out.close();
+                                if ( !keepAlive )
+                                        out.close();
                                 if ( data != null )
                                         data.close();
+                                return keepAlive;
                         }
                         catch( IOException ioe )
                         {
                                 // Couldn't write? No can do.
                                 try { mySocket.close(); } catch( Throwable t ) {}
+                                if ( streaming )
+                                        try { data.close(); } catch( Throwable t ) {}
+                                return false;
                         }
                 }
 
@@ -880,6 +1017,7 @@ public class NanoHTTPD
         }
 
         private int myTcpPort;
+        private final ServerSocketChannel myServerChannel;
         private final ServerSocket myServerSocket;
         private Thread myThread;
         private File myRootDir;
@@ -6,11 +6,11 @@
 // This work is licensed under a Creative Commons Attribution 3.0 Unported License.
 
 package com.google.appinventor.components.runtime.util;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONTokener;
 
 import android.util.Log;
 
@@ -26,8 +26,28 @@ public class RetValManager {
   private static final Object semaphore = new Object();
   private static final long TENSECONDS = 10000; // Ten Seconds (in milliseconds)
 
+  // Upper bound on the number of unacknowledged values we hold on to. If the
+  // Blocks Editor goes away without acknowledging what we sent it we drop the
+  // oldest values rather than growing without bound.
+  private static final int MAX_RETAINED = 256;
+
+  // A stream ends once it has sent this many bytes or been open this long.
+  // The Blocks Editor keeps the whole response in memory, so it starts a new
+  // stream from the last value it has seen instead of holding one forever.
+  private static final int MAX_STREAM_BYTES = 64 * 1024;
+  private static final long MAX_STREAM_TIME = 300000; // Five Minutes (in milliseconds)
+
+  private static final String BAD_FETCH =
+    "{\"status\" : \"BAD\", \"message\" : \"Failure in RetValManager\"}";
+
   // There can be only one!
-  private static ArrayList<JSONObject> currentArray = new ArrayList<JSONObject>(10);
+  private static ArrayList<RetVal> currentArray = new ArrayList<RetVal>(10);
+
+  // Sequence number of the most recently appended value
+  private static long lastSeq = 0;
+
+  // The stream currently pushing values to the Blocks Editor, if any
+  private static ValueStream currentStream = null;
 
   // Need a better place for this version string, but for various reasons, this is how we
   // are going to do this for now...
@@ -36,6 +56,20 @@ public class RetValManager {
   private RetValManager() {
   }
 
+  /*
+   * A pending value. The JSON encoding is done once, when the value is
+   * produced, rather than every time it is handed to the Blocks Editor.
+   */
+  private static class RetVal {
+    final long seq;
+    final String json;
+
+    RetVal(long seq, String json) {
+      this.seq = seq;
+      this.json = json;
+    }
+  }
+
   /*
    * appendReturnValue -- Add a result, already encoded as a String to
    * the array of pending values.
@@ -45,42 +79,30 @@ public class RetValManager {
    * @param item The item to append
    */
   public static void appendReturnValue(String blockid, String ok, String item) {
-    synchronized (semaphore) {
-      JSONObject retval = new JSONObject();
-      try {
-        retval.put("status", ok);
-        retval.put("type", "return");
-        retval.put("value", item);
-        retval.put("blockid", blockid);
-      } catch (JSONException e) {
-        Log.e(LOG_TAG, "Error building retval", e);
-        return;
-      }
-      boolean sendNotify = currentArray.isEmpty();
-      currentArray.add(retval);
-      if (sendNotify) {
-        semaphore.notifyAll();
-      }
+    JSONObject retval = new JSONObject();
+    try {
+      retval.put("status", ok);
+      retval.put("type", "return");
+      retval.put("value", item);
+      retval.put("blockid", blockid);
+    } catch (JSONException e) {
+      Log.e(LOG_TAG, "Error building retval", e);
+      return;
     }
+    enqueue(retval);
   }
 
   public static void sendError(String error) {
-    synchronized (semaphore) {
-      JSONObject retval = new JSONObject();
-      try {
-        retval.put("status", "OK");
-        retval.put("type", "error");
-        retval.put("value", error);
-      } catch (JSONException e) {
-        Log.e(LOG_TAG, "Error building retval", e);
-        return;
-      }
-      boolean sendNotify = currentArray.isEmpty();
-      currentArray.add(retval);
-      if (sendNotify) {
-        semaphore.notifyAll();
-      }
+    JSONObject retval = new JSONObject();
+    try {
+      retval.put("status", "OK");
+      retval.put("type", "error");
+      retval.put("value", error);
+    } catch (JSONException e) {
+      Log.e(LOG_TAG, "Error building retval", e);
+      return;
     }
+    enqueue(retval);
   }
 
   /*
@@ -90,24 +112,18 @@ public class RetValManager {
    * @param value The value to hand it
    */
   public static void pushScreen(String screenName, Object value) {
-    synchronized (semaphore) {
-      JSONObject retval = new JSONObject();
-      try {
-        retval.put("status", "OK");
-        retval.put("type", "pushScreen");
-        retval.put("screen", screenName);
-        if (value != null)
-          retval.put("value", value.toString());
-      } catch (JSONException e) {
-        Log.e(LOG_TAG, "Error building retval", e);
-        return;
-      }
-      boolean sendNotify = currentArray.isEmpty();
-      currentArray.add(retval);
-      if (sendNotify) {
-        semaphore.notifyAll();
-      }
+    JSONObject retval = new JSONObject();
+    try {
+      retval.put("status", "OK");
+      retval.put("type", "pushScreen");
+      retval.put("screen", screenName);
+      if (value != null)
+        retval.put("value", value.toString());
+    } catch (JSONException e) {
+      Log.e(LOG_TAG, "Error building retval", e);
+      return;
     }
+    enqueue(retval);
   }
 
   /*
@@ -117,28 +133,47 @@ public class RetValManager {
    * @param value The value to hand it
    */
   public static void popScreen(String value) {
+    JSONObject retval = new JSONObject();
+    try {
+      retval.put("status", "OK");
+      retval.put("type", "popScreen");
+      if (value != null)
+        retval.put("value", value.toString());
+    } catch (JSONException e) {
+      Log.e(LOG_TAG, "Error building retval", e);
+      return;
+    }
+    enqueue(retval);
+  }
+
+  /*
+   * enqueue -- Number a value, encode it and wake up anyone waiting for it.
+   */
+  private static void enqueue(JSONObject retval) {
     synchronized (semaphore) {
-      JSONObject retval = new JSONObject();
+      long seq = lastSeq + 1;
       try {
-        retval.put("status", "OK");
-        retval.put("type", "popScreen");
-        if (value != null)
-          retval.put("value", value.toString());
+        retval.put("seq", seq);
       } catch (JSONException e) {
         Log.e(LOG_TAG, "Error building retval", e);
         return;
       }
-      boolean sendNotify = currentArray.isEmpty();
-      currentArray.add(retval);
-      if (sendNotify) {
-        semaphore.notifyAll();
+      lastSeq = seq;
+      currentArray.add(new RetVal(seq, retval.toString()));
+      if (currentArray.size() > MAX_RETAINED) {
+        Log.w(LOG_TAG, "Dropping unacknowledged value " + currentArray.get(0).seq);
+        currentArray.remove(0);
       }
+      semaphore.notifyAll();
     }
   }
 
   /*
    * fetch -- Fetch all pending results as a JSON encoded array.
    *
+   * Used by Blocks Editors that do not know about sequence numbers, the
+   * values are forgotten as soon as they are fetched.
+   *
    * @param block true if we should block waiting for results
    * @return String The JSON encoded array.
    */
@@ -154,17 +189,213 @@ public class RetValManager {
         } catch (InterruptedException e) {
         }
       }
-      JSONArray arrayoutput = new JSONArray(currentArray);
-      JSONObject output = new JSONObject();
-      try {
-        output.put("status", "OK");
-        output.put("values", arrayoutput);
-      } catch (JSONException e) {
-        Log.e(LOG_TAG, "Error fetching retvals", e);
-        return("{\"status\" : \"BAD\", \"message\" : \"Failure in RetValManager\"}");
-      }
+      String output = encode(currentArray, 0);
       currentArray.clear();       // empty it out
-      return output.toString();
+      return output;
+    }
+  }
+
+  /*
+   * fetch -- Fetch the results numbered after since as a JSON encoded array.
+   *
+   * Values numbered since or lower are acknowledged and dropped. Newer
+   * values are kept until they are acknowledged by a later request, so a
+   * response lost on the way to the Blocks Editor is sent again.
+   *
+   * @param since The sequence number of the last value the caller has seen
+   * @param block true if we should block waiting for results
+   * @return String The JSON encoded array.
+   */
+  public static String fetch(long since, boolean block) {
+    long startTime = System.currentTimeMillis();
+    synchronized (semaphore) {
+      since = checkSince(since);
+      acknowledge(since);
+      while (currentArray.isEmpty() && block) {
+        long time = System.currentTimeMillis();
+        if ((time - startTime) > (TENSECONDS - 100)) // Time to give up...
+          break;
+        try {
+          semaphore.wait(TENSECONDS);
+        } catch (InterruptedException e) {
+        }
+      }
+      return encode(currentArray, since);
+    }
+  }
+
+  /*
+   * getLastSeq -- The sequence number of the most recently produced value.
+   */
+  public static long getLastSeq() {
+    synchronized (semaphore) {
+      return lastSeq;
+    }
+  }
+
+  /*
+   * openStream -- Open a stream that pushes values to the Blocks Editor
+   * as they are produced, one JSON object per line.
+   *
+   * The first line is {"retvalseq" : n}, the sequence number of the most
+   * recently produced value, so the Blocks Editor can tell that we have
+   * restarted. Only one stream is open at a time, opening a new one ends the
+   * previous one so its HTTPD thread is released. When nothing has been
+   * produced for ten seconds an empty line is sent so a dead connection is
+   * noticed. The stream ends after MAX_STREAM_BYTES or MAX_STREAM_TIME, and
+   * the Blocks Editor then opens a new one.
+   *
+   * @param since The sequence number of the last value the caller has
+   *              seen, or -1 to only receive values produced from now on.
+   * @return InputStream The stream of values.
+   */
+  public static InputStream openStream(long since) {
+    synchronized (semaphore) {
+      if (since < 0) {
+        since = lastSeq;
+      }
+      since = checkSince(since);
+      acknowledge(since);
+      if (currentStream != null) {
+        currentStream.closed = true;
+      }
+      currentStream = new ValueStream(since);
+      semaphore.notifyAll();
+      return currentStream;
+    }
+  }
+
+  /*
+   * checkSince -- A caller that has seen values numbered beyond the last one
+   * we produced got them from before we restarted, so it has seen none of
+   * ours.
+   *
+   * Must be called holding semaphore.
+   */
+  private static long checkSince(long since) {
+    return (since > lastSeq) ? 0 : since;
+  }
+
+  /*
+   * acknowledge -- Drop the values numbered since or lower.
+   *
+   * Must be called holding semaphore.
+   */
+  private static void acknowledge(long since) {
+    while (!currentArray.isEmpty() && currentArray.get(0).seq <= since) {
+      currentArray.remove(0);
+    }
+  }
+
+  private static String encode(ArrayList<RetVal> values, long since) {
+    StringBuilder sb = new StringBuilder("{\"status\":\"OK\",\"retvalseq\":");
+    sb.append(lastSeq).append(",\"values\":[");
+    boolean first = true;
+    for (RetVal value : values) {
+      if (value.seq <= since) {
+        continue;
+      }
+      if (!first) {
+        sb.append(',');
+      }
+      sb.append(value.json);
+      first = false;
+    }
+    return sb.append("]}").toString();
+  }
+
+  private static class ValueStream extends InputStream {
+    private long seq;
+    private byte[] pending = new byte[0];
+    private int pos = 0;
+    private boolean started = false;
+    private int sent = 0;
+    private final long deadline = System.currentTimeMillis() + MAX_STREAM_TIME;
+    private boolean closed = false;   // Guarded by semaphore
+
+    ValueStream(long seq) {
+      this.seq = seq;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (pending == null) {
+        return -1;
+      }
+      if (pos >= pending.length) {
+        pending = next();
+        pos = 0;
+        if (pending == null) {
+          return -1;
+        }
+      }
+      int count = Math.min(len, pending.length - pos);
+      System.arraycopy(pending, pos, b, off, count);
+      pos += count;
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return (pending == null) ? 0 : pending.length - pos;
+    }
+
+    @Override
+    public void close() {
+      synchronized (semaphore) {
+        closed = true;
+        if (currentStream == this) {
+          currentStream = null;
+        }
+        semaphore.notifyAll();
+      }
+    }
+
+    /*
+     * Wait for the values numbered after the ones we already sent and
+     * encode them. Returns an empty line if nothing showed up in time and
+     * null once the stream is closed or has reached its limits.
+     */
+    private byte[] next() throws IOException {
+      StringBuilder sb = new StringBuilder();
+      synchronized (semaphore) {
+        if (!started) {
+          started = true;
+          sb.append("{\"retvalseq\":").append(lastSeq).append("}\n");
+        } else {
+          long remaining = deadline - System.currentTimeMillis();
+          if (!closed && lastSeq <= seq && remaining > 0) {
+            try {
+              semaphore.wait(Math.min(TENSECONDS, remaining));
+            } catch (InterruptedException e) {
+            }
+          }
+          if (sent >= MAX_STREAM_BYTES || System.currentTimeMillis() >= deadline) {
+            closed = true;
+          }
+        }
+        if (closed) {
+          return null;
+        }
+        for (RetVal value : currentArray) {
+          if (value.seq > seq) {
+            sb.append(value.json).append('\n');
+            seq = value.seq;
+          }
+        }
+      }
+      if (sb.length() == 0) {
+        sb.append('\n');
+      }
+      byte[] bytes = sb.toString().getBytes("UTF-8");
+      sent += bytes.length;
+      return bytes;
     }
   }
 
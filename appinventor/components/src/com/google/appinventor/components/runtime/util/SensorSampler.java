@@ -0,0 +1,346 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+
+/**
+ * Controls how often the samples of a sensor reach the blocks of a sensor component.
+ *
+ * <p>Samples pass through three stages, each off by default:
+ * <ul>
+ * <li>Rate control: the sensor is asked for SampleRate samples per second, and samples that the
+ *     sensor delivers faster than that are dropped.</li>
+ * <li>Averaging: every AveragingWindow samples are averaged into one sample.</li>
+ * <li>Batching: every BatchSize samples are delivered together as one list, so a component can
+ *     raise one event per batch instead of one per sample. On KitKat and later the sensor is also
+ *     allowed to hold the samples of a batch in its hardware FIFO, so the device can sleep while
+ *     the batch fills.</li>
+ * </ul>
+ *
+ * <p>The component passes each sensor event to {@link #addSample} and receives the surviving
+ * samples through its {@link SampleHandler}.
+ *
+ * <p>The listener is registered, or registered again after a property changes, once the code
+ * that is running on the UI thread has finished. A component that starts the sampler in its
+ * constructor thus registers it once, with the properties that the screen then sets.
+ *
+ */
+public final class SensorSampler {
+
+  /**
+   * Receives the samples that pass through a {@link SensorSampler}.
+   */
+  public interface SampleHandler {
+    /**
+     * Called with each sample after rate control and averaging. The values array is only valid
+     * for the duration of the call.
+     *
+     * @param values the sample values
+     * @param timestamp the time of the sample, in nanoseconds
+     */
+    void onSample(float[] values, long timestamp);
+
+    /**
+     * Called with every BatchSize samples when BatchSize is greater than 1.
+     *
+     * @param samples a list of samples, each a list of the sample values followed by the
+     *     timestamp
+     */
+    void onBatch(YailList samples);
+  }
+
+  private final SensorManager sensorManager;
+  private final SensorEventListener listener;
+  private final Sensor sensor;
+  private final int defaultDelay;
+  private final SampleHandler handler;
+
+  private int sampleRate;
+  private int averagingWindow = 1;
+  private int batchSize = 1;
+
+  // Whether the sampler was started, whether the listener is registered, and whether
+  // registerListener will run
+  private boolean started;
+  private boolean registered;
+  private boolean registerPending;
+  private Handler uiHandler;
+  private final Runnable registerListener = new Runnable() {
+    @Override
+    public void run() {
+      registerPending = false;
+      if (started) {
+        register();
+      }
+    }
+  };
+
+  // Rate control state
+  private long nextTimestamp;
+
+  // Averaging state
+  private float[] sums;
+  private float[] average;
+  private int samplesAveraged;
+
+  // Batching state
+  private final List<YailList> batch = new ArrayList<YailList>();
+
+  /**
+   * Creates a new SensorSampler.
+   *
+   * @param sensorManager the sensor manager
+   * @param listener the listener that will pass the sensor events to {@link #addSample}
+   * @param sensor the sensor
+   * @param defaultDelay one of the SensorManager.SENSOR_DELAY_* constants, used when SampleRate
+   *     is 0
+   * @param handler the handler that receives the samples
+   */
+  public SensorSampler(SensorManager sensorManager, SensorEventListener listener, Sensor sensor,
+      int defaultDelay, SampleHandler handler) {
+    this.sensorManager = sensorManager;
+    this.listener = listener;
+    this.sensor = sensor;
+    this.defaultDelay = defaultDelay;
+    this.handler = handler;
+  }
+
+  /**
+   * Returns the number of samples per second asked of the sensor, or 0 if the component's
+   * default rate is used.
+   */
+  public int getSampleRate() {
+    return sampleRate;
+  }
+
+  /**
+   * Sets the number of samples per second asked of the sensor. 0 uses the component's default
+   * rate and does not drop any samples.
+   */
+  public void setSampleRate(int sampleRate) {
+    sampleRate = Math.max(0, sampleRate);
+    if (this.sampleRate != sampleRate) {
+      this.sampleRate = sampleRate;
+      changed();
+    }
+  }
+
+  /**
+   * Returns the number of samples that are averaged into one.
+   */
+  public int getAveragingWindow() {
+    return averagingWindow;
+  }
+
+  /**
+   * Sets the number of samples that are averaged into one. 1 turns averaging off.
+   */
+  public void setAveragingWindow(int averagingWindow) {
+    averagingWindow = Math.max(1, averagingWindow);
+    if (this.averagingWindow != averagingWindow) {
+      this.averagingWindow = averagingWindow;
+      changed();
+    }
+  }
+
+  /**
+   * Returns the number of samples delivered together by {@link SampleHandler#onBatch}.
+   */
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * Sets the number of samples delivered together by {@link SampleHandler#onBatch}. 1 turns
+   * batching off.
+   */
+  public void setBatchSize(int batchSize) {
+    batchSize = Math.max(1, batchSize);
+    if (this.batchSize != batchSize) {
+      this.batchSize = batchSize;
+      changed();
+    }
+  }
+
+  /**
+   * Indicates whether samples are delivered in batches.
+   */
+  public boolean isBatching() {
+    return batchSize > 1;
+  }
+
+  /**
+   * Starts sampling. The listener is registered for the sensor, at the sample rate and, where
+   * supported, with hardware batching, once the code running on the UI thread has finished.
+   * This must be called on the UI thread.
+   */
+  public void start() {
+    if (!started) {
+      started = true;
+      reset();
+      scheduleRegister();
+    }
+  }
+
+  /**
+   * Unregisters the listener and discards any samples not yet delivered.
+   */
+  public void stop() {
+    started = false;
+    if (registered) {
+      sensorManager.unregisterListener(listener, sensor);
+      registered = false;
+    }
+    reset();
+  }
+
+  /**
+   * Adds a sample from the sensor. The caller may reuse the values array once this returns.
+   *
+   * @param values the sample values
+   * @param timestamp the time of the sample, in nanoseconds
+   */
+  public void addSample(float[] values, long timestamp) {
+    if (sampleRate > 0) {
+      if (timestamp < nextTimestamp) {
+        return;
+      }
+      // Advancing from the previous due time keeps the average rate right when the sensor
+      // delivers at a rate that is not a multiple of the sample rate.
+      long period = 1000000000L / sampleRate;
+      nextTimestamp += period;
+      if (nextTimestamp <= timestamp) {
+        nextTimestamp = timestamp + period;
+      }
+    }
+
+    if (averagingWindow > 1) {
+      if (sums == null || sums.length != values.length) {
+        sums = new float[values.length];
+        average = new float[values.length];
+        samplesAveraged = 0;
+      }
+      for (int i = 0; i < values.length; i++) {
+        sums[i] += values[i];
+      }
+      if (++samplesAveraged < averagingWindow) {
+        return;
+      }
+      for (int i = 0; i < values.length; i++) {
+        average[i] = sums[i] / samplesAveraged;
+        sums[i] = 0;
+      }
+      samplesAveraged = 0;
+      values = average;
+    }
+
+    handler.onSample(values, timestamp);
+
+    if (isBatching()) {
+      Object[] sample = new Object[values.length + 1];
+      for (int i = 0; i < values.length; i++) {
+        sample[i] = (double) values[i];
+      }
+      sample[values.length] = timestamp;
+      batch.add(YailList.makeList(sample));
+      if (batch.size() >= batchSize) {
+        YailList samples = YailList.makeList(batch);
+        batch.clear();
+        handler.onBatch(samples);
+      }
+    }
+  }
+
+  private void changed() {
+    reset();
+    if (started) {
+      scheduleRegister();
+    }
+  }
+
+  private void scheduleRegister() {
+    if (!registerPending) {
+      registerPending = true;
+      if (uiHandler == null) {
+        uiHandler = new Handler();
+      }
+      uiHandler.post(registerListener);
+    }
+  }
+
+  /*
+   * Registers the listener with the current properties.
+   */
+  private void register() {
+    if (registered) {
+      sensorManager.unregisterListener(listener, sensor);
+    }
+    reset();
+    int level = SdkLevel.getLevel();
+    if (level < SdkLevel.LEVEL_GINGERBREAD) {
+      // Earlier versions only accept the SENSOR_DELAY_* constants.
+      sensorManager.registerListener(listener, sensor, defaultDelay);
+    } else if (level >= SdkLevel.LEVEL_KITKAT && isBatching()) {
+      KitkatUtil.registerSensorListener(sensorManager, listener, sensor, getSamplingPeriod(),
+          getReportLatency());
+    } else {
+      sensorManager.registerListener(listener, sensor, getSamplingPeriod());
+    }
+    registered = true;
+  }
+
+  private void reset() {
+    nextTimestamp = 0;
+    sums = null;
+    average = null;
+    samplesAveraged = 0;
+    batch.clear();
+  }
+
+  /*
+   * Returns the sampling period to ask of the sensor, in microseconds, or the default
+   * SENSOR_DELAY_* constant.
+   */
+  private int getSamplingPeriod() {
+    return sampleRate > 0 ? 1000000 / sampleRate : defaultDelay;
+  }
+
+  /*
+   * Returns how long the sensor may hold samples back, in microseconds: the time a batch takes
+   * to fill.
+   */
+  private int getReportLatency() {
+    long period;
+    if (sampleRate > 0) {
+      period = 1000000 / sampleRate;
+    } else {
+      // The periods SensorManager uses for the SENSOR_DELAY_* constants
+      switch (defaultDelay) {
+        case SensorManager.SENSOR_DELAY_GAME:
+          period = 20000;
+          break;
+        case SensorManager.SENSOR_DELAY_UI:
+          period = 66667;
+          break;
+        case SensorManager.SENSOR_DELAY_NORMAL:
+          period = 200000;
+          break;
+        default:
+          // SENSOR_DELAY_FASTEST has no fixed period, so samples are not held back.
+          period = 0;
+          break;
+      }
+    }
+    return (int) Math.min(Integer.MAX_VALUE, period * averagingWindow * batchSize);
+  }
+}
@@ -0,0 +1,190 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import com.google.appinventor.components.runtime.errors.YailRuntimeError;
+
+import gnu.kawa.lispexpr.LispReader;
+import gnu.lists.LList;
+import gnu.lists.Pair;
+import gnu.math.Numeric;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A hashed dictionary for YAIL, mapping keys to values with constant time
+ * lookup, insertion and deletion.
+ *
+ * <p>Keys are matched the way the YAIL equal block and lookup in pairs
+ * match them: numbers, and strings that read as numbers, match when they
+ * have the same value, so that 1, 1.0 and "01" are the same key, and lists
+ * match when their elements match.  Entries are kept in insertion order.
+ *
+ */
+public class YailDictionary {
+
+  // The entries, as {key, value}, by the hash key of the key.
+  private final Map<Object, Object[]> entries = new LinkedHashMap<Object, Object[]>();
+
+  /**
+   * Create an empty YailDictionary.
+   */
+  public YailDictionary() {
+  }
+
+  /**
+   * Create a YailDictionary from a list of pairs, where each pair is a
+   * two element YailList of a key and a value.  If a key occurs more than
+   * once, its first value is kept, as lookup in pairs would find it.
+   */
+  public static YailDictionary makeDictionary(YailList pairs) {
+    YailDictionary dictionary = new YailDictionary();
+    int size = pairs.size();
+    for (int i = 0; i < size; i++) {
+      Object pair = pairs.getObject(i);
+      if (!(pair instanceof YailList) || ((YailList) pair).size() != 2) {
+        throw new YailRuntimeError("The list " + pairs + " is not a well-formed list of pairs",
+            "Invalid list of pairs");
+      }
+      Object key = ((YailList) pair).getObject(0);
+      Object hashKey = hashKey(key);
+      if (!dictionary.entries.containsKey(hashKey)) {
+        dictionary.entries.put(hashKey, new Object[] { key, ((YailList) pair).getObject(1) });
+      }
+    }
+    return dictionary;
+  }
+
+  /**
+   * Return the value for the given key, or defaultValue if there is none.
+   */
+  public Object get(Object key, Object defaultValue) {
+    Object[] entry = entries.get(hashKey(key));
+    return (entry == null) ? defaultValue : entry[1];
+  }
+
+  /**
+   * Return whether the dictionary has a value for the given key.
+   */
+  public boolean containsKey(Object key) {
+    return entries.containsKey(hashKey(key));
+  }
+
+  /**
+   * Set the value for the given key, replacing any value it had.
+   */
+  public void put(Object key, Object value) {
+    Object hashKey = hashKey(key);
+    Object[] entry = entries.get(hashKey);
+    if (entry == null) {
+      entries.put(hashKey, new Object[] { key, value });
+    } else {
+      entry[1] = value;
+    }
+  }
+
+  /**
+   * Remove the given key and its value.
+   *
+   * @return whether the key was present
+   */
+  public boolean remove(Object key) {
+    return entries.remove(hashKey(key)) != null;
+  }
+
+  /**
+   * Return the number of keys in the dictionary.
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Return the entries of this dictionary as a YailList of pairs, in the
+   * order in which their keys were added.
+   */
+  public YailList toYailList() {
+    List<YailList> pairs = new ArrayList<YailList>(entries.size());
+    for (Object[] entry : entries.values()) {
+      pairs.add(YailList.makeList(entry));
+    }
+    return YailList.makeList(pairs);
+  }
+
+  /**
+   * Return a JSON object text representation of this dictionary. Keys
+   * are converted to strings as list elements are for printing.
+   */
+  public String toJSONString() {
+    try {
+      StringBuilder json = new StringBuilder();
+      String separator = "";
+      json.append('{');
+      for (Object[] entry : entries.values()) {
+        json.append(separator)
+            .append(JSONObject.quote(YailList.YailListElementToString(entry[0])))
+            .append(':')
+            .append(JsonUtil.getJsonRepresentation(entry[1]));
+        separator = ",";
+      }
+      json.append('}');
+      return json.toString();
+    } catch (JSONException e) {
+      throw new YailRuntimeError("Dictionary failed to convert to JSON.", "JSON Creation Error.");
+    }
+  }
+
+  /**
+   * Return a String representation of this YailDictionary.
+   */
+  @Override
+  public String toString() {
+    return toJSONString();
+  }
+
+  /**
+   * Returns an object whose equals and hashCode methods match keys as
+   * YAIL's equal block does.  Keys that are equal in YAIL always have equal
+   * hash keys.  The converse holds except for numbers that differ only
+   * beyond double precision, so callers that need exact YAIL equality must
+   * still compare the keys they find.
+   */
+  static Object hashKey(Object key) {
+    if (key instanceof Pair) {
+      // Lists are compared element by element, including any tail.
+      List<Object> elements = new ArrayList<Object>();
+      Object rest = key;
+      while (rest instanceof Pair) {
+        elements.add(hashKey(((Pair) rest).getCar()));
+        rest = ((Pair) rest).getCdr();
+      }
+      elements.add(hashKey(rest));
+      return elements;
+    }
+    if (key instanceof Number) {
+      return ((Number) key).doubleValue();
+    }
+    if (key instanceof CharSequence) {
+      String string = key.toString();
+      // As in padded-string->number in runtime.scm.
+      Object number = LispReader.parseNumber(string.trim(), 10);
+      if (number instanceof Numeric) {
+        return ((Numeric) number).doubleValue();
+      }
+      return string;
+    }
+    if (key == LList.Empty) {
+      return new ArrayList<Object>();
+    }
+    return key;
+  }
+}
@@ -13,8 +13,12 @@ import gnu.lists.Pair;
 
 import org.json.JSONException;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import android.util.Log;
 
@@ -23,11 +27,40 @@ import android.util.Log;
  * by the Kawa framework. YailList is the main list primitive used
  * by App Inventor components.
  *
+ * <p>The contents remain a chain of pairs, so that the list primitives
+ * in runtime.scm keep working, but the pairs are also kept in an array
+ * that is built on first use. This makes indexed access and size
+ * constant time instead of walking the chain. The array, and the index
+ * of the list's pairs used by {@link #lookupPair}, are kept up to date by
+ * this class's methods. Code that changes the contents directly, such as
+ * with set-car! or set-cdr!, which Kawa compiles to field stores, must call
+ * {@link #contentsChanged()} afterwards, as the list primitives in
+ * runtime.scm do.
+ *
  */
 public class YailList extends Pair {
 
   private static final String LOG_TAG = "YailList";
 
+  private static final Pair[] NO_PAIRS = new Pair[0];
+
+  // The pairs of the contents, in order, or null if they haven't been
+  // indexed since the last change.
+  private transient volatile Pair[] index;
+
+  // The elements of this list by their first element, for lookups in this
+  // list as a list of pairs, or null if they haven't been indexed since the
+  // last change.
+  private transient volatile PairIndex pairIndex;
+
+  // Counts the changes made to this list through its methods, and to the
+  // lists that its pair index holds as pairs.
+  private transient volatile int version;
+
+  // The lists whose pair indexes hold this list as a pair, which must be
+  // told when it changes.
+  private transient List<WeakReference<YailList>> indexedIn;
+
   // Component writers take note!
   // If you want to pass back a list to the blocks language, the
   // straightforward way to do this is simply to pass
@@ -156,7 +189,184 @@ public class YailList extends Pair {
    */
   @Override
   public int size() {
-    return super.size() - 1;
+    return getIndex().length;
+  }
+
+  /**
+   * Return the element at the given position, where position 0 is the
+   * list header and the contents start at position 1, as for any Pair.
+   */
+  @Override
+  public Object get(int index) {
+    if (index == 0) {
+      return car;
+    }
+    return getPair(index - 1).getCar();
+  }
+
+  /**
+   * Replace the Object at the given index.
+   */
+  public void setObject(int index, Object value) {
+    getPair(index).setCar(value);
+    elementsChanged();
+  }
+
+  /**
+   * Indicate that the contents of this YailList were changed by code other
+   * than its own methods.
+   */
+  public void contentsChanged() {
+    index = null;
+    elementsChanged();
+  }
+
+  /**
+   * Set the contents of this YailList.
+   */
+  @Override
+  public void setCdr(Object cdr) {
+    super.setCdr(cdr);
+    index = null;
+    elementsChanged();
+  }
+
+  private void elementsChanged() {
+    version++;
+    pairIndex = null;
+    List<WeakReference<YailList>> lists;
+    synchronized (this) {
+      lists = indexedIn;
+      indexedIn = null;
+    }
+    if (lists != null) {
+      for (WeakReference<YailList> ref : lists) {
+        YailList list = ref.get();
+        if (list != null) {
+          list.version++;
+          list.pairIndex = null;
+        }
+      }
+    }
+  }
+
+  /*
+   * Records that list holds this list as a pair in its pair index.
+   */
+  private synchronized void addIndexedIn(YailList list) {
+    if (indexedIn == null) {
+      indexedIn = new ArrayList<WeakReference<YailList>>(1);
+    }
+    for (int i = indexedIn.size() - 1; i >= 0; i--) {
+      YailList other = indexedIn.get(i).get();
+      if (other == list) {
+        return;
+      } else if (other == null) {
+        indexedIn.remove(i);
+      }
+    }
+    indexedIn.add(new WeakReference<YailList>(list));
+  }
+
+  /**
+   * Return the first element of this list that is a pair, that is a two
+   * element YailList, whose first element matches key as in
+   * {@link YailDictionary}. Only the elements before the first one that is
+   * not a pair are searched. The elements are indexed on first use, so that
+   * repeated lookups in the same list take constant time.
+   *
+   * <p>Since matching numbers that differ only beyond double precision are
+   * not told apart, callers must check that the key of the returned pair
+   * is equal to key.
+   *
+   * @return the pair, or null if none of the searched elements matches
+   */
+  public YailList lookupPair(Object key) {
+    return getPairIndex().firstPairs.get(YailDictionary.hashKey(key));
+  }
+
+  /**
+   * Return whether every element of this list is a pair, that is a two
+   * element YailList.
+   */
+  public boolean isListOfPairs() {
+    return getPairIndex().allPairs;
+  }
+
+  private PairIndex getPairIndex() {
+    Pair[] pairs = getIndex();
+    PairIndex pi = pairIndex;
+    if (pi != null && pi.pairs == pairs && pi.version == version) {
+      return pi;
+    }
+    pi = new PairIndex(pairs, version);
+    for (Pair p : pairs) {
+      Object element = p.getCar();
+      if (!(element instanceof YailList) || ((YailList) element).size() != 2) {
+        pi.allPairs = false;
+        break;
+      }
+      YailList pair = (YailList) element;
+      pair.addIndexedIn(this);
+      Object hashKey = YailDictionary.hashKey(pair.getObject(0));
+      if (!pi.firstPairs.containsKey(hashKey)) {
+        pi.firstPairs.put(hashKey, pair);
+      }
+    }
+    pairIndex = pi;
+    return pi;
+  }
+
+  /*
+   * The pairs of a list by their hash keys, for the contents given by
+   * pairs at the given version of the list.
+   */
+  private static class PairIndex {
+    final Pair[] pairs;
+    final int version;
+    final Map<Object, YailList> firstPairs = new HashMap<Object, YailList>();
+    boolean allPairs = true;
+
+    PairIndex(Pair[] pairs, int version) {
+      this.pairs = pairs;
+      this.version = version;
+    }
+  }
+
+  private Pair getPair(int index) {
+    Pair[] pairs = getIndex();
+    if (index < 0 || index >= pairs.length) {
+      throw new IndexOutOfBoundsException("index " + index + ", size " + pairs.length);
+    }
+    return pairs[index];
+  }
+
+  /*
+   * Returns the pairs of the contents, indexing them again if the
+   * contents changed. Changes at the start or end of the contents, such
+   * as appending, are detected here; others must be reported through
+   * contentsChanged.
+   */
+  private Pair[] getIndex() {
+    Pair[] pairs = index;
+    if (pairs != null) {
+      if (pairs.length == 0
+          ? !(cdr instanceof Pair)
+          : cdr == pairs[0] && !(pairs[pairs.length - 1].getCdr() instanceof Pair)) {
+        return pairs;
+      }
+    }
+    int size = 0;
+    for (Object p = cdr; p instanceof Pair; p = ((Pair) p).getCdr()) {
+      size++;
+    }
+    pairs = (size == 0) ? NO_PAIRS : new Pair[size];
+    int i = 0;
+    for (Object p = cdr; p instanceof Pair; p = ((Pair) p).getCdr()) {
+      pairs[i++] = (Pair) p;
+    }
+    index = pairs;
+    return pairs;
   }
 
   /**
@@ -177,13 +387,13 @@ public class YailList extends Pair {
    * Return the String at the given index.
    */
   public String getString(int index) {
-    return get(index + 1).toString();
+    return getPair(index).getCar().toString();
   }
 
   /**
    * Return the Object at the given index.
    */
   public Object getObject(int index) {
-    return get(index + 1);
+    return getPair(index).getCar();
   }
 }
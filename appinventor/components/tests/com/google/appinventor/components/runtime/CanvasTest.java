@@ -0,0 +1,70 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests Canvas.java.
+ *
+ */
+public class CanvasTest extends RobolectricTestBase {
+
+  @Test
+  public void testCollisionAfterZChange() {
+    Canvas canvas = new Canvas(getForm());
+    Ball ball1 = new Ball(canvas);
+    Ball ball2 = new Ball(canvas);
+    ball1.Initialize();
+    ball2.Initialize();
+    ball1.MoveTo(0, 0);
+    ball2.MoveTo(100, 100);
+
+    // Changing the layer of the standing ball must not take it out of collision detection.
+    ball1.Z(2.0);
+    ball2.MoveTo(5, 5);
+    assertTrue(ball1.CollidingWith(ball2));
+    assertTrue(ball2.CollidingWith(ball1));
+  }
+
+  @Test
+  public void testBallsCollideWhenTouching() {
+    Canvas canvas = new Canvas(getForm());
+    Ball ball1 = new Ball(canvas);
+    Ball ball2 = new Ball(canvas);
+    ball1.Initialize();
+    ball2.Initialize();
+    ball1.MoveTo(0, 0);
+
+    // The centers are exactly the sum of the radii (5 + 5) apart
+    ball2.MoveTo(10, 0);
+    assertTrue(ball1.CollidingWith(ball2));
+    ball2.MoveTo(10.5, 0);
+    assertFalse(ball1.CollidingWith(ball2));
+  }
+
+  @Test
+  public void testBallCollidesWithSpriteWhenTouching() {
+    Canvas canvas = new Canvas(getForm());
+    Ball ball = new Ball(canvas);
+    ImageSprite sprite = new ImageSprite(canvas);
+    sprite.Width(20);
+    sprite.Height(20);
+    ball.Initialize();
+    sprite.Initialize();
+    sprite.MoveTo(50, 50);
+
+    // The ball touches the left edge of the sprite
+    ball.MoveTo(40, 55);
+    assertTrue(ball.CollidingWith(sprite));
+    assertTrue(sprite.CollidingWith(ball));
+    ball.MoveTo(39.5, 55);
+    assertFalse(ball.CollidingWith(sprite));
+  }
+}
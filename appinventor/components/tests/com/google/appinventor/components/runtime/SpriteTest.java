@@ -177,27 +177,27 @@ public class SpriteTest {
         SPRITE2_HEIGHT, SPRITE2_WIDTH);
 
     // Sprite2 entirely E of Sprite1
-    sprite2.MoveTo(SPRITE1_X + SPRITE1_WIDTH, SPRITE1_Y);
+    sprite2.MoveTo(SPRITE1_X + SPRITE1_WIDTH + 1, SPRITE1_Y);
     assertFalse(Sprite.colliding(sprite1, sprite2));
 
     // Sprite2 entirely SE of Sprite1
-    sprite2.MoveTo(SPRITE1_X + SPRITE1_WIDTH, SPRITE1_Y + SPRITE1_HEIGHT);
+    sprite2.MoveTo(SPRITE1_X + SPRITE1_WIDTH + 1, SPRITE1_Y + SPRITE1_HEIGHT + 1);
     assertFalse(Sprite.colliding(sprite1, sprite2));
 
     // Sprite2 entirely S of Sprite1
-    sprite2.MoveTo(SPRITE1_X, SPRITE1_Y + SPRITE1_HEIGHT);
+    sprite2.MoveTo(SPRITE1_X, SPRITE1_Y + SPRITE1_HEIGHT + 1);
     assertFalse(Sprite.colliding(sprite1, sprite2));
 
     // Sprite2 entirely SW of Sprite1
-    sprite2.MoveTo(SPRITE1_X - SPRITE2_WIDTH, SPRITE1_Y + SPRITE1_HEIGHT);
+    sprite2.MoveTo(SPRITE1_X - SPRITE2_WIDTH - 1, SPRITE1_Y + SPRITE1_HEIGHT + 1);
     assertFalse(Sprite.colliding(sprite1, sprite2));
 
     // Sprite2 entirely W of Sprite1
-    sprite2.MoveTo(SPRITE1_X - SPRITE2_WIDTH, SPRITE1_Y);
+    sprite2.MoveTo(SPRITE1_X - SPRITE2_WIDTH - 1, SPRITE1_Y);
     assertFalse(Sprite.colliding(sprite1, sprite2));
 
     // Sprite2 entirely NW of Sprite1
-    sprite2.MoveTo(SPRITE1_X - SPRITE2_WIDTH, SPRITE1_Y - SPRITE2_HEIGHT);
+    sprite2.MoveTo(SPRITE1_X - SPRITE2_WIDTH - 1, SPRITE1_Y - SPRITE2_HEIGHT - 1);
     assertFalse(Sprite.colliding(sprite1, sprite2));
 
     // Sprite2 entirely N of Sprite1
@@ -205,10 +205,29 @@ public class SpriteTest {
     assertFalse(Sprite.colliding(sprite1, sprite2));
 
     // Sprite2 entirely NE of Sprite1
-    sprite2.MoveTo(SPRITE1_X + SPRITE1_WIDTH, SPRITE1_Y - SPRITE2_HEIGHT);
+    sprite2.MoveTo(SPRITE1_X + SPRITE1_WIDTH + 1, SPRITE1_Y - SPRITE2_HEIGHT - 1);
     assertFalse(Sprite.colliding(sprite1, sprite2));
   }
 
+  @Test
+  public void testCollidingTouching() {
+    TestSprite sprite1 = TestSprite.createTestSprite(canvasMock, handlerMock, 10, 15);
+    sprite1.MoveTo(50, 75);
+    TestSprite sprite2 = TestSprite.createTestSprite(canvasMock, handlerMock, 20, 25);
+
+    // Sprites that share an edge or a corner collide
+    sprite2.MoveTo(50 + 15, 75);
+    assertTrue(Sprite.colliding(sprite1, sprite2));
+    sprite2.MoveTo(50, 75 + 10);
+    assertTrue(Sprite.colliding(sprite1, sprite2));
+    sprite2.MoveTo(50 - 25, 75 - 20);
+    assertTrue(Sprite.colliding(sprite1, sprite2));
+
+    assertTrue(sprite1.containsPoint(50, 75));
+    assertTrue(sprite1.containsPoint(50 + 15, 75 + 10));
+    assertFalse(sprite1.containsPoint(50 + 15.5, 75));
+  }
+
   @Test
   public void testCollidingTrue() {
     // Declare sprite1 at (50, 75)
@@ -295,4 +314,30 @@ public class SpriteTest {
     assertEquals(0.0, bigCat.X(), DELTA);
     assertEquals(0.0, bigCat.Y(), DELTA);
   }
+
+  @Test
+  public void testSpriteGridNeighbors() {
+    SpriteGrid grid = new SpriteGrid();
+    TestSprite sprite1 = TestSprite.createTestSprite(canvasMock, handlerMock, 10, 10);
+    sprite1.MoveTo(10, 10);
+    TestSprite sprite2 = TestSprite.createTestSprite(canvasMock, handlerMock, 10, 10);
+    sprite2.MoveTo(20, 10);
+    TestSprite sprite3 = TestSprite.createTestSprite(canvasMock, handlerMock, 10, 10);
+    sprite3.MoveTo(300, 300);
+    grid.update(sprite1);
+    grid.update(sprite2);
+    grid.update(sprite3);
+
+    assertTrue(grid.getNeighbors(sprite1).contains(sprite2));
+    assertFalse(grid.getNeighbors(sprite1).contains(sprite3));
+    assertFalse(grid.getNeighbors(sprite1).contains(sprite1));
+
+    // Moving a sprite moves it to its new cells.
+    sprite3.MoveTo(15, 25);
+    grid.update(sprite3);
+    assertTrue(grid.getNeighbors(sprite1).contains(sprite3));
+
+    grid.remove(sprite2);
+    assertFalse(grid.getNeighbors(sprite1).contains(sprite2));
+  }
 }
@@ -0,0 +1,93 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import com.google.appinventor.components.runtime.util.YailList;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the TinyDB component.
+ */
+public class TinyDBTest extends RobolectricTestBase {
+
+  private TinyDB tinyDB;
+  private SharedPreferences preferences;
+
+  @Before
+  public void setUp() {
+    super.setUp();
+    tinyDB = new TinyDB(getForm());
+    tinyDB.ClearAll();
+    runAllEvents();
+    preferences = getForm().getSharedPreferences("TinyDB1", Context.MODE_PRIVATE);
+  }
+
+  @Test
+  public void testStoreValueIsVisibleBeforeFlush() {
+    // Hold back the posted flush, which would otherwise run right away.
+    ShadowLooper.getShadowMainLooper().getScheduler().pause();
+    tinyDB.StoreValue("a", "hello");
+    assertEquals("hello", tinyDB.GetValue("a", ""));
+    assertEquals(Arrays.asList("a"), tinyDB.GetTags());
+    assertNull(preferences.getString("a", null));
+  }
+
+  @Test
+  public void testChangesAreWrittenTogether() {
+    ShadowLooper.getShadowMainLooper().getScheduler().pause();
+    for (int i = 0; i < 100; i++) {
+      tinyDB.StoreValue("a", i);
+    }
+    tinyDB.StoreValue("b", "x");
+    tinyDB.ClearTag("b");
+    assertNull(preferences.getString("a", null));
+    runAllEvents();
+    assertEquals("99", preferences.getString("a", null));
+    assertFalse(preferences.contains("b"));
+  }
+
+  @Test
+  public void testClearAll() {
+    tinyDB.StoreValue("a", "1");
+    runAllEvents();
+    tinyDB.ClearAll();
+    tinyDB.StoreValue("b", "2");
+    assertEquals("missing", tinyDB.GetValue("a", "missing"));
+    assertEquals(Arrays.asList("b"), tinyDB.GetTags());
+    runAllEvents();
+    assertFalse(preferences.contains("a"));
+    assertTrue(preferences.contains("b"));
+  }
+
+  @Test
+  public void testOnPauseFlushes() {
+    tinyDB.StoreValue("a", true);
+    tinyDB.onPause();
+    assertEquals("true", preferences.getString("a", null));
+  }
+
+  @Test
+  public void testListsAreNotShared() {
+    tinyDB.StoreValue("list", YailList.makeList(Arrays.asList("x", "y")));
+    Object first = tinyDB.GetValue("list", "");
+    Object second = tinyDB.GetValue("list", "");
+    assertEquals(2, ((List<?>) first).size());
+    assertNotSame(first, second);
+  }
+}
@@ -0,0 +1,51 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import gnu.lists.LList;
+import gnu.mapping.Symbol;
+import gnu.math.DFloNum;
+import gnu.math.IntNum;
+
+import junit.framework.TestCase;
+
+import kawa.standard.Scheme;
+
+/**
+ * Tests ComponentMethodCache class.
+ *
+ */
+public class ComponentMethodCacheTest extends TestCase {
+
+  @Override
+  protected void setUp() throws Exception {
+    // Apps run YAIL with Scheme as the default language.
+    Scheme.registerEnvironment();
+  }
+
+  public void testInvokeSelectsMostSpecificMethod() throws Throwable {
+    StringBuilder builder = new StringBuilder();
+    ComponentMethodCache.invoke(builder, Symbol.make("", "append"), LList.list1("a"));
+    ComponentMethodCache.invoke(builder, Symbol.make("", "append"), LList.list1(IntNum.make(7)));
+    ComponentMethodCache.invoke(builder, Symbol.make("", "append"), LList.list1(new DFloNum(3.5)));
+    assertEquals("a73.5", builder.toString());
+    ComponentMethodCache.invoke(builder, "setLength", LList.list1(IntNum.make(1)));
+    assertEquals("a", builder.toString());
+  }
+
+  public void testInvokeWithoutArguments() throws Throwable {
+    assertEquals(3, ComponentMethodCache.invoke("abc", Symbol.make("", "length"), LList.Empty));
+  }
+
+  public void testUnknownMethod() throws Throwable {
+    try {
+      ComponentMethodCache.invoke("abc", Symbol.make("", "NoSuchMethod"), LList.Empty);
+      fail();
+    } catch (RuntimeException e) {
+      // this is the intended behavior
+    }
+  }
+}
@@ -0,0 +1,128 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Tests for the sequence numbered delivery of REPL return values.
+ *
+ */
+public class RetValManagerTest extends TestCase {
+
+  private long base;
+
+  @Override
+  protected void setUp() throws Exception {
+    RetValManager.fetch(false);  // Forget anything left over from other tests
+    base = RetValManager.getLastSeq();
+  }
+
+  public void testFetchSinceKeepsUnacknowledgedValues() throws Exception {
+    RetValManager.appendReturnValue("1", "OK", "one");
+    RetValManager.appendReturnValue("2", "OK", "two");
+
+    JSONArray values = values(RetValManager.fetch(base, false));
+    assertEquals(2, values.length());
+    assertEquals(base + 1, values.getJSONObject(0).getLong("seq"));
+    assertEquals("two", values.getJSONObject(1).getString("value"));
+
+    // Not acknowledged yet, so we get both again
+    assertEquals(2, values(RetValManager.fetch(base, false)).length());
+
+    values = values(RetValManager.fetch(base + 1, false));
+    assertEquals(1, values.length());
+    assertEquals(base + 2, values.getJSONObject(0).getLong("seq"));
+
+    assertEquals(0, values(RetValManager.fetch(base + 2, false)).length());
+  }
+
+  public void testFetchWithoutSinceForgetsValues() throws Exception {
+    RetValManager.sendError("oops");
+    JSONArray values = values(RetValManager.fetch(false));
+    assertEquals(1, values.length());
+    assertEquals("error", values.getJSONObject(0).getString("type"));
+    assertEquals(0, values(RetValManager.fetch(false)).length());
+  }
+
+  public void testSinceFromBeforeRestartGetsAllValues() throws Exception {
+    RetValManager.appendReturnValue("1", "OK", "one");
+    RetValManager.appendReturnValue("2", "OK", "two");
+
+    // A Blocks Editor that saw higher numbers before we restarted
+    JSONObject response = new JSONObject(RetValManager.fetch(base + 100, false));
+    assertEquals(base + 2, response.getLong("retvalseq"));
+    assertEquals(2, response.getJSONArray("values").length());
+  }
+
+  public void testStreamDeliversValuesAsProduced() throws Exception {
+    RetValManager.appendReturnValue("1", "OK", "before");
+    InputStream stream = RetValManager.openStream(-1);
+    BufferedReader reader = new BufferedReader(new InputStreamReader(stream, "UTF-8"));
+    try {
+      assertEquals(base + 1, new JSONObject(reader.readLine()).getLong("retvalseq"));
+      RetValManager.appendReturnValue("2", "OK", "after");
+      JSONObject value = new JSONObject(reader.readLine());
+      assertEquals("after", value.getString("value"));
+      assertEquals(base + 2, value.getLong("seq"));
+    } finally {
+      stream.close();
+    }
+    assertEquals(-1, stream.read());
+  }
+
+  public void testNewStreamEndsPreviousOne() throws Exception {
+    RetValManager.appendReturnValue("1", "OK", "one");
+    InputStream first = RetValManager.openStream(base);
+    InputStream second = RetValManager.openStream(base);
+    try {
+      assertEquals(-1, first.read());
+      BufferedReader reader = new BufferedReader(new InputStreamReader(second, "UTF-8"));
+      assertEquals(base + 1, new JSONObject(reader.readLine()).getLong("retvalseq"));
+      assertEquals("one", new JSONObject(reader.readLine()).getString("value"));
+    } finally {
+      second.close();
+    }
+  }
+
+  public void testStreamEndsAfterByteLimit() throws Exception {
+    StringBuilder big = new StringBuilder();
+    for (int i = 0; i < 1024; i++) {
+      big.append('x');
+    }
+    InputStream stream = RetValManager.openStream(base);
+    BufferedReader reader = new BufferedReader(new InputStreamReader(stream, "UTF-8"));
+    try {
+      reader.readLine();  // retvalseq
+      RetValManager.appendReturnValue("1", "OK", big.toString());
+      int count = 0;
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        if (line.length() > 0) {
+          count++;
+        }
+        // Keep the stream fed until it ends
+        RetValManager.appendReturnValue("1", "OK", big.toString());
+        assertTrue("Stream did not end", count < 100);
+      }
+      assertTrue(count > 0);
+    } finally {
+      stream.close();
+    }
+  }
+
+  private static JSONArray values(String response) throws Exception {
+    JSONObject json = new JSONObject(response);
+    assertEquals("OK", json.getString("status"));
+    return json.getJSONArray("values");
+  }
+}
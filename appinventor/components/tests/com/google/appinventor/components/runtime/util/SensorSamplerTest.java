@@ -0,0 +1,112 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import android.hardware.SensorManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests SensorSampler.
+ *
+ */
+public class SensorSamplerTest extends TestCase {
+  private static final float DELTA = .00001f;  // floating point delta
+  private static final long MS = 1000000L;     // nanoseconds per millisecond
+
+  private final List<float[]> samples = new ArrayList<float[]>();
+  private final List<Long> timestamps = new ArrayList<Long>();
+  private final List<YailList> batches = new ArrayList<YailList>();
+  private SensorSampler sampler;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    // The sampler is never started, so it needs no sensor.
+    sampler = new SensorSampler(null, null, null, SensorManager.SENSOR_DELAY_FASTEST,
+        new SensorSampler.SampleHandler() {
+          @Override
+          public void onSample(float[] values, long timestamp) {
+            samples.add(values.clone());
+            timestamps.add(timestamp);
+          }
+
+          @Override
+          public void onBatch(YailList samples) {
+            batches.add(samples);
+          }
+        });
+  }
+
+  public void testDefaultsPassEverySample() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      sampler.addSample(new float[] { i, -i, 0 }, 1000 * MS + i);
+    }
+    assertEquals(10, samples.size());
+    assertEquals(0, batches.size());
+    assertFalse(sampler.isBatching());
+  }
+
+  public void testSampleRateDropsFasterSamples() throws Exception {
+    sampler.setSampleRate(50);
+    // One second of samples at 60 per second
+    for (int i = 0; i < 60; i++) {
+      sampler.addSample(new float[] { i }, 1000 * MS + i * 1000 * MS / 60);
+    }
+    assertEquals(50, samples.size());
+
+    // After a pause the next sample is taken right away.
+    sampler.addSample(new float[] { 100 }, 5000 * MS);
+    assertEquals(51, samples.size());
+    assertEquals(100f, samples.get(50)[0], DELTA);
+  }
+
+  public void testAveragingWindow() throws Exception {
+    sampler.setAveragingWindow(4);
+    for (int i = 0; i < 10; i++) {
+      sampler.addSample(new float[] { i, 2 * i }, 1000 * MS + i);
+    }
+    assertEquals(2, samples.size());
+    assertEquals(1.5f, samples.get(0)[0], DELTA);
+    assertEquals(3f, samples.get(0)[1], DELTA);
+    assertEquals(5.5f, samples.get(1)[0], DELTA);
+    assertEquals(1000 * MS + 7, (long) timestamps.get(1));
+  }
+
+  public void testBatchSize() throws Exception {
+    sampler.setBatchSize(3);
+    assertTrue(sampler.isBatching());
+    for (int i = 0; i < 7; i++) {
+      sampler.addSample(new float[] { i, 0, 0 }, 1000 * MS + i);
+    }
+    assertEquals(7, samples.size());
+    assertEquals(2, batches.size());
+
+    YailList batch = batches.get(1);
+    assertEquals(3, batch.size());
+    YailList sample = (YailList) batch.getObject(0);
+    assertEquals(4, sample.size());
+    assertEquals(3.0, (Double) sample.getObject(0), DELTA);
+    assertEquals(1000 * MS + 3, (long) (Long) sample.getObject(3));
+  }
+
+  public void testChangingPropertiesDiscardsPendingSamples() throws Exception {
+    sampler.setBatchSize(2);
+    sampler.setAveragingWindow(2);
+    sampler.addSample(new float[] { 1 }, 1000 * MS);
+    sampler.addSample(new float[] { 3 }, 1000 * MS + 1);
+    sampler.addSample(new float[] { 5 }, 1000 * MS + 2);
+    sampler.setAveragingWindow(1);
+    sampler.addSample(new float[] { 7 }, 1000 * MS + 3);
+    assertEquals(0, batches.size());
+    sampler.addSample(new float[] { 9 }, 1000 * MS + 4);
+    assertEquals(1, batches.size());
+    assertEquals(7.0, (Double) ((YailList) batches.get(0).getObject(0)).getObject(0), DELTA);
+  }
+}
@@ -0,0 +1,67 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import gnu.math.DFloNum;
+import gnu.math.IntNum;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests YailDictionary class.
+ *
+ */
+public class YailDictionaryTest extends TestCase {
+
+  public void testPutGetRemove() {
+    YailDictionary dictionary = new YailDictionary();
+    dictionary.put("apple", "red");
+    dictionary.put("banana", "yellow");
+    assertEquals("red", dictionary.get("apple", "none"));
+    assertEquals("none", dictionary.get("cherry", "none"));
+    dictionary.put("apple", "green");
+    assertEquals("green", dictionary.get("apple", "none"));
+    assertEquals(2, dictionary.size());
+    assertTrue(dictionary.remove("apple"));
+    assertFalse(dictionary.remove("apple"));
+    assertFalse(dictionary.containsKey("apple"));
+    assertEquals(1, dictionary.size());
+  }
+
+  public void testNumericKeysMatchByValue() {
+    YailDictionary dictionary = new YailDictionary();
+    dictionary.put(IntNum.make(1), "one");
+    assertEquals("one", dictionary.get(new DFloNum(1.0), null));
+    assertEquals("one", dictionary.get("01", null));
+    assertEquals("one", dictionary.get(" 1 ", null));
+    assertNull(dictionary.get("one", null));
+  }
+
+  public void testListKeys() {
+    YailDictionary dictionary = new YailDictionary();
+    dictionary.put(YailList.makeList(new Object[] { "a", IntNum.make(2) }), "value");
+    assertEquals("value", dictionary.get(YailList.makeList(new Object[] { "a", "2" }), null));
+    assertNull(dictionary.get(YailList.makeList(new Object[] { "a" }), null));
+  }
+
+  public void testMakeDictionaryKeepsFirstValue() {
+    YailList pairs = YailList.makeList(new Object[] {
+        YailList.makeList(new Object[] { "k", "first" }),
+        YailList.makeList(new Object[] { "k", "second" }),
+        YailList.makeList(new Object[] { "j", "other" }) });
+    YailDictionary dictionary = YailDictionary.makeDictionary(pairs);
+    assertEquals("first", dictionary.get("k", null));
+    assertEquals(2, dictionary.size());
+    assertEquals("[[\"k\",\"first\"],[\"j\",\"other\"]]", dictionary.toYailList().toJSONString());
+  }
+
+  public void testToJSONString() {
+    YailDictionary dictionary = new YailDictionary();
+    dictionary.put("name", "Kitty");
+    dictionary.put(IntNum.make(3), YailList.makeList(new Object[] { "a" }));
+    assertEquals("{\"name\":\"Kitty\",\"3\":[\"a\"]}", dictionary.toJSONString());
+  }
+}
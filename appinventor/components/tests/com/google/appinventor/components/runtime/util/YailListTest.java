@@ -7,6 +7,8 @@
 package com.google.appinventor.components.runtime.util;
 
 import gnu.lists.FString;
+import gnu.lists.LList;
+import gnu.lists.Pair;
 
 import junit.framework.TestCase;
 
@@ -203,4 +205,64 @@ public class YailListTest extends TestCase {
       // this is the intended behavior
     }
   }
+
+  public void testIndexedAccessAfterStructuralChange() {
+    YailList yailList = YailList.makeList(new String[] {"a", "b", "c"});
+    assertEquals("b", yailList.getString(1));
+    yailList.setObject(1, "x");
+    assertEquals("x", yailList.getString(1));
+
+    // Appending to the tail is detected without a notification.
+    Pair second = (Pair) ((Pair) yailList.getCdr()).getCdr();
+    ((Pair) second.getCdr()).setCdr(new Pair("d", LList.Empty));
+    assertEquals(4, yailList.size());
+    assertEquals("d", yailList.getString(3));
+
+    // Removing a pair in the middle requires contentsChanged().
+    ((Pair) yailList.getCdr()).setCdr(second.getCdr());
+    yailList.contentsChanged();
+    assertEquals(3, yailList.size());
+    assertEquals("c", yailList.getString(1));
+  }
+
+  public void testLookupPair() {
+    YailList first = YailList.makeList(new Object[] {"a", "1"});
+    YailList second = YailList.makeList(new Object[] {"b", "2"});
+    YailList pairs = YailList.makeList(new Object[] {first, second});
+    assertSame(second, pairs.lookupPair("b"));
+    assertNull(pairs.lookupPair("c"));
+    assertTrue(pairs.isListOfPairs());
+
+    // Changing the key of a pair in place is seen by later lookups.
+    second.setObject(0, "c");
+    assertSame(second, pairs.lookupPair("c"));
+    assertNull(pairs.lookupPair("b"));
+
+    // Elements after one that is not a pair are not searched.
+    pairs.setObject(0, "not a pair");
+    assertNull(pairs.lookupPair("c"));
+    assertFalse(pairs.isListOfPairs());
+  }
+
+  public void testLookupPairInSharedPair() {
+    YailList shared = YailList.makeList(new Object[] {"a", "1"});
+    YailList pairs1 = YailList.makeList(new Object[] {shared});
+    YailList pairs2 = YailList.makeList(new Object[] {YailList.makeList(new Object[] {"b", "2"}),
+        shared});
+    assertSame(shared, pairs1.lookupPair("a"));
+    assertSame(shared, pairs2.lookupPair("a"));
+
+    // A change to a pair is seen by every list that indexed it.
+    shared.setObject(0, "c");
+    assertSame(shared, pairs1.lookupPair("c"));
+    assertSame(shared, pairs2.lookupPair("c"));
+    assertNull(pairs1.lookupPair("a"));
+    assertNull(pairs2.lookupPair("a"));
+
+    // So is one that makes it no longer a pair.
+    shared.setCdr(LList.Empty);
+    assertFalse(pairs1.isListOfPairs());
+    assertFalse(pairs2.isListOfPairs());
+    assertNull(pairs2.lookupPair("c"));
+  }
 }